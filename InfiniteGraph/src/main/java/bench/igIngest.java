@@ -29,7 +29,8 @@ import com.infinitegraph.navigation.qualifiers.VertexTypes;
 
 import au.com.bytecode.opencsv.CSVReader;
 
-import bench.utils.Stopwatch;
+import bench.utils.NameDictionary;
+import bench.utils.LatencyRecorder;
 import bench.utils.CsvDataGenerator;
 
 /**
@@ -57,19 +58,25 @@ public class igIngest
  	* Runtime map, resolves topic strings to ooIds
  	*/
 
-	private static HashMap<String,Long> TOPICMAP;
+	private static NameDictionary TOPICMAP;
 
 	/**
 	* Runtime maps, resolves group strings to ooIds
 	*/
 
-	private static HashMap<String,Long> GROUPMAP;
+	private static NameDictionary GROUPMAP;
 
 	/**
  	* Runtime maps, resolves person strings ooIds
  	*/
 
-	private static HashMap<String,Long> PERSONMAP;
+	private static NameDictionary PERSONMAP;
+
+	/**
+	 * Latency histograms of the ingest
+	 */
+
+	public static final LatencyRecorder LATENCY = new LatencyRecorder();
 
 	/**
  	* Main method is used to load the InfiniteGraph database.
@@ -94,16 +101,16 @@ public class igIngest
 		//generateCsvData();
 
 		// Start timer
-		Stopwatch timer = new Stopwatch();
-		timer.start();
+		long start = System.nanoTime();
 
 		// Build graph
 		loadDataToGraph();
 
 		// Stop timer
-	    timer.stop();
-	    System.out.println("Ingested graph in: "+ timer.getElapsedTime() + " milliseconds.");
+		long elapsed = LATENCY.record("ingest", start);
+	    System.out.println("Ingested graph in: "+ LatencyRecorder.format(elapsed) + " milliseconds.");
 		System.out.println("Graph size: " + " nodes.");
+		LATENCY.export(PROPERTIES);
 	}
 
 	/**
@@ -202,7 +209,7 @@ public class igIngest
 		root.addEdge(topicsEdge, topicsNode, EdgeKind.BIDIRECTIONAL);				
 		ArrayList<String> topics = CsvDataGenerator.load(PROPERTIES.getProperty("TOPICS_PATH"), Integer.decode(PROPERTIES.getProperty("NUMBER_OF_TOPICS")));
 		Iterator<String> topicsItr = topics.iterator();
-		TOPICMAP = new HashMap<String,Long>();
+		TOPICMAP = new NameDictionary(topics.size(), isDictionaryOffHeap());
 		while (topicsItr.hasNext())
 		{
 			topic = topicsItr.next();
@@ -228,7 +235,7 @@ public class igIngest
 		root.addEdge(groupsEdge, groupsNode, EdgeKind.BIDIRECTIONAL);						
 		ArrayList<String> groups = CsvDataGenerator.load(PROPERTIES.getProperty("GROUPS_PATH"), Integer.decode(PROPERTIES.getProperty("NUMBER_OF_GROUPS")));
 		Iterator<String> groupsItr = groups.iterator();
-		GROUPMAP = new HashMap<String,Long>();
+		GROUPMAP = new NameDictionary(groups.size(), isDictionaryOffHeap());
 		while (groupsItr.hasNext())
 		{
 			group = groupsItr.next();
@@ -258,7 +265,7 @@ public class igIngest
 		ArrayList<String> groups = CsvDataGenerator.load(PROPERTIES.getProperty("GROUPS_PATH"), Integer.decode(PROPERTIES.getProperty("NUMBER_OF_GROUPS")));
 		ArrayList<String> topics = CsvDataGenerator.load(PROPERTIES.getProperty("TOPICS_PATH"), Integer.decode(PROPERTIES.getProperty("NUMBER_OF_TOPICS")));
 		Iterator<String> namesItr = names.iterator();
-		PERSONMAP = new HashMap<String,Long>();
+		PERSONMAP = new NameDictionary(names.size(), isDictionaryOffHeap());
 	 	while (namesItr.hasNext())
 		{
 			name = namesItr.next();
@@ -268,7 +275,7 @@ public class igIngest
 			PersonEdge personEdge = new PersonEdge();
 			peopleNode.addEdge(personEdge, personNode, EdgeKind.BIDIRECTIONAL);	
 			group = groups.get(random.nextInt(groups.size()));
-			long groupNodeId = GROUPMAP.get(group);
+			long groupNodeId = NameDictionary.resolve(GROUPMAP, group);
 			IsMemberOf memberOf = new IsMemberOf();
 			graphDB.addEdge(memberOf, personNodeId, groupNodeId, EdgeKind.BIDIRECTIONAL, (short)0);
 	    }
@@ -288,19 +295,19 @@ public class igIngest
 				// Who the person knows
 				if (column == 0)
 				{
-					personNodeId = PERSONMAP.get(row[column]);
+					personNodeId = NameDictionary.resolve(PERSONMAP, row[column]);
 					column++;
 				}
 				else if (column <= Integer.decode(PROPERTIES.getProperty("NUMBER_OF_PEOPLE_PER_PERSON")))
 				{
-					friendNodeId = PERSONMAP.get(row[column]);
+					friendNodeId = NameDictionary.resolve(PERSONMAP, row[column]);
 					Knows knows = new Knows(new String(row[column+Integer.decode(PROPERTIES.getProperty("NUMBER_OF_PEOPLE_PER_PERSON"))]));
                     graphDB.addEdge(knows, personNodeId, friendNodeId, EdgeKind.BIDIRECTIONAL, (short)random.nextInt(10));
 					column++;
 				}
 				else
 				{
-					topicNodeId = TOPICMAP.get(row[column]);
+					topicNodeId = NameDictionary.resolve(TOPICMAP, row[column]);
 					AssociatedTo assoc = new AssociatedTo();					
 					graphDB.addEdge(assoc, personNodeId, topicNodeId, EdgeKind.BIDIRECTIONAL, (short)random.nextInt(10));
 					topicWeight++;
@@ -309,6 +316,9 @@ public class igIngest
           	}
         }
        	csvReader.close();
+		System.out.println("Topic dictionary: " + TOPICMAP.describe());
+		System.out.println("Group dictionary: " + GROUPMAP.describe());
+		System.out.println("Person dictionary: " + PERSONMAP.describe());
 	}
 
 	/**
@@ -332,19 +342,19 @@ public class igIngest
 			documentNodeId = graphDB.addVertex(doc);
 	        for (int j = 0; j < Integer.decode(PROPERTIES.getProperty("NUMBER_OF_AUTHORS")); j++)
 	        {
-				personNodeId = PERSONMAP.get(names.get(random.nextInt(names.size())));
+				personNodeId = NameDictionary.resolve(PERSONMAP, names.get(random.nextInt(names.size())));
 				Authors auth = new Authors();					
 				graphDB.addEdge(auth, personNodeId, documentNodeId, EdgeKind.BIDIRECTIONAL, (short)random.nextInt(10));
 	        }
 	        for (int k = 0; k < Integer.decode(PROPERTIES.getProperty("NUMBER_OF_VIEWERS")); k++)
 	        {
-				personNodeId = PERSONMAP.get(names.get(random.nextInt(names.size())));
+				personNodeId = NameDictionary.resolve(PERSONMAP, names.get(random.nextInt(names.size())));
 				Views views = new Views();					
 				graphDB.addEdge(views, personNodeId, documentNodeId, EdgeKind.BIDIRECTIONAL, (short)random.nextInt(10));
 	        }
 	        for (int l = 0; l < Integer.decode(PROPERTIES.getProperty("NUMBER_OF_TOPICS_PER_DOCUMENT")); l++)
 	        {
-				topicNodeId = TOPICMAP.get(topics.get(random.nextInt(topics.size())));
+				topicNodeId = NameDictionary.resolve(TOPICMAP, topics.get(random.nextInt(topics.size())));
 				Has has = new Has();					
 				graphDB.addEdge(has, topicNodeId, documentNodeId, EdgeKind.BIDIRECTIONAL, (short)random.nextInt(10));
 	        }
@@ -355,12 +365,12 @@ public class igIngest
      * Builds a map that holds string to nodeID connections
      * @param type the type of map to return; either person or topic
      * @param GraphDabase
-     * @return a HashMap of strings to nodeIds
+     * @return a dictionary of strings to nodeIds
 	 */
 
-	private static HashMap<String,Long> getMap(String type, GraphDatabase graphDB)
+	private static NameDictionary getMap(String type, GraphDatabase graphDB)
 	{
-		HashMap<String,Long> map = new HashMap<String,Long>();
+		NameDictionary map = new NameDictionary(1024, isDictionaryOffHeap());
 		Root referenceNode = (Root)graphDB.getNamedVertex("root");
 		
 		if (type.equals("topic"))
@@ -390,6 +400,15 @@ public class igIngest
 		return map;
 	}
 
+	/**
+	 * Whether the name dictionaries keep their storage off the java heap
+	 */
+
+	private static boolean isDictionaryOffHeap()
+	{
+		return Boolean.parseBoolean(PROPERTIES.getProperty("DICTIONARY_OFF_HEAP", "false").trim());
+	}
+
 	/**
 	 * Method to create document nodes in the graph database
 	 */
@@ -0,0 +1,401 @@
+package bench.utils;
+
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Compact dictionary that resolves names to node ids. Keys are packed as
+ * length prefixed UTF-8 bytes into a single buffer and values are kept as
+ * primitive longs, so an entry costs its key bytes plus about 28 bytes
+ * instead of a boxed HashMap entry. The buffers can be allocated off-heap.
+ * Lookups may run concurrently once the dictionary is no longer written to.
+ */
+
+public class NameDictionary implements NameLookup
+{
+
+	/**
+	 * Returned by the lookup methods when a name is not in the dictionary
+	 */
+
+	public static final long NO_ID = -1;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final boolean offHeap;
+
+	// Packed keys: [2 byte length][UTF-8 bytes] per entry
+	private ByteBuffer keys;
+	private int keysSize;
+
+	// Per entry columns, indexed by insertion order
+	private IntBuffer offsets;
+	private IntBuffer hashes;
+	private LongBuffer values;
+	private int size;
+
+	// Open addressing table of entry index + 1, zero marks an empty slot
+	private IntBuffer table;
+	private int mask;
+
+	public NameDictionary()
+	{
+		this(1024, false);
+	}
+
+	public NameDictionary(final int expectedSize, final boolean offHeap)
+	{
+		this.offHeap = offHeap;
+		int entries = Math.max(16, expectedSize);
+		int slots = Integer.highestOneBit(entries * 2 - 1) << 1;
+		this.keys = allocate(entries * 16);
+		this.offsets = allocateInts(entries);
+		this.hashes = allocateInts(entries);
+		this.values = allocateLongs(entries);
+		this.table = allocateInts(slots);
+		this.mask = slots - 1;
+	}
+
+	/**
+	 * Adds a name, replacing the node id if the name is already present
+	 */
+
+	public void put(final String name, final long id)
+	{
+		byte[] bytes = name.getBytes(UTF8);
+		put(bytes, 0, bytes.length, id);
+	}
+
+	public void put(final byte[] name, final int offset, final int length, final long id)
+	{
+		if (length > 0xFFFF)
+		{
+			throw new IllegalArgumentException("Name longer than 65535 bytes.");
+		}
+		int hash = hash(name, offset, length);
+		int slot = hash & mask;
+		int entry;
+		while ((entry = table.get(slot)) != 0)
+		{
+			if (hashes.get(entry - 1) == hash && keyEquals(entry - 1, name, offset, length))
+			{
+				values.put(entry - 1, id);
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		// New entry
+		ensureEntryCapacity(size + 1);
+		ensureKeyCapacity(keysSize + 2 + length);
+		keys.putShort(keysSize, (short) length);
+		for (int i = 0; i < length; i++)
+		{
+			keys.put(keysSize + 2 + i, name[offset + i]);
+		}
+		offsets.put(size, keysSize);
+		hashes.put(size, hash);
+		values.put(size, id);
+		keysSize += 2 + length;
+		size++;
+		table.put(slot, size);
+		if (size * 2 > table.capacity())
+		{
+			rehash(table.capacity() * 2);
+		}
+	}
+
+	/**
+	 * Resolves a name to its node id
+	 * @return the node id, or NO_ID if the name is unknown
+	 */
+
+	public long get(final String name)
+	{
+		byte[] bytes = name.getBytes(UTF8);
+		return get(bytes, 0, bytes.length);
+	}
+
+	public long get(final byte[] name, final int offset, final int length)
+	{
+		int hash = hash(name, offset, length);
+		int slot = hash & mask;
+		int entry;
+		while ((entry = table.get(slot)) != 0)
+		{
+			if (hashes.get(entry - 1) == hash && keyEquals(entry - 1, name, offset, length))
+			{
+				return values.get(entry - 1);
+			}
+			slot = (slot + 1) & mask;
+		}
+		return NO_ID;
+	}
+
+	/**
+	 * Resolves a name held as raw UTF-8 bytes in a buffer, without decoding it
+	 * @return the node id, or NO_ID if the name is unknown
+	 */
+
+	public long get(final ByteBuffer name, final int offset, final int length)
+	{
+		int hash = hash(name, offset, length);
+		int slot = hash & mask;
+		int entry;
+		while ((entry = table.get(slot)) != 0)
+		{
+			if (hashes.get(entry - 1) == hash && keyEquals(entry - 1, name, offset, length))
+			{
+				return values.get(entry - 1);
+			}
+			slot = (slot + 1) & mask;
+		}
+		return NO_ID;
+	}
+
+	/**
+	 * Resolves a name that must be in a dictionary, for callers that go on to use
+	 * the node id
+	 * @throws IllegalArgumentException if the name is unknown
+	 */
+
+	public static long resolve(final NameLookup dictionary, final String name)
+	{
+		long id = dictionary.get(name);
+		if (id == NO_ID)
+		{
+			throw new IllegalArgumentException(name + " is not in the dictionary");
+		}
+		return id;
+	}
+
+	public boolean containsKey(final String name)
+	{
+		return get(name) != NO_ID;
+	}
+
+	/**
+	 * Node id of the entry at the given insertion index, from 0 to size() - 1
+	 */
+
+	public long valueAt(final int entry)
+	{
+		if (entry < 0 || entry >= size)
+		{
+			throw new IndexOutOfBoundsException("Entry " + entry + " of " + size);
+		}
+		return values.get(entry);
+	}
+
+	/**
+	 * Name of the entry at the given insertion index, from 0 to size() - 1
+	 */
+
+	public String keyAt(final int entry)
+	{
+		if (entry < 0 || entry >= size)
+		{
+			throw new IndexOutOfBoundsException("Entry " + entry + " of " + size);
+		}
+		int keyOffset = offsets.get(entry);
+		byte[] bytes = new byte[keys.getShort(keyOffset) & 0xFFFF];
+		for (int i = 0; i < bytes.length; i++)
+		{
+			bytes[i] = keys.get(keyOffset + 2 + i);
+		}
+		return new String(bytes, UTF8);
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	public boolean isOffHeap()
+	{
+		return offHeap;
+	}
+
+	/**
+	 * Bytes reserved by the dictionary buffers, on or off the heap
+	 */
+
+	public long memoryFootprint()
+	{
+		return (long) keys.capacity()
+			+ 4L * offsets.capacity()
+			+ 4L * hashes.capacity()
+			+ 8L * values.capacity()
+			+ 4L * table.capacity();
+	}
+
+	/**
+	 * Summary of size and footprint for logging
+	 */
+
+	public String describe()
+	{
+		return size + " names in " + memoryFootprint() + " bytes (" + (offHeap ? "off-heap" : "heap") + ")";
+	}
+
+	private boolean keyEquals(final int entry, final byte[] name, final int offset, final int length)
+	{
+		int keyOffset = offsets.get(entry);
+		if ((keys.getShort(keyOffset) & 0xFFFF) != length)
+		{
+			return false;
+		}
+		keyOffset += 2;
+		for (int i = 0; i < length; i++)
+		{
+			if (keys.get(keyOffset + i) != name[offset + i])
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean keyEquals(final int entry, final ByteBuffer name, final int offset, final int length)
+	{
+		int keyOffset = offsets.get(entry);
+		if ((keys.getShort(keyOffset) & 0xFFFF) != length)
+		{
+			return false;
+		}
+		keyOffset += 2;
+		for (int i = 0; i < length; i++)
+		{
+			if (keys.get(keyOffset + i) != name.get(offset + i))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// FNV-1a followed by a murmur finalizer so that the low bits spread well
+	private static int hash(final byte[] name, final int offset, final int length)
+	{
+		int h = 0x811C9DC5;
+		for (int i = 0; i < length; i++)
+		{
+			h = (h ^ (name[offset + i] & 0xFF)) * 0x01000193;
+		}
+		return mix(h);
+	}
+
+	private static int hash(final ByteBuffer name, final int offset, final int length)
+	{
+		int h = 0x811C9DC5;
+		for (int i = 0; i < length; i++)
+		{
+			h = (h ^ (name.get(offset + i) & 0xFF)) * 0x01000193;
+		}
+		return mix(h);
+	}
+
+	private static int mix(int h)
+	{
+		h ^= h >>> 16;
+		h *= 0x85EBCA6B;
+		h ^= h >>> 13;
+		h *= 0xC2B2AE35;
+		h ^= h >>> 16;
+		return h;
+	}
+
+	private void rehash(final int slots)
+	{
+		table = allocateInts(slots);
+		mask = slots - 1;
+		for (int entry = 0; entry < size; entry++)
+		{
+			int slot = hashes.get(entry) & mask;
+			while (table.get(slot) != 0)
+			{
+				slot = (slot + 1) & mask;
+			}
+			table.put(slot, entry + 1);
+		}
+	}
+
+	private void ensureEntryCapacity(final int entries)
+	{
+		if (entries <= values.capacity())
+		{
+			return;
+		}
+		int capacity = grow(values.capacity(), entries);
+		IntBuffer grownOffsets = allocateInts(capacity);
+		IntBuffer grownHashes = allocateInts(capacity);
+		LongBuffer grownValues = allocateLongs(capacity);
+		for (int i = 0; i < size; i++)
+		{
+			grownOffsets.put(i, offsets.get(i));
+			grownHashes.put(i, hashes.get(i));
+			grownValues.put(i, values.get(i));
+		}
+		offsets = grownOffsets;
+		hashes = grownHashes;
+		values = grownValues;
+	}
+
+	private void ensureKeyCapacity(final int bytes)
+	{
+		if (bytes <= keys.capacity())
+		{
+			return;
+		}
+		ByteBuffer grown = allocate(grow(keys.capacity(), bytes));
+		ByteBuffer source = keys.duplicate();
+		source.clear();
+		source.limit(keysSize);
+		grown.put(source);
+		keys = grown;
+	}
+
+	private static int grow(final int current, final int required)
+	{
+		long capacity = Math.max((long) current * 2, required);
+		if (capacity > Integer.MAX_VALUE - 8)
+		{
+			if (required > Integer.MAX_VALUE - 8)
+			{
+				throw new IllegalStateException("Name dictionary exceeds 2GB of key storage.");
+			}
+			capacity = Integer.MAX_VALUE - 8;
+		}
+		return (int) capacity;
+	}
+
+	private ByteBuffer allocate(final int bytes)
+	{
+		ByteBuffer buffer = offHeap ? ByteBuffer.allocateDirect(bytes) : ByteBuffer.allocate(bytes);
+		return buffer.order(ByteOrder.nativeOrder());
+	}
+
+	private IntBuffer allocateInts(final int count)
+	{
+		return offHeap ? allocate(directBytes(count, 4)).asIntBuffer() : IntBuffer.allocate(count);
+	}
+
+	private LongBuffer allocateLongs(final int count)
+	{
+		return offHeap ? allocate(directBytes(count, 8)).asLongBuffer() : LongBuffer.allocate(count);
+	}
+
+	private static int directBytes(final int count, final int width)
+	{
+		long bytes = (long) count * width;
+		if (bytes > Integer.MAX_VALUE)
+		{
+			throw new IllegalStateException("Name dictionary column exceeds 2GB off-heap.");
+		}
+		return (int) bytes;
+	}
+
+}
@@ -0,0 +1,391 @@
+package bench;
+
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.OutputStream;
+
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.GraphDatabaseService;
+
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+
+import bench.utils.NameLookup;
+import bench.utils.NameDictionary;
+
+/**
+ * JMH benchmarks for the 23 NeoQuery queries. Each trial generates the fixture
+ * people CSV from a fixed seed, ingests it with Neo4jIngest and opens the graph,
+ * so every fork measures the same graph after warm-up. The queries print their
+ * own timing lines; that output is discarded while measuring.
+ *
+ * Run with: java -jar target/benchmarks.jar [-p person=NAME -p topic=TOPIC -p knowsTopic=name|id]
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xms1g", "-Xmx2g"})
+public class QueryBenchmark
+{
+
+	/**
+	 * Person queried, by name
+	 */
+
+	@Param({"MARY SMITH", "CONSTANCE MUNOZ"})
+	public String person;
+
+	/**
+	 * Topic queried, by name. Queries that filter knows relationships by topic only
+	 * find people if the topic is one of the person's or their friends' topics.
+	 */
+
+	@Param({"fetishist"})
+	public String topic;
+
+	/**
+	 * When true, queries that have a JSON variant also run it, like NeoQuery.main()
+	 */
+
+	@Param({"false"})
+	public boolean json;
+
+	/**
+	 * How the fixture ingest stores KNOWS topics, as KNOWS_TOPIC: the topic name
+	 * or the int topic node id, to compare query latency between the two
+	 */
+
+	@Param({"name", "id"})
+	public String knowsTopic;
+
+	private GraphDatabaseService neo;
+	private Node personNode;
+	private Node topicNode;
+	private GraphSnapshot snapshot;
+	private int snapshotPerson;
+	private int weight;
+	private int breadth;
+	private PrintStream console;
+
+	@Setup(Level.Trial)
+	public void buildFixture() throws IOException
+	{
+		Properties properties = new Properties();
+		InputStream in = QueryBenchmark.class.getResourceAsStream("/benchmark.properties");
+		try
+		{
+			properties.load(in);
+		}
+		finally
+		{
+			in.close();
+		}
+
+		// Generate and ingest into an empty fixture directory
+		File fixture = new File(properties.getProperty("FIXTURE_PATH").trim());
+		delete(fixture);
+		if (!fixture.mkdirs())
+		{
+			throw new IOException("Cannot create fixture directory " + fixture);
+		}
+		properties.setProperty("KNOWS_TOPIC", knowsTopic);
+		Neo4jIngest.ingest(properties);
+
+		// Open the graph and resolve the query parameters
+		NeoQuery.setProperties(properties);
+		neo = new EmbeddedGraphDatabase(properties.getProperty("GRAPHDB_PATH").trim());
+		NeoQuery.loadDictionaries(neo);
+		NameLookup people = NeoQuery.getPersonMap();
+		NameLookup topics = NeoQuery.getTopicMap();
+		if (!people.containsKey(person) || !topics.containsKey(topic))
+		{
+			neo.shutdown();
+			throw new IllegalArgumentException("Person " + person + " or topic " + topic + " is not in the fixture graph.");
+		}
+		personNode = neo.getNodeById(NameDictionary.resolve(people, person));
+		topicNode = neo.getNodeById(NameDictionary.resolve(topics, topic));
+		weight = Integer.decode(properties.getProperty("WEIGHT").trim());
+		breadth = Integer.decode(properties.getProperty("BREADTH").trim());
+		snapshot = NeoQuery.loadSnapshot(neo);
+		snapshotPerson = snapshot.personIndex(personNode.getId());
+
+		// Silence the per query console output from here on
+		console = System.out;
+		System.setOut(new PrintStream(new OutputStream()
+		{
+			public void write(int b) {}
+			public void write(byte[] b, int off, int len) {}
+		}));
+	}
+
+	@TearDown(Level.Trial)
+	public void closeFixture()
+	{
+		System.setOut(console);
+		neo.shutdown();
+	}
+
+	// Query 1: Find all people associated with a topic.
+	@Benchmark
+	public List<Node> query01PeopleOnTopic() throws IOException
+	{
+		List<Node> people = NeoQuery.findPeopleOnTopic(topicNode);
+		if (json)
+		{
+			NeoQuery.findPeopleOnTopicJSON(topicNode);
+		}
+		return people;
+	}
+
+	// Query 2: Find all people associated with the topic with some weight.
+	@Benchmark
+	public List<Node> query02PeopleOnTopicFilterByWeight() throws IOException
+	{
+		List<Node> people = NeoQuery.findPeopleOnTopicFilterByWeight(topicNode, weight);
+		if (json)
+		{
+			NeoQuery.findPeopleOnTopicFilterByWeightJSON(topicNode, weight);
+		}
+		return people;
+	}
+
+	// Query 3: Find people associated to the person on the topic
+	@Benchmark
+	public List<Node> query03PeopleAssociatedToTheTopicOfAPerson() throws IOException
+	{
+		List<Node> people = NeoQuery.findPeopleAssociatedToTheTopicOfAPerson(personNode, topicNode);
+		if (json)
+		{
+			NeoQuery.findPeopleAssociatedToTheTopicOfAPersonJSON(personNode, topicNode);
+		}
+		return people;
+	}
+
+	// Query 4: Find the people the person knows on this topic.
+	@Benchmark
+	public List<Node> query04PeopleThatKnowAPersonByATopic() throws IOException
+	{
+		List<Node> people = NeoQuery.findPeopleThatKnowAPersonByATopic(personNode, topic);
+		if (json)
+		{
+			NeoQuery.findPeopleThatKnowAPersonByATopicJSON(personNode, topic);
+		}
+		return people;
+	}
+
+	// Query 5: Find the people the person knows (1st level).
+	@Benchmark
+	public List<Node> query05PeopleThatKnowAPerson() throws IOException
+	{
+		List<Node> people = NeoQuery.findPeopleThatKnowAPerson(personNode);
+		if (json)
+		{
+			NeoQuery.findPeopleThatKnowAPersonJSON(personNode);
+		}
+		return people;
+	}
+
+	// Query 6: Find the people the person may know (2nd level).
+	@Benchmark
+	public List<Node> query06PeopleThatMayKnowAPerson() throws IOException
+	{
+		List<Node> people = NeoQuery.findPeopleThatMayKnowAPerson(personNode);
+		if (json)
+		{
+			NeoQuery.findPeopleThatMayKnowAPersonJSON(personNode);
+		}
+		return people;
+	}
+
+	// Query 7: Find the people the person knows on this topic and display group
+	@Benchmark
+	public List<Node> query07PeopleThatKnowAPersonByATopicWithGroups()
+	{
+		List<Node> people = NeoQuery.findPeopleThatKnowAPersonByATopic(personNode, topic);
+		NeoQuery.printNodeListWithAttribute(people);
+		return people;
+	}
+
+	// Query 8: Find people associated to the person on the topic and display group
+	@Benchmark
+	public List<Node> query08PeopleAssociatedToTheTopicOfAPersonWithGroups()
+	{
+		List<Node> people = NeoQuery.findPeopleAssociatedToTheTopicOfAPerson(personNode, topicNode);
+		if (people != null)
+		{
+			NeoQuery.printNodeListWithAttribute(people);
+		}
+		return people;
+	}
+
+	// Query 9: Find a person's groups
+	@Benchmark
+	public List<Node> query09Groups() throws IOException
+	{
+		List<Node> groups = NeoQuery.findGroups(personNode);
+		if (json)
+		{
+			NeoQuery.findGroupsJSON(personNode);
+		}
+		return groups;
+	}
+
+	// Query 10: Find the people the person may know (n levels).
+	@Benchmark
+	public List<Node> query10PeopleThatMayKnowAPersonToLevel() throws IOException
+	{
+		List<Node> people = NeoQuery.findPeopleThatMayKnowAPerson(personNode, 2);
+		if (json)
+		{
+			NeoQuery.findPeopleThatMayKnowAPersonJSON(personNode, 2);
+		}
+		return people;
+	}
+
+	// Query 11: Find the people the person may know (2 levels hard coded).
+	@Benchmark
+	public List<List<Node>> query11PeopleThatKnowAPersonAndFriends()
+	{
+		return NeoQuery.findPeopleThatKnowAPersonAndFriends(personNode);
+	}
+
+	// Query 12: Find the people the person may know (2 levels) then create JSON file with the information.
+	@Benchmark
+	public void query12PeopleThatKnowAPersonAndFriendsJSON() throws IOException
+	{
+		NeoQuery.findPeopleThatKnowAPersonAndFriendsJSON(personNode);
+	}
+
+	// Query 13: Find the people the person may know (2 levels hard coded w/ breadth limiter).
+	@Benchmark
+	public List<List<Node>> query13PeopleThatKnowAPersonAndFriendsByBreadth() throws IOException
+	{
+		List<List<Node>> friends = NeoQuery.findPeopleThatKnowAPersonAndFriends(personNode, breadth);
+		if (json)
+		{
+			NeoQuery.findPeopleThatKnowAPersonAndFriendsJSON(personNode, breadth);
+		}
+		return friends;
+	}
+
+	// Query 14: Find the number of incoming edges of a person over a topic
+	@Benchmark
+	public int query14NumberOfIncomingEdges()
+	{
+		return NeoQuery.findNumberOfIncomingEdges(personNode, topic);
+	}
+
+	// Query 15: Find the number of outgoing edges of a person over a topic
+	@Benchmark
+	public int query15NumberOfOutgoingEdges()
+	{
+		return NeoQuery.findNumberOfOutgoingEdges(personNode, topic);
+	}
+
+	// Query 16: Update a person's topic weight using outgoing edge count
+	@Benchmark
+	public int query16UpdateTopicWeight()
+	{
+		Transaction tx = neo.beginTx();
+		try
+		{
+			int count = NeoQuery.findNumberOfOutgoingEdges(personNode, topic);
+			NeoQuery.updateTopicWeight(personNode, topic, count);
+			tx.success();
+			return count;
+		}
+		finally
+		{
+			tx.finish();
+		}
+	}
+
+	// Query 17: Calculate betweeness centrality using Breadth First Search
+	@Benchmark
+	public double query17BetweenessCentralityBFS()
+	{
+		return NeoQuery.findBetweenessCentralityBFS(personNode, topic);
+	}
+
+	// Query 18: Calculate shortest path using Dijkstra
+	@Benchmark
+	public void query18DijkstraShortestPath()
+	{
+		NeoQuery.findDijkstraShortestPath(personNode, topic);
+	}
+
+	// Query 19: Calculate shortest paths using Floyd-Warshall
+	@Benchmark
+	public void query19FloydWarshallShortestPath()
+	{
+		NeoQuery.findFloydWarshallShortestPath(personNode, topicNode);
+	}
+
+	// Query 20: Calculate Eigenvector Centrality with the "Arnoldi iteration"
+	@Benchmark
+	public double query20EigenvectorCentralityArnoldi()
+	{
+		return NeoQuery.findEigenvectorCentralityArnoldi(personNode, topicNode);
+	}
+
+	// Query 21: Calculate Eigenvector Centrality with the "Power method"
+	@Benchmark
+	public double query21EigenvectorCentralityPower()
+	{
+		return NeoQuery.findEigenvectorCentralityPower(personNode, topicNode);
+	}
+
+	// Query 22: Calculate shortest paths using BFS
+	@Benchmark
+	public void query22BreadthFirstShortestPath()
+	{
+		NeoQuery.findBreadthFirstShortestPath(personNode, topic);
+	}
+
+	// Query 23: Find the people the person may know (3 levels) with a direction-optimizing BFS
+	@Benchmark
+	public int[] query23PeopleThatMayKnowAPersonDirectionOptimizing()
+	{
+		return SnapshotQuery.findPeopleThatMayKnowAPersonDirectionOptimizing(snapshot, snapshotPerson, 3, DirectionOptimizingBfs.DEFAULT_ALPHA, DirectionOptimizingBfs.DEFAULT_BETA);
+	}
+
+	private static void delete(final File file) throws IOException
+	{
+		File[] children = file.listFiles();
+		if (children != null)
+		{
+			for (File child : children)
+			{
+				delete(child);
+			}
+		}
+		if (file.exists() && !file.delete())
+		{
+			throw new IOException("Cannot delete " + file);
+		}
+	}
+
+}
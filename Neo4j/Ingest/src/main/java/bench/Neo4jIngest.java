@@ -13,6 +13,7 @@ import java.util.Iterator;
 import java.util.ArrayList;
 import java.util.Properties;
 
+import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 
@@ -31,8 +32,15 @@ import org.neo4j.kernel.EmbeddedGraphDatabase;
 import org.neo4j.kernel.impl.batchinsert.BatchInserter;
 import org.neo4j.kernel.impl.batchinsert.BatchInserterImpl;
 
-import bench.utils.Stopwatch;
+import bench.utils.NameDictionary;
+import bench.utils.TopicEdgeIndex;
+import bench.utils.TopicEdgeCounts;
+import bench.utils.LatencyRecorder;
+import bench.utils.MappedCsvReader;
 import bench.utils.CsvDataGenerator;
+import bench.utils.MappedNameDictionary;
+import bench.utils.DegreeDistribution;
+import bench.utils.PartitionedDataGenerator;
 
 /**
  * This class is used to load the Neo4j Graph database.
@@ -59,19 +67,31 @@ public class Neo4jIngest
  	* Runtime map, resolves topic strings to nodeIds
  	*/
 
-	private static HashMap<String,Long> TOPICMAP;
+	private static NameDictionary TOPICMAP;
 
 	/**
 	* Runtime maps, resolves group strings to nodeIds
 	*/
 
-	private static HashMap<String,Long> GROUPMAP;
+	private static NameDictionary GROUPMAP;
 
 	/**
  	* Runtime maps, resolves person strings to nodeIds
  	*/
 
-	private static HashMap<String,Long> PERSONMAP;
+	private static NameDictionary PERSONMAP;
+
+	/**
+	 * Whether KNOWS relationships hold their topic as the topic node id (KNOWS_TOPIC = id)
+	 */
+
+	private static boolean KNOWS_TOPIC_IDS;
+
+	/**
+	 * Latency histograms of the ingest phases
+	 */
+
+	public static final LatencyRecorder LATENCY = new LatencyRecorder();
 
 	/**
  	* Main method is used to load the Neo4J Graph database.
@@ -92,20 +112,38 @@ public class Neo4jIngest
 		System.out.println("Number of documents = " + PROPERTIES.getProperty("NUMBER_OF_DOCUMENTS"));
 		System.out.println("Number of topics per person = " + PROPERTIES.getProperty("NUMBER_OF_TOPICS_PER_PERSON"));
 
+		ingest(PROPERTIES);
+	}
+
+	/**
+	 * Generates the CSV data if configured and loads it into the graph database.
+	 * Used by main() and by callers that build a graph from their own properties.
+	 * @param properties configuration properties, including the neostore settings
+	 */
+
+	public static void ingest(final Properties properties) throws IOException
+	{
+		PROPERTIES = properties;
+		KNOWS_TOPIC_IDS = "id".equals(PROPERTIES.getProperty("KNOWS_TOPIC", "name").trim());
+
 		// Generate synthetic CSV data
-		//generateCsvData();
+		if (Boolean.parseBoolean(PROPERTIES.getProperty("GENERATE_DATA", "false").trim()))
+		{
+			generateCsvData();
+		}
 
 		// Start timer
-		Stopwatch timer = new Stopwatch();
-		timer.start();
+		long start = System.nanoTime();
 
 		// Build graph
 		loadDataToGraph();
 		
 		// Stop timer
-	    timer.stop();
-	    System.out.println("Ingested graph in: "+ timer.getElapsedTime() + " milliseconds.");
+		long elapsed = LATENCY.record("ingest", start);
+	    System.out.println("Ingested graph in: "+ LatencyRecorder.format(elapsed) + " milliseconds.");
+		reportStoreSize();
 		System.out.println("Graph size: " + " nodes.");
+		LATENCY.export(PROPERTIES);
 	}
 
 	/**
@@ -116,105 +154,288 @@ public class Neo4jIngest
 
 	private static void loadDataToGraph() throws IOException
     {
-		createTopicNodes();
-		createGroupNodes();
-		createPeopleNodes();
-		createDocumentNodes();
+		if ("streaming".equals(PROPERTIES.getProperty("INGEST_MODE", "phased").trim()))
+		{
+			loadDataToGraphStreaming();
+			return;
+		}
+
+		// Phased mode opens and shuts down an inserter around every node type
+		BatchInserter neo = openBatchInserter();
+		createTopicNodes(neo);
+		neo.shutdown();
+		neo = openBatchInserter();
+		createGroupNodes(neo);
+		neo.shutdown();
+		neo = openBatchInserter();
+		createPeopleNodes(neo);
+		neo.shutdown();
+		neo = openBatchInserter();
+		createDocumentNodes(neo);
+		neo.shutdown();
+    }
+
+	/**
+	 * Method to load the various node types through a single batch inserter.
+	 * The store files are opened once and flushed once at the end of the load,
+	 * instead of once per node type. Each phase is timed separately.
+	 */
+
+	private static void loadDataToGraphStreaming() throws IOException
+    {
+		long start = System.nanoTime();
+		BatchInserter neo = openBatchInserter();
+		System.out.println("Opened batch inserter in: " + LatencyRecorder.format(LATENCY.record("open", start)) + " milliseconds.");
+		try
+		{
+			start = System.nanoTime();
+			createTopicNodes(neo);
+			System.out.println("Ingested topics in: " + LatencyRecorder.format(LATENCY.record("topics", start)) + " milliseconds.");
+
+			start = System.nanoTime();
+			createGroupNodes(neo);
+			System.out.println("Ingested groups in: " + LatencyRecorder.format(LATENCY.record("groups", start)) + " milliseconds.");
+
+			start = System.nanoTime();
+			createPeopleNodes(neo);
+			System.out.println("Ingested people in: " + LatencyRecorder.format(LATENCY.record("people", start)) + " milliseconds.");
+
+			start = System.nanoTime();
+			createDocumentNodes(neo);
+			System.out.println("Ingested documents in: " + LatencyRecorder.format(LATENCY.record("documents", start)) + " milliseconds.");
+		}
+		finally
+		{
+			start = System.nanoTime();
+			neo.shutdown();
+			System.out.println("Flushed and closed batch inserter in: " + LatencyRecorder.format(LATENCY.record("shutdown", start)) + " milliseconds.");
+		}
     }
 
+	/**
+	 * Opens a batch inserter on the configured graph database path
+	 */
+
+	private static BatchInserter openBatchInserter()
+	{
+		// Store settings come from the loaded properties, not the working directory
+		Map<String,String> config = new HashMap<String,String>();
+		for (String key : PROPERTIES.stringPropertyNames())
+		{
+			config.put(key, PROPERTIES.getProperty(key).trim());
+		}
+		return new BatchInserterImpl(PROPERTIES.getProperty("GRAPHDB_PATH"), config);
+	}
+
 	/**
 	 * Method to create topic nodes in the graph database
 	 */
 
-	private static void createTopicNodes() throws IOException
+	private static void createTopicNodes(BatchInserter neo) throws IOException
     {
 		String topic;
 		long topicNodeId, topicNodesId, referenceNodeId = 0;
-		BatchInserter neo = new BatchInserterImpl(PROPERTIES.getProperty("GRAPHDB_PATH"), BatchInserterImpl.loadProperties("configuration.properties"));
 		Map<String,Object> properties = new HashMap<String,Object>();
 		properties.put("type", "topics");
 		topicNodesId = neo.createNode(properties);
 		neo.createRelationship(referenceNodeId, topicNodesId, Neo4jRelationshipTypes.TOPICS, null);
-		ArrayList<String> topics = CsvDataGenerator.load(PROPERTIES.getProperty("TOPICS_PATH"), Integer.decode(PROPERTIES.getProperty("NUMBER_OF_TOPICS")));
+		ArrayList<String> topics = loadLines(PROPERTIES.getProperty("TOPICS_PATH"), Integer.decode(PROPERTIES.getProperty("NUMBER_OF_TOPICS")));
 		Iterator<String> topicsItr = topics.iterator();
-		TOPICMAP = new HashMap<String,Long>();
+		TOPICMAP = new NameDictionary(topics.size(), isDictionaryOffHeap());
 		while (topicsItr.hasNext())
 		{
 			topic = topicsItr.next();
 			properties = new HashMap<String,Object>();
 			properties.put("topic", topic);
 			topicNodeId = neo.createNode(properties);
-			TOPICMAP.put(topic, new Long(topicNodeId));
+			TOPICMAP.put(topic, topicNodeId);
 			neo.createRelationship(topicNodesId, topicNodeId, Neo4jRelationshipTypes.TOPIC, null);
 	    }
-		neo.shutdown();
+		writeNames(TOPICMAP, "TOPIC_NAMES_PATH", "Topic");
 	}
 
 	/**
 	 * Method to create group nodes in the graph database
 	 */
 
-	private static void createGroupNodes() throws IOException
+	private static void createGroupNodes(BatchInserter neo) throws IOException
     {
 		String group;
 		long groupNodeId, groupNodesId, referenceNodeId = 0;
-		BatchInserter neo = new BatchInserterImpl(PROPERTIES.getProperty("GRAPHDB_PATH"), BatchInserterImpl.loadProperties("configuration.properties"));
 		Map<String,Object> properties = new HashMap<String,Object>();
 		properties.put("type", "groups");
 		groupNodesId = neo.createNode(properties);
 		neo.createRelationship(referenceNodeId, groupNodesId, Neo4jRelationshipTypes.GROUPS, null);
-		ArrayList<String> groups = CsvDataGenerator.load(PROPERTIES.getProperty("GROUPS_PATH"), Integer.decode(PROPERTIES.getProperty("NUMBER_OF_GROUPS")));
+		ArrayList<String> groups = loadLines(PROPERTIES.getProperty("GROUPS_PATH"), Integer.decode(PROPERTIES.getProperty("NUMBER_OF_GROUPS")));
 		Iterator<String> groupsItr = groups.iterator();
-		GROUPMAP = new HashMap<String,Long>();
+		GROUPMAP = new NameDictionary(groups.size(), isDictionaryOffHeap());
 		while (groupsItr.hasNext())
 		{
 			group = groupsItr.next();
 			properties = new HashMap<String,Object>();
 			properties.put("name", group);
 			groupNodeId = neo.createNode(properties);
-			GROUPMAP.put(group, new Long(groupNodeId));
+			GROUPMAP.put(group, groupNodeId);
 			neo.createRelationship(groupNodesId, groupNodeId, Neo4jRelationshipTypes.GROUP, null);
 	    }
-		neo.shutdown();
 	}
 
 	/**
 	 * Method to create person nodes in the graph database
 	 */
 
-	private static void createPeopleNodes() throws IOException
+	private static void createPeopleNodes(BatchInserter neo) throws IOException
     {
 		// Create people nodes and attach them to root, put them into two groups randomly
 	  	String name, group;
 		Random random = new Random();
 		long personNodeId, personNodesId, groupNodeId, referenceNodeId = 0;
-		BatchInserter neo = new BatchInserterImpl(PROPERTIES.getProperty("GRAPHDB_PATH"), BatchInserterImpl.loadProperties("configuration.properties"));
 		Map<String,Object> properties = new HashMap<String,Object>();
 		properties.put("type", "people");
 		personNodesId = neo.createNode(properties);
 		neo.createRelationship(referenceNodeId, personNodesId, Neo4jRelationshipTypes.PEOPLE, null);
-		ArrayList<String> names = CsvDataGenerator.load(PROPERTIES.getProperty("NAMES_PATH"), Integer.decode(PROPERTIES.getProperty("NUMBER_OF_PEOPLE")));
-		ArrayList<String> groups = CsvDataGenerator.load(PROPERTIES.getProperty("GROUPS_PATH"), Integer.decode(PROPERTIES.getProperty("NUMBER_OF_GROUPS")));
-		ArrayList<String> topics = CsvDataGenerator.load(PROPERTIES.getProperty("TOPICS_PATH"), Integer.decode(PROPERTIES.getProperty("NUMBER_OF_TOPICS")));
+		ArrayList<String> names = loadLines(PROPERTIES.getProperty("NAMES_PATH"), Integer.decode(PROPERTIES.getProperty("NUMBER_OF_PEOPLE")));
+		ArrayList<String> groups = loadLines(PROPERTIES.getProperty("GROUPS_PATH"), Integer.decode(PROPERTIES.getProperty("NUMBER_OF_GROUPS")));
 		Iterator<String> namesItr = names.iterator();
-		PERSONMAP = new HashMap<String,Long>();
+		PERSONMAP = new NameDictionary(names.size(), isDictionaryOffHeap());
 	 	while (namesItr.hasNext())
 		{
 			name = namesItr.next();
 			group = groups.get(random.nextInt(groups.size()));
-			groupNodeId = GROUPMAP.get(group);
+			groupNodeId = NameDictionary.resolve(GROUPMAP, group);
 			properties = new HashMap<String,Object>();
 			properties.put("name", name);
 			personNodeId = neo.createNode(properties);
-			PERSONMAP.put(name, new Long(personNodeId));
+			PERSONMAP.put(name, personNodeId);
 			neo.createRelationship(personNodesId, personNodeId, Neo4jRelationshipTypes.PERSON, null);
 			neo.createRelationship(personNodeId, groupNodeId, Neo4jRelationshipTypes.IS_MEMBER_OF, null);
 			group = groups.get(random.nextInt(groups.size()));
-			groupNodeId = GROUPMAP.get(group);
+			groupNodeId = NameDictionary.resolve(GROUPMAP, group);
 			neo.createRelationship(personNodeId, groupNodeId, Neo4jRelationshipTypes.IS_MEMBER_OF, null);
 	    }
+		writeNames(PERSONMAP, "PERSON_NAMES_PATH", "Person");
 
 		// Associate people and topics to people
+		createPeopleRelationships(neo);
+		System.out.println("Topic dictionary: " + TOPICMAP.describe());
+		System.out.println("Group dictionary: " + GROUPMAP.describe());
+		System.out.println("Person dictionary: " + PERSONMAP.describe());
+	}
+
+	/**
+	 * Writes a dictionary for NeoQuery to map at startup, when a path is configured
+	 */
+
+	private static void writeNames(NameDictionary dictionary, String pathProperty, String label) throws IOException
+	{
+		String path = PROPERTIES.getProperty(pathProperty, "").trim();
+		if (path.length() == 0)
+		{
+			return;
+		}
+		long start = System.nanoTime();
+		MappedNameDictionary.write(dictionary, new File(path));
+		long elapsed = LATENCY.record("write" + label + "Names", start);
+		System.out.println(label + " names: " + dictionary.size() + " written to " + path + " in " + LatencyRecorder.format(elapsed) + " milliseconds.");
+	}
+
+	/**
+	 * Method to create the KNOWS and ASSOCIATED_TO relationships from the people CSV,
+	 * either inline on the inserter thread or through the parsing pipeline
+	 */
+
+	private static void createPeopleRelationships(BatchInserter neo) throws IOException
+    {
+		String indexPath = PROPERTIES.getProperty("TOPIC_INDEX_PATH", "").trim();
+		TopicEdgeIndex.Builder topicIndex = indexPath.length() == 0 ? null : new TopicEdgeIndex.Builder();
+		String countsPath = PROPERTIES.getProperty("TOPIC_COUNTS_PATH", "").trim();
+		TopicEdgeCounts topicCounts = countsPath.length() == 0 ? null : new TopicEdgeCounts();
+		recordKnowsTopic(neo);
+		loadPeopleRelationships(neo, topicIndex, topicCounts);
+		if (topicIndex != null)
+		{
+			long start = System.nanoTime();
+			topicIndex.write(new File(indexPath));
+			long elapsed = LATENCY.record("writeTopicIndex", start);
+			System.out.println("Topic index: " + topicIndex.size() + " entries written to " + indexPath + " in " + LatencyRecorder.format(elapsed) + " milliseconds.");
+		}
+		if (topicCounts != null)
+		{
+			long start = System.nanoTime();
+			topicCounts.write(new File(countsPath));
+			long elapsed = LATENCY.record("writeTopicCounts", start);
+			System.out.println("Topic counts: " + topicCounts.describe() + " written to " + countsPath + " in " + LatencyRecorder.format(elapsed) + " milliseconds.");
+		}
+	}
+
+	/**
+	 * Creates the relationships, adding each KNOWS to the topic index and counts when kept
+	 */
+
+	private static void loadPeopleRelationships(BatchInserter neo, TopicEdgeIndex.Builder topicIndex, TopicEdgeCounts topicCounts) throws IOException
+    {
+		int friendsPerPerson = Integer.decode(PROPERTIES.getProperty("NUMBER_OF_PEOPLE_PER_PERSON"));
+		int pipelineThreads = Integer.decode(PROPERTIES.getProperty("PIPELINE_THREADS", "0").trim());
+		if (pipelineThreads > 0)
+		{
+			PeopleCsvPipeline pipeline = new PeopleCsvPipeline(neo, PERSONMAP, TOPICMAP, friendsPerPerson, pipelineThreads,
+				Integer.decode(PROPERTIES.getProperty("PIPELINE_CHUNK_SIZE", "1000").trim()),
+				Integer.decode(PROPERTIES.getProperty("PIPELINE_RING_SIZE", "16").trim()),
+				isMappedReader(), topicIndex, topicCounts);
+			pipeline.load(PROPERTIES.getProperty("PEOPLE_PATH"));
+			System.out.println(pipeline.describe());
+			return;
+		}
+
+		Random random = new Random();
+		Map<String,Object> properties;
+		long personNodeId, friendNodeId, topicNodeId;
+		if (isMappedReader())
+		{
+			// Resolve names straight from the mapped bytes, decode only the topic property
+			MappedCsvReader csvReader = new MappedCsvReader(PROPERTIES.getProperty("PEOPLE_PATH"));
+			MappedCsvReader.Row row = csvReader.row();
+			long line = 0;
+			while (csvReader.next())
+			{
+				line++;
+				if (row.fields() == 0)
+				{
+					continue;
+				}
+				personNodeId = resolve(PERSONMAP, row, 0, line);
+				for (int column = 1; column < row.fields(); column++)
+				{
+					if (column <= friendsPerPerson)
+					{
+						friendNodeId = resolve(PERSONMAP, row, column, line);
+						String topic = row.field(column + friendsPerPerson);
+						properties = new HashMap<String,Object>();
+						putKnowsTopic(properties, topic);
+						properties.put("weight", random.nextInt(10)); // Weights randomly assigned between 1-10
+						long knowsId = neo.createRelationship(personNodeId, friendNodeId, Neo4jRelationshipTypes.KNOWS, properties);
+						if (topicIndex != null)
+						{
+							topicIndex.add(knowsId, personNodeId, friendNodeId, topic);
+						}
+						if (topicCounts != null)
+						{
+							topicCounts.add(personNodeId, friendNodeId, topic);
+						}
+					}
+					else
+					{
+						topicNodeId = resolve(TOPICMAP, row, column, line);
+						properties = new HashMap<String,Object>();
+						properties.put("weight", random.nextInt(10));  // Weights randomly assigned between 1-10
+						neo.createRelationship(personNodeId, topicNodeId, Neo4jRelationshipTypes.ASSOCIATED_TO, properties);
+					}
+				}
+			}
+			csvReader.close();
+			return;
+		}
+
 		String[] row;
 		CSVReader csvReader = new CSVReader(new FileReader(PROPERTIES.getProperty("PEOPLE_PATH")));
 		while ((row = csvReader.readNext()) != null)
@@ -222,28 +443,37 @@ public class Neo4jIngest
 			int column = 0;
 			personNodeId = 0;
 			int topicWeight = 1;
-			long topicNodeId = 0;
-			long friendNodeId = 0;
+			topicNodeId = 0;
+			friendNodeId = 0;
 			for (String cell : row)
 			{
 				// Who the person knows
 				if (column == 0)
 				{
-					personNodeId = PERSONMAP.get(row[column]);
+					personNodeId = NameDictionary.resolve(PERSONMAP, row[column]);
 					column++;
 				}
-				else if (column <= Integer.decode(PROPERTIES.getProperty("NUMBER_OF_PEOPLE_PER_PERSON")))
+				else if (column <= friendsPerPerson)
 				{
-					friendNodeId = PERSONMAP.get(row[column]);
+					friendNodeId = NameDictionary.resolve(PERSONMAP, row[column]);
+					String topic = new String(row[column+friendsPerPerson]);
 					properties = new HashMap<String,Object>();
-					properties.put("topic", new String(row[column+Integer.decode(PROPERTIES.getProperty("NUMBER_OF_PEOPLE_PER_PERSON"))]));
+					putKnowsTopic(properties, topic);
 					properties.put("weight", random.nextInt(10)); // Weights randomly assigned between 1-10
-					neo.createRelationship(personNodeId, friendNodeId, Neo4jRelationshipTypes.KNOWS, properties);
+					long knowsId = neo.createRelationship(personNodeId, friendNodeId, Neo4jRelationshipTypes.KNOWS, properties);
+					if (topicIndex != null)
+					{
+						topicIndex.add(knowsId, personNodeId, friendNodeId, topic);
+					}
+					if (topicCounts != null)
+					{
+						topicCounts.add(personNodeId, friendNodeId, topic);
+					}
 					column++;
 				}
 				else
 				{
-					topicNodeId = TOPICMAP.get(row[column]);
+					topicNodeId = NameDictionary.resolve(TOPICMAP, row[column]);
 					properties = new HashMap<String,Object>();
 					properties.put("weight", random.nextInt(10));  // Weights randomly assigned between 1-10
 					neo.createRelationship(personNodeId, topicNodeId, Neo4jRelationshipTypes.ASSOCIATED_TO, properties);
@@ -253,60 +483,70 @@ public class Neo4jIngest
           	}
         }
        	csvReader.close();
-		neo.shutdown();
+	}
+
+	// Resolves a field of a mapped people CSV row, which must be a known name
+	private static long resolve(NameDictionary dictionary, MappedCsvReader.Row row, int column, long line) throws IOException
+	{
+		long id = row.lookup(dictionary, column);
+		if (id == NameDictionary.NO_ID)
+		{
+			throw new IOException("Unknown name in people CSV: " + row.field(column) + " in row " + line + ": " + row.line());
+		}
+		return id;
 	}
 
 	/**
 	 * Method to create document nodes in the graph database
 	 */
 
-	private static void createDocumentNodes() throws IOException
+	private static void createDocumentNodes(BatchInserter neo) throws IOException
     {
-		// Create graph batch database inserter
-		BatchInserter neo = new BatchInserterImpl(PROPERTIES.getProperty("GRAPHDB_PATH"), BatchInserterImpl.loadProperties("configuration.properties"));
-
-		// Create documents and relate them to authors and viewers
+		// Create documents and relate them to authors and viewers, picking people and
+		// topics straight from the dictionaries rather than reloading the name lists
 		Random random = new Random();
 		Map<String,Object> properties;
 		long topicNodeId, personNodeId, documentNodeId;
-		ArrayList<String> topics = CsvDataGenerator.load(PROPERTIES.getProperty("TOPICS_PATH"), Integer.decode(PROPERTIES.getProperty("NUMBER_OF_TOPICS")));
-		ArrayList<String> names = CsvDataGenerator.load(PROPERTIES.getProperty("NAMES_PATH"), Integer.decode(PROPERTIES.getProperty("NUMBER_OF_PEOPLE")));
-		Iterator<String> namesItr = names.iterator();
-		Iterator<String> topicsItr = topics.iterator();
-		for (int i=0; i < Integer.decode(PROPERTIES.getProperty("NUMBER_OF_DOCUMENTS")); i++)
+		long documents = Integer.decode(PROPERTIES.getProperty("NUMBER_OF_DOCUMENTS"));
+		DegreeDistribution authors = DegreeDistribution.fromProperties(PROPERTIES, "AUTHORS_DISTRIBUTION", PERSONMAP.size(),
+			documents * Integer.decode(PROPERTIES.getProperty("NUMBER_OF_AUTHORS")));
+		DegreeDistribution viewers = DegreeDistribution.fromProperties(PROPERTIES, "VIEWS_DISTRIBUTION", PERSONMAP.size(),
+			documents * Integer.decode(PROPERTIES.getProperty("NUMBER_OF_VIEWERS")));
+		System.out.println("Authors: " + authors.describe());
+		System.out.println("Views: " + viewers.describe());
+		for (int i=0; i < documents; i++)
 		{
 			properties = new HashMap<String,Object>();
 			documentNodeId = neo.createNode(properties);
 	        for (int j = 0; j < Integer.decode(PROPERTIES.getProperty("NUMBER_OF_AUTHORS")); j++)
 	        {
-				personNodeId = PERSONMAP.get(names.get(random.nextInt(names.size())));
+				personNodeId = PERSONMAP.valueAt(authors.sample(random.nextLong()));
 			    neo.createRelationship(personNodeId, documentNodeId, Neo4jRelationshipTypes.AUTHORS, null);
 	        }
 	        for (int k = 0; k < Integer.decode(PROPERTIES.getProperty("NUMBER_OF_VIEWERS")); k++)
 	        {
-				personNodeId = PERSONMAP.get(names.get(random.nextInt(names.size())));
+				personNodeId = PERSONMAP.valueAt(viewers.sample(random.nextLong()));
 				neo.createRelationship(personNodeId, documentNodeId, Neo4jRelationshipTypes.VIEWS, null);
 	        }
 	        for (int l = 0; l < Integer.decode(PROPERTIES.getProperty("NUMBER_OF_TOPICS_PER_DOCUMENT")); l++)
 	        {
-				topicNodeId = TOPICMAP.get(topics.get(random.nextInt(topics.size())));
+				topicNodeId = TOPICMAP.valueAt(random.nextInt(TOPICMAP.size()));
 				neo.createRelationship(documentNodeId, topicNodeId, Neo4jRelationshipTypes.HAS, null);
 	        }
 		}
-		neo.shutdown();
 	}
 
 	/**
      * Builds a map that holds string to nodeID connections
      * @param type the type of map to return; either person or topic
      * @param neo active Neo4J persistence service
-     * @return a HashMap of strings to nodeIds
+     * @return a dictionary of strings to nodeIds
 	 */
 
-	private static HashMap<String,Long> getMap(String type, GraphDatabaseService neo)
+	private static NameDictionary getMap(String type, GraphDatabaseService neo)
 	{
 		long referenceNodeId = 0;
-		HashMap<String,Long> map = new HashMap<String,Long>();
+		NameDictionary map = new NameDictionary(1024, isDictionaryOffHeap());
 		Node referenceNode = neo.getNodeById(referenceNodeId);
 		if (type.equals("topic"))
 		{
@@ -330,12 +570,115 @@ public class Neo4jIngest
 	}
 
 	/**
-	 * Method to create document nodes in the graph database
+	 * Whether the name dictionaries keep their storage off the java heap
+	 */
+
+	private static boolean isDictionaryOffHeap()
+	{
+		return Boolean.parseBoolean(PROPERTIES.getProperty("DICTIONARY_OFF_HEAP", "false").trim());
+	}
+
+	/**
+	 * Puts the topic of a KNOWS relationship into its properties: the name, or with
+	 * KNOWS_TOPIC = id the topic node id as an int. Topics missing from the topic
+	 * list keep their name.
+	 */
+
+	static void putKnowsTopic(final Map<String,Object> properties, final String topic)
+	{
+		long topicNodeId = KNOWS_TOPIC_IDS ? TOPICMAP.get(topic) : NameDictionary.NO_ID;
+		if (topicNodeId == NameDictionary.NO_ID)
+		{
+			properties.put("topic", topic);
+		}
+		else if (topicNodeId > Integer.MAX_VALUE)
+		{
+			throw new IllegalStateException("Topic node id " + topicNodeId + " does not fit an int; ingest with KNOWS_TOPIC = name.");
+		}
+		else
+		{
+			properties.put("topicId", (int) topicNodeId);
+		}
+	}
+
+	/**
+	 * Records KNOWS_TOPIC in a knowsTopic property of the reference node, so
+	 * NeoQuery can refuse a configuration that does not match the graph
+	 */
+
+	private static void recordKnowsTopic(BatchInserter neo)
+	{
+		Map<String,Object> properties = new HashMap<String,Object>(neo.getNodeProperties(neo.getReferenceNode()));
+		properties.put("knowsTopic", KNOWS_TOPIC_IDS ? "id" : "name");
+		neo.setNodeProperties(neo.getReferenceNode(), properties);
+	}
+
+	/**
+	 * Prints the size of the store files, with the property and string stores
+	 * apart, to compare KNOWS_TOPIC modes
+	 */
+
+	private static void reportStoreSize()
+	{
+		File[] files = new File(PROPERTIES.getProperty("GRAPHDB_PATH")).listFiles();
+		if (files == null)
+		{
+			return;
+		}
+		long total = 0, properties = 0, strings = 0;
+		for (File file : files)
+		{
+			if (!file.isFile())
+			{
+				continue;
+			}
+			total += file.length();
+			if (file.getName().equals("neostore.propertystore.db"))
+			{
+				properties = file.length();
+			}
+			else if (file.getName().equals("neostore.propertystore.db.strings"))
+			{
+				strings = file.length();
+			}
+		}
+		System.out.println("Store size (KNOWS_TOPIC = " + (KNOWS_TOPIC_IDS ? "id" : "name") + "): " + total + " bytes, property store "
+			+ properties + " bytes, string store " + strings + " bytes.");
+	}
+
+	/**
+	 * Whether the raw data files are read through memory mapped windows
+	 */
+
+	private static boolean isMappedReader()
+	{
+		return "mapped".equals(PROPERTIES.getProperty("CSV_READER", "buffered").trim());
+	}
+
+	/**
+	 * Loads the first lines of a raw data file with the configured reader
+	 */
+
+	private static ArrayList<String> loadLines(String path, int number) throws IOException
+	{
+		return isMappedReader() ? MappedCsvReader.load(path, number) : CsvDataGenerator.load(path, number);
+	}
+
+	/**
+	 * Method to generate the synthetic people CSV, partitioned across cores
+	 * unless GENERATOR is set to legacy
 	 */
 
 	private static void generateCsvData() throws IOException
     {
-		CsvDataGenerator sdg = new CsvDataGenerator(PROPERTIES);
+		if ("legacy".equals(PROPERTIES.getProperty("GENERATOR", "partitioned").trim()))
+		{
+			CsvDataGenerator sdg = new CsvDataGenerator(PROPERTIES);
+		}
+		else
+		{
+			new PartitionedDataGenerator(PROPERTIES).writePeople();
+		}
 	}
 
 	/**
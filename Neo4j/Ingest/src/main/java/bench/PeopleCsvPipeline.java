@@ -0,0 +1,470 @@
+package bench;
+
+import java.util.Map;
+import java.util.List;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.HashMap;
+import java.util.ArrayList;
+
+import java.io.Closeable;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.BufferedReader;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import org.neo4j.kernel.impl.batchinsert.BatchInserter;
+
+import bench.utils.NameDictionary;
+import bench.utils.TopicEdgeIndex;
+import bench.utils.TopicEdgeCounts;
+import bench.utils.MappedCsvReader;
+
+/**
+ * Staged loader for the KNOWS and ASSOCIATED_TO relationships of the people CSV.
+ * A reader thread cuts the file into chunks of lines, worker threads split the
+ * lines and resolve names to node ids, and the calling thread is the single writer
+ * feeding the batch inserter. Parsed chunks pass through a bounded ring of futures
+ * in file order, so the reader blocks rather than running ahead of the writer.
+ * Chunks are either lines read through a BufferedReader, whose fields may be double
+ * quoted but may not span lines, or byte ranges of a MappedCsvReader that workers
+ * resolve against the dictionaries without decoding the names.
+ */
+
+class PeopleCsvPipeline
+{
+
+	private final BatchInserter neo;
+	private final NameDictionary people;
+	private final NameDictionary topics;
+	private final int friendsPerPerson;
+	private final int threads;
+	private final int chunkSize;
+	private final int ringSize;
+	private final boolean mapped;
+	private final TopicEdgeIndex.Builder topicIndex;
+	private final TopicEdgeCounts topicCounts;
+
+	private long rows;
+	private long chunks;
+	private long knows;
+	private long associations;
+	private long writerIdleNanos;
+	private long writerBusyNanos;
+
+	PeopleCsvPipeline(final BatchInserter neo, final NameDictionary people, final NameDictionary topics, final int friendsPerPerson, final int threads, final int chunkSize, final int ringSize, final boolean mapped, final TopicEdgeIndex.Builder topicIndex, final TopicEdgeCounts topicCounts)
+	{
+		this.neo = neo;
+		this.people = people;
+		this.topics = topics;
+		this.friendsPerPerson = friendsPerPerson;
+		this.threads = Math.max(1, threads);
+		this.chunkSize = Math.max(1, chunkSize);
+		this.ringSize = Math.max(1, ringSize);
+		this.mapped = mapped;
+		this.topicIndex = topicIndex;
+		this.topicCounts = topicCounts;
+	}
+
+	/**
+	 * Loads the people CSV at the given path into the batch inserter
+	 */
+
+	void load(final String path) throws IOException
+	{
+		final BlockingQueue<Future<EdgeChunk>> ring = new ArrayBlockingQueue<Future<EdgeChunk>>(ringSize);
+		final ExecutorService workers = Executors.newFixedThreadPool(threads, new DaemonThreadFactory("people-csv-parser"));
+		final FutureTask<EdgeChunk> endOfFile = new FutureTask<EdgeChunk>(new Callable<EdgeChunk>()
+		{
+			public EdgeChunk call()
+			{
+				return null;
+			}
+		});
+		endOfFile.run();
+		final IOException[] readFailure = new IOException[1];
+		final Closeable source = mapped ? new MappedCsvReader(path) : new BufferedReader(new FileReader(path), 1 << 20);
+
+		// Stage 1: read raw chunks and hand them to the parser pool in file order
+		Thread readerThread = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				try
+				{
+					if (mapped)
+					{
+						MappedCsvReader reader = (MappedCsvReader) source;
+						MappedCsvReader.Chunk chunk;
+						while ((chunk = reader.nextChunk(chunkSize)) != null)
+						{
+							ring.put(workers.submit(new MappedParseTask(chunk)));
+						}
+					}
+					else
+					{
+						BufferedReader reader = (BufferedReader) source;
+						List<String> lines = new ArrayList<String>(chunkSize);
+						String line;
+						while ((line = reader.readLine()) != null)
+						{
+							lines.add(line);
+							if (lines.size() == chunkSize)
+							{
+								ring.put(workers.submit(new LineParseTask(lines)));
+								lines = new ArrayList<String>(chunkSize);
+							}
+						}
+						if (!lines.isEmpty())
+						{
+							ring.put(workers.submit(new LineParseTask(lines)));
+						}
+					}
+				}
+				catch (IOException e)
+				{
+					readFailure[0] = e;
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+				}
+				finally
+				{
+					try
+					{
+						ring.put(endOfFile);
+					}
+					catch (InterruptedException e)
+					{
+						Thread.currentThread().interrupt();
+					}
+				}
+			}
+		}, "people-csv-reader");
+		readerThread.setDaemon(true);
+		readerThread.start();
+
+		// Stage 3: single writer drains parsed chunks into the inserter
+		try
+		{
+			while (true)
+			{
+				long idle = System.nanoTime();
+				Future<EdgeChunk> next = ring.take();
+				if (next == endOfFile)
+				{
+					writerIdleNanos += System.nanoTime() - idle;
+					break;
+				}
+				EdgeChunk chunk = next.get();
+				long busy = System.nanoTime();
+				writerIdleNanos += busy - idle;
+				write(chunk);
+				writerBusyNanos += System.nanoTime() - busy;
+			}
+			if (readFailure[0] != null)
+			{
+				throw readFailure[0];
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while loading " + path);
+		}
+		catch (ExecutionException e)
+		{
+			throw new IOException("Failed to parse " + path + ": " + e.getCause().getMessage(), e.getCause());
+		}
+		finally
+		{
+			readerThread.interrupt();
+			workers.shutdownNow();
+			source.close();
+		}
+	}
+
+	/**
+	 * Summary of the last load for logging
+	 */
+
+	String describe()
+	{
+		return "Pipelined " + rows + " rows in " + chunks + (mapped ? " mapped" : "") + " chunks on " + threads + " parser threads: "
+			+ knows + " knows, " + associations + " associated to; writer busy "
+			+ (writerBusyNanos / 1000000) + " milliseconds, idle " + (writerIdleNanos / 1000000) + " milliseconds.";
+	}
+
+	private void write(final EdgeChunk chunk)
+	{
+		Map<String,Object> properties;
+		for (int i = 0; i < chunk.knowsCount; i++)
+		{
+			properties = new HashMap<String,Object>();
+			Neo4jIngest.putKnowsTopic(properties, chunk.knowsTopic[i]);
+			properties.put("weight", chunk.knowsWeight[i]);
+			long knowsId = neo.createRelationship(chunk.knowsFrom[i], chunk.knowsTo[i], Neo4jRelationshipTypes.KNOWS, properties);
+			if (topicIndex != null)
+			{
+				topicIndex.add(knowsId, chunk.knowsFrom[i], chunk.knowsTo[i], chunk.knowsTopic[i]);
+			}
+			if (topicCounts != null)
+			{
+				topicCounts.add(chunk.knowsFrom[i], chunk.knowsTo[i], chunk.knowsTopic[i]);
+			}
+		}
+		for (int i = 0; i < chunk.associatedCount; i++)
+		{
+			properties = new HashMap<String,Object>();
+			properties.put("weight", chunk.associatedWeight[i]);
+			neo.createRelationship(chunk.associatedFrom[i], chunk.associatedTo[i], Neo4jRelationshipTypes.ASSOCIATED_TO, properties);
+		}
+		rows += chunk.rows;
+		knows += chunk.knowsCount;
+		associations += chunk.associatedCount;
+		chunks++;
+	}
+
+	/**
+	 * Stage 2: splits a chunk of lines and resolves every name to a node id
+	 */
+
+	private class LineParseTask implements Callable<EdgeChunk>
+	{
+		private final List<String> lines;
+
+		LineParseTask(final List<String> lines)
+		{
+			this.lines = lines;
+		}
+
+		public EdgeChunk call() throws IOException
+		{
+			Random random = new Random();
+			EdgeChunk chunk = new EdgeChunk(lines.size(), friendsPerPerson);
+			List<String> row = new ArrayList<String>();
+			for (String line : lines)
+			{
+				row.clear();
+				split(line, row);
+				if (row.isEmpty())
+				{
+					continue;
+				}
+				long personNodeId = NameDictionary.resolve(people, row.get(0));
+				for (int column = 1; column < row.size(); column++)
+				{
+					if (column <= friendsPerPerson)
+					{
+						chunk.addKnows(personNodeId, NameDictionary.resolve(people, row.get(column)), row.get(column + friendsPerPerson), random.nextInt(10));
+					}
+					else
+					{
+						chunk.addAssociatedTo(personNodeId, NameDictionary.resolve(topics, row.get(column)), random.nextInt(10));
+					}
+				}
+				chunk.rows++;
+			}
+			return chunk;
+		}
+	}
+
+	/**
+	 * Stage 2 over a mapped byte range: names are resolved straight from the bytes
+	 * and only the KNOWS topic is decoded, because it is stored as a property
+	 */
+
+	private class MappedParseTask implements Callable<EdgeChunk>
+	{
+		private final MappedCsvReader.Chunk lines;
+
+		MappedParseTask(final MappedCsvReader.Chunk lines)
+		{
+			this.lines = lines;
+		}
+
+		public EdgeChunk call() throws IOException
+		{
+			Random random = new Random();
+			EdgeChunk chunk = new EdgeChunk(lines.rows, friendsPerPerson);
+			MappedCsvReader.Row row = new MappedCsvReader.Row();
+			int position = lines.start;
+			while (position < lines.end)
+			{
+				position = lines.next(row, position);
+				if (row.fields() == 0)
+				{
+					continue;
+				}
+				long personNodeId = resolve(people, row, 0);
+				for (int column = 1; column < row.fields(); column++)
+				{
+					if (column <= friendsPerPerson)
+					{
+						chunk.addKnows(personNodeId, resolve(people, row, column), row.field(column + friendsPerPerson), random.nextInt(10));
+					}
+					else
+					{
+						chunk.addAssociatedTo(personNodeId, resolve(topics, row, column), random.nextInt(10));
+					}
+				}
+				chunk.rows++;
+			}
+			return chunk;
+		}
+	}
+
+	private static long resolve(final NameDictionary dictionary, final MappedCsvReader.Row row, final int column) throws IOException
+	{
+		long id = row.lookup(dictionary, column);
+		if (id == NameDictionary.NO_ID)
+		{
+			throw new IOException("Unknown name in people CSV: " + row.field(column));
+		}
+		return id;
+	}
+
+	/**
+	 * Splits one CSV line, honouring double quoted fields
+	 */
+
+	static void split(final String line, final List<String> fields)
+	{
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+		for (int i = 0; i < line.length(); i++)
+		{
+			char c = line.charAt(i);
+			if (quoted)
+			{
+				if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"')
+				{
+					field.append('"');
+					i++;
+				}
+				else if (c == '"')
+				{
+					quoted = false;
+				}
+				else
+				{
+					field.append(c);
+				}
+			}
+			else if (c == '"')
+			{
+				quoted = true;
+			}
+			else if (c == ',')
+			{
+				fields.add(field.toString());
+				field.setLength(0);
+			}
+			else
+			{
+				field.append(c);
+			}
+		}
+		if (line.length() > 0)
+		{
+			fields.add(field.toString());
+		}
+	}
+
+	/**
+	 * Relationships parsed from one chunk, held in primitive columns
+	 */
+
+	private static class EdgeChunk
+	{
+		int rows;
+
+		long[] knowsFrom;
+		long[] knowsTo;
+		String[] knowsTopic;
+		int[] knowsWeight;
+		int knowsCount;
+
+		long[] associatedFrom;
+		long[] associatedTo;
+		int[] associatedWeight;
+		int associatedCount;
+
+		EdgeChunk(final int lines, final int friendsPerPerson)
+		{
+			int capacity = Math.max(16, lines * friendsPerPerson);
+			knowsFrom = new long[capacity];
+			knowsTo = new long[capacity];
+			knowsTopic = new String[capacity];
+			knowsWeight = new int[capacity];
+			associatedFrom = new long[capacity];
+			associatedTo = new long[capacity];
+			associatedWeight = new int[capacity];
+		}
+
+		void addKnows(final long from, final long to, final String topic, final int weight)
+		{
+			if (knowsCount == knowsFrom.length)
+			{
+				int capacity = knowsCount * 2;
+				knowsFrom = Arrays.copyOf(knowsFrom, capacity);
+				knowsTo = Arrays.copyOf(knowsTo, capacity);
+				knowsTopic = Arrays.copyOf(knowsTopic, capacity);
+				knowsWeight = Arrays.copyOf(knowsWeight, capacity);
+			}
+			knowsFrom[knowsCount] = from;
+			knowsTo[knowsCount] = to;
+			knowsTopic[knowsCount] = topic;
+			knowsWeight[knowsCount] = weight;
+			knowsCount++;
+		}
+
+		void addAssociatedTo(final long from, final long to, final int weight)
+		{
+			if (associatedCount == associatedFrom.length)
+			{
+				int capacity = associatedCount * 2;
+				associatedFrom = Arrays.copyOf(associatedFrom, capacity);
+				associatedTo = Arrays.copyOf(associatedTo, capacity);
+				associatedWeight = Arrays.copyOf(associatedWeight, capacity);
+			}
+			associatedFrom[associatedCount] = from;
+			associatedTo[associatedCount] = to;
+			associatedWeight[associatedCount] = weight;
+			associatedCount++;
+		}
+	}
+
+	/**
+	 * Names pipeline threads and keeps them from holding the JVM open
+	 */
+
+	private static class DaemonThreadFactory implements ThreadFactory
+	{
+		private final String name;
+		private int count;
+
+		DaemonThreadFactory(final String name)
+		{
+			this.name = name;
+		}
+
+		public synchronized Thread newThread(final Runnable runnable)
+		{
+			Thread thread = new Thread(runnable, name + "-" + (++count));
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
+}
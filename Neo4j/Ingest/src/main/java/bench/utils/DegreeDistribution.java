@@ -0,0 +1,169 @@
+package bench.utils;
+
+import java.util.Properties;
+
+/**
+ * Chooses the endpoints of a relationship type so that node degrees follow a
+ * configured distribution. Nodes are ranked by their index in the name or topic
+ * list, so rank 1 is the first name, and each draw returns an index. Supported
+ * specifications:
+ *
+ *   uniform                     every node equally likely
+ *   zipf:S                      weight of rank k is 1 / k^S
+ *   powerlaw:ALPHA:CUTOFF       weight of rank k is k^-ALPHA * e^(-k / CUTOFF)
+ *   hubs:COUNT:DEGREE           COUNT hub nodes expect DEGREE draws each, the rest share the remainder
+ *   hotset:FRACTION:PROBABILITY the first FRACTION of nodes take PROBABILITY of the draws
+ *
+ * Skewed draws go through an AliasTable, so every draw is O(1). The query
+ * workload driver uses the same specifications to choose query parameters.
+ */
+
+public class DegreeDistribution
+{
+
+	private final String spec;
+	private final int size;
+	private final long draws;
+	private final AliasTable table;
+	private final double topShare;
+
+	private DegreeDistribution(final String spec, final int size, final long draws, final double[] weights)
+	{
+		this.spec = spec;
+		this.size = size;
+		this.draws = draws;
+		if (weights == null)
+		{
+			this.table = null;
+			this.topShare = 1.0 / size;
+		}
+		else
+		{
+			this.table = new AliasTable(weights);
+			double total = 0, top = 0;
+			for (double weight : weights)
+			{
+				total += weight;
+				top = Math.max(top, weight);
+			}
+			this.topShare = top / total;
+		}
+	}
+
+	/**
+	 * Reads the distribution of one relationship type, uniform when the key is absent
+	 * @param size number of nodes to choose from
+	 * @param draws expected number of draws, used to size hubs
+	 */
+
+	public static DegreeDistribution fromProperties(final Properties properties, final String key, final int size, final long draws)
+	{
+		return parse(properties.getProperty(key, "uniform").trim(), size, draws);
+	}
+
+	public static DegreeDistribution parse(final String spec, final int size, final long draws)
+	{
+		if (size <= 0)
+		{
+			throw new IllegalArgumentException("Degree distribution over no nodes: " + spec);
+		}
+		String[] parts = spec.toLowerCase().split(":");
+		try
+		{
+			if (parts[0].equals("uniform") && parts.length == 1)
+			{
+				return new DegreeDistribution(spec, size, draws, null);
+			}
+			double[] weights = new double[size];
+			if (parts[0].equals("zipf") && parts.length == 2)
+			{
+				double exponent = Double.parseDouble(parts[1]);
+				for (int k = 0; k < size; k++)
+				{
+					weights[k] = Math.pow(k + 1, -exponent);
+				}
+			}
+			else if (parts[0].equals("powerlaw") && parts.length == 3)
+			{
+				double alpha = Double.parseDouble(parts[1]);
+				double cutoff = Double.parseDouble(parts[2]);
+				for (int k = 0; k < size; k++)
+				{
+					weights[k] = Math.pow(k + 1, -alpha) * Math.exp(-(k + 1) / cutoff);
+				}
+				if (weights[0] == 0)
+				{
+					throw new IllegalArgumentException("Cutoff too small: " + spec);
+				}
+			}
+			else if (parts[0].equals("hubs") && parts.length == 3)
+			{
+				int hubs = Math.min(Integer.parseInt(parts[1]), size);
+				double degree = Double.parseDouble(parts[2]);
+				double rest = size > hubs ? Math.max(draws - hubs * degree, 0) / (size - hubs) : 0;
+				for (int k = 0; k < size; k++)
+				{
+					weights[k] = k < hubs ? degree : rest;
+				}
+			}
+			else if (parts[0].equals("hotset") && parts.length == 3)
+			{
+				double fraction = Double.parseDouble(parts[1]);
+				double probability = Double.parseDouble(parts[2]);
+				if (fraction <= 0 || fraction > 1 || probability < 0 || probability > 1)
+				{
+					throw new IllegalArgumentException("Hot set fraction and probability must be within 0 and 1: " + spec);
+				}
+				int hot = Math.max(1, (int) Math.round(fraction * size));
+				for (int k = 0; k < size; k++)
+				{
+					weights[k] = k < hot ? probability / hot : (1 - probability) / (size - hot);
+				}
+			}
+			else
+			{
+				throw new IllegalArgumentException("Unknown degree distribution: " + spec);
+			}
+			return new DegreeDistribution(spec, size, draws, weights);
+		}
+		catch (NumberFormatException e)
+		{
+			throw new IllegalArgumentException("Bad number in degree distribution: " + spec, e);
+		}
+	}
+
+	/**
+	 * Draws a node index from 0 to size() - 1
+	 * @param bits a uniformly random 64 bit value
+	 */
+
+	public int sample(final long bits)
+	{
+		if (table == null)
+		{
+			return (int) (((bits >>> 32) * size) >>> 32);
+		}
+		return table.sample(bits);
+	}
+
+	public boolean isUniform()
+	{
+		return table == null;
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Specification and the expected share of the busiest node, for logging. Draws
+	 * for one row are distinct, so a node's real degree is capped by the row count.
+	 */
+
+	public String describe()
+	{
+		return spec + " over " + size + " nodes, busiest node draws " + String.format("%.3f", topShare * 100) + "% of " + draws + " edges";
+	}
+
+}
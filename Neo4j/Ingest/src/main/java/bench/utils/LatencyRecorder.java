@@ -0,0 +1,317 @@
+package bench.utils;
+
+import java.util.Set;
+import java.util.Locale;
+import java.util.TreeSet;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+
+import org.HdrHistogram.Recorder;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
+
+/**
+ * Records operation latencies in nanoseconds into HDR histograms, one per named
+ * operation, and reports percentiles. Recording is wait-free and safe from any
+ * number of threads. Values are kept to 3 significant digits up to one hour,
+ * longer values are clamped. Replaces the millisecond Stopwatch, so a
+ * sub-millisecond operation no longer reads as 0.
+ *
+ *   long start = System.nanoTime();
+ *   ...
+ *   long elapsed = recorder.record("findPeopleOnTopic", start);
+ */
+
+public class LatencyRecorder
+{
+
+	private static final long HIGHEST_TRACKABLE = TimeUnit.HOURS.toNanos(1);
+	private static final int SIGNIFICANT_DIGITS = 3;
+	private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+	private final ConcurrentMap<String, Series> series = new ConcurrentHashMap<String, Series>();
+	private final long startTime = System.currentTimeMillis();
+
+	/**
+	 * Records the time since start, a System.nanoTime() reading
+	 * @return the elapsed nanoseconds
+	 */
+
+	public long record(final String operation, final long start)
+	{
+		long elapsed = System.nanoTime() - start;
+		recordValue(operation, elapsed);
+		return elapsed;
+	}
+
+	/**
+	 * Records a latency measured elsewhere
+	 */
+
+	public void recordValue(final String operation, final long nanos)
+	{
+		series(operation).recorder.recordValue(Math.min(Math.max(nanos, 0), HIGHEST_TRACKABLE));
+	}
+
+	/**
+	 * Operations recorded so far, sorted by name
+	 */
+
+	public Set<String> operations()
+	{
+		return new TreeSet<String>(series.keySet());
+	}
+
+	/**
+	 * Copy of everything recorded for an operation since the recorder was created
+	 */
+
+	public Histogram histogram(final String operation)
+	{
+		return series(operation).total();
+	}
+
+	/**
+	 * Values recorded for an operation since the previous call, for reporting over time
+	 */
+
+	public Histogram intervalHistogram(final String operation)
+	{
+		return series(operation).interval();
+	}
+
+	/**
+	 * One line of count, mean, percentiles and max, in milliseconds
+	 */
+
+	public String summary(final String operation)
+	{
+		return summarize(histogram(operation));
+	}
+
+	public static String summarize(final Histogram histogram)
+	{
+		StringBuilder line = new StringBuilder();
+		line.append("n=").append(histogram.getTotalCount());
+		line.append(" mean=").append(format(histogram.getMean()));
+		for (double percentile : PERCENTILES)
+		{
+			line.append(" p").append(label(percentile)).append('=').append(format(histogram.getValueAtPercentile(percentile)));
+		}
+		line.append(" max=").append(format(histogram.getMaxValue()));
+		return line.append(" ms").toString();
+	}
+
+	/**
+	 * Prints the summary of every operation
+	 */
+
+	public void printSummary(final PrintStream out)
+	{
+		for (String operation : operations())
+		{
+			out.println("Latency " + operation + ": " + summary(operation));
+		}
+	}
+
+	/**
+	 * Writes one CSV row per operation, latencies in milliseconds
+	 */
+
+	public void writeCsv(final String path) throws IOException
+	{
+		BufferedWriter csv = new BufferedWriter(new FileWriter(path));
+		try
+		{
+			csv.write("operation,count,mean_ms");
+			for (double percentile : PERCENTILES)
+			{
+				csv.write(",p" + label(percentile) + "_ms");
+			}
+			csv.write(",max_ms");
+			csv.newLine();
+			for (String operation : operations())
+			{
+				Histogram histogram = histogram(operation);
+				csv.write(operation + "," + histogram.getTotalCount() + "," + format(histogram.getMean()));
+				for (double percentile : PERCENTILES)
+				{
+					csv.write("," + format(histogram.getValueAtPercentile(percentile)));
+				}
+				csv.write("," + format(histogram.getMaxValue()));
+				csv.newLine();
+			}
+		}
+		finally
+		{
+			csv.close();
+		}
+	}
+
+	/**
+	 * Writes a JSON array with one object per operation, latencies in milliseconds
+	 */
+
+	public void writeJson(final String path) throws IOException
+	{
+		BufferedWriter json = new BufferedWriter(new FileWriter(path));
+		try
+		{
+			json.write("[");
+			String separator = "";
+			for (String operation : operations())
+			{
+				Histogram histogram = histogram(operation);
+				json.write(separator);
+				json.write("{\"operation\":\"" + operation.replace("\\", "\\\\").replace("\"", "\\\"") + "\"");
+				json.write(",\"count\":" + histogram.getTotalCount());
+				json.write(",\"mean_ms\":" + format(histogram.getMean()));
+				for (double percentile : PERCENTILES)
+				{
+					json.write(",\"p" + label(percentile) + "_ms\":" + format(histogram.getValueAtPercentile(percentile)));
+				}
+				json.write(",\"max_ms\":" + format(histogram.getMaxValue()) + "}");
+				separator = ",";
+			}
+			json.write("]");
+		}
+		finally
+		{
+			json.close();
+		}
+	}
+
+	/**
+	 * Writes the histogram of every operation, tagged with the operation name, in
+	 * the HdrHistogram log format read by HistogramLogProcessor
+	 */
+
+	public void writeHdrLog(final String path) throws IOException
+	{
+		PrintStream out = new PrintStream(new FileOutputStream(path));
+		try
+		{
+			HistogramLogWriter log = new HistogramLogWriter(out);
+			log.outputLogFormatVersion();
+			log.outputStartTime(startTime);
+			log.setBaseTime(startTime);
+			log.outputLegend();
+			long now = System.currentTimeMillis();
+			for (String operation : operations())
+			{
+				Histogram histogram = histogram(operation);
+				histogram.setTag(operation.replace(',', '_').replace(' ', '_'));
+				histogram.setStartTimeStamp(startTime);
+				histogram.setEndTimeStamp(now);
+				log.outputIntervalHistogram(histogram);
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	/**
+	 * Writes the exports named by the LATENCY_CSV_PATH, LATENCY_JSON_PATH and
+	 * LATENCY_HDR_PATH properties, skipping any that are unset or blank
+	 */
+
+	public void export(final Properties properties) throws IOException
+	{
+		String csv = properties.getProperty("LATENCY_CSV_PATH", "").trim();
+		String json = properties.getProperty("LATENCY_JSON_PATH", "").trim();
+		String hdr = properties.getProperty("LATENCY_HDR_PATH", "").trim();
+		if (csv.length() > 0)
+		{
+			writeCsv(csv);
+		}
+		if (json.length() > 0)
+		{
+			writeJson(json);
+		}
+		if (hdr.length() > 0)
+		{
+			writeHdrLog(hdr);
+		}
+	}
+
+	/**
+	 * Nanoseconds as milliseconds, to the microsecond
+	 */
+
+	public static String format(final double nanos)
+	{
+		return String.format(Locale.US, "%.3f", nanos / 1000000.0);
+	}
+
+	private static String label(final double percentile)
+	{
+		return percentile == Math.rint(percentile) ? String.valueOf((long) percentile) : String.valueOf(percentile);
+	}
+
+	private Series series(final String operation)
+	{
+		Series existing = series.get(operation);
+		if (existing == null)
+		{
+			Series created = new Series();
+			existing = series.putIfAbsent(operation, created);
+			if (existing == null)
+			{
+				existing = created;
+			}
+		}
+		return existing;
+	}
+
+	/**
+	 * The recorder of one operation. Reads flip the recorder and fold its interval
+	 * into the running total and into the pending interval.
+	 */
+
+	private static class Series
+	{
+		final Recorder recorder = new Recorder(HIGHEST_TRACKABLE, SIGNIFICANT_DIGITS);
+		private final Histogram total = new Histogram(HIGHEST_TRACKABLE, SIGNIFICANT_DIGITS);
+		private final Histogram pending = new Histogram(HIGHEST_TRACKABLE, SIGNIFICANT_DIGITS);
+		private Histogram recycled;
+
+		synchronized Histogram total()
+		{
+			drain();
+			return total.copy();
+		}
+
+		synchronized Histogram interval()
+		{
+			drain();
+			Histogram interval = pending.copy();
+			interval.setStartTimeStamp(pending.getStartTimeStamp());
+			interval.setEndTimeStamp(System.currentTimeMillis());
+			pending.reset();
+			pending.setStartTimeStamp(System.currentTimeMillis());
+			return interval;
+		}
+
+		private void drain()
+		{
+			recycled = recorder.getIntervalHistogram(recycled);
+			total.add(recycled);
+			if (pending.getTotalCount() == 0 && pending.getStartTimeStamp() == Long.MAX_VALUE)
+			{
+				pending.setStartTimeStamp(recycled.getStartTimeStamp());
+			}
+			pending.add(recycled);
+		}
+	}
+
+}
@@ -0,0 +1,342 @@
+package bench.utils;
+
+import java.util.Arrays;
+import java.util.ArrayList;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads CSV and text files through read-only memory mapped windows. Rows are handed
+ * out as byte ranges over the mapping, so names can be resolved against a
+ * NameDictionary without decoding them, and a String is only built for fields
+ * whose value has to be stored. Files larger than the window are remapped at row
+ * boundaries. Fields are split on commas without quote handling, which matches
+ * the files written by CsvDataGenerator.
+ */
+
+public class MappedCsvReader implements Closeable
+{
+
+	private static final int DEFAULT_WINDOW = 1 << 28;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final long size;
+	private final int windowSize;
+
+	private MappedByteBuffer window;
+	private long windowStart;
+	private int position;
+	private int limit;
+
+	private final Row row = new Row();
+
+	public MappedCsvReader(final String path) throws IOException
+	{
+		this(path, DEFAULT_WINDOW);
+	}
+
+	public MappedCsvReader(final String path, final int windowSize) throws IOException
+	{
+		this.file = new RandomAccessFile(path, "r");
+		this.channel = file.getChannel();
+		this.size = channel.size();
+		this.windowSize = windowSize;
+		map(0);
+	}
+
+	/**
+	 * Advances to the next row
+	 * @return false at the end of the file
+	 */
+
+	public boolean next() throws IOException
+	{
+		while (true)
+		{
+			for (int i = position; i < limit; i++)
+			{
+				if (window.get(i) == '\n')
+				{
+					row.parse(window, position, i);
+					position = i + 1;
+					return true;
+				}
+			}
+			if (windowStart + limit >= size)
+			{
+				// Last row without a trailing newline
+				if (position < limit)
+				{
+					row.parse(window, position, limit);
+					position = limit;
+					return true;
+				}
+				return false;
+			}
+			remap();
+		}
+	}
+
+	/**
+	 * The current row, reused by every call to next()
+	 */
+
+	public Row row()
+	{
+		return row;
+	}
+
+	/**
+	 * Cuts the next run of complete rows out of the mapping, for parsing on another thread
+	 * @param maxRows upper bound on the rows in the chunk
+	 * @return the chunk, or null at the end of the file
+	 */
+
+	public Chunk nextChunk(final int maxRows) throws IOException
+	{
+		while (true)
+		{
+			int rows = 0;
+			int end = position;
+			for (int i = position; i < limit && rows < maxRows; i++)
+			{
+				if (window.get(i) == '\n')
+				{
+					rows++;
+					end = i + 1;
+				}
+			}
+			boolean endOfFile = windowStart + limit >= size;
+			if (endOfFile && rows < maxRows && end < limit)
+			{
+				rows++;
+				end = limit;
+			}
+			if (rows > 0)
+			{
+				Chunk chunk = new Chunk(window, position, end, rows);
+				position = end;
+				return chunk;
+			}
+			if (endOfFile)
+			{
+				return null;
+			}
+			remap();
+		}
+	}
+
+	public void close() throws IOException
+	{
+		channel.close();
+		file.close();
+	}
+
+	/**
+	 * Loads the first lines of a text file into a list, like CsvDataGenerator.load()
+	 */
+
+	public static ArrayList<String> load(final String path, final int number) throws IOException
+	{
+		ArrayList<String> array = new ArrayList<String>(number);
+		MappedCsvReader reader = new MappedCsvReader(path);
+		try
+		{
+			while (array.size() < number)
+			{
+				if (reader.next())
+				{
+					array.add(reader.row().line());
+				}
+				else
+				{
+					throw new IOException("Null value in raw data file.");
+				}
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+		return array;
+	}
+
+	// Moves the window so that it starts at the current row
+	private void remap() throws IOException
+	{
+		if (position == 0)
+		{
+			throw new IOException("Row longer than the " + windowSize + " byte mapping window.");
+		}
+		map(windowStart + position);
+	}
+
+	private void map(final long start) throws IOException
+	{
+		windowStart = start;
+		limit = (int) Math.min(windowSize, size - start);
+		window = channel.map(FileChannel.MapMode.READ_ONLY, start, limit);
+		position = 0;
+	}
+
+	/**
+	 * Field offsets of one row inside a mapped buffer
+	 */
+
+	public static class Row
+	{
+		private ByteBuffer buffer;
+		private int from;
+		private int to;
+		private int[] starts = new int[32];
+		private int[] ends = new int[32];
+		private int count;
+
+		/**
+		 * Splits the bytes between from and to (exclusive, without the newline) into fields
+		 */
+
+		public void parse(final ByteBuffer buffer, final int from, int to)
+		{
+			this.buffer = buffer;
+			this.count = 0;
+			if (to > from && buffer.get(to - 1) == '\r')
+			{
+				to--;
+			}
+			this.from = from;
+			this.to = to;
+			if (to == from)
+			{
+				return;
+			}
+			int start = from;
+			for (int i = from; i < to; i++)
+			{
+				if (buffer.get(i) == ',')
+				{
+					add(start, i);
+					start = i + 1;
+				}
+			}
+			add(start, to);
+		}
+
+		public int fields()
+		{
+			return count;
+		}
+
+		public int start(final int field)
+		{
+			return starts[field];
+		}
+
+		public int length(final int field)
+		{
+			return ends[field] - starts[field];
+		}
+
+		public ByteBuffer buffer()
+		{
+			return buffer;
+		}
+
+		/**
+		 * Resolves a field through a dictionary without decoding it
+		 */
+
+		public long lookup(final NameDictionary dictionary, final int field)
+		{
+			return dictionary.get(buffer, starts[field], ends[field] - starts[field]);
+		}
+
+		/**
+		 * Decodes a field into a String
+		 */
+
+		public String field(final int field)
+		{
+			return decode(starts[field], ends[field]);
+		}
+
+		/**
+		 * Decodes the whole row into a String
+		 */
+
+		public String line()
+		{
+			return decode(from, to);
+		}
+
+		private String decode(final int start, final int end)
+		{
+			byte[] bytes = new byte[end - start];
+			for (int i = 0; i < bytes.length; i++)
+			{
+				bytes[i] = buffer.get(start + i);
+			}
+			return new String(bytes, UTF8);
+		}
+
+		private void add(final int start, final int end)
+		{
+			if (count == starts.length)
+			{
+				starts = Arrays.copyOf(starts, count * 2);
+				ends = Arrays.copyOf(ends, count * 2);
+			}
+			starts[count] = start;
+			ends[count] = end;
+			count++;
+		}
+	}
+
+	/**
+	 * A run of complete rows inside one mapping. The mapping stays valid while
+	 * the chunk is referenced, even after the reader has moved on.
+	 */
+
+	public static class Chunk
+	{
+		public final ByteBuffer buffer;
+		public final int start;
+		public final int end;
+		public final int rows;
+
+		Chunk(final ByteBuffer buffer, final int start, final int end, final int rows)
+		{
+			this.buffer = buffer;
+			this.start = start;
+			this.end = end;
+			this.rows = rows;
+		}
+
+		/**
+		 * Parses the row beginning at position into row
+		 * @return the position of the following row
+		 */
+
+		public int next(final Row row, final int position)
+		{
+			int i = position;
+			while (i < end && buffer.get(i) != '\n')
+			{
+				i++;
+			}
+			row.parse(buffer, position, i);
+			return i + 1;
+		}
+	}
+
+}
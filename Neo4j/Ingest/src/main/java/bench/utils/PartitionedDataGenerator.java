@@ -0,0 +1,337 @@
+package bench.utils;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Properties;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+
+import java.nio.channels.FileChannel;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+
+/**
+ * Parallel, reproducible generator for the people CSV. The person range is split
+ * into one partition per core, and each partition is written to its own file by its
+ * own thread, with a random stream seeded from the configured seed and the
+ * partition number. The same seed and partition count always give the same files,
+ * and their concatenation in partition order is the full people CSV. Friends and
+ * topics are drawn from the KNOWS_DISTRIBUTION and ASSOCIATED_TO_DISTRIBUTION
+ * degree distributions, so a row keeps its fixed number of fields while the
+ * incoming degree of people and topics can be skewed towards hub nodes.
+ */
+
+public class PartitionedDataGenerator
+{
+
+	private final List<String> names;
+	private final List<String> topics;
+	private final Properties properties;
+	private final long seed;
+	private final int partitions;
+	private final int friendsPerPerson;
+	private final int topicsPerPerson;
+	private final DegreeDistribution knows;
+	private final DegreeDistribution associatedTo;
+
+	// Draws allowed for one field before falling back to uniform, so that a few
+	// dominant hubs cannot stall a row that needs distinct values
+	private static final int MAX_ATTEMPTS = 64;
+
+	public PartitionedDataGenerator(Properties properties) throws IOException
+	{
+		this.properties = properties;
+		this.topics = CsvDataGenerator.load(properties.getProperty("TOPICS_PATH"), Integer.decode(properties.getProperty("NUMBER_OF_TOPICS")));
+		this.names = CsvDataGenerator.load(properties.getProperty("NAMES_PATH"), Integer.decode(properties.getProperty("NUMBER_OF_PEOPLE")));
+		this.seed = Long.decode(properties.getProperty("GENERATOR_SEED", "42").trim());
+		int configured = Integer.decode(properties.getProperty("GENERATOR_PARTITIONS", "0").trim());
+		this.partitions = configured > 0 ? configured : Runtime.getRuntime().availableProcessors();
+		this.friendsPerPerson = Integer.decode(properties.getProperty("NUMBER_OF_PEOPLE_PER_PERSON"));
+		this.topicsPerPerson = Integer.decode(properties.getProperty("NUMBER_OF_TOPICS_PER_PERSON"));
+		if (friendsPerPerson >= names.size() || topicsPerPerson > topics.size())
+		{
+			throw new IOException("Not enough people or topics to draw distinct friends and topics per person.");
+		}
+		this.knows = DegreeDistribution.fromProperties(properties, "KNOWS_DISTRIBUTION", names.size(), (long) names.size() * friendsPerPerson);
+		this.associatedTo = DegreeDistribution.fromProperties(properties, "ASSOCIATED_TO_DISTRIBUTION", topics.size(), (long) names.size() * topicsPerPerson);
+		System.out.println("Knows: " + knows.describe());
+		System.out.println("Associated to: " + associatedTo.describe());
+	}
+
+	/**
+	 * Writes every partition in parallel, then joins them into PEOPLE_PATH unless
+	 * GENERATOR_CONCATENATE is false
+	 * @return the partition files in order
+	 */
+
+	public List<File> writePeople() throws IOException
+	{
+		String path = properties.getProperty("PEOPLE_PATH");
+		List<File> files = new ArrayList<File>();
+		List<Future<Long>> results = new ArrayList<Future<Long>>();
+		ExecutorService pool = Executors.newFixedThreadPool(partitions);
+		long start = System.nanoTime();
+		try
+		{
+			for (int partition = 0; partition < partitions; partition++)
+			{
+				final File file = new File(path + String.format(".part-%05d", partition));
+				final int first = (int) ((long) names.size() * partition / partitions);
+				final int last = (int) ((long) names.size() * (partition + 1) / partitions);
+				final long partitionSeed = partitionSeed(seed, partition);
+				files.add(file);
+				results.add(pool.submit(new Callable<Long>()
+				{
+					public Long call() throws IOException
+					{
+						return writePartition(file, first, last, partitionSeed);
+					}
+				}));
+			}
+			for (int partition = 0; partition < partitions; partition++)
+			{
+				long nanos = results.get(partition).get();
+				int rows = (int) ((long) names.size() * (partition + 1) / partitions) - (int) ((long) names.size() * partition / partitions);
+				System.out.println("Partition " + partition + ": " + rows + " rows at " + rate(rows, nanos) + " rows/sec.");
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while generating " + path);
+		}
+		catch (ExecutionException e)
+		{
+			throw new IOException("Failed to generate " + path + ": " + e.getCause().getMessage(), e.getCause());
+		}
+		finally
+		{
+			pool.shutdownNow();
+		}
+		long elapsed = System.nanoTime() - start;
+		System.out.println("Generated " + names.size() + " people in " + partitions + " partitions (seed " + seed + ") in "
+			+ (elapsed / 1000000) + " milliseconds: " + rate(names.size(), elapsed) + " rows/sec.");
+
+		if (Boolean.parseBoolean(properties.getProperty("GENERATOR_CONCATENATE", "true").trim()))
+		{
+			concatenate(files, new File(path));
+		}
+		return files;
+	}
+
+	/**
+	 * Writes the rows of people first (inclusive) to last (exclusive) to one file
+	 * @return the elapsed time in nanoseconds
+	 */
+
+	private long writePartition(final File file, final int first, final int last, final long partitionSeed) throws IOException
+	{
+		long start = System.nanoTime();
+		SplitMix64 random = new SplitMix64(partitionSeed);
+		IntSet picked = new IntSet(Math.max(friendsPerPerson, topicsPerPerson));
+		StringBuilder person = new StringBuilder(256);
+		BufferedWriter peopleBuffer = new BufferedWriter(new FileWriter(file), 1 << 20);
+		try
+		{
+			for (int index = first; index < last; index++)
+			{
+				person.setLength(0);
+				person.append(names.get(index));
+
+				// Who the person knows
+				picked.clear();
+				picked.add(index);
+				for (int friends = 0; friends < friendsPerPerson; friends++)
+				{
+					person.append(',').append(names.get(drawDistinct(knows, random, picked)));
+				}
+
+				// Person's topics
+				picked.clear();
+				for (int subjects = 0; subjects < topicsPerPerson; subjects++)
+				{
+					person.append(',').append(topics.get(drawDistinct(associatedTo, random, picked)));
+				}
+				person.append('\n');
+				peopleBuffer.append(person);
+			}
+		}
+		finally
+		{
+			peopleBuffer.close();
+		}
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * Draws an index not yet in picked and adds it. Uniform distributions draw
+	 * with nextInt() as before skewed ones existed, so seeded files stay the same.
+	 */
+
+	private static int drawDistinct(final DegreeDistribution distribution, final SplitMix64 random, final IntSet picked)
+	{
+		for (int attempt = 0; attempt < MAX_ATTEMPTS && !distribution.isUniform(); attempt++)
+		{
+			int index = distribution.sample(random.nextLong());
+			if (picked.add(index))
+			{
+				return index;
+			}
+		}
+		while (true)
+		{
+			int index = random.nextInt(distribution.size());
+			if (picked.add(index))
+			{
+				return index;
+			}
+		}
+	}
+
+	/**
+	 * Joins the partition files, in order, into one file
+	 */
+
+	public static void concatenate(final List<File> parts, final File target) throws IOException
+	{
+		long start = System.nanoTime();
+		FileChannel out = new FileOutputStream(target).getChannel();
+		try
+		{
+			for (File part : parts)
+			{
+				FileChannel in = new FileInputStream(part).getChannel();
+				try
+				{
+					long position = 0;
+					long size = in.size();
+					while (position < size)
+					{
+						position += in.transferTo(position, size - position, out);
+					}
+				}
+				finally
+				{
+					in.close();
+				}
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+		System.out.println("Concatenated " + parts.size() + " partitions into " + target + " in " + ((System.nanoTime() - start) / 1000000) + " milliseconds.");
+	}
+
+	/**
+	 * Seed of one partition's random stream, derived from the run seed
+	 */
+
+	static long partitionSeed(final long seed, final int partition)
+	{
+		return SplitMix64.mix(seed + (partition + 1) * SplitMix64.GOLDEN_GAMMA);
+	}
+
+	private static long rate(final long rows, final long nanos)
+	{
+		return nanos == 0 ? 0 : rows * 1000000000L / nanos;
+	}
+
+	/**
+	 * The SplitMix64 generator that backs java.util.SplittableRandom; small, fast
+	 * and fully determined by its seed
+	 */
+
+	static final class SplitMix64
+	{
+		static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+		private long state;
+
+		SplitMix64(final long seed)
+		{
+			this.state = seed;
+		}
+
+		long nextLong()
+		{
+			state += GOLDEN_GAMMA;
+			return mix(state);
+		}
+
+		/**
+		 * Uniform int in [0, bound), rejecting the biased tail of the 32 bit range
+		 */
+
+		int nextInt(final int bound)
+		{
+			long limit = (1L << 32) - ((1L << 32) % bound);
+			long bits;
+			do
+			{
+				bits = nextLong() >>> 32;
+			}
+			while (bits >= limit);
+			return (int) (bits % bound);
+		}
+
+		static long mix(long z)
+		{
+			z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+			z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+			return z ^ (z >>> 31);
+		}
+	}
+
+	/**
+	 * Open addressing int set for the distinct draws of one row. Clearing bumps a
+	 * generation stamp instead of wiping the table.
+	 */
+
+	static final class IntSet
+	{
+		private final int[] keys;
+		private final int[] stamps;
+		private final int mask;
+		private int stamp = 1;
+
+		IntSet(final int expected)
+		{
+			int slots = Integer.highestOneBit(Math.max(8, expected * 4) - 1) << 1;
+			this.keys = new int[slots];
+			this.stamps = new int[slots];
+			this.mask = slots - 1;
+		}
+
+		void clear()
+		{
+			stamp++;
+		}
+
+		boolean add(final int key)
+		{
+			int slot = (key * 0x9E3779B9) >>> 7 & mask;
+			while (stamps[slot] == stamp)
+			{
+				if (keys[slot] == key)
+				{
+					return false;
+				}
+				slot = (slot + 1) & mask;
+			}
+			stamps[slot] = stamp;
+			keys[slot] = key;
+			return true;
+		}
+	}
+
+}
@@ -0,0 +1,342 @@
+package bench.utils;
+
+import java.util.List;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.FileInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+
+/**
+ * Materialized number of KNOWS relationships per (person, topic, direction), so
+ * the edge count queries are a hash lookup instead of a scan. The loader adds
+ * every KNOWS relationship it creates and code that creates more afterwards adds
+ * those, so the counts are maintained incrementally rather than recomputed.
+ * Counts live in an open addressing table of packed long keys, the same packing
+ * as TopicEdgeIndex, next to an int count column; topics are numbered in the
+ * order they are first seen. Any number of threads may read while one adds.
+ *
+ * File layout, big endian: magic, topic count, key count, the topic names in
+ * topic number order, then key and count pairs.
+ */
+
+public class TopicEdgeCounts
+{
+
+	private static final int MAGIC = 0x544f5043; // "TOPC"
+	private static final int TOPIC_BITS = 23;
+	private static final long MAX_PERSON = (1L << 39) - 1;
+	private static final long FREE = -1;
+
+	private final NameDictionary topics;
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	private long[] keys;
+	private int[] counts;
+	private int size;
+	private boolean dirty;
+
+	public TopicEdgeCounts()
+	{
+		this(new NameDictionary(1024, false), 1024);
+	}
+
+	private TopicEdgeCounts(final NameDictionary topics, final int expectedKeys)
+	{
+		this.topics = topics;
+		int slots = Integer.highestOneBit(Math.max(16, expectedKeys * 2 - 1)) << 1;
+		keys = new long[slots];
+		counts = new int[slots];
+		Arrays.fill(keys, FREE);
+	}
+
+	/**
+	 * Counts a new KNOWS relationship from one person to another on a topic
+	 */
+
+	public void add(final long from, final long to, final String topic)
+	{
+		lock.writeLock().lock();
+		try
+		{
+			int number = topicNumber(topic);
+			increment(key(from, number, TopicEdgeIndex.OUTGOING));
+			increment(key(to, number, TopicEdgeIndex.INCOMING));
+			dirty = true;
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Number of a person's KNOWS relationships on a topic in one direction,
+	 * TopicEdgeIndex.OUTGOING or INCOMING
+	 */
+
+	public int count(final long person, final String topic, final int direction)
+	{
+		lock.readLock().lock();
+		try
+		{
+			long number = topics.get(topic);
+			if (number == NameDictionary.NO_ID || person < 0 || person > MAX_PERSON)
+			{
+				return 0;
+			}
+			int slot = find(key(person, (int) number, direction));
+			return keys[slot] == FREE ? 0 : counts[slot];
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Number of (person, topic, direction) counts held
+	 */
+
+	public int keys()
+	{
+		lock.readLock().lock();
+		try
+		{
+			return size;
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Whether counts were added since the store was loaded or written
+	 */
+
+	public boolean isDirty()
+	{
+		lock.readLock().lock();
+		try
+		{
+			return dirty;
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+	public String describe()
+	{
+		return keys() + " person topic counts over " + topics.size() + " topics";
+	}
+
+	/**
+	 * Compares every count with a reference store, typically one rebuilt by a full scan
+	 * @param differences receives a description of up to limit differing counts
+	 * @return the number of counts that differ
+	 */
+
+	public int compare(final TopicEdgeCounts reference, final List<String> differences, final int limit)
+	{
+		return differences(this, reference, false, differences, limit) + differences(reference, this, true, differences, limit);
+	}
+
+	// Counts of from that other holds with another value, or with reversed only those other lacks
+	private static int differences(final TopicEdgeCounts from, final TopicEdgeCounts other, final boolean reversed, final List<String> differences, final int limit)
+	{
+		int mismatches = 0;
+		from.lock.readLock().lock();
+		try
+		{
+			for (int slot = 0; slot < from.keys.length; slot++)
+			{
+				long key = from.keys[slot];
+				if (key == FREE)
+				{
+					continue;
+				}
+				long person = key >>> (TOPIC_BITS + 1);
+				String topic = from.topics.keyAt((int) (key >>> 1) & ((1 << TOPIC_BITS) - 1));
+				int direction = (int) key & 1;
+				int count = other.count(person, topic, direction);
+				if (count == from.counts[slot] || (reversed && count != 0))
+				{
+					continue;
+				}
+				mismatches++;
+				if (differences.size() < limit)
+				{
+					differences.add("Node[" + person + "] " + topic + (direction == TopicEdgeIndex.OUTGOING ? " outgoing: " : " incoming: ")
+						+ (reversed ? count : from.counts[slot]) + " counted, " + (reversed ? from.counts[slot] : count) + " expected");
+				}
+			}
+		}
+		finally
+		{
+			from.lock.readLock().unlock();
+		}
+		return mismatches;
+	}
+
+	/**
+	 * Writes the counts to a file, through a temporary file so a crash leaves the
+	 * previous counts in place
+	 */
+
+	public void write(final File file) throws IOException
+	{
+		lock.writeLock().lock();
+		try
+		{
+			File temporary = new File(file.getPath() + ".tmp");
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary), 1 << 16));
+			try
+			{
+				out.writeInt(MAGIC);
+				out.writeInt(topics.size());
+				out.writeInt(size);
+				for (int topic = 0; topic < topics.size(); topic++)
+				{
+					out.writeUTF(topics.keyAt(topic));
+				}
+				for (int slot = 0; slot < keys.length; slot++)
+				{
+					if (keys[slot] != FREE)
+					{
+						out.writeLong(keys[slot]);
+						out.writeInt(counts[slot]);
+					}
+				}
+			}
+			finally
+			{
+				out.close();
+			}
+			if ((file.exists() && !file.delete()) || !temporary.renameTo(file))
+			{
+				throw new IOException("Cannot replace " + file);
+			}
+			dirty = false;
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Reads counts written by write()
+	 */
+
+	public static TopicEdgeCounts load(final File file) throws IOException
+	{
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+		try
+		{
+			if (in.readInt() != MAGIC)
+			{
+				throw new IOException(file + " is not a topic count file.");
+			}
+			int topicCount = in.readInt();
+			int keyCount = in.readInt();
+			NameDictionary topics = new NameDictionary(Math.max(16, topicCount), false);
+			for (int topic = 0; topic < topicCount; topic++)
+			{
+				topics.put(in.readUTF(), topic);
+			}
+			TopicEdgeCounts counts = new TopicEdgeCounts(topics, keyCount);
+			for (int i = 0; i < keyCount; i++)
+			{
+				long key = in.readLong();
+				int slot = counts.find(key);
+				counts.keys[slot] = key;
+				counts.counts[slot] = in.readInt();
+				counts.size++;
+			}
+			return counts;
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	private int topicNumber(final String topic)
+	{
+		long number = topics.get(topic);
+		if (number == NameDictionary.NO_ID)
+		{
+			number = topics.size();
+			if (number >= 1 << TOPIC_BITS)
+			{
+				throw new IllegalStateException("More than " + (1 << TOPIC_BITS) + " KNOWS topics to count.");
+			}
+			topics.put(topic, number);
+		}
+		return (int) number;
+	}
+
+	private void increment(final long key)
+	{
+		int slot = find(key);
+		if (keys[slot] == FREE)
+		{
+			keys[slot] = key;
+			if (++size * 2 > keys.length)
+			{
+				rehash();
+				slot = find(key);
+			}
+		}
+		counts[slot]++;
+	}
+
+	private void rehash()
+	{
+		long[] oldKeys = keys;
+		int[] oldCounts = counts;
+		keys = new long[oldKeys.length * 2];
+		counts = new int[oldKeys.length * 2];
+		Arrays.fill(keys, FREE);
+		for (int slot = 0; slot < oldKeys.length; slot++)
+		{
+			if (oldKeys[slot] != FREE)
+			{
+				int to = find(oldKeys[slot]);
+				keys[to] = oldKeys[slot];
+				counts[to] = oldCounts[slot];
+			}
+		}
+	}
+
+	// Slot holding key, or the free slot where it belongs
+	private int find(final long key)
+	{
+		int mask = keys.length - 1;
+		long h = key * 0x9E3779B97F4A7C15L;
+		int slot = (int) (h ^ (h >>> 32)) & mask;
+		while (keys[slot] != FREE && keys[slot] != key)
+		{
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private static long key(final long person, final int topic, final int direction)
+	{
+		if (person < 0 || person > MAX_PERSON)
+		{
+			throw new IllegalArgumentException("Person node id " + person + " outside 0 to 2^39");
+		}
+		return person << (TOPIC_BITS + 1) | (long) topic << 1 | direction;
+	}
+
+}
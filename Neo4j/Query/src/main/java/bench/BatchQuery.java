@@ -0,0 +1,436 @@
+package bench;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.GraphDatabaseService;
+
+import bench.utils.NodeBitmap;
+import bench.utils.NameLookup;
+import bench.utils.NameDictionary;
+import bench.utils.LatencyRecorder;
+
+/**
+ * Batch versions of queries 1, 5, 6 and 9 that answer many people or topics in
+ * one call. The requested node ids are sorted and deduplicated first, so each
+ * node is read once and in id order, which is store order. Query 6 expands every
+ * friend once for the whole batch rather than once per person who knows them.
+ * Results come back as IdColumns, node ids rather than Node objects. Timings are
+ * recorded in NeoQuery.LATENCY under the NeoQuery method name with a (batch) suffix.
+ */
+
+public class BatchQuery
+{
+
+	private BatchQuery()
+	{
+	}
+
+	/**
+	 * Query 5 for each person: the people they know, per KNOWS relationship in
+	 * either direction
+	 */
+
+	public static IdColumns findPeopleThatKnowAPerson(final GraphDatabaseService neo, final long[] persons)
+	{
+		long start = System.nanoTime();
+		IdColumns people = neighbours(neo, distinct(persons), NeoRelationshipTypes.KNOWS, Direction.BOTH);
+		long elapsed = NeoQuery.LATENCY.record("findPeopleThatKnowAPerson(batch)", start);
+		NeoQuery.log("Queried " + people.size() + " people to see the people that are known in " + LatencyRecorder.format(elapsed) + " milliseconds.");
+		NeoQuery.log("Found: " + people.total() + " people.");
+		return people;
+	}
+
+	/**
+	 * Query 9 for each person: their groups
+	 */
+
+	public static IdColumns findGroups(final GraphDatabaseService neo, final long[] persons)
+	{
+		long start = System.nanoTime();
+		IdColumns groups = neighbours(neo, distinct(persons), NeoRelationshipTypes.IS_MEMBER_OF, Direction.OUTGOING);
+		long elapsed = NeoQuery.LATENCY.record("findGroups(batch)", start);
+		NeoQuery.log("Queried " + groups.size() + " people to see their groups in " + LatencyRecorder.format(elapsed) + " milliseconds.");
+		NeoQuery.log("Found: " + groups.total() + " groups.");
+		return groups;
+	}
+
+	/**
+	 * Query 1 for each topic: the people associated with it
+	 */
+
+	public static IdColumns findPeopleOnTopic(final GraphDatabaseService neo, final long[] topics)
+	{
+		long start = System.nanoTime();
+		IdColumns people = neighbours(neo, distinct(topics), NeoRelationshipTypes.ASSOCIATED_TO, Direction.INCOMING);
+		long elapsed = NeoQuery.LATENCY.record("findPeopleOnTopic(batch)", start);
+		NeoQuery.log("Queried " + people.size() + " topics to see the people related to them in " + LatencyRecorder.format(elapsed) + " milliseconds.");
+		NeoQuery.log("Found: " + people.total() + " people.");
+		return people;
+	}
+
+	/**
+	 * Query 6 for each person: everyone two KNOWS hops away in either direction, in
+	 * ascending id order, the person included when a friend knows them back. The
+	 * friends of the whole batch are expanded once each, in id order.
+	 */
+
+	public static IdColumns findPeopleThatMayKnowAPerson(final GraphDatabaseService neo, final long[] persons)
+	{
+		long start = System.nanoTime();
+
+		// Distinct friends of every person, and of the whole batch
+		long[] sources = distinct(persons);
+		IdColumns friends = neighbours(neo, sources, NeoRelationshipTypes.KNOWS, Direction.BOTH);
+		NodeBitmap union = new NodeBitmap();
+		long[] column = friends.ids();
+		for (int i = 0; i < column.length; i++)
+		{
+			union.add(column[i]);
+		}
+
+		// Expand each friend once
+		IdColumns expanded = neighbours(neo, union.toArray(), NeoRelationshipTypes.KNOWS, Direction.BOTH);
+
+		Builder people = new Builder(sources.length);
+		NodeBitmap found = new NodeBitmap();
+		for (int i = 0; i < friends.size(); i++)
+		{
+			found.clear();
+			for (int j = friends.start(i); j < friends.end(i); j++)
+			{
+				int friend = expanded.indexOf(column[j]);
+				for (int k = expanded.start(friend); k < expanded.end(friend); k++)
+				{
+					found.add(expanded.id(k));
+				}
+			}
+			people.begin(friends.source(i));
+			NodeBitmap.Cursor cursor = found.cursor();
+			while (cursor.hasNext())
+			{
+				people.add(cursor.next());
+			}
+		}
+		IdColumns result = people.build();
+
+		long elapsed = NeoQuery.LATENCY.record("findPeopleThatMayKnowAPerson(batch)", start);
+		NeoQuery.log("Queried " + result.size() + " people to see the people that are known in " + LatencyRecorder.format(elapsed) + " milliseconds, expanding " + expanded.size() + " friends.");
+		NeoQuery.log("Found: " + result.total() + " people.");
+		return result;
+	}
+
+	/**
+	 * Runs queries 1, 5, 6 and 9 over the batch both ways, looping over the single
+	 * node NeoQuery methods and through this class, and logs the throughput of each
+	 * and whether they found the same nodes. Both run once untimed first, so neither
+	 * pays for loading the neighbourhoods into the cache.
+	 */
+
+	public static void compare(final GraphDatabaseService neo, final long[] persons, final long[] topics)
+	{
+		for (int round = 0; round < 2; round++)
+		{
+			boolean timed = round == 1;
+			NeoQuery.Output output = NeoQuery.getOutput();
+			long[] nanos = new long[8];
+			IdColumns[] batches = new IdColumns[4];
+			long[][][] loops = new long[4][][];
+			// Keep the per node timing lines of the loops off the output
+			NeoQuery.setOutput(new NeoQuery.Output()
+			{
+				public void println(final Object line)
+				{
+				}
+			});
+			try
+			{
+				long start = System.nanoTime();
+				loops[0] = new long[topics.length][];
+				for (int i = 0; i < topics.length; i++)
+				{
+					loops[0][i] = ids(NeoQuery.findPeopleOnTopic(neo.getNodeById(topics[i])));
+				}
+				nanos[0] = System.nanoTime() - start;
+				start = System.nanoTime();
+				batches[0] = findPeopleOnTopic(neo, topics);
+				nanos[1] = System.nanoTime() - start;
+
+				start = System.nanoTime();
+				loops[1] = new long[persons.length][];
+				for (int i = 0; i < persons.length; i++)
+				{
+					loops[1][i] = ids(NeoQuery.findPeopleThatKnowAPerson(neo.getNodeById(persons[i])));
+				}
+				nanos[2] = System.nanoTime() - start;
+				start = System.nanoTime();
+				batches[1] = findPeopleThatKnowAPerson(neo, persons);
+				nanos[3] = System.nanoTime() - start;
+
+				start = System.nanoTime();
+				loops[2] = new long[persons.length][];
+				for (int i = 0; i < persons.length; i++)
+				{
+					loops[2][i] = ids(NeoQuery.findPeopleThatMayKnowAPerson(neo.getNodeById(persons[i])));
+				}
+				nanos[4] = System.nanoTime() - start;
+				start = System.nanoTime();
+				batches[2] = findPeopleThatMayKnowAPerson(neo, persons);
+				nanos[5] = System.nanoTime() - start;
+
+				start = System.nanoTime();
+				loops[3] = new long[persons.length][];
+				for (int i = 0; i < persons.length; i++)
+				{
+					loops[3][i] = ids(NeoQuery.findGroups(neo.getNodeById(persons[i])));
+				}
+				nanos[6] = System.nanoTime() - start;
+				start = System.nanoTime();
+				batches[3] = findGroups(neo, persons);
+				nanos[7] = System.nanoTime() - start;
+			}
+			finally
+			{
+				NeoQuery.setOutput(output);
+			}
+			if (timed)
+			{
+				logComparison("Query 1", topics, nanos[0], nanos[1], same(topics, loops[0], batches[0]));
+				logComparison("Query 5", persons, nanos[2], nanos[3], same(persons, loops[1], batches[1]));
+				logComparison("Query 6", persons, nanos[4], nanos[5], same(persons, loops[2], batches[2]));
+				logComparison("Query 9", persons, nanos[6], nanos[7], same(persons, loops[3], batches[3]));
+			}
+		}
+	}
+
+	/**
+	 * Node ids of size names for a batch: the first name, then names drawn
+	 * uniformly with repeats from a generator seeded by seed
+	 */
+
+	public static long[] sample(final NameLookup names, final String first, final int size, final long seed)
+	{
+		long[] ids = new long[size];
+		Random random = new Random(seed);
+		for (int i = 0; i < size; i++)
+		{
+			ids[i] = i == 0 ? NameDictionary.resolve(names, first) : names.valueAt(random.nextInt(names.size()));
+			if (ids[i] == NameDictionary.NO_ID)
+			{
+				throw new IllegalArgumentException(first + " is not in the dictionary.");
+			}
+		}
+		return ids;
+	}
+
+	private static void logComparison(final String query, final long[] sources, final long loopNanos, final long batchNanos, final boolean same)
+	{
+		NeoQuery.log(query + " for " + sources.length + " (" + distinct(sources).length + " distinct): one at a time " + LatencyRecorder.format(loopNanos) + " ms, "
+			+ String.format("%.1f", sources.length / (loopNanos / 1e9)) + " per second; batched " + LatencyRecorder.format(batchNanos) + " ms, "
+			+ String.format("%.1f", sources.length / (batchNanos / 1e9)) + " per second; speedup " + String.format("%.2f", (double) loopNanos / Math.max(batchNanos, 1))
+			+ (same ? ", same results." : ", RESULTS DIFFER."));
+	}
+
+	// Whether the batch holds the same ids in the same order as the loop, for every source
+	private static boolean same(final long[] sources, final long[][] loop, final IdColumns batch)
+	{
+		for (int i = 0; i < sources.length; i++)
+		{
+			int row = batch.indexOf(sources[i]);
+			if (row < 0 || !Arrays.equals(loop[i], batch.ids(row)))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static long[] ids(final Iterable<Node> nodes)
+	{
+		long[] ids = new long[16];
+		int count = 0;
+		for (Node node : nodes)
+		{
+			if (count == ids.length)
+			{
+				ids = Arrays.copyOf(ids, count * 2);
+			}
+			ids[count++] = node.getId();
+		}
+		return Arrays.copyOf(ids, count);
+	}
+
+	/**
+	 * The ids sorted ascending without repeats
+	 */
+
+	static long[] distinct(final long[] ids)
+	{
+		long[] sorted = ids.clone();
+		Arrays.sort(sorted);
+		int count = 0;
+		for (int i = 0; i < sorted.length; i++)
+		{
+			if (i == 0 || sorted[i] != sorted[i - 1])
+			{
+				sorted[count++] = sorted[i];
+			}
+		}
+		return Arrays.copyOf(sorted, count);
+	}
+
+	// The other node of each relationship of one type and direction, per source in order
+	private static IdColumns neighbours(final GraphDatabaseService neo, final long[] sources, final RelationshipType type, final Direction direction)
+	{
+		Builder neighbours = new Builder(sources.length);
+		for (int i = 0; i < sources.length; i++)
+		{
+			Node node = neo.getNodeById(sources[i]);
+			neighbours.begin(sources[i]);
+			for (Relationship relationship : node.getRelationships(type, direction))
+			{
+				neighbours.add(relationship.getOtherNode(node).getId());
+			}
+		}
+		return neighbours.build();
+	}
+
+	/**
+	 * Result of a batch query: the distinct source node ids in ascending order and,
+	 * for each, a range of the ids column holding its answer
+	 */
+
+	public static final class IdColumns
+	{
+		private final long[] sources;
+		private final int[] offsets;
+		private final long[] ids;
+
+		private IdColumns(final long[] sources, final int[] offsets, final long[] ids)
+		{
+			this.sources = sources;
+			this.offsets = offsets;
+			this.ids = ids;
+		}
+
+		/**
+		 * Number of sources
+		 */
+
+		public int size()
+		{
+			return sources.length;
+		}
+
+		/**
+		 * Number of ids over all sources
+		 */
+
+		public int total()
+		{
+			return ids.length;
+		}
+
+		public long source(final int row)
+		{
+			return sources[row];
+		}
+
+		/**
+		 * Row of a source node id, or -1 when it was not asked for
+		 */
+
+		public int indexOf(final long source)
+		{
+			int row = Arrays.binarySearch(sources, source);
+			return row < 0 ? -1 : row;
+		}
+
+		/**
+		 * First index in the ids column of a row's answer
+		 */
+
+		public int start(final int row)
+		{
+			return offsets[row];
+		}
+
+		/**
+		 * Index in the ids column after a row's answer
+		 */
+
+		public int end(final int row)
+		{
+			return offsets[row + 1];
+		}
+
+		public long id(final int index)
+		{
+			return ids[index];
+		}
+
+		/**
+		 * A copy of one row's answer
+		 */
+
+		public long[] ids(final int row)
+		{
+			return Arrays.copyOfRange(ids, offsets[row], offsets[row + 1]);
+		}
+
+		/**
+		 * The ids column itself, not a copy
+		 */
+
+		public long[] ids()
+		{
+			return ids;
+		}
+	}
+
+	// Appends the rows of an IdColumns, in ascending source order
+	private static final class Builder
+	{
+		private final long[] sources;
+		private final int[] offsets;
+		private long[] ids = new long[1024];
+		private int rows;
+		private int total;
+
+		Builder(final int size)
+		{
+			sources = new long[size];
+			offsets = new int[size + 1];
+		}
+
+		void begin(final long source)
+		{
+			offsets[rows] = total;
+			sources[rows++] = source;
+		}
+
+		void add(final long id)
+		{
+			if (total == ids.length)
+			{
+				if (total == Integer.MAX_VALUE - 8)
+				{
+					throw new IllegalStateException("Batch result exceeds " + total + " ids.");
+				}
+				ids = Arrays.copyOf(ids, (int) Math.min((long) total * 2, Integer.MAX_VALUE - 8));
+			}
+			ids[total++] = id;
+		}
+
+		IdColumns build()
+		{
+			offsets[rows] = total;
+			return new IdColumns(Arrays.copyOf(sources, rows), Arrays.copyOf(offsets, rows + 1), Arrays.copyOf(ids, total));
+		}
+	}
+
+}
@@ -0,0 +1,383 @@
+package bench;
+
+import java.util.List;
+import java.util.Random;
+import java.util.ArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import bench.utils.CsrAdjacency;
+import bench.utils.LatencyRecorder;
+
+/**
+ * Betweenness centrality of every person over the whole KNOWS graph of a
+ * GraphSnapshot, by Brandes' algorithm. Shortest paths are unweighted and follow
+ * KNOWS in either direction, and dependencies are halved, as in query 17.
+ * Sources are handed out in chunks to one task per thread of the ParallelQuery
+ * pool; each task searches with its thread's snapshot scratch arrays and sums
+ * dependencies into its own array, and the arrays are added up at the end, so
+ * threads share nothing while searching. Given a number of samples, only that
+ * many sources chosen at random are searched and the sums are scaled up by
+ * people / samples, which estimates the exact values (Brandes and Pich).
+ */
+
+public class BrandesBetweenness
+{
+
+	// Sources a task takes at a time
+	private static final int CHUNK = 16;
+
+	private BrandesBetweenness()
+	{
+	}
+
+	/**
+	 * Centrality of every person on the ParallelQuery pool
+	 * @param samples sources to search, 0 or at least the number of people for all
+	 */
+
+	public static Result compute(final GraphSnapshot snapshot, final int samples, final long seed)
+	{
+		return compute(snapshot, samples, seed, ParallelQuery.parallelism());
+	}
+
+	/**
+	 * Centrality of every person with threads tasks, on the calling thread when 1
+	 */
+
+	public static Result compute(final GraphSnapshot snapshot, final int samples, final long seed, final int threads)
+	{
+		long start = System.nanoTime();
+
+		final int[] sources = sources(snapshot.people(), samples, seed);
+		final AtomicInteger claimed = new AtomicInteger();
+		double[] centrality;
+		if (threads <= 1)
+		{
+			centrality = accumulate(snapshot, sources, claimed);
+		}
+		else
+		{
+			List<Callable<double[]>> tasks = new ArrayList<Callable<double[]>>(threads);
+			for (int task = 0; task < threads; task++)
+			{
+				tasks.add(new Callable<double[]>()
+				{
+					public double[] call()
+					{
+						return accumulate(snapshot, sources, claimed);
+					}
+				});
+			}
+			centrality = null;
+			try
+			{
+				for (Future<double[]> future : ParallelQuery.pool().invokeAll(tasks))
+				{
+					double[] partial = future.get();
+					if (centrality == null)
+					{
+						centrality = partial;
+						continue;
+					}
+					for (int i = 0; i < partial.length; i++)
+					{
+						centrality[i] += partial[i];
+					}
+				}
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while computing betweenness centrality.", e);
+			}
+			catch (ExecutionException e)
+			{
+				throw new IllegalStateException("Computing betweenness centrality failed.", e.getCause());
+			}
+		}
+		double scale = (double) snapshot.people() / Math.max(sources.length, 1);
+		for (int i = 0; i < centrality.length; i++)
+		{
+			centrality[i] *= scale / 2;
+		}
+
+		long elapsed = NeoQuery.LATENCY.record("findBetweennessCentrality(snapshot)", start);
+		NeoQuery.log("Computed the betweenness centrality of " + snapshot.people() + " people from " + sources.length + " sources on " + Math.max(threads, 1)
+			+ " threads in " + LatencyRecorder.format(elapsed) + " milliseconds, " + String.format("%.1f", sources.length / (elapsed / 1e9)) + " sources per second.");
+		return new Result(centrality, sources.length);
+	}
+
+	/**
+	 * Computes the centrality on the calling thread and on the pool, after an
+	 * untimed run of each, and logs both timings and whether they agree
+	 * @return the parallel result
+	 */
+
+	public static Result compare(final GraphSnapshot snapshot, final int samples, final long seed)
+	{
+		Result sequential = null, parallel = null;
+		long sequentialNanos = 0, parallelNanos = 0;
+		NeoQuery.Output output = NeoQuery.getOutput();
+		// Keep the timing lines of each run off the output
+		NeoQuery.setOutput(new NeoQuery.Output()
+		{
+			public void println(final Object line)
+			{
+			}
+		});
+		try
+		{
+			for (int round = 0; round < 2; round++)
+			{
+				long start = System.nanoTime();
+				sequential = compute(snapshot, samples, seed, 1);
+				sequentialNanos = System.nanoTime() - start;
+				start = System.nanoTime();
+				parallel = compute(snapshot, samples, seed);
+				parallelNanos = System.nanoTime() - start;
+			}
+		}
+		finally
+		{
+			NeoQuery.setOutput(output);
+		}
+		// Partial sums are added in a different order, so allow for rounding
+		boolean same = true;
+		for (int i = 0; i < snapshot.people(); i++)
+		{
+			same &= Math.abs(sequential.centrality(i) - parallel.centrality(i)) <= 1e-9 * Math.max(1, Math.abs(sequential.centrality(i)));
+		}
+		NeoQuery.log("Query 26: sequential " + LatencyRecorder.format(sequentialNanos) + " ms, parallel " + LatencyRecorder.format(parallelNanos)
+			+ " ms on " + ParallelQuery.parallelism() + " threads, speedup " + String.format("%.2f", (double) sequentialNanos / Math.max(parallelNanos, 1))
+			+ (same ? ", same results." : ", RESULTS DIFFER."));
+		return parallel;
+	}
+
+	// All people, or samples of them drawn without replacement
+	private static int[] sources(final int people, final int samples, final long seed)
+	{
+		int[] sources = new int[people];
+		for (int i = 0; i < people; i++)
+		{
+			sources[i] = i;
+		}
+		if (samples <= 0 || samples >= people)
+		{
+			return sources;
+		}
+		// Partial Fisher-Yates shuffle
+		Random random = new Random(seed);
+		for (int i = 0; i < samples; i++)
+		{
+			int j = i + random.nextInt(people - i);
+			int source = sources[j];
+			sources[j] = sources[i];
+			sources[i] = source;
+		}
+		int[] sample = new int[samples];
+		System.arraycopy(sources, 0, sample, 0, samples);
+		return sample;
+	}
+
+	// Brandes from the sources a task claims, summing dependencies into its own array
+	private static double[] accumulate(final GraphSnapshot snapshot, final int[] sources, final AtomicInteger claimed)
+	{
+		GraphSnapshot.Scratch scratch = snapshot.scratch();
+		double[] centrality = new double[snapshot.people()];
+		for (int first = claimed.getAndAdd(CHUNK); first < sources.length; first = claimed.getAndAdd(CHUNK))
+		{
+			int last = Math.min(first + CHUNK, sources.length);
+			for (int s = first; s < last; s++)
+			{
+				int reached = dependencies(snapshot, scratch, sources[s]);
+				for (int i = 1; i < reached; i++)
+				{
+					centrality[scratch.queue[i]] += scratch.delta[scratch.queue[i]];
+				}
+			}
+		}
+		return centrality;
+	}
+
+	/**
+	 * One source of Brandes' algorithm: counts shortest paths from the source
+	 * breadth first, then accumulates each person's dependency on it in reverse
+	 * breadth first order. Leaves the people reached in scratch.queue, the source
+	 * first, and their dependencies in scratch.delta; entries of people not
+	 * reached are stale.
+	 * @return the number of people reached, the source included
+	 */
+
+	static int dependencies(final GraphSnapshot snapshot, final GraphSnapshot.Scratch scratch, final int source)
+	{
+		scratch.ensureCentrality();
+		CsrAdjacency[] knows = {snapshot.knowsOut(), snapshot.knowsIn()};
+		int[] queue = scratch.queue;
+		int[] distance = scratch.distance;
+		double[] sigma = scratch.sigma;
+		double[] delta = scratch.delta;
+
+		// Count shortest paths breadth first
+		int mark = scratch.next();
+		int head = 0, tail = 0;
+		queue[tail++] = source;
+		scratch.stamp[source] = mark;
+		distance[source] = 0;
+		sigma[source] = 1;
+		delta[source] = 0;
+		while (head < tail)
+		{
+			int node = queue[head++];
+			for (CsrAdjacency adjacency : knows)
+			{
+				for (int edge = adjacency.begin(node); edge < adjacency.end(node); edge++)
+				{
+					int next = adjacency.target(edge);
+					if (scratch.stamp[next] != mark)
+					{
+						scratch.stamp[next] = mark;
+						distance[next] = distance[node] + 1;
+						sigma[next] = 0;
+						delta[next] = 0;
+						queue[tail++] = next;
+					}
+					if (distance[next] == distance[node] + 1)
+					{
+						sigma[next] += sigma[node];
+					}
+				}
+			}
+		}
+
+		// Accumulate dependencies in reverse breadth first order
+		for (int i = tail - 1; i > 0; i--)
+		{
+			int node = queue[i];
+			double share = (1 + delta[node]) / sigma[node];
+			for (CsrAdjacency adjacency : knows)
+			{
+				for (int edge = adjacency.begin(node); edge < adjacency.end(node); edge++)
+				{
+					int previous = adjacency.target(edge);
+					if (distance[previous] == distance[node] - 1)
+					{
+						delta[previous] += sigma[previous] * share;
+					}
+				}
+			}
+		}
+		return tail;
+	}
+
+	/**
+	 * Centrality by person number
+	 */
+
+	public static final class Result
+	{
+		private final double[] centrality;
+		private final int sources;
+
+		private Result(final double[] centrality, final int sources)
+		{
+			this.centrality = centrality;
+			this.sources = sources;
+		}
+
+		public int size()
+		{
+			return centrality.length;
+		}
+
+		/**
+		 * Sources searched, all people unless sampled
+		 */
+
+		public int sources()
+		{
+			return sources;
+		}
+
+		public double centrality(final int person)
+		{
+			return centrality[person];
+		}
+
+		/**
+		 * Person numbers of the k most central people, most central first, ties by
+		 * lower number
+		 */
+
+		public int[] top(final int k)
+		{
+			int size = Math.max(0, Math.min(k, centrality.length));
+			// Min heap of the best so far, least central at the root
+			int[] heap = new int[size];
+			int count = 0;
+			for (int person = 0; person < centrality.length && size > 0; person++)
+			{
+				if (count < size)
+				{
+					heap[count] = person;
+					up(heap, count++);
+				}
+				else if (before(person, heap[0]))
+				{
+					heap[0] = person;
+					down(heap, count);
+				}
+			}
+			int[] top = new int[count];
+			while (count > 0)
+			{
+				top[--count] = heap[0];
+				heap[0] = heap[count];
+				down(heap, count);
+			}
+			return top;
+		}
+
+		// Whether person ranks above other
+		private boolean before(final int person, final int other)
+		{
+			return centrality[person] > centrality[other] || (centrality[person] == centrality[other] && person < other);
+		}
+
+		private void up(final int[] heap, int i)
+		{
+			while (i > 0 && before(heap[(i - 1) >>> 1], heap[i]))
+			{
+				int parent = (i - 1) >>> 1;
+				int person = heap[i];
+				heap[i] = heap[parent];
+				heap[parent] = person;
+				i = parent;
+			}
+		}
+
+		private void down(final int[] heap, final int count)
+		{
+			int i = 0;
+			while (2 * i + 1 < count)
+			{
+				int child = 2 * i + 1;
+				if (child + 1 < count && before(heap[child], heap[child + 1]))
+				{
+					child++;
+				}
+				if (!before(heap[i], heap[child]))
+				{
+					break;
+				}
+				int person = heap[i];
+				heap[i] = heap[child];
+				heap[child] = person;
+				i = child;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,229 @@
+package bench;
+
+import java.util.Arrays;
+
+import bench.utils.CsrAdjacency;
+
+/**
+ * Breadth first search over the KNOWS relationships of a GraphSnapshot, in either
+ * direction, that picks a direction per level. Top-down expands every frontier
+ * person's relationships; bottom-up scans the people not yet visited and stops at
+ * the first relationship back into the frontier, which costs less once the
+ * frontier covers much of the graph. It switches to bottom-up when the frontier's
+ * relationships exceed 1/alpha of those still unexplored, and back to top-down
+ * when the frontier shrinks below 1/beta of the people (Beamer, Asanovic and
+ * Patterson's heuristic; 14 and 24 are their defaults).
+ */
+
+public class DirectionOptimizingBfs
+{
+
+	public static final int DEFAULT_ALPHA = 14;
+	public static final int DEFAULT_BETA = 24;
+
+	private DirectionOptimizingBfs()
+	{
+	}
+
+	/**
+	 * Visits everyone within level hops of a person
+	 * @param alpha top-down to bottom-up switch factor
+	 * @param beta bottom-up to top-down switch factor
+	 */
+
+	public static Result search(final GraphSnapshot snapshot, final int person, final int level, final int alpha, final int beta)
+	{
+		CsrAdjacency out = snapshot.knowsOut();
+		CsrAdjacency in = snapshot.knowsIn();
+		int people = snapshot.people();
+		GraphSnapshot.Scratch scratch = snapshot.scratch();
+		int mark = scratch.next();
+		int[] stamp = scratch.stamp;
+		int[] distance = scratch.distance;
+		int[] queue = scratch.queue;
+
+		int head = 0, tail = 0;
+		queue[tail++] = person;
+		stamp[person] = mark;
+		distance[person] = 0;
+
+		long frontierEdges = out.degree(person) + in.degree(person);
+		long unexploredEdges = 2L * out.edges() - frontierEdges;
+		boolean bottomUp = false;
+		int[] levelSizes = new int[Math.max(level, 0)];
+		boolean[] bottomUpLevels = new boolean[levelSizes.length];
+		long examined = 0;
+		int depth = 0;
+		for (; depth < level && head < tail; depth++)
+		{
+			int frontier = tail - head;
+			if (!bottomUp && frontierEdges > unexploredEdges / alpha)
+			{
+				bottomUp = true;
+			}
+			else if (bottomUp && frontier < people / beta)
+			{
+				bottomUp = false;
+			}
+
+			int levelEnd = tail;
+			long nextEdges = 0;
+			if (bottomUp)
+			{
+				// Every unvisited person looks for a neighbour in the frontier
+				for (int node = 0; node < people; node++)
+				{
+					if (stamp[node] == mark)
+					{
+						continue;
+					}
+					int scanned = hasParent(out, node, stamp, distance, mark, depth);
+					if (scanned <= 0)
+					{
+						examined -= scanned;
+						scanned = hasParent(in, node, stamp, distance, mark, depth);
+					}
+					if (scanned > 0)
+					{
+						examined += scanned;
+						stamp[node] = mark;
+						distance[node] = depth + 1;
+						queue[tail++] = node;
+						nextEdges += out.degree(node) + in.degree(node);
+					}
+					else
+					{
+						examined -= scanned;
+					}
+				}
+			}
+			else
+			{
+				// Every frontier person claims its unvisited neighbours
+				for (int i = head; i < levelEnd; i++)
+				{
+					int node = queue[i];
+					for (int pass = 0; pass < 2; pass++)
+					{
+						CsrAdjacency knows = pass == 0 ? out : in;
+						for (int edge = knows.begin(node); edge < knows.end(node); edge++)
+						{
+							int next = knows.target(edge);
+							if (stamp[next] != mark)
+							{
+								stamp[next] = mark;
+								distance[next] = depth + 1;
+								queue[tail++] = next;
+								nextEdges += out.degree(next) + in.degree(next);
+							}
+						}
+						examined += knows.degree(node);
+					}
+				}
+			}
+			head = levelEnd;
+			levelSizes[depth] = tail - levelEnd;
+			bottomUpLevels[depth] = bottomUp;
+			frontierEdges = nextEdges;
+			unexploredEdges -= nextEdges;
+		}
+		return new Result(Arrays.copyOfRange(queue, 1, tail), Arrays.copyOf(levelSizes, depth), Arrays.copyOf(bottomUpLevels, depth), examined);
+	}
+
+	/**
+	 * Scans a person's relationships for one into the frontier at depth
+	 * @return the number of relationships scanned up to and including the hit, or
+	 * minus the number scanned when there is none
+	 */
+
+	private static int hasParent(final CsrAdjacency knows, final int node, final int[] stamp, final int[] distance, final int mark, final int depth)
+	{
+		int begin = knows.begin(node);
+		int end = knows.end(node);
+		for (int edge = begin; edge < end; edge++)
+		{
+			int neighbour = knows.target(edge);
+			if (stamp[neighbour] == mark && distance[neighbour] == depth)
+			{
+				return edge - begin + 1;
+			}
+		}
+		return -(end - begin);
+	}
+
+	/**
+	 * People visited, in the order they were reached, and how each level was expanded
+	 */
+
+	public static final class Result
+	{
+		private final int[] people;
+		private final int[] levelSizes;
+		private final boolean[] bottomUp;
+		private final long examined;
+
+		private Result(final int[] people, final int[] levelSizes, final boolean[] bottomUp, final long examined)
+		{
+			this.people = people;
+			this.levelSizes = levelSizes;
+			this.bottomUp = bottomUp;
+			this.examined = examined;
+		}
+
+		/**
+		 * Person numbers within the level limit, the start person excluded, nearest first
+		 */
+
+		public int[] people()
+		{
+			return people;
+		}
+
+		/**
+		 * Number of people first reached at depth + 1
+		 */
+
+		public int levelSize(final int depth)
+		{
+			return levelSizes[depth];
+		}
+
+		public int levels()
+		{
+			return levelSizes.length;
+		}
+
+		public boolean isBottomUp(final int depth)
+		{
+			return bottomUp[depth];
+		}
+
+		/**
+		 * Relationships read by the search, the work the direction switch saves
+		 */
+
+		public long edgesExamined()
+		{
+			return examined;
+		}
+
+		/**
+		 * Per level direction and size for logging, e.g. "top-down 50, bottom-up 1900"
+		 */
+
+		public String describe()
+		{
+			StringBuilder levels = new StringBuilder();
+			for (int depth = 0; depth < levelSizes.length; depth++)
+			{
+				if (depth > 0)
+				{
+					levels.append(", ");
+				}
+				levels.append(bottomUp[depth] ? "bottom-up " : "top-down ").append(levelSizes[depth]);
+			}
+			return levels.append("; ").append(examined).append(" relationships examined").toString();
+		}
+	}
+
+}
@@ -0,0 +1,389 @@
+package bench;
+
+import java.util.Arrays;
+
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.GraphDatabaseService;
+
+import bench.utils.CsrAdjacency;
+import bench.utils.NameLookup;
+import bench.utils.NameDictionary;
+
+/**
+ * Read-only copy of the KNOWS, ASSOCIATED_TO and IS_MEMBER_OF relationships in
+ * compressed sparse row form, for the SnapshotQuery traversals. People and topics
+ * are numbered by their index in the person and topic dictionaries, so person n
+ * is people.keyAt(n), and groups by their order under the groups node. KNOWS is
+ * kept in both directions with its weight and topic number; ASSOCIATED_TO is kept
+ * from person to topic and from topic to person with its weight. Changes made to
+ * the graph after loading are not seen.
+ */
+
+public class GraphSnapshot
+{
+
+	private final NameLookup people;
+	private final NameLookup topics;
+	private final long[] groupIds;
+	private final CsrAdjacency knowsOut;
+	private final CsrAdjacency knowsIn;
+	private final CsrAdjacency associatedTo;
+	private final CsrAdjacency topicMembers;
+	private final CsrAdjacency memberOf;
+	private final IdIndex personIndex;
+	private final IdIndex topicIndex;
+
+	private final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>()
+	{
+		protected Scratch initialValue()
+		{
+			return new Scratch(people.size());
+		}
+	};
+
+	private GraphSnapshot(final NameLookup people, final NameLookup topics, final long[] groupIds, final IdIndex personIndex, final IdIndex topicIndex,
+		final CsrAdjacency knowsOut, final CsrAdjacency knowsIn, final CsrAdjacency associatedTo, final CsrAdjacency topicMembers, final CsrAdjacency memberOf)
+	{
+		this.people = people;
+		this.topics = topics;
+		this.groupIds = groupIds;
+		this.personIndex = personIndex;
+		this.topicIndex = topicIndex;
+		this.knowsOut = knowsOut;
+		this.knowsIn = knowsIn;
+		this.associatedTo = associatedTo;
+		this.topicMembers = topicMembers;
+		this.memberOf = memberOf;
+	}
+
+	/**
+	 * Reads the relationships of every person in the dictionary
+	 * @param offHeap allocate the adjacency columns in direct buffers
+	 */
+
+	public static GraphSnapshot load(final GraphDatabaseService neo, final NameLookup people, final NameLookup topics, final boolean offHeap)
+	{
+		IdIndex personIndex = new IdIndex(people);
+		IdIndex topicIndex = new IdIndex(topics);
+
+		// Groups in the order they hang off the groups node
+		Node groupNodes = neo.getReferenceNode().getSingleRelationship(NeoRelationshipTypes.GROUPS, Direction.OUTGOING).getEndNode();
+		long[] groupIds = new long[16];
+		int groups = 0;
+		for (Relationship group : groupNodes.getRelationships(NeoRelationshipTypes.GROUP, Direction.OUTGOING))
+		{
+			if (groups == groupIds.length)
+			{
+				groupIds = Arrays.copyOf(groupIds, groups * 2);
+			}
+			groupIds[groups++] = group.getEndNode().getId();
+		}
+		groupIds = Arrays.copyOf(groupIds, groups);
+		IdIndex groupIndex = new IdIndex(groupIds);
+
+		CsrAdjacency.Builder knowsOut = new CsrAdjacency.Builder(people.size(), true, true);
+		CsrAdjacency.Builder knowsIn = new CsrAdjacency.Builder(people.size(), true, true);
+		CsrAdjacency.Builder associatedTo = new CsrAdjacency.Builder(people.size(), true, false);
+		CsrAdjacency.Builder topicMembers = new CsrAdjacency.Builder(topics.size(), true, false);
+		CsrAdjacency.Builder memberOf = new CsrAdjacency.Builder(people.size(), false, false);
+		for (int person = 0; person < people.size(); person++)
+		{
+			Node personNode = neo.getNodeById(people.valueAt(person));
+			for (Relationship knows : personNode.getRelationships(NeoRelationshipTypes.KNOWS, Direction.OUTGOING))
+			{
+				int friend = personIndex.get(knows.getEndNode().getId());
+				if (friend < 0)
+				{
+					continue;
+				}
+				int weight = weight(knows);
+				long topicId = KnowsTopic.nodeIdOf(knows, topics);
+				int topic = topicId == NameDictionary.NO_ID ? CsrAdjacency.NO_TOPIC : topicIndex.get(topicId);
+				knowsOut.add(person, friend, weight, topic);
+				knowsIn.add(friend, person, weight, topic);
+			}
+			for (Relationship associated : personNode.getRelationships(NeoRelationshipTypes.ASSOCIATED_TO, Direction.OUTGOING))
+			{
+				int topic = topicIndex.get(associated.getEndNode().getId());
+				if (topic < 0)
+				{
+					continue;
+				}
+				int weight = weight(associated);
+				associatedTo.add(person, topic, weight, CsrAdjacency.NO_TOPIC);
+				topicMembers.add(topic, person, weight, CsrAdjacency.NO_TOPIC);
+			}
+			for (Relationship member : personNode.getRelationships(NeoRelationshipTypes.IS_MEMBER_OF, Direction.OUTGOING))
+			{
+				int group = groupIndex.get(member.getEndNode().getId());
+				if (group >= 0)
+				{
+					memberOf.add(person, group, 0, CsrAdjacency.NO_TOPIC);
+				}
+			}
+		}
+		return new GraphSnapshot(people, topics, groupIds, personIndex, topicIndex,
+			knowsOut.build(offHeap), knowsIn.build(offHeap), associatedTo.build(offHeap), topicMembers.build(offHeap), memberOf.build(offHeap));
+	}
+
+	private static int weight(final Relationship relationship)
+	{
+		Object weight = relationship.getProperty("weight", null);
+		return weight instanceof Number ? ((Number) weight).intValue() : 0;
+	}
+
+	public int people()
+	{
+		return people.size();
+	}
+
+	public int topics()
+	{
+		return topics.size();
+	}
+
+	public int groups()
+	{
+		return groupIds.length;
+	}
+
+	/**
+	 * Person number of a node id, or -1 if the node is not a known person
+	 */
+
+	public int personIndex(final long nodeId)
+	{
+		return personIndex.get(nodeId);
+	}
+
+	/**
+	 * Topic number of a node id, or -1 if the node is not a known topic
+	 */
+
+	public int topicIndex(final long nodeId)
+	{
+		return topicIndex.get(nodeId);
+	}
+
+	public String personName(final int person)
+	{
+		return people.keyAt(person);
+	}
+
+	public long personId(final int person)
+	{
+		return people.valueAt(person);
+	}
+
+	public String topicName(final int topic)
+	{
+		return topics.keyAt(topic);
+	}
+
+	public long groupId(final int group)
+	{
+		return groupIds[group];
+	}
+
+	/**
+	 * Outgoing KNOWS, person to person, with weight and topic
+	 */
+
+	public CsrAdjacency knowsOut()
+	{
+		return knowsOut;
+	}
+
+	/**
+	 * Incoming KNOWS, indexed by the end person
+	 */
+
+	public CsrAdjacency knowsIn()
+	{
+		return knowsIn;
+	}
+
+	/**
+	 * ASSOCIATED_TO, person to topic, with weight
+	 */
+
+	public CsrAdjacency associatedTo()
+	{
+		return associatedTo;
+	}
+
+	/**
+	 * ASSOCIATED_TO reversed, topic to person, with weight
+	 */
+
+	public CsrAdjacency topicMembers()
+	{
+		return topicMembers;
+	}
+
+	/**
+	 * IS_MEMBER_OF, person to group
+	 */
+
+	public CsrAdjacency memberOf()
+	{
+		return memberOf;
+	}
+
+	/**
+	 * Traversal arrays of the calling thread, sized to the number of people
+	 */
+
+	Scratch scratch()
+	{
+		return scratch.get();
+	}
+
+	public long memoryFootprint()
+	{
+		return knowsOut.memoryFootprint() + knowsIn.memoryFootprint() + associatedTo.memoryFootprint()
+			+ topicMembers.memoryFootprint() + memberOf.memoryFootprint() + personIndex.memoryFootprint() + topicIndex.memoryFootprint();
+	}
+
+	/**
+	 * Summary of sizes and footprint for logging
+	 */
+
+	public String describe()
+	{
+		return people() + " people, " + topics() + " topics, " + groups() + " groups, " + knowsOut.edges() + " knows, "
+			+ associatedTo.edges() + " associated to, " + memberOf.edges() + " member of in " + memoryFootprint() + " bytes";
+	}
+
+	/**
+	 * Per thread traversal state. Entries of distance and parent are only valid
+	 * where stamp equals the current mark, so a traversal starts with next() instead
+	 * of clearing arrays as long as the graph. Centrality and heap arrays are
+	 * allocated on first use.
+	 */
+
+	static final class Scratch
+	{
+		final int[] stamp;
+		final int[] distance;
+		final int[] parent;
+		final int[] queue;
+		double[] sigma;
+		double[] delta;
+		long[] heap = new long[64];
+		private int mark;
+
+		Scratch(final int people)
+		{
+			stamp = new int[people];
+			distance = new int[people];
+			parent = new int[people];
+			queue = new int[people];
+		}
+
+		/**
+		 * Starts a traversal, returning the mark that flags nodes it has visited
+		 */
+
+		int next()
+		{
+			if (++mark == 0)
+			{
+				Arrays.fill(stamp, 0);
+				mark = 1;
+			}
+			return mark;
+		}
+
+		/**
+		 * Whether the current traversal has visited the node
+		 */
+
+		boolean visited(final int node)
+		{
+			return stamp[node] == mark;
+		}
+
+		void ensureCentrality()
+		{
+			if (sigma == null)
+			{
+				sigma = new double[stamp.length];
+				delta = new double[stamp.length];
+			}
+		}
+	}
+
+	/**
+	 * Open addressing map from node id to dense number
+	 */
+
+	private static final class IdIndex
+	{
+		private final long[] keys;
+		private final int[] values;
+		private final int mask;
+
+		IdIndex(final NameLookup dictionary)
+		{
+			this(ids(dictionary));
+		}
+
+		IdIndex(final long[] ids)
+		{
+			int slots = Integer.highestOneBit(Math.max(16, ids.length * 2 - 1)) << 1;
+			keys = new long[slots];
+			values = new int[slots];
+			mask = slots - 1;
+			Arrays.fill(values, -1);
+			for (int i = 0; i < ids.length; i++)
+			{
+				int slot = mix(ids[i]) & mask;
+				while (values[slot] != -1 && keys[slot] != ids[i])
+				{
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = ids[i];
+				values[slot] = i;
+			}
+		}
+
+		int get(final long id)
+		{
+			int slot = mix(id) & mask;
+			while (values[slot] != -1)
+			{
+				if (keys[slot] == id)
+				{
+					return values[slot];
+				}
+				slot = (slot + 1) & mask;
+			}
+			return -1;
+		}
+
+		long memoryFootprint()
+		{
+			return 12L * keys.length;
+		}
+
+		private static long[] ids(final NameLookup dictionary)
+		{
+			long[] ids = new long[dictionary.size()];
+			for (int i = 0; i < ids.length; i++)
+			{
+				ids[i] = dictionary.valueAt(i);
+			}
+			return ids;
+		}
+
+		private static int mix(final long id)
+		{
+			long h = id * 0x9E3779B97F4A7C15L;
+			return (int) (h ^ (h >>> 32));
+		}
+	}
+
+}
@@ -0,0 +1,106 @@
+package bench;
+
+import java.util.Set;
+import java.util.List;
+import java.util.HashSet;
+import java.util.ArrayList;
+
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.event.PropertyEntry;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+
+/**
+ * Keeps the topic counts and the query cache in step with the KNOWS
+ * relationships of committed transactions. beforeCommit() notes the KNOWS
+ * relationships a transaction creates and, when there is a cache, the people
+ * and topics of those whose weight it changes, while they can still be read.
+ * afterCommit() applies them, so a transaction that rolls back leaves the counts
+ * as they were, and a reader cannot cache what was committed before a write
+ * after the write has invalidated it. Registered once per database by
+ * NeoQuery.loadDictionaries().
+ */
+
+final class KnowsCommitHandler implements TransactionEventHandler<KnowsCommitHandler.Changes>
+{
+
+	/**
+	 * A KNOWS relationship created by a transaction
+	 */
+
+	static final class Created
+	{
+		final long person;
+		final long friend;
+		final String personName;
+		final String friendName;
+		final String topic;
+
+		Created(final Relationship knows)
+		{
+			person = knows.getStartNode().getId();
+			friend = knows.getEndNode().getId();
+			personName = name(knows.getStartNode());
+			friendName = name(knows.getEndNode());
+			topic = KnowsTopic.nameOf(knows);
+		}
+	}
+
+	/**
+	 * What a transaction changed in KNOWS relationships
+	 */
+
+	static final class Changes
+	{
+		final List<Created> created = new ArrayList<Created>();
+		// Person name and topic of each end of the relationships given a new weight
+		final List<String[]> reweighted = new ArrayList<String[]>();
+	}
+
+	public Changes beforeCommit(final TransactionData data)
+	{
+		Changes changes = new Changes();
+		Set<Long> created = new HashSet<Long>();
+		for (Relationship knows : data.createdRelationships())
+		{
+			if (knows.isType(NeoRelationshipTypes.KNOWS) && !data.isDeleted(knows))
+			{
+				changes.created.add(new Created(knows));
+				created.add(knows.getId());
+			}
+		}
+		if (NeoQuery.getQueryCache() != null)
+		{
+			for (PropertyEntry<Relationship> entry : data.assignedRelationshipProperties())
+			{
+				Relationship knows = entry.entity();
+				if (entry.key().equals("weight") && knows.isType(NeoRelationshipTypes.KNOWS) && !created.contains(knows.getId()) && !data.isDeleted(knows))
+				{
+					String topic = KnowsTopic.nameOf(knows);
+					changes.reweighted.add(new String[] {name(knows.getStartNode()), topic});
+					changes.reweighted.add(new String[] {name(knows.getEndNode()), topic});
+				}
+			}
+		}
+		return changes.created.isEmpty() && changes.reweighted.isEmpty() ? null : changes;
+	}
+
+	public void afterCommit(final TransactionData data, final Changes changes)
+	{
+		if (changes != null)
+		{
+			NeoQuery.knowsCommitted(changes);
+		}
+	}
+
+	public void afterRollback(final TransactionData data, final Changes changes)
+	{
+	}
+
+	private static String name(final Node person)
+	{
+		return (String) person.getProperty("name", null);
+	}
+
+}
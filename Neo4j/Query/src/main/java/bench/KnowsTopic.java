@@ -0,0 +1,133 @@
+package bench;
+
+import org.neo4j.graphdb.Relationship;
+
+import bench.utils.NameLookup;
+import bench.utils.NameDictionary;
+
+/**
+ * Topic of KNOWS relationships. The ingest stores it as the topic name in a
+ * "topic" property, or with KNOWS_TOPIC = id as the topic node id in an int
+ * "topicId" property, which takes less of the property store than a string and
+ * compares as an int; names missing from the topic list are stored as names in
+ * either mode. A KnowsTopic resolves a name once per query, so matching each
+ * relationship reads one property and compares it with one value.
+ */
+
+public final class KnowsTopic
+{
+
+	public static final String NAME = "topic";
+	public static final String ID = "topicId";
+
+	/**
+	 * Reference node property in which the ingest records KNOWS_TOPIC
+	 */
+
+	public static final String MODE = "knowsTopic";
+
+	private static volatile boolean IDS;
+	private static volatile NameLookup TOPICS;
+
+	private final String name;
+	private final String property;
+	private final Object value;
+
+	private KnowsTopic(final String name, final String property, final Object value)
+	{
+		this.name = name;
+		this.property = property;
+		this.value = value;
+	}
+
+	/**
+	 * Sets how the graph's KNOWS relationships hold their topic
+	 * @param ids whether the graph was ingested with KNOWS_TOPIC = id
+	 * @param topics topic names to topic node ids
+	 */
+
+	public static void configure(final boolean ids, final NameLookup topics)
+	{
+		TOPICS = topics;
+		IDS = ids;
+	}
+
+	public static boolean isIdMode()
+	{
+		return IDS;
+	}
+
+	/**
+	 * Resolves a topic name for matching and setting on relationships
+	 */
+
+	public static KnowsTopic of(final String name)
+	{
+		long id = IDS ? TOPICS.get(name) : NameDictionary.NO_ID;
+		if (id == NameDictionary.NO_ID || id > Integer.MAX_VALUE)
+		{
+			return new KnowsTopic(name, NAME, name);
+		}
+		return new KnowsTopic(name, ID, Integer.valueOf((int) id));
+	}
+
+	public String name()
+	{
+		return name;
+	}
+
+	/**
+	 * Whether a KNOWS relationship is on this topic
+	 */
+
+	public boolean matches(final Relationship knows)
+	{
+		return value.equals(knows.getProperty(property, null));
+	}
+
+	/**
+	 * Puts this topic on a new KNOWS relationship
+	 */
+
+	public void set(final Relationship knows)
+	{
+		knows.setProperty(property, value);
+	}
+
+	/**
+	 * Topic node id of a KNOWS relationship's topic, or NameDictionary.NO_ID
+	 */
+
+	public static long nodeIdOf(final Relationship knows, final NameLookup topics)
+	{
+		if (IDS)
+		{
+			Object id = knows.getProperty(ID, null);
+			if (id != null)
+			{
+				return ((Integer) id).longValue();
+			}
+		}
+		Object name = knows.getProperty(NAME, null);
+		return name == null ? NameDictionary.NO_ID : topics.get(name.toString());
+	}
+
+	/**
+	 * Name of a KNOWS relationship's topic, "" when it has none; topic ids are
+	 * resolved through the topic node
+	 */
+
+	public static String nameOf(final Relationship knows)
+	{
+		if (IDS)
+		{
+			Object id = knows.getProperty(ID, null);
+			if (id != null)
+			{
+				return (String) knows.getGraphDatabase().getNodeById((Integer) id).getProperty(NAME);
+			}
+		}
+		return String.valueOf(knows.getProperty(NAME, ""));
+	}
+
+}
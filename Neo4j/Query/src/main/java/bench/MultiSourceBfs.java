@@ -0,0 +1,212 @@
+package bench;
+
+import java.util.Arrays;
+
+import bench.utils.CsrAdjacency;
+
+/**
+ * Breadth first searches from many people at once over the KNOWS relationships
+ * of a GraphSnapshot, in either direction (MS-BFS, Then et al., "The More the
+ * Merrier"). Every person holds words of 64 bits, one bit per source of the
+ * batch, for the sources that have reached them and for those in the current
+ * frontier, so a level reads each frontier person's relationships once for
+ * all the sources instead of once per source. Sources are searched in batches of
+ * 64 times words. The result holds, per source, how many people it reaches and
+ * at which depth.
+ */
+
+public class MultiSourceBfs
+{
+
+	private MultiSourceBfs()
+	{
+	}
+
+	/**
+	 * Reach within level hops of each source, the source itself excluded
+	 * @param sources person numbers, which may repeat
+	 * @param words 64 bit words per person, so 64 * words sources per batch
+	 */
+
+	public static Result search(final GraphSnapshot snapshot, final int[] sources, final int level, final int words)
+	{
+		if (words < 1)
+		{
+			throw new IllegalArgumentException("At least one word per person, not " + words);
+		}
+		CsrAdjacency out = snapshot.knowsOut();
+		CsrAdjacency in = snapshot.knowsIn();
+		int people = snapshot.people();
+		int batch = 64 * words;
+		int levels = Math.max(level, 0);
+		if ((long) people * words > Integer.MAX_VALUE - 8)
+		{
+			throw new IllegalStateException(people + " people with " + words + " words each exceed an array.");
+		}
+		long[] seen = new long[people * words];
+		long[] visit = new long[people * words];
+		long[] next = new long[people * words];
+		int[] levelSizes = new int[sources.length * levels];
+		long examined = 0;
+
+		for (int first = 0; first < sources.length; first += batch)
+		{
+			int count = Math.min(batch, sources.length - first);
+			Arrays.fill(seen, 0);
+			Arrays.fill(visit, 0);
+			for (int i = 0; i < count; i++)
+			{
+				int slot = sources[first + i] * words + (i >>> 6);
+				seen[slot] |= 1L << (i & 63);
+				visit[slot] |= 1L << (i & 63);
+			}
+
+			for (int depth = 0; depth < levels; depth++)
+			{
+				// Every frontier person passes its sources to the neighbours they have not reached
+				for (int node = 0; node < people; node++)
+				{
+					int base = node * words;
+					long any = 0;
+					for (int word = 0; word < words; word++)
+					{
+						any |= visit[base + word];
+					}
+					if (any == 0)
+					{
+						continue;
+					}
+					for (int pass = 0; pass < 2; pass++)
+					{
+						CsrAdjacency knows = pass == 0 ? out : in;
+						for (int edge = knows.begin(node); edge < knows.end(node); edge++)
+						{
+							int neighbour = knows.target(edge) * words;
+							for (int word = 0; word < words; word++)
+							{
+								long reached = visit[base + word] & ~seen[neighbour + word];
+								if (reached != 0)
+								{
+									next[neighbour + word] |= reached;
+								}
+							}
+						}
+						examined += knows.degree(node);
+					}
+				}
+
+				// The sources that reached a person first at this depth form the next frontier
+				boolean growing = false;
+				for (int slot = 0; slot < next.length; slot++)
+				{
+					long reached = next[slot] & ~seen[slot];
+					visit[slot] = reached;
+					next[slot] = 0;
+					if (reached == 0)
+					{
+						continue;
+					}
+					seen[slot] |= reached;
+					growing = true;
+					int source = first + (slot % words << 6);
+					while (reached != 0)
+					{
+						levelSizes[(source + Long.numberOfTrailingZeros(reached)) * levels + depth]++;
+						reached &= reached - 1;
+					}
+				}
+				if (!growing)
+				{
+					break;
+				}
+			}
+		}
+		return new Result(sources.clone(), levels, levelSizes, examined);
+	}
+
+	/**
+	 * Per source reach counts and depth histograms
+	 */
+
+	public static final class Result
+	{
+		private final int[] sources;
+		private final int levels;
+		private final int[] levelSizes;
+		private final long examined;
+
+		private Result(final int[] sources, final int levels, final int[] levelSizes, final long examined)
+		{
+			this.sources = sources;
+			this.levels = levels;
+			this.levelSizes = levelSizes;
+			this.examined = examined;
+		}
+
+		public int size()
+		{
+			return sources.length;
+		}
+
+		public int source(final int index)
+		{
+			return sources[index];
+		}
+
+		public int levels()
+		{
+			return levels;
+		}
+
+		/**
+		 * Number of people the source at index first reaches at depth + 1
+		 */
+
+		public int levelSize(final int index, final int depth)
+		{
+			return levelSizes[index * levels + depth];
+		}
+
+		/**
+		 * Number of people within the level limit of the source at index
+		 */
+
+		public int reach(final int index)
+		{
+			int reach = 0;
+			for (int depth = 0; depth < levels; depth++)
+			{
+				reach += levelSizes[index * levels + depth];
+			}
+			return reach;
+		}
+
+		/**
+		 * Relationships read by the search, over all batches
+		 */
+
+		public long edgesExamined()
+		{
+			return examined;
+		}
+
+		/**
+		 * Depth histogram of one source for logging, e.g. "10, 90, 800"
+		 */
+
+		public String describe(final int index)
+		{
+			StringBuilder histogram = new StringBuilder();
+			for (int depth = 0; depth < levels; depth++)
+			{
+				if (depth > 0)
+				{
+					histogram.append(", ");
+				}
+				histogram.append(levelSizes[index * levels + depth]);
+			}
+			return histogram.toString();
+		}
+	}
+
+}
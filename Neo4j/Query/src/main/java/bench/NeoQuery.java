@@ -7,18 +7,18 @@ import java.util.Stack;
 import java.util.Arrays;
 import java.util.Random;
 import java.util.HashSet;
+import java.util.WeakHashMap;
 import java.util.HashMap;
 import java.util.Scanner;
 import java.util.Iterator;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Properties;
 
-import java.io.FileWriter;
+import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
-import java.io.BufferedWriter;
 
-import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
@@ -31,6 +31,7 @@ import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.Transaction;
 import org.neo4j.graphdb.Relationship;
 import org.neo4j.graphdb.StopEvaluator;
+import org.neo4j.graphdb.NotFoundException;
 import org.neo4j.graphdb.PropertyContainer;
 import org.neo4j.graphdb.ReturnableEvaluator;
 import org.neo4j.graphdb.GraphDatabaseService;
@@ -39,26 +40,34 @@ import org.neo4j.kernel.EmbeddedGraphDatabase;
 import org.neo4j.kernel.impl.batchinsert.BatchInserter;
 import org.neo4j.kernel.impl.batchinsert.BatchInserterImpl;
 
-import org.neo4j.graphalgo.centrality.BetweennessCentrality;
-import org.neo4j.graphalgo.centrality.EigenvectorCentralityPower;
-import org.neo4j.graphalgo.centrality.EigenvectorCentralityArnoldi;
-
-import org.neo4j.graphalgo.shortestpath.Dijkstra;
-import org.neo4j.graphalgo.shortestpath.FloydWarshall;
-import org.neo4j.graphalgo.shortestpath.std.DoubleAdder;
-import org.neo4j.graphalgo.shortestpath.std.IntegerAdder;
-import org.neo4j.graphalgo.shortestpath.std.DoubleEvaluator;
-import org.neo4j.graphalgo.shortestpath.std.DoubleComparator;
-import org.neo4j.graphalgo.shortestpath.std.IntegerEvaluator;
-import org.neo4j.graphalgo.shortestpath.std.IntegerComparator;
-import org.neo4j.graphalgo.shortestpath.SingleSourceShortestPath;
-import org.neo4j.graphalgo.shortestpath.SingleSourceShortestPathBFS;
-import org.neo4j.graphalgo.shortestpath.SingleSourceShortestPathDijkstra;
-import org.neo4j.graphalgo.shortestpath.SingleSourceSingleSinkShortestPath;
-
-import bench.utils.PersonDAO;
-import bench.utils.Stopwatch;
-import bench.utils.CsvDataGenerator;
+import org.neo4j.graphalgo.CostEvaluator;
+
+import org.neo4j.graphalgo.impl.centrality.BetweennessCentrality;
+import org.neo4j.graphalgo.impl.centrality.EigenvectorCentralityPower;
+import org.neo4j.graphalgo.impl.centrality.EigenvectorCentralityArnoldi;
+
+import org.neo4j.graphalgo.impl.shortestpath.Dijkstra;
+import org.neo4j.graphalgo.impl.shortestpath.FloydWarshall;
+import org.neo4j.graphalgo.impl.util.DoubleAdder;
+import org.neo4j.graphalgo.impl.util.IntegerAdder;
+import org.neo4j.graphalgo.impl.util.DoubleEvaluator;
+import org.neo4j.graphalgo.impl.util.DoubleComparator;
+import org.neo4j.graphalgo.impl.util.IntegerEvaluator;
+import org.neo4j.graphalgo.impl.util.IntegerComparator;
+import org.neo4j.graphalgo.impl.shortestpath.SingleSourceShortestPath;
+import org.neo4j.graphalgo.impl.shortestpath.SingleSourceShortestPathBFS;
+import org.neo4j.graphalgo.impl.shortestpath.SingleSourceShortestPathDijkstra;
+import org.neo4j.graphalgo.impl.shortestpath.SingleSourceSingleSinkShortestPath;
+
+import bench.utils.NodeBitmap;
+import bench.utils.NameLookup;
+import bench.utils.QueryCache;
+import bench.utils.TopicEdgeIndex;
+import bench.utils.TopicEdgeCounts;
+import bench.utils.NameDictionary;
+import bench.utils.LatencyRecorder;
+import bench.utils.PersonJsonWriter;
+import bench.utils.MappedNameDictionary;
 
 /**
  * This class is used to query the Neo4J Graph database.
@@ -82,13 +91,345 @@ public class NeoQuery
      * Runtime map, resolves topic strings to nodeIds
 	 */
 
-	private static HashMap<String,Long> TOPICMAP;
+	private static NameLookup TOPICMAP;
 
 	/**
      * Runtime maps, resolves person strings to nodeIds
 	 */
 
-	private static HashMap<String,Long> PERSONMAP;
+	private static NameLookup PERSONMAP;
+
+	/**
+	 * CSR copy of the graph, loaded when SNAPSHOT is true or on first use by a
+	 * query that only runs against it
+	 */
+
+	private static volatile GraphSnapshot SNAPSHOT;
+
+	/**
+	 * When SNAPSHOT is true, the traversal queries run against the snapshot
+	 * through SnapshotQuery
+	 */
+
+	private static volatile boolean SNAPSHOT_QUERIES;
+
+	/**
+	 * KNOWS relationships by person, topic and direction, written by the loader to
+	 * TOPIC_INDEX_PATH; queries 4, 14, 15 and 16 read it instead of every KNOWS
+	 * relationship's topic when it is loaded
+	 */
+
+	private static volatile TopicEdgeIndex TOPIC_INDEX;
+
+	/**
+	 * KNOWS relationship counts by person, topic and direction, written by the loader
+	 * to TOPIC_COUNTS_PATH and kept up to date by a KnowsCommitHandler as KNOWS
+	 * relationships are committed; queries 14 and 15 read them when loaded
+	 */
+
+	private static volatile TopicEdgeCounts TOPIC_COUNTS;
+
+	/**
+	 * Results of queries 1, 2, 4, 5, 9, 14 and 15 when QUERY_CACHE_SIZE is set; the
+	 * KNOWS relationships that transactions create or reweight are invalidated
+	 * once they commit
+	 */
+
+	private static volatile QueryCache CACHE;
+
+	/**
+	 * Databases a KnowsCommitHandler is registered with
+	 */
+
+	private static final Set<GraphDatabaseService> COMMIT_HANDLERS = Collections.newSetFromMap(new WeakHashMap<GraphDatabaseService, Boolean>());
+
+	/**
+	 * Latency histograms of the query methods, keyed by method name
+	 */
+
+	public static final LatencyRecorder LATENCY = new LatencyRecorder();
+
+	/**
+	 * When set, the queries stop printing their timing lines and results
+	 */
+
+	private static volatile boolean QUIET;
+
+	/**
+	 * Receives the output of the queries a thread runs, in place of the console
+	 */
+
+	public interface Output
+	{
+		void println(Object line);
+	}
+
+	private static final ThreadLocal<Output> OUTPUT = new ThreadLocal<Output>();
+
+	/**
+	 * Receives the JSON variants of the queries a thread runs, in place of JSON_PATH
+	 */
+
+	private static final ThreadLocal<File> JSON_FILE = new ThreadLocal<File>();
+
+	/**
+	 * Reads the integer weight of a relationship as the double cost expected by the
+	 * eigenvector centrality algorithms; ingest never writes a cost property
+	 */
+
+	private static final CostEvaluator<Double> WEIGHT_AS_COST = new CostEvaluator<Double>()
+	{
+		public Double getCost(final Relationship relationship, final Direction direction)
+		{
+			return ((Number) relationship.getProperty("weight")).doubleValue();
+		}
+	};
+
+	/**
+	 * Sets the configuration for callers that run the queries without main(),
+	 * such as the benchmark harness. JSON_PATH and DICTIONARY_OFF_HEAP are read
+	 * from it.
+	 */
+
+	public static void setProperties(final Properties properties)
+	{
+		PROPERTIES = properties;
+	}
+
+	/**
+	 * Silences the console output of the queries, so that concurrent callers such
+	 * as the workload driver measure the queries rather than the console
+	 */
+
+	public static void setQuiet(final boolean quiet)
+	{
+		QUIET = quiet;
+	}
+
+	/**
+	 * Sends the timing lines and results of the queries the calling thread runs to
+	 * output, even when quiet, or back to the console when null
+	 */
+
+	public static void setOutput(final Output output)
+	{
+		if (output == null)
+		{
+			OUTPUT.remove();
+		}
+		else
+		{
+			OUTPUT.set(output);
+		}
+	}
+
+	/**
+	 * Writes the JSON variants of the queries the calling thread runs to file, or
+	 * back to JSON_PATH when null, so concurrent queries do not share one file
+	 */
+
+	public static void setJsonFile(final File file)
+	{
+		if (file == null)
+		{
+			JSON_FILE.remove();
+		}
+		else
+		{
+			JSON_FILE.set(file);
+		}
+	}
+
+	/**
+	 * The calling thread's output, or null for the console
+	 */
+
+	static Output getOutput()
+	{
+		return OUTPUT.get();
+	}
+
+	/**
+	 * Builds the topic and person dictionaries used by executeQuery(), once
+	 */
+
+	public static synchronized void loadDictionaries(final GraphDatabaseService neo)
+	{
+		if (TOPICMAP == null || PERSONMAP == null)
+		{
+			long start = System.nanoTime();
+			TOPICMAP = getNames("topic", PROPERTIES.getProperty("TOPIC_NAMES_PATH", "").trim(), neo);
+			PERSONMAP = getNames("person", PROPERTIES.getProperty("PERSON_NAMES_PATH", "").trim(), neo);
+			long elapsed = LATENCY.record("loadDictionaries", start);
+			log("Topic dictionary: " + TOPICMAP.describe());
+			log("Person dictionary: " + PERSONMAP.describe());
+			log("Loaded dictionaries in: " + LatencyRecorder.format(elapsed) + " milliseconds.");
+		}
+		String knowsTopic = PROPERTIES.getProperty("KNOWS_TOPIC", "name").trim();
+		String ingested = ingestedKnowsTopic(neo);
+		if (ingested != null && !ingested.equals(knowsTopic))
+		{
+			throw new IllegalStateException("The graph was ingested with KNOWS_TOPIC = " + ingested + ", but KNOWS_TOPIC = " + knowsTopic
+				+ " is configured; topic queries would find nothing.");
+		}
+		KnowsTopic.configure("id".equals(knowsTopic), TOPICMAP);
+		if (COMMIT_HANDLERS.add(neo))
+		{
+			neo.registerTransactionEventHandler(new KnowsCommitHandler());
+		}
+		String indexPath = PROPERTIES.getProperty("TOPIC_INDEX_PATH", "").trim();
+		if (TOPIC_INDEX == null && indexPath.length() > 0)
+		{
+			try
+			{
+				TopicEdgeIndex index = TopicEdgeIndex.load(new File(indexPath));
+				if (matchesGraph(index, neo))
+				{
+					TOPIC_INDEX = index;
+					log("Topic index: " + TOPIC_INDEX.describe());
+				}
+				else
+				{
+					log("Topic index " + indexPath + " does not match the graph, scanning KNOWS relationships instead.");
+				}
+			}
+			catch (IOException e)
+			{
+				log("Topic index " + indexPath + " not loaded, scanning KNOWS relationships instead: " + e.getMessage());
+			}
+		}
+		String countsPath = PROPERTIES.getProperty("TOPIC_COUNTS_PATH", "").trim();
+		if (TOPIC_COUNTS == null && countsPath.length() > 0)
+		{
+			try
+			{
+				TOPIC_COUNTS = TopicEdgeCounts.load(new File(countsPath));
+				log("Topic counts: " + TOPIC_COUNTS.describe());
+			}
+			catch (IOException e)
+			{
+				log("Topic counts " + countsPath + " not loaded, counting KNOWS relationships instead: " + e.getMessage());
+			}
+		}
+		ParallelQuery.setParallelism(Integer.decode(PROPERTIES.getProperty("PARALLELISM", "0").trim()));
+		int cacheSize = Integer.decode(PROPERTIES.getProperty("QUERY_CACHE_SIZE", "0").trim());
+		if (CACHE == null && cacheSize > 0)
+		{
+			CACHE = new QueryCache(cacheSize, Long.parseLong(PROPERTIES.getProperty("QUERY_CACHE_TTL_MILLIS", "0").trim()), LATENCY);
+		}
+		if (Boolean.parseBoolean(PROPERTIES.getProperty("SNAPSHOT", "false").trim()))
+		{
+			loadSnapshot(neo);
+			SNAPSHOT_QUERIES = true;
+		}
+	}
+
+	// KNOWS_TOPIC the graph was ingested with, from the reference node, or for graphs
+	// ingested before it was recorded from the first KNOWS relationships that tell;
+	// null when none do
+	private static String ingestedKnowsTopic(final GraphDatabaseService neo)
+	{
+		Object recorded = neo.getReferenceNode().getProperty(KnowsTopic.MODE, null);
+		if (recorded != null)
+		{
+			return recorded.toString();
+		}
+		for (int person = 0; person < Math.min(PERSONMAP.size(), 100); person++)
+		{
+			for (Relationship knows : neo.getNodeById(PERSONMAP.valueAt(person)).getRelationships(NeoRelationshipTypes.KNOWS, Direction.OUTGOING))
+			{
+				if (knows.hasProperty(KnowsTopic.ID))
+				{
+					return "id";
+				}
+				// The id mode only stores names missing from the topic list
+				Object name = knows.getProperty(KnowsTopic.NAME, null);
+				if (name != null && TOPICMAP.containsKey(name.toString()))
+				{
+					return "name";
+				}
+			}
+		}
+		return null;
+	}
+
+	// Spot checks keys spread over the index against the graph, which may have been
+	// ingested again without writing the index
+	private static boolean matchesGraph(final TopicEdgeIndex index, final GraphDatabaseService neo)
+	{
+		int checks = Math.min(index.keys(), 8);
+		try
+		{
+			for (int i = 0; i < checks; i++)
+			{
+				int key = (int) ((long) (index.keys() - 1) * i / Math.max(checks - 1, 1));
+				Relationship knows = neo.getRelationshipById(index.relationshipAt(key));
+				Node person = index.directionAt(key) == TopicEdgeIndex.OUTGOING ? knows.getStartNode() : knows.getEndNode();
+				if (!knows.isType(NeoRelationshipTypes.KNOWS) || person.getId() != index.personAt(key) || !KnowsTopic.nameOf(knows).equals(index.topicAt(key)))
+				{
+					return false;
+				}
+			}
+		}
+		catch (NotFoundException e)
+		{
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Loads the snapshot once, whatever SNAPSHOT is set to; only SNAPSHOT routes
+	 * the other traversal queries to it
+	 */
+
+	public static synchronized GraphSnapshot loadSnapshot(final GraphDatabaseService neo)
+	{
+		if (SNAPSHOT == null)
+		{
+			long start = System.nanoTime();
+			boolean offHeap = Boolean.parseBoolean(PROPERTIES.getProperty("SNAPSHOT_OFF_HEAP", "false").trim());
+			SNAPSHOT = GraphSnapshot.load(neo, PERSONMAP, TOPICMAP, offHeap);
+			long elapsed = LATENCY.record("loadSnapshot", start);
+			log("Snapshot: " + SNAPSHOT.describe() + " (" + (offHeap ? "off-heap" : "heap") + ") loaded in " + LatencyRecorder.format(elapsed) + " milliseconds.");
+		}
+		return SNAPSHOT;
+	}
+
+	/**
+	 * The query result cache, or null when QUERY_CACHE_SIZE is 0
+	 */
+
+	public static QueryCache getQueryCache()
+	{
+		return CACHE;
+	}
+
+	// Result of a read query through the cache, when there is one
+	private static <V> V cached(final QueryCache.Key key, final QueryCache.Loader<V> loader)
+	{
+		QueryCache cache = CACHE;
+		return cache == null ? loader.load() : cache.get(key, loader);
+	}
+
+	/**
+	 * The snapshot loaded so far, or null
+	 */
+
+	public static GraphSnapshot getSnapshot()
+	{
+		return SNAPSHOT;
+	}
+
+	public static NameLookup getTopicMap()
+	{
+		return TOPICMAP;
+	}
+
+	public static NameLookup getPersonMap()
+	{
+		return PERSONMAP;
+	}
 
 	/**
 	 * Main method is used to query the Neo4J Graph database.
@@ -122,197 +463,402 @@ public class NeoQuery
 			int breadth = Integer.decode(PROPERTIES.getProperty("BREADTH"));
 			int query = Integer.decode(PROPERTIES.getProperty("QUERY"));
 			System.out.println("Query parameters: Person = " +  name + "; Topic = " + topic + "; Weight = " + weight);
-			if (TOPICMAP == null || PERSONMAP == null)
+			loadDictionaries(neo);
+			if (Boolean.parseBoolean(PROPERTIES.getProperty("CHECK_TOPIC_COUNTS", "false").trim()))
 			{
-				TOPICMAP = getMap("topic", neo);
-				PERSONMAP = getMap("person", neo);
+				checkTopicCounts(neo);
 			}
-			Node personNode, topicNode;
+			if (!executeQuery(query, neo, name, topic, weight, breadth, true))
+			{
+				System.out.println("Unknown query " + query + ".");
+			}
+		}
+		finally
+       	{
+           	tx.finish();
+       	}
+
+		// Report latency percentiles of every timed query method
+		LATENCY.printSummary(System.out);
+		LATENCY.export(PROPERTIES);
+		saveTopicCounts();
+		if (CACHE != null)
+		{
+			System.out.println("Query cache: " + CACHE.describe());
+		}
+
+		//deleteGraphData(neo);
+
+		// Shutdown Neo4J
+        neo.shutdown();
+	}
+
+	/**
+	 * Runs one query by its number, as set by the QUERY property, inside the
+	 * caller's transaction. With a snapshot loaded, the queries SnapshotQuery
+	 * supports run against it instead, without their JSON variants.
+	 * @param json also run the JSON variant of queries that have one
+	 * @return false if there is no query with that number
+	 */
+
+	public static boolean executeQuery(final int query, final GraphDatabaseService neo, final String name, final String topic, final int weight, final int breadth, final boolean json) throws IOException
+	{
+		final Node personNode, topicNode;
 
-			// Query 1: Find all people associated with a topic.
-			if (query == 1)
+		// Traversal queries run against the snapshot when one is loaded
+		if (SNAPSHOT_QUERIES && SnapshotQuery.supports(query))
+		{
+			return SnapshotQuery.executeQuery(query, SNAPSHOT, name, topic, breadth);
+		}
+
+		// Query 1: Find all people associated with a topic.
+		if (query == 1)
+		{
+			topicNode = neo.getNodeById(NameDictionary.resolve(TOPICMAP, topic));
+			log("Query 1: Found people associated with topic = " + topic + ".");
+			printNodeList( cached(QueryCache.key(1, null, topic, 0, 0), new QueryCache.Loader<List<Node>>()
+			{
+				public List<Node> load()
+				{
+					return findPeopleOnTopic(topicNode);
+				}
+			}) );
+			if (json)
 			{
-				topicNode = neo.getNodeById(TOPICMAP.get(topic));
-				System.out.println("Query 1: Found people associated with topic = " + topic + ".");
-				printNodeList( findPeopleOnTopic(topicNode) );
 				findPeopleOnTopicJSON(topicNode);
 			}
-			// Query 2: Find all people associated with the topic with some weight.
-			else if (query == 2)
+		}
+		// Query 2: Find all people associated with the topic with some weight.
+		else if (query == 2)
+		{
+			topicNode = neo.getNodeById(NameDictionary.resolve(TOPICMAP, topic));
+			log("Query 2: Found people associated with a topic = " + topic + ". Filtered by weight = " + weight + ".");
+			printNodeList( cached(QueryCache.key(2, null, topic, weight, 0), new QueryCache.Loader<List<Node>>()
+			{
+				public List<Node> load()
+				{
+					return findPeopleOnTopicFilterByWeight(topicNode, weight);
+				}
+			}) );
+			if (json)
 			{
-				topicNode = neo.getNodeById(TOPICMAP.get(topic));
-				System.out.println("Query 2: Found people associated with a topic = " + topic + ". Filtered by weight = " + weight + ".");
-				printNodeList( findPeopleOnTopicFilterByWeight(topicNode, weight) );
 				findPeopleOnTopicFilterByWeightJSON(topicNode, weight);
 			}
-			// Query 3: Find people associated to the person on the topic
-			else if (query == 3)
+		}
+		// Query 3: Find people associated to the person on the topic
+		else if (query == 3)
+		{
+			topicNode = neo.getNodeById(NameDictionary.resolve(TOPICMAP, topic));
+			personNode = neo.getNodeById(NameDictionary.resolve(PERSONMAP, name));
+			log("Query 3: Found people associated with person " + name + " and topic " + topic + ".");
+			printNodeList( findPeopleAssociatedToTheTopicOfAPerson(personNode, topicNode) );
+			if (json)
 			{
-				topicNode = neo.getNodeById(TOPICMAP.get(topic));
-				personNode = neo.getNodeById(PERSONMAP.get(name));
-				System.out.println("Query 3: Found people associated with person " + name + " and topic " + topic + ".");
-				printNodeList( findPeopleAssociatedToTheTopicOfAPerson(personNode, topicNode) );
 				findPeopleAssociatedToTheTopicOfAPersonJSON(personNode, topicNode);
 			}
-			// Query 4: Find the people the person knows on this topic.
-			else if (query == 4)
+		}
+		// Query 4: Find the people the person knows on this topic.
+		else if (query == 4)
+		{
+			personNode = neo.getNodeById(NameDictionary.resolve(PERSONMAP, name));
+			log("Query 4: Found all people the person " + name + " knows via topic " + topic + ".");
+			printNodeList( cached(QueryCache.key(4, name, topic, 0, 0), new QueryCache.Loader<List<Node>>()
+			{
+				public List<Node> load()
+				{
+					return findPeopleThatKnowAPersonByATopic(personNode, topic);
+				}
+			}) );
+			if (json)
 			{
-				personNode = neo.getNodeById(PERSONMAP.get(name));
-				System.out.println("Query 4: Found all people the person " + name + " knows via topic " + topic + ".");
-				printNodeList( findPeopleThatKnowAPersonByATopic(personNode, topic) );
 				findPeopleThatKnowAPersonByATopicJSON(personNode, topic);
 			}
-			// Query 5: Find the people the person knows (1st level).
-			else if (query == 5)
+		}
+		// Query 5: Find the people the person knows (1st level).
+		else if (query == 5)
+		{
+			personNode = neo.getNodeById(NameDictionary.resolve(PERSONMAP, name));
+			log("Query 5: Found all people the person " + name + " knows (1st level connections).");
+			printNodeList( cached(QueryCache.key(5, name, null, 0, 0), new QueryCache.Loader<List<Node>>()
 			{
-				personNode = neo.getNodeById(PERSONMAP.get(name));
-				System.out.println("Query 5: Found all people the person " + name + " knows (1st level connections).");
-				printNodeList( findPeopleThatKnowAPerson(personNode) );
-				findPeopleThatKnowAPersonJSON(personNode); 
-			}
-			// Query 6: Find the people the person may know (2nd level).
-			else if (query == 6)
+				public List<Node> load()
+				{
+					return findPeopleThatKnowAPerson(personNode);
+				}
+			}) );
+			if (json)
 			{
-				personNode = neo.getNodeById(PERSONMAP.get(name));
-				System.out.println("Query 6: Found all people the person " + name + " may know (2nd level connections).");
-				printNodeList( findPeopleThatMayKnowAPerson(personNode) );
-				findPeopleThatMayKnowAPersonJSON(personNode);
-				
+				findPeopleThatKnowAPersonJSON(personNode);
 			}
-			// Query 7: Find the people the person knows on this topic and display group
-			else if (query == 7)
+		}
+		// Query 6: Find the people the person may know (2nd level).
+		else if (query == 6)
+		{
+			personNode = neo.getNodeById(NameDictionary.resolve(PERSONMAP, name));
+			log("Query 6: Found all people the person " + name + " may know (2nd level connections).");
+			String parallel = PROPERTIES.getProperty("PARALLEL", "false").trim();
+			if (parallel.equals("compare"))
 			{
-				personNode = neo.getNodeById(PERSONMAP.get(name));
-				System.out.println("Query 7: Found all people the person " + name + " knows via topic " + topic + ". Printing groups.");
-				printNodeListWithAttribute( findPeopleThatKnowAPersonByATopic(personNode, topic) );
+				printNodeList( ParallelQuery.compareFindPeopleThatMayKnowAPerson(personNode) );
 			}
-			// Query 8: Find people associated to the person on the topic and display group
-			else if (query == 8)
+			else if (Boolean.parseBoolean(parallel))
 			{
-				topicNode = neo.getNodeById(TOPICMAP.get(topic));
-				personNode = neo.getNodeById(PERSONMAP.get(name));
-				System.out.println("Query 8: Found people associated with person " + name + " and topic " + topic + ". Printing groups.");
-				printNodeListWithAttribute( findPeopleAssociatedToTheTopicOfAPerson(personNode, topicNode) );
+				printNodeList( ParallelQuery.findPeopleThatMayKnowAPerson(personNode) );
 			}
-			// Query 9: Find a person's groups
-			else if (query == 9)
+			else
 			{
-				personNode = neo.getNodeById(PERSONMAP.get(name));
-				System.out.println("Query 9: Found all groups of person " + name);
-				printNodeList( findGroups(personNode) );
-				findGroupsJSON(personNode);
+				printNodeList( findPeopleThatMayKnowAPerson(personNode) );
 			}
-			// Query 10: Find the people the person may know (n levels).
-			else if (query == 10)
+			if (json)
 			{
-				personNode = neo.getNodeById(PERSONMAP.get(name));
-				System.out.println("Query 10: Found all people the person " + name + " may know (n level connections).");
-				printNodeList( findPeopleThatMayKnowAPerson(personNode, 2) );
-				findPeopleThatMayKnowAPersonJSON(personNode, 2);
+				findPeopleThatMayKnowAPersonJSON(personNode);
 			}
-			// Query 11: Find the people the person may know (2 levels hard coded).
-			else if (query == 11)
+
+		}
+		// Query 7: Find the people the person knows on this topic and display group
+		else if (query == 7)
+		{
+			personNode = neo.getNodeById(NameDictionary.resolve(PERSONMAP, name));
+			log("Query 7: Found all people the person " + name + " knows via topic " + topic + ". Printing groups.");
+			printNodeListWithAttribute( findPeopleThatKnowAPersonByATopic(personNode, topic) );
+		}
+		// Query 8: Find people associated to the person on the topic and display group
+		else if (query == 8)
+		{
+			topicNode = neo.getNodeById(NameDictionary.resolve(TOPICMAP, topic));
+			personNode = neo.getNodeById(NameDictionary.resolve(PERSONMAP, name));
+			log("Query 8: Found people associated with person " + name + " and topic " + topic + ". Printing groups.");
+			printNodeListWithAttribute( findPeopleAssociatedToTheTopicOfAPerson(personNode, topicNode) );
+		}
+		// Query 9: Find a person's groups
+		else if (query == 9)
+		{
+			personNode = neo.getNodeById(NameDictionary.resolve(PERSONMAP, name));
+			log("Query 9: Found all groups of person " + name);
+			printNodeList( cached(QueryCache.key(9, name, null, 0, 0), new QueryCache.Loader<List<Node>>()
 			{
-				personNode = neo.getNodeById(PERSONMAP.get(name));
-				System.out.println("Query 11: Found all people the person " + name + " knows and who they know (2nd level connections).");
-				printNodeListList( findPeopleThatKnowAPersonAndFriends(personNode) );
-			}
-			// Query 12: Find the people the person may know (2 levels) then create JSON file with the information.
-			else if (query == 12)
+				public List<Node> load()
+				{
+					return findGroups(personNode);
+				}
+			}) );
+			if (json)
 			{
-				personNode = neo.getNodeById(PERSONMAP.get(name));
-				System.out.println("Query 12: Found all people the person " + name + " knows and who they know (2nd level connections w/ breadth of " + breadth + ").");
-				findPeopleThatKnowAPersonAndFriendsJSON(personNode);
+				findGroupsJSON(personNode);
 			}
-			// Query 13: Find the people the person may know (2 levels hard coded w/ breadth limiter).
-			else if (query == 13)
+		}
+		// Query 10: Find the people the person may know (n levels).
+		else if (query == 10)
+		{
+			personNode = neo.getNodeById(NameDictionary.resolve(PERSONMAP, name));
+			log("Query 10: Found all people the person " + name + " may know (n level connections).");
+			printNodeList( findPeopleThatMayKnowAPerson(personNode, 2) );
+			if (json)
 			{
-				personNode = neo.getNodeById(PERSONMAP.get(name));
-				System.out.println("Query 13: Found all people the person " + name + " knows and who they know (2nd level connections) with 1st and 2nd level breadth of " + breadth + ".");
-				printNodeListList( findPeopleThatKnowAPersonAndFriends(personNode, breadth) );
-				findPeopleThatKnowAPersonAndFriendsJSON(personNode, breadth);
+				findPeopleThatMayKnowAPersonJSON(personNode, 2);
 			}
-			// Query 14: Find the number of incoming edges of a person over a topic
-			else if (query == 14)
+		}
+		// Query 11: Find the people the person may know (2 levels hard coded).
+		else if (query == 11)
+		{
+			personNode = neo.getNodeById(NameDictionary.resolve(PERSONMAP, name));
+			log("Query 11: Found all people the person " + name + " knows and who they know (2nd level connections).");
+			printNodeListList( findPeopleThatKnowAPersonAndFriends(personNode) );
+		}
+		// Query 12: Find the people the person may know (2 levels) then create JSON file with the information.
+		else if (query == 12)
+		{
+			personNode = neo.getNodeById(NameDictionary.resolve(PERSONMAP, name));
+			log("Query 12: Found all people the person " + name + " knows and who they know (2nd level connections w/ breadth of " + breadth + ").");
+			findPeopleThatKnowAPersonAndFriendsJSON(personNode);
+		}
+		// Query 13: Find the people the person may know (2 levels hard coded w/ breadth limiter).
+		else if (query == 13)
+		{
+			personNode = neo.getNodeById(NameDictionary.resolve(PERSONMAP, name));
+			log("Query 13: Found all people the person " + name + " knows and who they know (2nd level connections) with 1st and 2nd level breadth of " + breadth + ".");
+			String parallel = PROPERTIES.getProperty("PARALLEL", "false").trim();
+			if (parallel.equals("compare"))
 			{
-				personNode = neo.getNodeById(PERSONMAP.get(name));
-				System.out.println("Query 14: Found the number of incoming edges for " + name + " and topic " + topic + ".");
-				System.out.println("Number of incoming edges: " + findNumberOfIncomingEdges(personNode, topic) );
+				printNodeListList( ParallelQuery.compareFindPeopleThatKnowAPersonAndFriends(personNode, breadth) );
 			}
-			// Query 15: Find the number of outgoing edges of a person over a topic
-			else if (query == 15)
+			else if (Boolean.parseBoolean(parallel))
 			{
-				personNode = neo.getNodeById(PERSONMAP.get(name));
-				System.out.println("Query 15: Found the number of outgoing edges for " + name + " and topic " + topic + ".");
-				System.out.println("Number of outgoing edges: " + findNumberOfOutgoingEdges(personNode, topic) );
+				printNodeListList( ParallelQuery.findPeopleThatKnowAPersonAndFriends(personNode, breadth) );
 			}
-			// Query 16: Update a person's topic weight using outgoing edge count
-			else if (query == 16)
+			else
 			{
-				personNode = neo.getNodeById(PERSONMAP.get(name));
-				System.out.println("Query 16: Found the number of outgoing edges for " + name + " and topic " + topic + ".");
-				int count = findNumberOfOutgoingEdges(personNode, topic);
-				System.out.println("Number of outgoing edges: " +  count);
-				updateTopicWeight(personNode, topic, count);
+				printNodeListList( findPeopleThatKnowAPersonAndFriends(personNode, breadth) );
 			}
-			// Query 17: Calculate betweeness centrality using Breadth First Search
-			else if (query == 17)
+			if (json)
 			{
-				personNode = neo.getNodeById(PERSONMAP.get(name));
-				topicNode = neo.getNodeById(TOPICMAP.get(topic));
-				System.out.println("Query 17: Calculate betweeness centrality using Breadth First Search for " + name + " and topic " + topic + ".");
-				double count = findBetweenessCentralityBFS(personNode, topic);
+				findPeopleThatKnowAPersonAndFriendsJSON(personNode, breadth);
 			}
-			// Query 18: Calculate shortest path using Dijkstra
-			else if (query == 18)
+		}
+		// Query 14: Find the number of incoming edges of a person over a topic
+		else if (query == 14)
+		{
+			personNode = neo.getNodeById(NameDictionary.resolve(PERSONMAP, name));
+			log("Query 14: Found the number of incoming edges for " + name + " and topic " + topic + ".");
+			log("Number of incoming edges: " + cached(QueryCache.key(14, name, topic, 0, 0), new QueryCache.Loader<Integer>()
 			{
-				personNode = neo.getNodeById(PERSONMAP.get(name));
-				topicNode = neo.getNodeById(TOPICMAP.get(topic));
-				System.out.println("Query 18: Finding all shortest paths using Dijkstra for " + name + " and topic " + topic + ".");
-				findDijkstraShortestPath(personNode, topic);
-			}
-			// Query 19: Calculate shortest paths using Floyd-Warshall
-			else if (query == 19)
+				public Integer load()
+				{
+					return findNumberOfIncomingEdges(personNode, topic);
+				}
+			}) );
+		}
+		// Query 15: Find the number of outgoing edges of a person over a topic
+		else if (query == 15)
+		{
+			personNode = neo.getNodeById(NameDictionary.resolve(PERSONMAP, name));
+			log("Query 15: Found the number of outgoing edges for " + name + " and topic " + topic + ".");
+			log("Number of outgoing edges: " + cached(QueryCache.key(15, name, topic, 0, 0), new QueryCache.Loader<Integer>()
+			{
+				public Integer load()
+				{
+					return findNumberOfOutgoingEdges(personNode, topic);
+				}
+			}) );
+		}
+		// Query 16: Update a person's topic weight using outgoing edge count
+		else if (query == 16)
+		{
+			personNode = neo.getNodeById(NameDictionary.resolve(PERSONMAP, name));
+			log("Query 16: Found the number of outgoing edges for " + name + " and topic " + topic + ".");
+			int count = findNumberOfOutgoingEdges(personNode, topic);
+			log("Number of outgoing edges: " +  count);
+			updateTopicWeight(personNode, topic, count);
+		}
+		// Query 17: Calculate betweeness centrality using Breadth First Search
+		else if (query == 17)
+		{
+			personNode = neo.getNodeById(NameDictionary.resolve(PERSONMAP, name));
+			topicNode = neo.getNodeById(NameDictionary.resolve(TOPICMAP, topic));
+			log("Query 17: Calculate betweeness centrality using Breadth First Search for " + name + " and topic " + topic + ".");
+			double count = findBetweenessCentralityBFS(personNode, topic);
+		}
+		// Query 18: Calculate shortest path using Dijkstra
+		else if (query == 18)
+		{
+			personNode = neo.getNodeById(NameDictionary.resolve(PERSONMAP, name));
+			topicNode = neo.getNodeById(NameDictionary.resolve(TOPICMAP, topic));
+			log("Query 18: Finding all shortest paths using Dijkstra for " + name + " and topic " + topic + ".");
+			findDijkstraShortestPath(personNode, topic);
+		}
+		// Query 19: Calculate shortest paths using Floyd-Warshall
+		else if (query == 19)
+		{
+			personNode = neo.getNodeById(NameDictionary.resolve(PERSONMAP, name));
+			topicNode = neo.getNodeById(NameDictionary.resolve(TOPICMAP, topic));
+			log("Query 19: Calculate shortest paths using Floyd-Warshall for " + name + " and topic " + topic + ".");
+			findFloydWarshallShortestPath(personNode, topicNode);
+		}
+		// Query 20: Calculate Eigenvector Centrality with the "Arnoldi iteration"
+		else if (query == 20)
+		{
+			personNode = neo.getNodeById(NameDictionary.resolve(PERSONMAP, name));
+			topicNode = neo.getNodeById(NameDictionary.resolve(TOPICMAP, topic));
+			log("Query 20: Calculate Eigenvector centrality using Arnoldi iteration for " + name + " and topic " + topic + ".");
+			double count = findEigenvectorCentralityArnoldi(personNode, topicNode);
+		}
+		// Query 21: Calculate Eigenvector Centrality with the "Power method"
+		else if (query == 21)
+		{
+			personNode = neo.getNodeById(NameDictionary.resolve(PERSONMAP, name));
+			topicNode = neo.getNodeById(NameDictionary.resolve(TOPICMAP, topic));
+			log("Query 21: Calculate Eigenvector centrality using Power Method for " + name + " and topic " + topic + ".");
+			double count = findEigenvectorCentralityPower(personNode, topicNode);
+		}
+		// Query 22: Calculate shortest paths using BFS
+		else if (query == 22)
+		{
+			personNode = neo.getNodeById(NameDictionary.resolve(PERSONMAP, name));
+			topicNode = neo.getNodeById(NameDictionary.resolve(TOPICMAP, topic));
+			log("Query 22: Calculate shortest paths using Breadth First for " + name + " and topic " + topic + ".");
+			findBreadthFirstShortestPath(personNode, topic);
+		}
+		// Query 23: Find the people the person may know (n levels) with a direction-optimizing BFS over the snapshot
+		else if (query == 23)
+		{
+			GraphSnapshot snapshot = loadSnapshot(neo);
+			int level = Integer.decode(PROPERTIES.getProperty("LEVEL", "3").trim());
+			int alpha = Integer.decode(PROPERTIES.getProperty("BFS_ALPHA", String.valueOf(DirectionOptimizingBfs.DEFAULT_ALPHA)).trim());
+			int beta = Integer.decode(PROPERTIES.getProperty("BFS_BETA", String.valueOf(DirectionOptimizingBfs.DEFAULT_BETA)).trim());
+			log("Query 23: Found all people the person " + name + " may know to depth " + level + " (direction-optimizing breadth first).");
+			int person = snapshot.personIndex(NameDictionary.resolve(PERSONMAP, name));
+			if (person < 0)
 			{
-				personNode = neo.getNodeById(PERSONMAP.get(name));
-				topicNode = neo.getNodeById(TOPICMAP.get(topic));
-				System.out.println("Query 19: Calculate shortest paths using Floyd-Warshall for " + name + " and topic " + topic + ".");
-				findFloydWarshallShortestPath(personNode, topicNode);
+				throw new IllegalArgumentException("Person " + name + " is not in the snapshot.");
 			}
-			// Query 20: Calculate Eigenvector Centrality with the "Arnoldi iteration"
-			else if (query == 20)
+			SnapshotQuery.printPeople(snapshot, SnapshotQuery.findPeopleThatMayKnowAPersonDirectionOptimizing(snapshot, person, level, Math.max(alpha, 1), Math.max(beta, 1)));
+		}
+		// Query 24: Compare queries 1, 5, 6 and 9 for a batch of BATCH_SIZE people and topics, one at a time and batched
+		else if (query == 24)
+		{
+			int size = Integer.decode(PROPERTIES.getProperty("BATCH_SIZE", "1000").trim());
+			log("Query 24: Compared one at a time and batched queries 1, 5, 6 and 9 for " + size + " people and topics, starting with " + name + " and topic " + topic + ".");
+			BatchQuery.compare(neo, BatchQuery.sample(PERSONMAP, name, size, size), BatchQuery.sample(TOPICMAP, topic, size, size + 1));
+		}
+		// Query 25: Count the people each of MSBFS_SOURCES people may know within LEVEL hops, with a multi-source BFS over the snapshot
+		else if (query == 25)
+		{
+			GraphSnapshot snapshot = loadSnapshot(neo);
+			int level = Integer.decode(PROPERTIES.getProperty("LEVEL", "3").trim());
+			int size = Integer.decode(PROPERTIES.getProperty("MSBFS_SOURCES", "1000").trim());
+			int words = Integer.decode(PROPERTIES.getProperty("MSBFS_WORDS", "1").trim());
+			log("Query 25: Counted the people " + size + " people may know to depth " + level + ", starting with " + name + " (multi-source breadth first).");
+			long[] ids = BatchQuery.sample(PERSONMAP, name, size, size);
+			int[] people = new int[size];
+			for (int i = 0; i < size; i++)
 			{
-				personNode = neo.getNodeById(PERSONMAP.get(name));
-				topicNode = neo.getNodeById(TOPICMAP.get(topic));
-				System.out.println("Query 20: Calculate Eigenvector centrality using Arnoldi iteration for " + name + " and topic " + topic + ".");
-				double count = findEigenvectorCentralityArnoldi(personNode, topicNode);
+				people[i] = snapshot.personIndex(ids[i]);
+				if (people[i] < 0)
+				{
+					throw new IllegalArgumentException("Node " + ids[i] + " is not a person in the snapshot.");
+				}
 			}
-			// Query 21: Calculate Eigenvector Centrality with the "Power method"
-			else if (query == 21)
+			MultiSourceBfs.Result reach = Boolean.parseBoolean(PROPERTIES.getProperty("MSBFS_COMPARE", "false").trim())
+				? SnapshotQuery.compareReachMultiSource(snapshot, people, level, words)
+				: SnapshotQuery.findReachMultiSource(snapshot, people, level, words);
+			log(name + " reaches " + reach.reach(0) + " people, by depth " + reach.describe(0) + ".");
+		}
+		// Query 26: Find the BETWEENNESS_TOP_K most central people over all KNOWS relationships, from BETWEENNESS_SAMPLES sources or all
+		else if (query == 26)
+		{
+			GraphSnapshot snapshot = loadSnapshot(neo);
+			int person = snapshot.personIndex(NameDictionary.resolve(PERSONMAP, name));
+			if (person < 0)
 			{
-				personNode = neo.getNodeById(PERSONMAP.get(name));
-				topicNode = neo.getNodeById(TOPICMAP.get(topic));
-				System.out.println("Query 21: Calculate Eigenvector centrality using Power Method for " + name + " and topic " + topic + ".");
-				double count = findEigenvectorCentralityPower(personNode, topicNode);
+				throw new IllegalArgumentException("Person " + name + " is not in the snapshot.");
 			}
-			// Query 22: Calculate shortest paths using BFS
-			else if (query == 22)
+			int samples = Integer.decode(PROPERTIES.getProperty("BETWEENNESS_SAMPLES", "0").trim());
+			long seed = Long.decode(PROPERTIES.getProperty("BETWEENNESS_SEED", "42").trim());
+			int k = Integer.decode(PROPERTIES.getProperty("BETWEENNESS_TOP_K", "10").trim());
+			log("Query 26: Find the " + k + " most central people over all KNOWS relationships (parallel Brandes).");
+			BrandesBetweenness.Result centrality = PROPERTIES.getProperty("PARALLEL", "false").trim().equals("compare")
+				? BrandesBetweenness.compare(snapshot, samples, seed)
+				: BrandesBetweenness.compute(snapshot, samples, seed);
+			for (int central : centrality.top(k))
 			{
-				personNode = neo.getNodeById(PERSONMAP.get(name));
-				topicNode = neo.getNodeById(TOPICMAP.get(topic));
-				System.out.println("Query 22: Calculate shortest paths using Breadth First for " + name + " and topic " + topic + ".");
-				findBreadthFirstShortestPath(personNode, topic);
+				log(snapshot.personName(central) + ": " + centrality.centrality(central));
 			}
+			log(name + ": " + centrality.centrality(person));
 		}
-		finally
-       	{
-           	tx.finish();
-       	}
-
-		//deleteGraphData(neo);
-
-		// Shutdown Neo4J
-        neo.shutdown();
+		// Query 27: Create a KNOWS relationship from the person to FRIEND on the topic with the weight
+		else if (query == 27)
+		{
+			String friend = PROPERTIES.getProperty("FRIEND", "").trim();
+			personNode = neo.getNodeById(NameDictionary.resolve(PERSONMAP, name));
+			Node friendNode = neo.getNodeById(NameDictionary.resolve(PERSONMAP, friend));
+			log("Query 27: Created a KNOWS relationship from " + name + " to " + friend + " on topic " + topic + " with weight " + weight + ".");
+			createKnows(personNode, friendNode, topic, weight);
+		}
+		else
+		{
+			return false;
+		}
+		return true;
 	}
 
 	/**
@@ -324,20 +870,19 @@ public class NeoQuery
 	public static List<Node> findPeopleOnTopic(final Node topic)
     {
 		// Start timer
-		Stopwatch timer = new Stopwatch();
-		timer.start();
+		long start = System.nanoTime();
 
         List<Node> people = new ArrayList<Node>();
-        for (Relationship associatedTo : topic.getRelationships(RelationshipTypes.ASSOCIATED_TO, Direction.INCOMING))
+        for (Relationship associatedTo : topic.getRelationships(NeoRelationshipTypes.ASSOCIATED_TO, Direction.INCOMING))
         {
 			Node person = associatedTo.getStartNode();
             people.add(person);
         }
 
 		// Stop timer
-	    timer.stop();
-	    System.out.println("Queried all people related to topic " + topic.getProperty("topic") + " in "+ timer.getElapsedTime() + " milliseconds.");
-		System.out.println("Found: " + people.size() + " people.");
+	    long elapsed = LATENCY.record("findPeopleOnTopic", start);
+	    log("Queried all people related to topic " + topic.getProperty("topic") + " in "+ LatencyRecorder.format(elapsed) + " milliseconds.");
+		log("Found: " + people.size() + " people.");
         return people;
     }
 
@@ -345,7 +890,7 @@ public class NeoQuery
     {
 
         List<Relationship> rels = new ArrayList<Relationship>();
-        for (Relationship associatedTo : topic.getRelationships(RelationshipTypes.ASSOCIATED_TO, Direction.INCOMING))
+        for (Relationship associatedTo : topic.getRelationships(NeoRelationshipTypes.ASSOCIATED_TO, Direction.INCOMING))
         {
             rels.add(associatedTo);			
         }
@@ -356,30 +901,31 @@ public class NeoQuery
     public static void findPeopleOnTopicJSON(final Node topic) throws IOException
     {
 		// Start timer
-		Stopwatch timer = new Stopwatch();
-		timer.start();
-		
-		PersonDAO topicDAO = new PersonDAO();
-		topicDAO.name = (String)topic.getProperty("topic");
-		List<PersonDAO> everyone = new ArrayList<PersonDAO>();
-		everyone.add(topicDAO);
-        for (Relationship associatedTo : topic.getRelationships(RelationshipTypes.ASSOCIATED_TO, Direction.INCOMING))
-        {
-			Node person = associatedTo.getStartNode();
-			topicDAO.imports.add((String)person.getProperty("name"));
-  			PersonDAO personDAO = new PersonDAO();
-			personDAO.name = (String)person.getProperty("name");
-			everyone.add(personDAO);
-        }
+		long start = System.nanoTime();
+
+		// The topic's record lists its people, then each person gets a record
+		PersonJsonWriter json = openJson();
+		try
+		{
+			json.beginPerson((String)topic.getProperty("topic"));
+	        for (Relationship associatedTo : topic.getRelationships(NeoRelationshipTypes.ASSOCIATED_TO, Direction.INCOMING))
+	        {
+				json.addImport((String)associatedTo.getStartNode().getProperty("name"));
+	        }
+			json.endPerson();
+	        for (Relationship associatedTo : topic.getRelationships(NeoRelationshipTypes.ASSOCIATED_TO, Direction.INCOMING))
+	        {
+				json.person((String)associatedTo.getStartNode().getProperty("name"));
+	        }
+		}
+		finally
+		{
+			json.close();
+		}
 
 		// Stop timer
-	    timer.stop();
-	    System.out.println("JSON'd: Queried " + topic.getProperty("topic") + " to see the people that connected in "+ timer.getElapsedTime() + " milliseconds.");
-		Gson gson = new Gson();
-		String json = gson.toJson(everyone);
-		BufferedWriter topicsBuffer = new BufferedWriter(new FileWriter(PROPERTIES.getProperty("JSON_PATH")));	
-		topicsBuffer.write(json);
-		topicsBuffer.close();
+	    long elapsed = recordJson("findPeopleOnTopicJSON", start, json);
+	    log("JSON'd: Queried " + topic.getProperty("topic") + " to see the people that connected in "+ LatencyRecorder.format(elapsed) + " milliseconds.");
     }
 
 	/**
@@ -393,11 +939,10 @@ public class NeoQuery
 	public static List<Node> findPeopleOnTopicFilterByWeight(final Node topic, final int weight)
     {
 		// Start timer
-		Stopwatch timer = new Stopwatch();
-		timer.start();
+		long start = System.nanoTime();
 
         List<Node> people = new ArrayList<Node>();
-        for (Relationship associatedTo : topic.getRelationships(RelationshipTypes.ASSOCIATED_TO, Direction.INCOMING))
+        for (Relationship associatedTo : topic.getRelationships(NeoRelationshipTypes.ASSOCIATED_TO, Direction.INCOMING))
         {
 			Node person = associatedTo.getStartNode();
 			Integer relWeight = (Integer)associatedTo.getProperty("weight");
@@ -408,43 +953,47 @@ public class NeoQuery
         }
 
 		// Stop timer
-	    timer.stop();
-	    System.out.println("Queried all people related to topic " + topic.getProperty("topic") + " with weight " + weight + " in "+ timer.getElapsedTime() + " milliseconds.");
-		System.out.println("Found: " + people.size() + " people.");
+	    long elapsed = LATENCY.record("findPeopleOnTopicFilterByWeight", start);
+	    log("Queried all people related to topic " + topic.getProperty("topic") + " with weight " + weight + " in "+ LatencyRecorder.format(elapsed) + " milliseconds.");
+		log("Found: " + people.size() + " people.");
         return people;
     }
 
 	public static void findPeopleOnTopicFilterByWeightJSON(final Node topic, final int weight)  throws IOException
     {
 		// Start timer
-		Stopwatch timer = new Stopwatch();
-		timer.start();
-
-		PersonDAO topicDAO = new PersonDAO();
-		topicDAO.name = (String)topic.getProperty("topic");
-		List<PersonDAO> everyone = new ArrayList<PersonDAO>();
-		everyone.add(topicDAO);
-        for (Relationship associatedTo : topic.getRelationships(RelationshipTypes.ASSOCIATED_TO, Direction.INCOMING))
-        {
-			Node person = associatedTo.getStartNode();
-			Integer relWeight = (Integer)associatedTo.getProperty("weight");
-			if (weight == relWeight.intValue())
-			{
-				topicDAO.imports.add((String)person.getProperty("name"));
-	  			PersonDAO personDAO = new PersonDAO();
-				personDAO.name = (String)person.getProperty("name");
-				everyone.add(personDAO);
-			}
-        }
+		long start = System.nanoTime();
+
+		PersonJsonWriter json = openJson();
+		try
+		{
+			json.beginPerson((String)topic.getProperty("topic"));
+	        for (Relationship associatedTo : topic.getRelationships(NeoRelationshipTypes.ASSOCIATED_TO, Direction.INCOMING))
+	        {
+				Integer relWeight = (Integer)associatedTo.getProperty("weight");
+				if (weight == relWeight.intValue())
+				{
+					json.addImport((String)associatedTo.getStartNode().getProperty("name"));
+				}
+	        }
+			json.endPerson();
+	        for (Relationship associatedTo : topic.getRelationships(NeoRelationshipTypes.ASSOCIATED_TO, Direction.INCOMING))
+	        {
+				Integer relWeight = (Integer)associatedTo.getProperty("weight");
+				if (weight == relWeight.intValue())
+				{
+					json.person((String)associatedTo.getStartNode().getProperty("name"));
+				}
+	        }
+		}
+		finally
+		{
+			json.close();
+		}
 
 		// Stop timer
-	    timer.stop();
-	    System.out.println("JSON'd: Queried " + topic.getProperty("topic") + " to see the people that connected in "+ timer.getElapsedTime() + " milliseconds.");
-		Gson gson = new Gson();
-		String json = gson.toJson(everyone);
-		BufferedWriter topicsBuffer = new BufferedWriter(new FileWriter(PROPERTIES.getProperty("JSON_PATH")));	
-		topicsBuffer.write(json);
-		topicsBuffer.close();
+	    long elapsed = recordJson("findPeopleOnTopicFilterByWeightJSON", start, json);
+	    log("JSON'd: Queried " + topic.getProperty("topic") + " to see the people that connected in "+ LatencyRecorder.format(elapsed) + " milliseconds.");
     }
 
 	/**
@@ -458,11 +1007,10 @@ public class NeoQuery
 	public static List<Node> findPeopleAssociatedToTheTopicOfAPerson(final Node person, final Node topic)
     {
 		// Start timer
-		Stopwatch timer = new Stopwatch();
-		timer.start();
+		long start = System.nanoTime();
 
 		// Instantiate a traverser that returns a person's topics
-		Traverser peopleTraverser = topic.traverse(Traverser.Order.BREADTH_FIRST, StopEvaluator.END_OF_GRAPH, ReturnableEvaluator.ALL_BUT_START_NODE, RelationshipTypes.ASSOCIATED_TO, Direction.INCOMING);
+		Traverser peopleTraverser = topic.traverse(Traverser.Order.BREADTH_FIRST, StopEvaluator.END_OF_GRAPH, ReturnableEvaluator.ALL_BUT_START_NODE, NeoRelationshipTypes.ASSOCIATED_TO, Direction.INCOMING);
 
 
 		// Traverse the node space
@@ -482,9 +1030,9 @@ public class NeoQuery
 		}
 
 		// Return results
-		timer.stop();
-		System.out.println("Queried all people related to " + person.getProperty("name") + " on topic " + topic.getProperty("topic") + " in "+ timer.getElapsedTime() + " in milliseconds.");
-		System.out.println("Found: " + people.size() + " people.");
+		long elapsed = LATENCY.record("findPeopleAssociatedToTheTopicOfAPerson", start);
+		log("Queried all people related to " + person.getProperty("name") + " on topic " + topic.getProperty("topic") + " in "+ LatencyRecorder.format(elapsed) + " in milliseconds.");
+		log("Found: " + people.size() + " people.");
 
 		// Only return the list if the person has the topic
 		if (personHasTopic)
@@ -500,42 +1048,38 @@ public class NeoQuery
 	public static void findPeopleAssociatedToTheTopicOfAPersonJSON(final Node person, final Node topic) throws IOException
     {
 		// Start timer
-		Stopwatch timer = new Stopwatch();
-		timer.start();
-
-		// Instantiate a traverser that returns a person's topics
-		Traverser peopleTraverser = topic.traverse(Traverser.Order.BREADTH_FIRST, StopEvaluator.END_OF_GRAPH, ReturnableEvaluator.ALL_BUT_START_NODE, RelationshipTypes.ASSOCIATED_TO, Direction.INCOMING);
+		long start = System.nanoTime();
 
-		// Traverse the node space
-		boolean personHasTopic = false;
-		PersonDAO personDAO = new PersonDAO();
-		personDAO.name = (String)person.getProperty("name");
-		List<PersonDAO> everyone = new ArrayList<PersonDAO>();
-		everyone.add(personDAO);
-		String topicStr = (String) topic.getProperty("topic");
-		for (Node  otherPerson : peopleTraverser)
+		// Traverse the topic's people twice, for the person's record and then for theirs
+		String name = (String)person.getProperty("name");
+		PersonJsonWriter json = openJson();
+		try
 		{
-			if(!otherPerson.getProperty("name").equals(person.getProperty("name")))
+			json.beginPerson(name);
+			for (Node otherPerson : topic.traverse(Traverser.Order.BREADTH_FIRST, StopEvaluator.END_OF_GRAPH, ReturnableEvaluator.ALL_BUT_START_NODE, NeoRelationshipTypes.ASSOCIATED_TO, Direction.INCOMING))
 			{
-				personDAO.imports.add((String)otherPerson.getProperty("name"));
-	  			PersonDAO friendDAO = new PersonDAO();
-				friendDAO.name = (String)otherPerson.getProperty("name");
-				everyone.add(friendDAO);
+				if (!otherPerson.getProperty("name").equals(name))
+				{
+					json.addImport((String)otherPerson.getProperty("name"));
+				}
 			}
-			else
+			json.endPerson();
+			for (Node otherPerson : topic.traverse(Traverser.Order.BREADTH_FIRST, StopEvaluator.END_OF_GRAPH, ReturnableEvaluator.ALL_BUT_START_NODE, NeoRelationshipTypes.ASSOCIATED_TO, Direction.INCOMING))
 			{
-				personHasTopic = true;
+				if (!otherPerson.getProperty("name").equals(name))
+				{
+					json.person((String)otherPerson.getProperty("name"));
+				}
 			}
 		}
+		finally
+		{
+			json.close();
+		}
 
 		// Return results
-		timer.stop();
-		System.out.println("JSON'd Queried all people related to " + person.getProperty("name") + " on topic " + topic.getProperty("topic") + " in "+ timer.getElapsedTime() + " in milliseconds.");
-		Gson gson = new Gson();
-		String json = gson.toJson(everyone);
-		BufferedWriter topicsBuffer = new BufferedWriter(new FileWriter(PROPERTIES.getProperty("JSON_PATH")));	
-		topicsBuffer.write(json);
-		topicsBuffer.close();
+		long elapsed = recordJson("findPeopleAssociatedToTheTopicOfAPersonJSON", start, json);
+		log("JSON'd Queried all people related to " + person.getProperty("name") + " on topic " + topic.getProperty("topic") + " in "+ LatencyRecorder.format(elapsed) + " in milliseconds.");
     }
 
 	/**
@@ -548,57 +1092,81 @@ public class NeoQuery
 	public static List<Node> findPeopleThatKnowAPersonByATopic(final Node person, final String topic)
     {
 		// Start timer
-		Stopwatch timer = new Stopwatch();
-		timer.start();
+		long start = System.nanoTime();
 
         List<Node> people = new ArrayList<Node>();
-        for (Relationship knows : person.getRelationships(RelationshipTypes.KNOWS, Direction.BOTH))
-        {
-			Node friend = knows.getOtherNode(person);
-			if (topic.equals(knows.getProperty("topic")))
+		TopicEdgeIndex index = TOPIC_INDEX;
+		if (index != null)
+		{
+			// Read only the matching relationships; a loop is both, but listed once as by Direction.BOTH
+			GraphDatabaseService neo = person.getGraphDatabase();
+			long[] outgoing = index.relationships(person.getId(), topic, TopicEdgeIndex.OUTGOING);
+			for (long knows : outgoing)
 			{
-            	people.add(friend);
+				people.add(neo.getRelationshipById(knows).getEndNode());
 			}
-        }
+			for (long knows : index.relationships(person.getId(), topic, TopicEdgeIndex.INCOMING))
+			{
+				if (Arrays.binarySearch(outgoing, knows) < 0)
+				{
+					people.add(neo.getRelationshipById(knows).getStartNode());
+				}
+			}
+		}
+		else
+		{
+	        KnowsTopic onTopic = KnowsTopic.of(topic);
+	        for (Relationship knows : person.getRelationships(NeoRelationshipTypes.KNOWS, Direction.BOTH))
+	        {
+				Node friend = knows.getOtherNode(person);
+				if (onTopic.matches(knows))
+				{
+	            	people.add(friend);
+				}
+	        }
+		}
 
 		// Stop timer
-	    timer.stop();
-	    System.out.println("Queried " + person.getProperty("name") + " related to topic " + topic + " in "+ timer.getElapsedTime() + " milliseconds.");
-		System.out.println("Found: " + people.size() + " people.");
+	    long elapsed = LATENCY.record(index != null ? "findPeopleThatKnowAPersonByATopic(indexed)" : "findPeopleThatKnowAPersonByATopic", start);
+	    log("Queried " + person.getProperty("name") + " related to topic " + topic + " in "+ LatencyRecorder.format(elapsed) + " milliseconds.");
+		log("Found: " + people.size() + " people.");
         return people;
     }
 
 	public static void findPeopleThatKnowAPersonByATopicJSON(final Node person, final String topic) throws IOException
     {
 		// Start timer
-		Stopwatch timer = new Stopwatch();
-		timer.start();
+		long start = System.nanoTime();
 
-		boolean personHasTopic = false;
-		PersonDAO personDAO = new PersonDAO();
-		personDAO.name = (String)person.getProperty("name");
-		List<PersonDAO> everyone = new ArrayList<PersonDAO>();
-		everyone.add(personDAO);
-        for (Relationship knows : person.getRelationships(RelationshipTypes.KNOWS, Direction.BOTH))
-        {
-			Node friend = knows.getOtherNode(person);
-			if (topic.equals(knows.getProperty("topic")))
-			{
-				personDAO.imports.add((String)friend.getProperty("name"));
-	  			PersonDAO friendDAO = new PersonDAO();
-				friendDAO.name = (String)friend.getProperty("name");
-				everyone.add(friendDAO);
-			}
-        }
+        KnowsTopic onTopic = KnowsTopic.of(topic);
+		PersonJsonWriter json = openJson();
+		try
+		{
+			json.beginPerson((String)person.getProperty("name"));
+	        for (Relationship knows : person.getRelationships(NeoRelationshipTypes.KNOWS, Direction.BOTH))
+	        {
+				if (onTopic.matches(knows))
+				{
+					json.addImport((String)knows.getOtherNode(person).getProperty("name"));
+				}
+	        }
+			json.endPerson();
+	        for (Relationship knows : person.getRelationships(NeoRelationshipTypes.KNOWS, Direction.BOTH))
+	        {
+				if (onTopic.matches(knows))
+				{
+					json.person((String)knows.getOtherNode(person).getProperty("name"));
+				}
+	        }
+		}
+		finally
+		{
+			json.close();
+		}
 
 		// Stop timer
-	    timer.stop();
-	    System.out.println("JSON'd Queried " + person.getProperty("name") + " related to topic " + topic + " in "+ timer.getElapsedTime() + " milliseconds.");
-		Gson gson = new Gson();
-		String json = gson.toJson(everyone);
-		BufferedWriter topicsBuffer = new BufferedWriter(new FileWriter(PROPERTIES.getProperty("JSON_PATH")));	
-		topicsBuffer.write(json);
-		topicsBuffer.close();
+	    long elapsed = recordJson("findPeopleThatKnowAPersonByATopicJSON", start, json);
+	    log("JSON'd Queried " + person.getProperty("name") + " related to topic " + topic + " in "+ LatencyRecorder.format(elapsed) + " milliseconds.");
     }
 
 	/**
@@ -610,50 +1178,49 @@ public class NeoQuery
 	public static List<Node> findPeopleThatKnowAPerson(final Node person)
     {
 		// Start timer
-		Stopwatch timer = new Stopwatch();
-		timer.start();
+		long start = System.nanoTime();
 
         List<Node> people = new ArrayList<Node>();
-        for (Relationship knows : person.getRelationships(RelationshipTypes.KNOWS, Direction.BOTH))
+        for (Relationship knows : person.getRelationships(NeoRelationshipTypes.KNOWS, Direction.BOTH))
         {
 			Node friend = knows.getOtherNode(person);
             people.add(friend);
         }
 
 		// Stop timer
-	    timer.stop();
-	    System.out.println("Queried " + person.getProperty("name") + " to see the people that are known in "+ timer.getElapsedTime() + " milliseconds.");
-		System.out.println("Found: " + people.size() + " people.");
+	    long elapsed = LATENCY.record("findPeopleThatKnowAPerson", start);
+	    log("Queried " + person.getProperty("name") + " to see the people that are known in "+ LatencyRecorder.format(elapsed) + " milliseconds.");
+		log("Found: " + people.size() + " people.");
         return people;
     }
 
     public static void findPeopleThatKnowAPersonJSON(final Node person) throws IOException
     {
 		// Start timer
-		Stopwatch timer = new Stopwatch();
-		timer.start();
-		
-		PersonDAO personDAO = new PersonDAO();
-		personDAO.name = (String)person.getProperty("name");
-		List<PersonDAO> everyone = new ArrayList<PersonDAO>();
-		everyone.add(personDAO);
-        for (Relationship knows : person.getRelationships(RelationshipTypes.KNOWS, Direction.BOTH))
-        {		
-			Node friend = knows.getOtherNode(person);
-			personDAO.imports.add((String)friend.getProperty("name"));
-			PersonDAO friendDAO = new PersonDAO();
-			friendDAO.name = (String)friend.getProperty("name");
-			everyone.add(friendDAO);
-        }
+		long start = System.nanoTime();
+
+		PersonJsonWriter json = openJson();
+		try
+		{
+			json.beginPerson((String)person.getProperty("name"));
+	        for (Relationship knows : person.getRelationships(NeoRelationshipTypes.KNOWS, Direction.BOTH))
+	        {
+				json.addImport((String)knows.getOtherNode(person).getProperty("name"));
+	        }
+			json.endPerson();
+	        for (Relationship knows : person.getRelationships(NeoRelationshipTypes.KNOWS, Direction.BOTH))
+	        {
+				json.person((String)knows.getOtherNode(person).getProperty("name"));
+	        }
+		}
+		finally
+		{
+			json.close();
+		}
 
 		// Stop timer
-	    timer.stop();
-	    System.out.println("JSON'd: Queried " + person.getProperty("name") + " to see the people that are known in "+ timer.getElapsedTime() + " milliseconds.");
-		Gson gson = new Gson();
-		String json = gson.toJson(everyone);
-		BufferedWriter topicsBuffer = new BufferedWriter(new FileWriter(PROPERTIES.getProperty("JSON_PATH")));	
-		topicsBuffer.write(json);
-		topicsBuffer.close();
+	    long elapsed = recordJson("findPeopleThatKnowAPersonJSON", start, json);
+	    log("JSON'd: Queried " + person.getProperty("name") + " to see the people that are known in "+ LatencyRecorder.format(elapsed) + " milliseconds.");
     }
 
 	/**
@@ -665,59 +1232,145 @@ public class NeoQuery
 	public static List<Node> findPeopleThatMayKnowAPerson(final Node person)
     {
 		// Start timer
-		Stopwatch timer = new Stopwatch();
-		timer.start();
+		long start = System.nanoTime();
 
-		Set<Node> people = new HashSet<Node>();
-        for (Relationship knows : person.getRelationships(RelationshipTypes.KNOWS, Direction.BOTH))
-        {
-			Node friend = knows.getOtherNode(person);
-			for (Relationship mayKnow : friend.getRelationships(RelationshipTypes.KNOWS, Direction.BOTH))
-			{
-				Node stranger = mayKnow.getOtherNode(friend);
-				people.add(stranger);
-			}
-        }
+		List<Node> people = toNodes(person.getGraphDatabase(), friendsOfFriends(person));
 
 		// Stop timer
-	    timer.stop();
-	    System.out.println("Queried " + person.getProperty("name") + " to see the people that are known in "+ timer.getElapsedTime() + " milliseconds.");
-		System.out.println("Found: " + people.size() + " people.");
-        return new ArrayList<Node>(people);
+	    long elapsed = LATENCY.record("findPeopleThatMayKnowAPerson", start);
+	    log("Queried " + person.getProperty("name") + " to see the people that are known in "+ LatencyRecorder.format(elapsed) + " milliseconds.");
+		log("Found: " + people.size() + " people.");
+        return people;
     }
 
-    static void findPeopleThatMayKnowAPersonJSON(Node person) throws IOException
+	/**
+     * Ids of the people a person *may* know (2nd level connections), without creating their nodes
+     * @param person the node of the person to be queried
+     * @return the node ids of the people that the person may know
+	 */
+
+	public static NodeBitmap findPeopleIdsThatMayKnowAPerson(final Node person)
     {
 		// Start timer
-		Stopwatch timer = new Stopwatch();
-		timer.start();
-		
-		PersonDAO personDAO = new PersonDAO();
-		personDAO.name = (String)person.getProperty("name");
-		List<PersonDAO> everyone = new ArrayList<PersonDAO>();
-		everyone.add(personDAO);
-        for (Relationship knows : person.getRelationships(RelationshipTypes.KNOWS, Direction.BOTH))
-        {		
+		long start = System.nanoTime();
+
+		NodeBitmap people = friendsOfFriends(person);
+
+		// Stop timer
+	    long elapsed = LATENCY.record("findPeopleIdsThatMayKnowAPerson", start);
+	    log("Queried " + person.getProperty("name") + " to see the ids of the people that are known in "+ LatencyRecorder.format(elapsed) + " milliseconds.");
+		log("Found: " + people.cardinality() + " people.");
+        return people;
+    }
+
+	/**
+	 * Everyone at the far end of two KNOWS hops in either direction, the person included
+	 * when a friend knows them back. Each friend is expanded once however many KNOWS
+	 * relationships lead to them.
+	 */
+
+	private static NodeBitmap friendsOfFriends(final Node person)
+	{
+		NodeBitmap friends = new NodeBitmap();
+		NodeBitmap people = new NodeBitmap();
+        for (Relationship knows : person.getRelationships(NeoRelationshipTypes.KNOWS, Direction.BOTH))
+        {
 			Node friend = knows.getOtherNode(person);
-			personDAO.imports.add((String)friend.getProperty("name"));
-			PersonDAO friendDAO = new PersonDAO();
-			friendDAO.name = (String)friend.getProperty("name");
-			everyone.add(friendDAO);
-			for (Relationship mayKnow : friend.getRelationships(RelationshipTypes.KNOWS, Direction.OUTGOING))
+			if (!friends.add(friend.getId()))
 			{
-				Node foaf = mayKnow.getOtherNode(friend);
-				friendDAO.imports.add((String)foaf.getProperty("name"));
+				continue;
+			}
+			for (Relationship mayKnow : friend.getRelationships(NeoRelationshipTypes.KNOWS, Direction.BOTH))
+			{
+				people.add(mayKnow.getOtherNode(friend).getId());
 			}
         }
+		return people;
+	}
+
+	/**
+	 * Everyone within level KNOWS hops in either direction, the person excluded. The
+	 * search is level synchronous: each round expands the whole frontier of the
+	 * previous one, and it stops after exactly level rounds instead of walking on
+	 * until a node one level too deep turns up.
+	 */
+
+	private static NodeBitmap knowsWithin(final Node person, final int level)
+	{
+		GraphDatabaseService neo = person.getGraphDatabase();
+		NodeBitmap visited = new NodeBitmap();
+		NodeBitmap frontier = new NodeBitmap();
+		NodeBitmap next = new NodeBitmap();
+		visited.add(person.getId());
+		frontier.add(person.getId());
+		for (int depth = 0; depth < level && !frontier.isEmpty(); depth++)
+		{
+			NodeBitmap.Cursor cursor = frontier.cursor();
+			while (cursor.hasNext())
+			{
+				Node node = neo.getNodeById(cursor.next());
+				for (Relationship knows : node.getRelationships(NeoRelationshipTypes.KNOWS, Direction.BOTH))
+				{
+					long other = knows.getOtherNode(node).getId();
+					if (visited.add(other))
+					{
+						next.add(other);
+					}
+				}
+			}
+			NodeBitmap expanded = frontier;
+			frontier = next;
+			next = expanded;
+			next.clear();
+		}
+		visited.remove(person.getId());
+		return visited;
+	}
+
+	private static List<Node> toNodes(final GraphDatabaseService neo, final NodeBitmap ids)
+	{
+		List<Node> nodes = new ArrayList<Node>((int) ids.cardinality());
+		NodeBitmap.Cursor cursor = ids.cursor();
+		while (cursor.hasNext())
+		{
+			nodes.add(neo.getNodeById(cursor.next()));
+		}
+		return nodes;
+	}
+
+    static void findPeopleThatMayKnowAPersonJSON(Node person) throws IOException
+    {
+		// Start timer
+		long start = System.nanoTime();
+
+		PersonJsonWriter json = openJson();
+		try
+		{
+			json.beginPerson((String)person.getProperty("name"));
+	        for (Relationship knows : person.getRelationships(NeoRelationshipTypes.KNOWS, Direction.BOTH))
+	        {
+				json.addImport((String)knows.getOtherNode(person).getProperty("name"));
+	        }
+			json.endPerson();
+	        for (Relationship knows : person.getRelationships(NeoRelationshipTypes.KNOWS, Direction.BOTH))
+	        {
+				Node friend = knows.getOtherNode(person);
+				json.beginPerson((String)friend.getProperty("name"));
+				for (Relationship mayKnow : friend.getRelationships(NeoRelationshipTypes.KNOWS, Direction.OUTGOING))
+				{
+					json.addImport((String)mayKnow.getOtherNode(friend).getProperty("name"));
+				}
+				json.endPerson();
+	        }
+		}
+		finally
+		{
+			json.close();
+		}
 
 		// Stop timer
-	    timer.stop();
-	    System.out.println("JSON'd: Queried " + person.getProperty("name") + " to see the people that are known in "+ timer.getElapsedTime() + " milliseconds.");
-		Gson gson = new Gson();
-		String json = gson.toJson(everyone);
-		BufferedWriter topicsBuffer = new BufferedWriter(new FileWriter(PROPERTIES.getProperty("JSON_PATH")));	
-		topicsBuffer.write(json);
-		topicsBuffer.close();
+	    long elapsed = recordJson("findPeopleThatMayKnowAPersonJSON", start, json);
+	    log("JSON'd: Queried " + person.getProperty("name") + " to see the people that are known in "+ LatencyRecorder.format(elapsed) + " milliseconds.");
     }
 
 
@@ -731,7 +1384,7 @@ public class NeoQuery
     {
 
         List<Node> groups = new ArrayList<Node>();
-        for (Relationship memberOf : person.getRelationships(RelationshipTypes.IS_MEMBER_OF, Direction.OUTGOING))
+        for (Relationship memberOf : person.getRelationships(NeoRelationshipTypes.IS_MEMBER_OF, Direction.OUTGOING))
         {
 			Node group = memberOf.getOtherNode(person);
             groups.add(group);
@@ -743,23 +1396,24 @@ public class NeoQuery
 	public static void findGroupsJSON(final Node person) throws IOException
     {
 
-		PersonDAO personDAO = new PersonDAO();
-		personDAO.name = (String)person.getProperty("name");
-		List<PersonDAO> everyone = new ArrayList<PersonDAO>();
-		everyone.add(personDAO);
-        for (Relationship memberOf : person.getRelationships(RelationshipTypes.IS_MEMBER_OF, Direction.OUTGOING))
-        {
-			Node group = memberOf.getOtherNode(person);
-			personDAO.imports.add((String)group.getProperty("name"));
-			PersonDAO groupDAO = new PersonDAO();
-			groupDAO.name = (String)group.getProperty("name");
-			everyone.add(groupDAO);
-        }
-		Gson gson = new Gson();
-		String json = gson.toJson(everyone);
-		BufferedWriter topicsBuffer = new BufferedWriter(new FileWriter(PROPERTIES.getProperty("JSON_PATH")));	
-		topicsBuffer.write(json);
-		topicsBuffer.close();
+		PersonJsonWriter json = openJson();
+		try
+		{
+			json.beginPerson((String)person.getProperty("name"));
+	        for (Relationship memberOf : person.getRelationships(NeoRelationshipTypes.IS_MEMBER_OF, Direction.OUTGOING))
+	        {
+				json.addImport((String)memberOf.getOtherNode(person).getProperty("name"));
+	        }
+			json.endPerson();
+	        for (Relationship memberOf : person.getRelationships(NeoRelationshipTypes.IS_MEMBER_OF, Direction.OUTGOING))
+	        {
+				json.person((String)memberOf.getOtherNode(person).getProperty("name"));
+	        }
+		}
+		finally
+		{
+			json.close();
+		}
     }
 
 	/**
@@ -771,16 +1425,15 @@ public class NeoQuery
 	public static List<List<Node>>  findPeopleThatKnowAPersonAndFriends(final Node person)
     {
 		// Start timer
-		Stopwatch timer = new Stopwatch();
-		timer.start();
+		long start = System.nanoTime();
 
 		Set<List<Node>> friends = new HashSet<List<Node>>();
 		Set<Node> people = new HashSet<Node>();
-        for (Relationship knows : person.getRelationships(RelationshipTypes.KNOWS, Direction.BOTH))
+        for (Relationship knows : person.getRelationships(NeoRelationshipTypes.KNOWS, Direction.BOTH))
         {
 			Node friend = knows.getOtherNode(person);
 			people.add(friend);
-			for (Relationship mayKnow : friend.getRelationships(RelationshipTypes.KNOWS, Direction.BOTH))
+			for (Relationship mayKnow : friend.getRelationships(NeoRelationshipTypes.KNOWS, Direction.BOTH))
 			{
 
 				Node stranger = mayKnow.getOtherNode(friend);
@@ -791,9 +1444,9 @@ public class NeoQuery
         }
 
 		// Stop timer
-	    timer.stop();
-	    System.out.println("Queried " + person.getProperty("name") + " to see the people that are known in "+ timer.getElapsedTime() + " milliseconds.");
-		System.out.println("Found: " + friends.size() + " friends.");
+	    long elapsed = LATENCY.record("findPeopleThatKnowAPersonAndFriends", start);
+	    log("Queried " + person.getProperty("name") + " to see the people that are known in "+ LatencyRecorder.format(elapsed) + " milliseconds.");
+		log("Found: " + friends.size() + " friends.");
         return new ArrayList<List<Node>>(friends);
     }
 
@@ -808,79 +1461,90 @@ public class NeoQuery
 	{
 
 		// Start timer
-		Stopwatch timer = new Stopwatch();
-		timer.start();
+		long start = System.nanoTime();
 
-		// Instantiate a traverser
-		Traverser peopleTraverser = person.traverse(Traverser.Order.BREADTH_FIRST, StopEvaluator.END_OF_GRAPH, ReturnableEvaluator.ALL_BUT_START_NODE, RelationshipTypes.KNOWS, Direction.BOTH);
+		// Traverse the node space a level at a time
+		List<Node> people = toNodes(person.getGraphDatabase(), knowsWithin(person, level));
 
+		// Stop timer
+		long elapsed = LATENCY.record("findPeopleThatMayKnowAPerson(level)", start);
+		log("Queried all people " + person.getProperty("name") + " knows to depth " + level + " in "+ LatencyRecorder.format(elapsed) + " in milliseconds.");
+		log("Found: " + people.size() + " people.");
+		return people;
 
-		// Traverse the node space
-		Set<Node> people = new HashSet<Node>();
-		for (Node  otherPerson : peopleTraverser)
-		{
-			if(!otherPerson.getProperty("name").equals(person.getProperty("name")))
-			{
-				Integer depth = (Integer)peopleTraverser.currentPosition().depth();
-				if (depth.intValue() == level+1)
-				{
-					timer.stop();
-					System.out.println("Queried all people " + person.getProperty("name") + " knows to depth " + level + " in "+ timer.getElapsedTime() + " in milliseconds.");
-					System.out.println("Found: " + people.size() + " people.");
-					return new ArrayList<Node>(people);
-				}
-				people.add(otherPerson);
-			}
-		}
+    }
 
-		// Return results
-		return new ArrayList<Node>(people);
+   	/**
+	 * Ids of the people a person knows \ may know (n level connections), without creating their nodes
+	 * @param person the node of the person to be queried
+	 * @param level the number of KNOWS hops to follow
+	 * @return the node ids of the people the person knows \ may know
+	 */
 
-    }
+	public static NodeBitmap findPeopleIdsThatMayKnowAPerson(final Node person, final int level)
+	{
+		// Start timer
+		long start = System.nanoTime();
+
+		NodeBitmap people = knowsWithin(person, level);
+
+		// Stop timer
+		long elapsed = LATENCY.record("findPeopleIdsThatMayKnowAPerson(level)", start);
+		log("Queried the ids of all people " + person.getProperty("name") + " knows to depth " + level + " in "+ LatencyRecorder.format(elapsed) + " in milliseconds.");
+		log("Found: " + people.cardinality() + " people.");
+		return people;
+	}
 
 	public static void findPeopleThatMayKnowAPersonJSON(final Node person, final int level) throws IOException
 	{
 
 		// Start timer
-		Stopwatch timer = new Stopwatch();
-		timer.start();
-
-		// Instantiate a traverser
-		Traverser peopleTraverser = person.traverse(Traverser.Order.BREADTH_FIRST, StopEvaluator.END_OF_GRAPH, ReturnableEvaluator.ALL_BUT_START_NODE, RelationshipTypes.KNOWS, Direction.OUTGOING);
+		long start = System.nanoTime();
 
-		// Traverse the node space
-		PersonDAO personDAO = new PersonDAO();
-		personDAO.name = (String)person.getProperty("name");
-		List<PersonDAO> everyone = new ArrayList<PersonDAO>();
-		everyone.add(personDAO);
-		for (Node  otherPerson : peopleTraverser)
+		// Traverse the node space to depth level twice, for the person's record and then for everyone else's
+		String name = (String)person.getProperty("name");
+		PersonJsonWriter json = openJson();
+		try
 		{
-			if(!otherPerson.getProperty("name").equals(person.getProperty("name")))
+			json.beginPerson(name);
+			Traverser peopleTraverser = person.traverse(Traverser.Order.BREADTH_FIRST, StopEvaluator.END_OF_GRAPH, ReturnableEvaluator.ALL_BUT_START_NODE, NeoRelationshipTypes.KNOWS, Direction.OUTGOING);
+			for (Node otherPerson : peopleTraverser)
+			{
+				if (peopleTraverser.currentPosition().depth() > level)
+				{
+					break;
+				}
+				if (!otherPerson.getProperty("name").equals(name))
+				{
+					json.addImport((String)otherPerson.getProperty("name"));
+				}
+			}
+			json.endPerson();
+			peopleTraverser = person.traverse(Traverser.Order.BREADTH_FIRST, StopEvaluator.END_OF_GRAPH, ReturnableEvaluator.ALL_BUT_START_NODE, NeoRelationshipTypes.KNOWS, Direction.OUTGOING);
+			for (Node otherPerson : peopleTraverser)
 			{
-				Integer depth = (Integer)peopleTraverser.currentPosition().depth();
-				if (depth.intValue() == level+1)
+				if (peopleTraverser.currentPosition().depth() > level)
 				{
-					timer.stop();
-					System.out.println("JSON'd Queried all people " + person.getProperty("name") + " knows to depth " + level + " in "+ timer.getElapsedTime() + " in milliseconds.");
-					Gson gson = new Gson();
-					String json = gson.toJson(everyone);
-					BufferedWriter topicsBuffer = new BufferedWriter(new FileWriter(PROPERTIES.getProperty("JSON_PATH")));	
-					topicsBuffer.write(json);
-					topicsBuffer.close();
-					return;
+					break;
 				}
-				personDAO.imports.add((String)otherPerson.getProperty("name"));
-				PersonDAO friendDAO = new PersonDAO();
-				friendDAO.name = (String)otherPerson.getProperty("name");
-				everyone.add(friendDAO);
-				for (Relationship mayKnow : otherPerson.getRelationships(RelationshipTypes.KNOWS, Direction.OUTGOING))
+				if (!otherPerson.getProperty("name").equals(name))
 				{
-					Node foaf = mayKnow.getOtherNode(otherPerson);
-					friendDAO.imports.add((String)foaf.getProperty("name"));
+					json.beginPerson((String)otherPerson.getProperty("name"));
+					for (Relationship mayKnow : otherPerson.getRelationships(NeoRelationshipTypes.KNOWS, Direction.OUTGOING))
+					{
+						json.addImport((String)mayKnow.getOtherNode(otherPerson).getProperty("name"));
+					}
+					json.endPerson();
 				}
 			}
 		}
-		return;
+		finally
+		{
+			json.close();
+		}
+
+		long elapsed = recordJson("findPeopleThatMayKnowAPersonJSON(level)", start, json);
+		log("JSON'd Queried all people " + person.getProperty("name") + " knows to depth " + level + " in "+ LatencyRecorder.format(elapsed) + " in milliseconds.");
     }
 
 	/**
@@ -892,55 +1556,43 @@ public class NeoQuery
 	public static void  findPeopleThatKnowAPersonAndFriendsJSON(final Node person) throws IOException
     {
 		// Start timer
-		Stopwatch timer = new Stopwatch();
-		timer.start();
-		
-		PersonDAO personDAO = new PersonDAO();
-		personDAO.size = 3500;
-		String name = new String();
-		for (Relationship memberOf : person.getRelationships(RelationshipTypes.IS_MEMBER_OF, Direction.OUTGOING))
-        {
-			Node group = memberOf.getOtherNode(person);
-			name = new String("flare" + "," + (String)group.getProperty("name") + "," + (String)person.getProperty("name"));
-			
-		}
-		personDAO.name = name;
-		List<PersonDAO> everyone = new ArrayList<PersonDAO>();
-		everyone.add(personDAO);
-        for (Relationship knows : person.getRelationships(RelationshipTypes.KNOWS, Direction.BOTH))
-        {
-			Node friend = knows.getOtherNode(person);
-			PersonDAO friendDAO = new PersonDAO();
-			friendDAO.size = 5500;
-			for (Relationship memberOf : friend.getRelationships(RelationshipTypes.IS_MEMBER_OF, Direction.OUTGOING))
+		long start = System.nanoTime();
+
+		// The person's record lists the friends, then each friend's record lists their friends
+		String personName = flareName(person, "");
+		String name = personName;
+		PersonJsonWriter json = openJson();
+		try
+		{
+			json.beginPerson(personName, 3500);
+	        for (Relationship knows : person.getRelationships(NeoRelationshipTypes.KNOWS, Direction.BOTH))
 	        {
-				Node group = memberOf.getOtherNode(friend);
-				name = new String("flare" + "," + (String)group.getProperty("name") + "," + (String)friend.getProperty("name"));
-
-			}	
-			friendDAO.name = name;
-			personDAO.imports.add(friendDAO.name);
-			everyone.add(friendDAO);
-			for (Relationship mayKnow : friend.getRelationships(RelationshipTypes.KNOWS, Direction.BOTH))
-			{
-				Node stranger = mayKnow.getOtherNode(friend);
-				for (Relationship memberOf : stranger.getRelationships(RelationshipTypes.IS_MEMBER_OF, Direction.OUTGOING))
-		        {
-					Node group = memberOf.getOtherNode(stranger);
-					name = new String("flare" + "," + (String)group.getProperty("name") + "," + (String)stranger.getProperty("name"));
-				}	
-				friendDAO.imports.add(name);
-			}
-        }
+				name = flareName(knows.getOtherNode(person), name);
+				json.addImport(name);
+	        }
+			json.endPerson();
+			name = personName;
+	        for (Relationship knows : person.getRelationships(NeoRelationshipTypes.KNOWS, Direction.BOTH))
+	        {
+				Node friend = knows.getOtherNode(person);
+				name = flareName(friend, name);
+				json.beginPerson(name, 5500);
+				for (Relationship mayKnow : friend.getRelationships(NeoRelationshipTypes.KNOWS, Direction.BOTH))
+				{
+					name = flareName(mayKnow.getOtherNode(friend), name);
+					json.addImport(name);
+				}
+				json.endPerson();
+	        }
+		}
+		finally
+		{
+			json.close();
+		}
 
 		// Stop timer
-	    timer.stop();
-	    System.out.println("Queried " + person.getProperty("name") + " to see the people that are known in "+ timer.getElapsedTime() + " milliseconds.");
-		Gson gson = new Gson();
-		String json = gson.toJson(everyone);
-		BufferedWriter topicsBuffer = new BufferedWriter(new FileWriter(PROPERTIES.getProperty("JSON_PATH")));	
-		topicsBuffer.write(json);
-		topicsBuffer.close();			
+	    long elapsed = recordJson("findPeopleThatKnowAPersonAndFriendsJSON", start, json);
+	    log("Queried " + person.getProperty("name") + " to see the people that are known in "+ LatencyRecorder.format(elapsed) + " milliseconds.");
     }
 
 	/**
@@ -953,18 +1605,17 @@ public class NeoQuery
 	public static List<List<Node>> findPeopleThatKnowAPersonAndFriends(final Node person, final int breadth)
     {
 		// Start timer
-		Stopwatch timer = new Stopwatch();
-		timer.start();
+		long start = System.nanoTime();
 
 		Set<List<Node>> friends = new HashSet<List<Node>>();
 		Set<Node> people = new HashSet<Node>();
 		int outerBreadthCount = 0;
-        for (Relationship knows : person.getRelationships(RelationshipTypes.KNOWS, Direction.BOTH))
+        for (Relationship knows : person.getRelationships(NeoRelationshipTypes.KNOWS, Direction.BOTH))
         {
 			Node friend = knows.getOtherNode(person);
 			people.add(friend);
 			int innerBreadthCount = 0;
-			for (Relationship mayKnow : friend.getRelationships(RelationshipTypes.KNOWS, Direction.BOTH))
+			for (Relationship mayKnow : friend.getRelationships(NeoRelationshipTypes.KNOWS, Direction.BOTH))
 			{
 				Node stranger = mayKnow.getOtherNode(friend);
 				people.add(stranger);
@@ -984,76 +1635,69 @@ public class NeoQuery
         }
 
 		// Stop timer
-	    timer.stop();
-	    System.out.println("Queried " + person.getProperty("name") + " to see the people that are known in "+ timer.getElapsedTime() + " milliseconds.");
-		System.out.println("Found: " + friends.size() + " friends.");
+	    long elapsed = LATENCY.record("findPeopleThatKnowAPersonAndFriends(breadth)", start);
+	    log("Queried " + person.getProperty("name") + " to see the people that are known in "+ LatencyRecorder.format(elapsed) + " milliseconds.");
+		log("Found: " + friends.size() + " friends.");
         return new ArrayList<List<Node>>(friends);
     }
 
 	public static void findPeopleThatKnowAPersonAndFriendsJSON(final Node person, final int breadth) throws IOException
     {
 		// Start timer
-		Stopwatch timer = new Stopwatch();
-		timer.start();
+		long start = System.nanoTime();
 
-		PersonDAO personDAO = new PersonDAO();
-		personDAO.size = 3500;
-		String name = new String();
-		for (Relationship memberOf : person.getRelationships(RelationshipTypes.IS_MEMBER_OF, Direction.OUTGOING))
-        {
-			Node group = memberOf.getOtherNode(person);
-			name = new String("flare" + "," + (String)group.getProperty("name") + "," + (String)person.getProperty("name"));
-			
-		}
-		personDAO.name = name;
-		List<PersonDAO> everyone = new ArrayList<PersonDAO>();
-		everyone.add(personDAO);
-		int outerBreadthCount = 0;
-        for (Relationship knows : person.getRelationships(RelationshipTypes.KNOWS, Direction.BOTH))
-        {
-			Node friend = knows.getOtherNode(person);
-			PersonDAO friendDAO = new PersonDAO();
-			friendDAO.size = 5500;
-			for (Relationship memberOf : friend.getRelationships(RelationshipTypes.IS_MEMBER_OF, Direction.OUTGOING))
+		String personName = flareName(person, "");
+		String name = personName;
+		PersonJsonWriter json = openJson();
+		try
+		{
+			json.beginPerson(personName, 3500);
+			int outerBreadthCount = 0;
+	        for (Relationship knows : person.getRelationships(NeoRelationshipTypes.KNOWS, Direction.BOTH))
 	        {
-				Node group = memberOf.getOtherNode(friend);
-				name = new String("flare" + "," + (String)group.getProperty("name") + "," + (String)friend.getProperty("name"));
-
-			}	
-			friendDAO.name = name;
-			personDAO.imports.add(friendDAO.name);
-			everyone.add(friendDAO);			
-			int innerBreadthCount = 0;
-			for (Relationship mayKnow : friend.getRelationships(RelationshipTypes.KNOWS, Direction.BOTH))
-			{
-				Node stranger = mayKnow.getOtherNode(friend);
-				for (Relationship memberOf : stranger.getRelationships(RelationshipTypes.IS_MEMBER_OF, Direction.OUTGOING))
-		        {
-					Node group = memberOf.getOtherNode(stranger);
-					name = new String("flare" + "," + (String)group.getProperty("name") + "," + (String)stranger.getProperty("name"));
-				}	
-				friendDAO.imports.add(name);
-				innerBreadthCount++;
-	    		if (innerBreadthCount == breadth)
-	    		{
+				name = flareName(knows.getOtherNode(person), name);
+				json.addImport(name);
+				outerBreadthCount++;
+		    	if (outerBreadthCount == breadth)
+		    	{
 					break;
 				}
-			}			
-			outerBreadthCount++;
-	    	if (outerBreadthCount == breadth)
-	    	{
-				break;
-			}
-        }
+	        }
+			json.endPerson();
+			name = personName;
+			outerBreadthCount = 0;
+	        for (Relationship knows : person.getRelationships(NeoRelationshipTypes.KNOWS, Direction.BOTH))
+	        {
+				Node friend = knows.getOtherNode(person);
+				name = flareName(friend, name);
+				json.beginPerson(name, 5500);
+				int innerBreadthCount = 0;
+				for (Relationship mayKnow : friend.getRelationships(NeoRelationshipTypes.KNOWS, Direction.BOTH))
+				{
+					name = flareName(mayKnow.getOtherNode(friend), name);
+					json.addImport(name);
+					innerBreadthCount++;
+		    		if (innerBreadthCount == breadth)
+		    		{
+						break;
+					}
+				}
+				json.endPerson();
+				outerBreadthCount++;
+		    	if (outerBreadthCount == breadth)
+		    	{
+					break;
+				}
+	        }
+		}
+		finally
+		{
+			json.close();
+		}
 
 		// Stop timer
-	    timer.stop();
-	    System.out.println("JSON'd Queried " + person.getProperty("name") + " to see the people that are known in "+ timer.getElapsedTime() + " milliseconds.");
-		Gson gson = new Gson();
-		String json = gson.toJson(everyone);
-		BufferedWriter topicsBuffer = new BufferedWriter(new FileWriter(PROPERTIES.getProperty("JSON_PATH")));	
-		topicsBuffer.write(json);
-		topicsBuffer.close();
+	    long elapsed = recordJson("findPeopleThatKnowAPersonAndFriendsJSON(breadth)", start, json);
+	    log("JSON'd Queried " + person.getProperty("name") + " to see the people that are known in "+ LatencyRecorder.format(elapsed) + " milliseconds.");
     }
 
 	/**
@@ -1066,23 +1710,35 @@ public class NeoQuery
 	public static int findNumberOfIncomingEdges(final Node person, final String topic)
     {
 		// Start timer
-		Stopwatch timer = new Stopwatch();
-		timer.start();
+		long start = System.nanoTime();
 
         int count = 0;
-        for (Relationship knows : person.getRelationships(RelationshipTypes.KNOWS, Direction.INCOMING))
-        {
-			Node friend = knows.getOtherNode(person);
-			if (topic.equals(knows.getProperty("topic")))
-			{
-            	count++;
-			}
-        }
+		TopicEdgeCounts counts = TOPIC_COUNTS;
+		TopicEdgeIndex index = TOPIC_INDEX;
+		if (counts != null)
+		{
+			count = counts.count(person.getId(), topic, TopicEdgeIndex.INCOMING);
+		}
+		else if (index != null)
+		{
+			count = index.count(person.getId(), topic, TopicEdgeIndex.INCOMING);
+		}
+		else
+		{
+	        KnowsTopic onTopic = KnowsTopic.of(topic);
+	        for (Relationship knows : person.getRelationships(NeoRelationshipTypes.KNOWS, Direction.INCOMING))
+	        {
+				if (onTopic.matches(knows))
+				{
+	            	count++;
+				}
+	        }
+		}
 
 		// Stop timer
-	    timer.stop();
-	    System.out.println("Queried " + person.getProperty("name") + " related to topic " + topic + " in "+ timer.getElapsedTime() + " milliseconds.");
-		System.out.println("Found: " + count + " incoming people.");
+	    long elapsed = LATENCY.record(counts != null ? "findNumberOfIncomingEdges(counted)" : index != null ? "findNumberOfIncomingEdges(indexed)" : "findNumberOfIncomingEdges", start);
+	    log("Queried " + person.getProperty("name") + " related to topic " + topic + " in "+ LatencyRecorder.format(elapsed) + " milliseconds.");
+		log("Found: " + count + " incoming people.");
         return count;
     }
 
@@ -1096,24 +1752,143 @@ public class NeoQuery
 	public static int findNumberOfOutgoingEdges(final Node person, final String topic)
     {
 		// Start timer
-		Stopwatch timer = new Stopwatch();
-		timer.start();
+		long start = System.nanoTime();
 
         int count = 0;
-        for (Relationship knows : person.getRelationships(RelationshipTypes.KNOWS, Direction.OUTGOING))
-        {
-			Node friend = knows.getOtherNode(person);
-			if (topic.equals(knows.getProperty("topic")))
+		TopicEdgeCounts counts = TOPIC_COUNTS;
+		TopicEdgeIndex index = TOPIC_INDEX;
+		if (counts != null)
+		{
+			count = counts.count(person.getId(), topic, TopicEdgeIndex.OUTGOING);
+		}
+		else if (index != null)
+		{
+			count = index.count(person.getId(), topic, TopicEdgeIndex.OUTGOING);
+		}
+		else
+		{
+	        KnowsTopic onTopic = KnowsTopic.of(topic);
+	        for (Relationship knows : person.getRelationships(NeoRelationshipTypes.KNOWS, Direction.OUTGOING))
+	        {
+				if (onTopic.matches(knows))
+				{
+	            	count++;
+				}
+	        }
+		}
+
+		// Stop timer
+	    long elapsed = LATENCY.record(counts != null ? "findNumberOfOutgoingEdges(counted)" : index != null ? "findNumberOfOutgoingEdges(indexed)" : "findNumberOfOutgoingEdges", start);
+	    log("Queried " + person.getProperty("name") + " related to topic " + topic + " in "+ LatencyRecorder.format(elapsed) + " milliseconds.");
+		log("Found: " + count + " outgoing people.");
+        return count;
+    }
+
+	/**
+     * Creates a KNOWS relationship in the caller's transaction. The KnowsCommitHandler
+     * counts it and drops the cached results of both people once the transaction commits.
+     * @param person the node of the person who knows
+     * @param friend the node of the person known
+     * @param topic the topic they know each other on
+     * @param weight the weight of the relationship
+     * @return the new relationship
+	 */
+
+	public static Relationship createKnows(final Node person, final Node friend, final String topic, final int weight)
+    {
+		Relationship knows = person.createRelationshipTo(friend, NeoRelationshipTypes.KNOWS);
+		KnowsTopic.of(topic).set(knows);
+		knows.setProperty("weight", weight);
+		return knows;
+    }
+
+	/**
+	 * Counts KNOWS relationships and invalidates cached results once their
+	 * transaction has committed. The topic index is read-only, so it is dropped
+	 * when relationships are created and the topic queries scan from then on.
+	 */
+
+	static void knowsCommitted(final KnowsCommitHandler.Changes changes)
+	{
+		TopicEdgeCounts counts = TOPIC_COUNTS;
+		QueryCache cache = CACHE;
+		if (!changes.created.isEmpty())
+		{
+			TOPIC_INDEX = null;
+		}
+		for (KnowsCommitHandler.Created knows : changes.created)
+		{
+			if (counts != null)
 			{
-            	count++;
+				counts.add(knows.person, knows.friend, knows.topic);
 			}
-        }
+			if (cache != null)
+			{
+				cache.invalidatePerson(knows.personName);
+				cache.invalidatePerson(knows.friendName);
+			}
+		}
+		if (cache != null)
+		{
+			for (String[] reweighted : changes.reweighted)
+			{
+				cache.invalidate(reweighted[0], reweighted[1]);
+			}
+		}
+	}
+
+	/**
+     * Recounts every person's KNOWS relationships by topic with a full scan and
+     * compares the result with the loaded counts, logging the first differences
+     * @param neo the graph to scan
+     * @return the number of counts that differ, 0 when there are no counts loaded
+	 */
+
+	public static int checkTopicCounts(final GraphDatabaseService neo)
+    {
+		TopicEdgeCounts counts = TOPIC_COUNTS;
+		if (counts == null)
+		{
+			log("No topic counts loaded to check.");
+			return 0;
+		}
+
+		// Start timer
+		long start = System.nanoTime();
+
+		TopicEdgeCounts scanned = new TopicEdgeCounts();
+		for (int person = 0; person < PERSONMAP.size(); person++)
+		{
+			for (Relationship knows : neo.getNodeById(PERSONMAP.valueAt(person)).getRelationships(NeoRelationshipTypes.KNOWS, Direction.OUTGOING))
+			{
+				scanned.add(knows.getStartNode().getId(), knows.getEndNode().getId(), KnowsTopic.nameOf(knows));
+			}
+		}
+		List<String> differences = new ArrayList<String>();
+		int mismatches = counts.compare(scanned, differences, 20);
 
 		// Stop timer
-	    timer.stop();
-	    System.out.println("Queried " + person.getProperty("name") + " related to topic " + topic + " in "+ timer.getElapsedTime() + " milliseconds.");
-		System.out.println("Found: " + count + " outgoing people.");
-        return count;
+	    long elapsed = LATENCY.record("checkTopicCounts", start);
+		log("Checked " + counts.describe() + " against a scan of " + scanned.describe() + " in " + LatencyRecorder.format(elapsed) + " milliseconds: " + mismatches + " differ.");
+		for (String difference : differences)
+		{
+			log(difference);
+		}
+		return mismatches;
+    }
+
+	/**
+     * Writes the topic counts back to TOPIC_COUNTS_PATH if createKnows() changed them
+	 */
+
+	public static void saveTopicCounts() throws IOException
+    {
+		TopicEdgeCounts counts = TOPIC_COUNTS;
+		if (counts != null && counts.isDirty())
+		{
+			counts.write(new File(PROPERTIES.getProperty("TOPIC_COUNTS_PATH").trim()));
+			log("Saved " + counts.describe() + ".");
+		}
     }
 
 	/**
@@ -1125,11 +1900,25 @@ public class NeoQuery
 
 	public static void updateTopicWeight(final Node person, final String topic, final int newWeight)
     {
-
-        for (Relationship knows : person.getRelationships(RelationshipTypes.KNOWS, Direction.BOTH))
+		TopicEdgeIndex index = TOPIC_INDEX;
+		if (index != null)
+		{
+			// A loop is indexed in both directions and simply set twice
+			GraphDatabaseService neo = person.getGraphDatabase();
+			for (int direction = TopicEdgeIndex.OUTGOING; direction <= TopicEdgeIndex.INCOMING; direction++)
+			{
+				for (long knows : index.relationships(person.getId(), topic, direction))
+				{
+					neo.getRelationshipById(knows).setProperty("weight", newWeight);
+				}
+			}
+			return;
+		}
+        KnowsTopic onTopic = KnowsTopic.of(topic);
+        for (Relationship knows : person.getRelationships(NeoRelationshipTypes.KNOWS, Direction.BOTH))
         {
 			Node friend = knows.getOtherNode(person);
-			if (topic.equals(knows.getProperty("topic")))
+			if (onTopic.matches(knows))
 			{
             	knows.setProperty("weight", newWeight);
 			}
@@ -1146,13 +1935,13 @@ public class NeoQuery
 	public static double findBetweenessCentralityBFS(final Node person, final String topic)
     {
 		// Start timer
-		Stopwatch timer = new Stopwatch();
-		timer.start();
+		long start = System.nanoTime();
 
 		List<Node> nodeList = findPeopleThatKnowAPersonByATopic(person,topic);
 		printNodeList(nodeList);
 
 		Set<Node> nodeSet = new HashSet<Node>(nodeList); 
+		nodeSet.add(person); // the person is never in its own friend list
 		
         // Set up shortest path algorithm.
         // Observe that we don't need to specify a start node.
@@ -1160,7 +1949,7 @@ public class NeoQuery
         singleSourceShortestPath = new SingleSourceShortestPathBFS(
             null,
             Direction.BOTH,
-            RelationshipTypes.KNOWS);
+            NeoRelationshipTypes.KNOWS);
 
         // Set up betweenness centrality algorithm.
         BetweennessCentrality<Integer> betweennessCentrality;
@@ -1172,17 +1961,16 @@ public class NeoQuery
         Double centrality = betweennessCentrality.getCentrality(person);
 
 		// Stop timer
-	    timer.stop();
-	    System.out.println("Queried " + person.getProperty("name") + " related to topic " + topic + " in "+ timer.getElapsedTime() + " milliseconds.");
-		System.out.println("BFS Centrality: " + centrality);
+	    long elapsed = LATENCY.record("findBetweenessCentralityBFS", start);
+	    log("Queried " + person.getProperty("name") + " related to topic " + topic + " in "+ LatencyRecorder.format(elapsed) + " milliseconds.");
+		log("BFS Centrality: " + centrality);
         return centrality;
     }
 
 	public static void findBreadthFirstShortestPath(final Node person, final String topic)
     {
 		// Start timer
-		Stopwatch timer = new Stopwatch();
-		timer.start();
+		long start = System.nanoTime();
 
 		List<Node> nodeList = findPeopleThatKnowAPersonByATopic(person,topic);
 		Set<Node> nodeSet = new HashSet<Node>(nodeList); 
@@ -1194,14 +1982,14 @@ public class NeoQuery
         singleSourceShortestPath = new SingleSourceShortestPathBFS(
             person,
             Direction.OUTGOING,
-            RelationshipTypes.KNOWS);
+            NeoRelationshipTypes.KNOWS);
 
 		// Calculate shortest's paths based on BFS
 		SingleSourceShortestPathBFS singleSourceShortestPathBFS = (SingleSourceShortestPathBFS)singleSourceShortestPath;
 		singleSourceShortestPathBFS.limitDepth(new Long(1));
 
 		// Print out shortest paths
-		System.out.println("Breadth First: printing out all shorest paths for query set of " + person.getProperty("name") + " related to topic " + topic + ".");
+		log("Breadth First: printing out all shorest paths for query set of " + person.getProperty("name") + " related to topic " + topic + ".");
 		for (Node node : nodeList)
 		{
 			List<PropertyContainer> path = singleSourceShortestPath.getPath(node);
@@ -1209,8 +1997,8 @@ public class NeoQuery
 		}
 		
 		// Stop timer
-	    timer.stop();
-	    System.out.println("Queried " + person.getProperty("name") + " related to topic " + topic + " in "+ timer.getElapsedTime() + " milliseconds.");
+	    long elapsed = LATENCY.record("findBreadthFirstShortestPath", start);
+	    log("Queried " + person.getProperty("name") + " related to topic " + topic + " in "+ LatencyRecorder.format(elapsed) + " milliseconds.");
     }
 	
 	/**
@@ -1222,8 +2010,7 @@ public class NeoQuery
 	public static void findDijkstraShortestPath(final Node person, final String topic)
     {
 		// Start timer
-		Stopwatch timer = new Stopwatch();
-		timer.start();
+		long start = System.nanoTime();
 
 		List<Node> nodeList = findPeopleThatKnowAPersonByATopic(person,topic);
 		printNodeList(nodeList);
@@ -1237,10 +2024,10 @@ public class NeoQuery
             new IntegerAdder(), 
             new IntegerComparator(), 
             Direction.OUTGOING,
-            RelationshipTypes.KNOWS);
+            NeoRelationshipTypes.KNOWS);
 
         // Print out shortest paths
-	    System.out.println("Dijkstra: printing out all shorest paths for query set of " + person.getProperty("name") + " related to topic " + topic + ".");
+	    log("Dijkstra: printing out all shorest paths for query set of " + person.getProperty("name") + " related to topic " + topic + ".");
       	for (Node node : nodeList)
         {
 			List<PropertyContainer> path = sp.getPath(node);
@@ -1248,8 +2035,8 @@ public class NeoQuery
         }
 
 		// Stop timer
-	    timer.stop();
-	    System.out.println("Queried " + person.getProperty("name") + " related to topic " + topic + " in "+ timer.getElapsedTime() + " milliseconds.");
+	    long elapsed = LATENCY.record("findDijkstraShortestPath", start);
+	    log("Queried " + person.getProperty("name") + " related to topic " + topic + " in "+ LatencyRecorder.format(elapsed) + " milliseconds.");
     }
 
 
@@ -1262,8 +2049,7 @@ public class NeoQuery
 	public static void findFloydWarshallShortestPath(final Node person, final Node topic)
     {
 		// Start timer
-		Stopwatch timer = new Stopwatch();
-		timer.start();
+		long start = System.nanoTime();
 
 		List<Node> nodeList = findPeopleOnTopic(topic);
 		printNodeList(nodeList);
@@ -1286,7 +2072,7 @@ public class NeoQuery
 			relSet);
 			
         // Print out shortest paths
-	    System.out.println("Floyd Warshall: printing out all shorest paths for query set of " + person.getProperty("name") + " related to topic " + topic.getProperty("topic") + ".");
+	    log("Floyd Warshall: printing out all shorest paths for query set of " + person.getProperty("name") + " related to topic " + topic.getProperty("topic") + ".");
 		fw.calculate();
 		int depth = 0;
 		int depthLimit = 1;
@@ -1298,15 +2084,15 @@ public class NeoQuery
 	        	path = fw.getPath(person, friend);
 				for (Node node : path)
 				{
-					System.out.println(node);
+					log(node);
 				}
 			}
 			depth++;
         }
 
 		// Stop timer
-	    timer.stop();
-	    System.out.println("Queried " + person.getProperty("name") + " related to topic " + topic + " in "+ timer.getElapsedTime() + " milliseconds.");
+	    long elapsed = LATENCY.record("findFloydWarshallShortestPath", start);
+	    log("Queried " + person.getProperty("name") + " related to topic " + topic + " in "+ LatencyRecorder.format(elapsed) + " milliseconds.");
     }
 
 	/**
@@ -1319,8 +2105,7 @@ public class NeoQuery
 	public static double findEigenvectorCentralityArnoldi(final Node person, final Node topic)
     {
 		// Start timer
-		Stopwatch timer = new Stopwatch();
-		timer.start();
+		long start = System.nanoTime();
 
 		List<Node> nodeList = findPeopleOnTopic(topic);
 		printNodeList(nodeList);
@@ -1333,7 +2118,7 @@ public class NeoQuery
         EigenvectorCentralityArnoldi ev;
         ev = new EigenvectorCentralityArnoldi(
             Direction.BOTH,
-            new DoubleEvaluator("cost"),
+            WEIGHT_AS_COST,
 			nodeSet,
 			relSet,
             0.01);
@@ -1345,9 +2130,9 @@ public class NeoQuery
        	Double centrality = ev.getCentrality(person);
 
 		// Stop timer
-	    timer.stop();
-	    System.out.println("Queried " + person.getProperty("name") + " related to topic " + topic + " in "+ timer.getElapsedTime() + " milliseconds.");
-		System.out.println("Eigenvector Arnoldi Centrality: " + centrality);
+	    long elapsed = LATENCY.record("findEigenvectorCentralityArnoldi", start);
+	    log("Queried " + person.getProperty("name") + " related to topic " + topic + " in "+ LatencyRecorder.format(elapsed) + " milliseconds.");
+		log("Eigenvector Arnoldi Centrality: " + centrality);
         return centrality;
     }		
 		
@@ -1360,8 +2145,7 @@ public class NeoQuery
 	public static double findEigenvectorCentralityPower(final Node person, final Node topic)
     {
 		// Start timer
-		Stopwatch timer = new Stopwatch();
-		timer.start();
+		long start = System.nanoTime();
 
 		List<Node> nodeList = findPeopleOnTopic(topic);
 		printNodeList(nodeList);
@@ -1374,7 +2158,7 @@ public class NeoQuery
         EigenvectorCentralityPower ev;
         ev = new EigenvectorCentralityPower(
             Direction.BOTH,
-            new DoubleEvaluator("cost"),
+            WEIGHT_AS_COST,
 			nodeSet,
 			relSet,
             0.001);
@@ -1386,29 +2170,63 @@ public class NeoQuery
         Double centrality = ev.getCentrality(person);
 
 		// Stop timer
-	    timer.stop();
-	    System.out.println("Queried " + person.getProperty("name") + " related to topic " + topic + " in "+ timer.getElapsedTime() + " milliseconds.");
-		System.out.println("Eigenvector Power Centrality: " + centrality);
+	    long elapsed = LATENCY.record("findEigenvectorCentralityPower", start);
+	    log("Queried " + person.getProperty("name") + " related to topic " + topic + " in "+ LatencyRecorder.format(elapsed) + " milliseconds.");
+		log("Eigenvector Power Centrality: " + centrality);
         return centrality;
     }	
 	
 	
+	/**
+	 * Maps the dictionary the ingest wrote to path, or builds it from the graph
+	 * with getMap() when there is none or it does not match the graph
+	 */
+
+	private static NameLookup getNames(final String type, final String path, final GraphDatabaseService neo)
+	{
+		if (path.length() > 0 && new File(path).isFile())
+		{
+			try
+			{
+				MappedNameDictionary names = MappedNameDictionary.open(new File(path));
+				// Spot check both ends against the graph, which may have been ingested again without it
+				String property = type.equals("topic") ? "topic" : "name";
+				if (names.size() == 0 || (names.keyAt(0).equals(neo.getNodeById(names.valueAt(0)).getProperty(property, null))
+					&& names.keyAt(names.size() - 1).equals(neo.getNodeById(names.valueAt(names.size() - 1)).getProperty(property, null))))
+				{
+					return names;
+				}
+				log("Dictionary " + path + " does not match the graph, reading " + type + " nodes instead.");
+			}
+			catch (IOException e)
+			{
+				log("Dictionary " + path + " not mapped, reading " + type + " nodes instead: " + e.getMessage());
+			}
+			catch (NotFoundException e)
+			{
+				log("Dictionary " + path + " does not match the graph, reading " + type + " nodes instead.");
+			}
+		}
+		return getMap(type, neo);
+	}
+
 	/**
      * Builds a map that holds string to nodeID connections
      * @param type the type of map to return; either person or topic
      * @param neo active Neo4J persistence service
-     * @return a HashMap of strings to nodeIds
+     * @return a dictionary of strings to nodeIds
 	 */
 
-	public static HashMap<String,Long> getMap(String type, GraphDatabaseService neo)
+	public static NameDictionary getMap(String type, GraphDatabaseService neo)
 	{
 		long referenceNodeId = 0;
-		HashMap<String,Long> map = new HashMap<String,Long>();
+		boolean offHeap = Boolean.parseBoolean(PROPERTIES.getProperty("DICTIONARY_OFF_HEAP", "false").trim());
+		NameDictionary map = new NameDictionary(1024, offHeap);
 		Node referenceNode = neo.getNodeById(referenceNodeId);
 		if (type.equals("topic"))
 		{
-			Node topicNodes = referenceNode.getSingleRelationship(RelationshipTypes.TOPICS, Direction.OUTGOING).getEndNode();
-			for (Relationship topic : topicNodes.getRelationships(RelationshipTypes.TOPIC, Direction.OUTGOING))
+			Node topicNodes = referenceNode.getSingleRelationship(NeoRelationshipTypes.TOPICS, Direction.OUTGOING).getEndNode();
+			for (Relationship topic : topicNodes.getRelationships(NeoRelationshipTypes.TOPIC, Direction.OUTGOING))
 	        {
 				Node topicNode = topic.getEndNode();
 				map.put(topicNode.getProperty("topic").toString(), topicNode.getId());
@@ -1416,8 +2234,8 @@ public class NeoQuery
 		}
 		else if (type.equals("person"))
 		{
-			Node personNodes = referenceNode.getSingleRelationship(RelationshipTypes.PEOPLE, Direction.OUTGOING).getEndNode();
-			for (Relationship person : personNodes.getRelationships(RelationshipTypes.PERSON, Direction.OUTGOING))
+			Node personNodes = referenceNode.getSingleRelationship(NeoRelationshipTypes.PEOPLE, Direction.OUTGOING).getEndNode();
+			for (Relationship person : personNodes.getRelationships(NeoRelationshipTypes.PERSON, Direction.OUTGOING))
 	        {
 				Node personNode = person.getEndNode();
 				map.put(personNode.getProperty("name").toString(), personNode.getId());
@@ -1462,15 +2280,67 @@ public class NeoQuery
 
     static void log(final Object s)
     {
-        System.out.println(s);
+        Output output = OUTPUT.get();
+        if (output != null)
+        {
+            output.println(s);
+        }
+        else if (!QUIET)
+        {
+            System.out.println(s);
+        }
     }
 
+	/**
+     * Opens JSON_PATH for a JSON query to stream its records into
+	 */
+
+	private static PersonJsonWriter openJson() throws IOException
+	{
+		File file = JSON_FILE.get();
+		return new PersonJsonWriter(file != null ? file : new File(PROPERTIES.getProperty("JSON_PATH")));
+	}
+
+	/**
+     * Records a JSON query's time and, with a (first byte) suffix, the time until
+     * its first record reached the file
+	 */
+
+	private static long recordJson(final String operation, final long start, final PersonJsonWriter json)
+	{
+		if (json.firstByteNanos() != 0)
+		{
+			LATENCY.recordValue(operation + "(first byte)", json.firstByteNanos() - start);
+		}
+		return LATENCY.record(operation, start);
+	}
+
+	/**
+     * Flare visualisation name of a person, from the last of their groups, or
+     * previous when they have none
+	 */
+
+	private static String flareName(final Node person, final String previous)
+	{
+		String name = previous;
+		for (Relationship memberOf : person.getRelationships(NeoRelationshipTypes.IS_MEMBER_OF, Direction.OUTGOING))
+		{
+			Node group = memberOf.getOtherNode(person);
+			name = "flare" + "," + (String)group.getProperty("name") + "," + (String)person.getProperty("name");
+		}
+		return name;
+	}
+
 	/**
      * Prints out a list of Nodes
 	 */
 
     static void printNodeList(final Iterable<Node> nodes)
     {
+        if (nodes == null)
+        {
+            return;
+        }
         for (Node node : nodes)
         {
             log(name(node));
@@ -1511,6 +2381,10 @@ public class NeoQuery
 
     static void printNodeListWithAttribute(final Iterable<Node> nodes)
     {
+        if (nodes == null)
+        {
+            return;
+        }
         for (Node node : nodes)
         {
             log(name(node));
@@ -1533,7 +2407,7 @@ public class NeoQuery
 
     private static void group(final Node node)
     {
-	    for (Relationship memberOf : node.getRelationships(RelationshipTypes.IS_MEMBER_OF, Direction.OUTGOING))
+	    for (Relationship memberOf : node.getRelationships(NeoRelationshipTypes.IS_MEMBER_OF, Direction.OUTGOING))
         {
 			Node group = memberOf.getOtherNode(node);
 			log(group.getProperty("name"));
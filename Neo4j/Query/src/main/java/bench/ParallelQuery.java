@@ -0,0 +1,336 @@
+package bench;
+
+import java.util.Set;
+import java.util.List;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.GraphDatabaseService;
+
+import bench.utils.NodeBitmap;
+import bench.utils.LatencyRecorder;
+import bench.utils.ConcurrentNodeSet;
+
+/**
+ * Parallel versions of the friend of friend queries 6 and 13. The person's
+ * friends are split into ranges and each range is expanded by a task on a shared
+ * pool of PARALLELISM daemon threads, so a person with a great many friends uses
+ * every core. Tasks only read the graph, which Neo4j allows outside a transaction,
+ * and merge what they find into a ConcurrentNodeSet. Timings are recorded in
+ * NeoQuery.LATENCY under the NeoQuery method name with a (parallel) suffix.
+ */
+
+public class ParallelQuery
+{
+
+	// Tasks per thread, so that ranges of hubs and of loners even out
+	private static final int TASKS_PER_THREAD = 4;
+
+	private static ExecutorService POOL;
+	private static int PARALLELISM;
+
+	private ParallelQuery()
+	{
+	}
+
+	/**
+	 * Sets the number of expansion threads, 0 for one per processor. Takes effect
+	 * before the first parallel query.
+	 */
+
+	public static synchronized void setParallelism(final int parallelism)
+	{
+		if (POOL == null)
+		{
+			PARALLELISM = threads(parallelism);
+		}
+	}
+
+	/**
+	 * The shared pool, started on first use
+	 */
+
+	static synchronized ExecutorService pool()
+	{
+		if (POOL == null)
+		{
+			PARALLELISM = threads(PARALLELISM);
+			POOL = Executors.newFixedThreadPool(PARALLELISM, new ThreadFactory()
+			{
+				private int count;
+
+				public synchronized Thread newThread(final Runnable task)
+				{
+					Thread thread = new Thread(task, "parallel-query-" + (++count));
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return POOL;
+	}
+
+	/**
+	 * The number of threads in the shared pool, or that it will start with
+	 */
+
+	static synchronized int parallelism()
+	{
+		return threads(PARALLELISM);
+	}
+
+	// Threads for a parallelism setting, 0 for one per processor
+	private static int threads(final int parallelism)
+	{
+		return parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Query 6 in parallel: people two KNOWS hops away in either direction, the person
+	 * included when a friend knows them back
+	 */
+
+	public static List<Node> findPeopleThatMayKnowAPerson(final Node person)
+	{
+		long start = System.nanoTime();
+
+		final GraphDatabaseService neo = person.getGraphDatabase();
+		final long[] friends = friends(person, Integer.MAX_VALUE);
+		List<int[]> ranges = split(friends.length);
+		final ConcurrentNodeSet people = new ConcurrentNodeSet(PARALLELISM);
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (final int[] range : ranges)
+		{
+			tasks.add(new Callable<Void>()
+			{
+				public Void call()
+				{
+					for (int i = range[0]; i < range[1]; i++)
+					{
+						Node friend = neo.getNodeById(friends[i]);
+						for (Relationship mayKnow : friend.getRelationships(NeoRelationshipTypes.KNOWS, Direction.BOTH))
+						{
+							people.add(mayKnow.getOtherNode(friend).getId());
+						}
+					}
+					return null;
+				}
+			});
+		}
+		invokeAll(tasks);
+		List<Node> nodes = toNodes(neo, people.toArray());
+
+		long elapsed = NeoQuery.LATENCY.record("findPeopleThatMayKnowAPerson(parallel)", start);
+		NeoQuery.log("Queried " + person.getProperty("name") + " to see the people that are known in " + LatencyRecorder.format(elapsed) + " milliseconds with " + tasks.size() + " tasks.");
+		NeoQuery.log("Found: " + nodes.size() + " people.");
+		return nodes;
+	}
+
+	/**
+	 * Query 13 in parallel: for each of the first breadth friends of the person, the
+	 * friend and the people the friend knows over its first breadth relationships.
+	 * A friend reached over several relationships is expanded once.
+	 */
+
+	public static List<List<Node>> findPeopleThatKnowAPersonAndFriends(final Node person, final int breadth)
+	{
+		long start = System.nanoTime();
+
+		final GraphDatabaseService neo = person.getGraphDatabase();
+		final long[] friends = friends(person, breadth);
+		List<int[]> ranges = split(friends.length);
+		final ConcurrentNodeSet claimed = new ConcurrentNodeSet(PARALLELISM);
+		List<Callable<List<List<Node>>>> tasks = new ArrayList<Callable<List<List<Node>>>>();
+		for (final int[] range : ranges)
+		{
+			tasks.add(new Callable<List<List<Node>>>()
+			{
+				public List<List<Node>> call()
+				{
+					List<List<Node>> lists = new ArrayList<List<Node>>();
+					for (int i = range[0]; i < range[1]; i++)
+					{
+						if (!claimed.add(friends[i]))
+						{
+							continue;
+						}
+						Node friend = neo.getNodeById(friends[i]);
+						Set<Node> people = new HashSet<Node>();
+						people.add(friend);
+						int innerBreadthCount = 0;
+						for (Relationship mayKnow : friend.getRelationships(NeoRelationshipTypes.KNOWS, Direction.BOTH))
+						{
+							people.add(mayKnow.getOtherNode(friend));
+							if (++innerBreadthCount == breadth)
+							{
+								break;
+							}
+						}
+						lists.add(new ArrayList<Node>(people));
+					}
+					return lists;
+				}
+			});
+		}
+		List<List<Node>> friendLists = new ArrayList<List<Node>>();
+		for (List<List<Node>> lists : invokeAll(tasks))
+		{
+			friendLists.addAll(lists);
+		}
+
+		long elapsed = NeoQuery.LATENCY.record("findPeopleThatKnowAPersonAndFriends(breadth)(parallel)", start);
+		NeoQuery.log("Queried " + person.getProperty("name") + " to see the people that are known in " + LatencyRecorder.format(elapsed) + " milliseconds with " + tasks.size() + " tasks.");
+		NeoQuery.log("Found: " + friendLists.size() + " friends.");
+		return friendLists;
+	}
+
+	/**
+	 * Runs query 6 sequentially and in parallel, and logs both timings and whether
+	 * they found the same people. Both run once untimed first, so neither pays for
+	 * loading the person's neighbourhood into the cache.
+	 * @return the parallel result
+	 */
+
+	public static List<Node> compareFindPeopleThatMayKnowAPerson(final Node person)
+	{
+		NeoQuery.findPeopleThatMayKnowAPerson(person);
+		findPeopleThatMayKnowAPerson(person);
+		long start = System.nanoTime();
+		List<Node> sequential = NeoQuery.findPeopleThatMayKnowAPerson(person);
+		long sequentialNanos = System.nanoTime() - start;
+		start = System.nanoTime();
+		List<Node> parallel = findPeopleThatMayKnowAPerson(person);
+		long parallelNanos = System.nanoTime() - start;
+		logComparison("Query 6", sequentialNanos, parallelNanos, ids(sequential).equals(ids(parallel)));
+		return parallel;
+	}
+
+	/**
+	 * Runs query 13 sequentially and in parallel, after an untimed run of each, and
+	 * logs both timings and whether they found the same friends and friends of friends
+	 * @return the parallel result
+	 */
+
+	public static List<List<Node>> compareFindPeopleThatKnowAPersonAndFriends(final Node person, final int breadth)
+	{
+		NeoQuery.findPeopleThatKnowAPersonAndFriends(person, breadth);
+		findPeopleThatKnowAPersonAndFriends(person, breadth);
+		long start = System.nanoTime();
+		List<List<Node>> sequential = NeoQuery.findPeopleThatKnowAPersonAndFriends(person, breadth);
+		long sequentialNanos = System.nanoTime() - start;
+		start = System.nanoTime();
+		List<List<Node>> parallel = findPeopleThatKnowAPersonAndFriends(person, breadth);
+		long parallelNanos = System.nanoTime() - start;
+		logComparison("Query 13", sequentialNanos, parallelNanos, idLists(sequential).equals(idLists(parallel)));
+		return parallel;
+	}
+
+	private static void logComparison(final String query, final long sequentialNanos, final long parallelNanos, final boolean same)
+	{
+		NeoQuery.log(query + ": sequential " + LatencyRecorder.format(sequentialNanos) + " ms, parallel " + LatencyRecorder.format(parallelNanos)
+			+ " ms on " + PARALLELISM + " threads, speedup " + String.format("%.2f", (double) sequentialNanos / Math.max(parallelNanos, 1))
+			+ (same ? ", same results." : ", RESULTS DIFFER."));
+	}
+
+	// Distinct friend ids in relationship order, from the first limit relationships
+	private static long[] friends(final Node person, final int limit)
+	{
+		NodeBitmap seen = new NodeBitmap();
+		long[] friends = new long[64];
+		int count = 0;
+		int relationships = 0;
+		for (Relationship knows : person.getRelationships(NeoRelationshipTypes.KNOWS, Direction.BOTH))
+		{
+			long friend = knows.getOtherNode(person).getId();
+			if (seen.add(friend))
+			{
+				if (count == friends.length)
+				{
+					friends = Arrays.copyOf(friends, count * 2);
+				}
+				friends[count++] = friend;
+			}
+			if (++relationships == limit)
+			{
+				break;
+			}
+		}
+		return Arrays.copyOf(friends, count);
+	}
+
+	// Contiguous ranges over n friends, TASKS_PER_THREAD per thread; starts the pool
+	private static List<int[]> split(final int n)
+	{
+		pool();
+		int tasks = Math.max(1, Math.min(n, PARALLELISM * TASKS_PER_THREAD));
+		List<int[]> ranges = new ArrayList<int[]>(tasks);
+		for (int task = 0; task < tasks; task++)
+		{
+			ranges.add(new int[] {(int) ((long) n * task / tasks), (int) ((long) n * (task + 1) / tasks)});
+		}
+		return ranges;
+	}
+
+	private static <T> List<T> invokeAll(final List<Callable<T>> tasks)
+	{
+		List<T> results = new ArrayList<T>(tasks.size());
+		try
+		{
+			for (Future<T> future : pool().invokeAll(tasks))
+			{
+				results.add(future.get());
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while expanding friends.", e);
+		}
+		catch (ExecutionException e)
+		{
+			throw new IllegalStateException("Expanding friends failed.", e.getCause());
+		}
+		return results;
+	}
+
+	private static List<Node> toNodes(final GraphDatabaseService neo, final long[] ids)
+	{
+		List<Node> nodes = new ArrayList<Node>(ids.length);
+		for (long id : ids)
+		{
+			nodes.add(neo.getNodeById(id));
+		}
+		return nodes;
+	}
+
+	private static Set<Long> ids(final List<Node> nodes)
+	{
+		Set<Long> ids = new HashSet<Long>();
+		for (Node node : nodes)
+		{
+			ids.add(node.getId());
+		}
+		return ids;
+	}
+
+	private static Set<Set<Long>> idLists(final List<List<Node>> lists)
+	{
+		Set<Set<Long>> ids = new HashSet<Set<Long>>();
+		for (List<Node> nodes : lists)
+		{
+			ids.add(ids(nodes));
+		}
+		return ids;
+	}
+
+}
@@ -0,0 +1,526 @@
+package bench;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import java.io.File;
+import java.io.Writer;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+
+import java.net.Socket;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.SocketException;
+
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.GraphDatabaseService;
+
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+
+import bench.utils.QueryCache;
+import bench.utils.LatencyRecorder;
+
+/**
+ * Resident query server. It opens the graph and the NeoQuery dictionaries once
+ * and then runs queries sent over a local socket, or over stdin and stdout when
+ * QUERY_SERVER_PORT is 0, on a pool of QUERY_SERVER_THREADS workers, so the
+ * queries are measured warm rather than paying JVM start, store open and
+ * dictionary load each time. With QUERY_SERVER_EXECUTOR = virtual every request
+ * runs on its own virtual thread instead (JDK 21 or later), and at most
+ * QUERY_SERVER_CONCURRENCY of them are in the store at once.
+ *
+ * Requests are lines of tab separated fields: a tag chosen by the client, the
+ * query number, person and topic, then optionally weight and breadth, which
+ * default to WEIGHT and BREADTH. Requests on one connection run concurrently
+ * and answer in the order they finish, each with its tag:
+ *
+ *   tag  out    a timing or result line of the query
+ *   tag  done   query, milliseconds running, milliseconds since the request was read
+ *   tag  error  what went wrong
+ *
+ * The line "stats" answers with the throughput and latency percentiles so far, "quit" closes
+ * the connection once its queries are done and "shutdown" stops the server.
+ */
+
+public class QueryServer
+{
+
+	private final GraphDatabaseService neo;
+	private final ExecutorService pool;
+	private final String executor;
+	// Bounds the virtual threads in the store, null for the fixed pool
+	private final Semaphore limiter;
+	private final int weight;
+	private final int breadth;
+	private final boolean json;
+	private final File jsonPath;
+	private final LatencyRecorder latency = new LatencyRecorder();
+	private volatile boolean running = true;
+	private volatile ServerSocket server;
+	private long firstRequest;
+	private long lastAnswer;
+
+	/**
+	 * Serves the graph at GRAPHDB_PATH as configured by configuration.properties
+	 */
+
+	public static void main(String[] args) throws IOException, InterruptedException
+	{
+		Properties properties = new Properties();
+		properties.load(new FileReader("configuration.properties"));
+		int port = Integer.decode(properties.getProperty("QUERY_SERVER_PORT", "7475").trim());
+
+		// With stdin and stdout as the connection, everything else goes to stderr
+		PrintStream stdout = System.out;
+		if (port == 0)
+		{
+			System.setOut(System.err);
+		}
+
+		GraphDatabaseService neo = new EmbeddedGraphDatabase(properties.getProperty("GRAPHDB_PATH"));
+		NeoQuery.registerShutdownHookForNeo(neo);
+		NeoQuery.setProperties(properties);
+		NeoQuery.loadDictionaries(neo);
+		NeoQuery.setQuiet(true);
+
+		QueryServer server = new QueryServer(properties, neo);
+		try
+		{
+			if (port == 0)
+			{
+				server.serve(System.in, stdout);
+			}
+			else
+			{
+				server.listen(port);
+			}
+		}
+		finally
+		{
+			server.close();
+			System.out.println(server.throughput());
+			server.latency.printSummary(System.out);
+			server.latency.export(properties);
+			NeoQuery.saveTopicCounts();
+			QueryCache cache = NeoQuery.getQueryCache();
+			if (cache != null)
+			{
+				System.out.println("Query cache: " + cache.describe());
+			}
+			neo.shutdown();
+		}
+	}
+
+	/**
+	 * Reads the server settings from properties. NeoQuery.loadDictionaries() must have run.
+	 */
+
+	public QueryServer(final Properties properties, final GraphDatabaseService neo)
+	{
+		this.neo = neo;
+		this.weight = Integer.decode(properties.getProperty("WEIGHT").trim());
+		this.breadth = Integer.decode(properties.getProperty("BREADTH").trim());
+		this.json = Boolean.parseBoolean(properties.getProperty("QUERY_SERVER_JSON", "false").trim());
+		this.jsonPath = new File(properties.getProperty("JSON_PATH", "neo4J.json").trim());
+		String mode = properties.getProperty("QUERY_SERVER_EXECUTOR", "pool").trim();
+		if (mode.equals("virtual"))
+		{
+			int permits = QueryThreads.permits(Integer.parseInt(properties.getProperty("QUERY_SERVER_CONCURRENCY", "0").trim()));
+			this.pool = QueryThreads.newVirtualThreadPerTaskExecutor("query-server-");
+			this.limiter = new Semaphore(permits, true);
+			this.executor = "virtual thread per request, " + permits + " in the store";
+		}
+		else if (mode.equals("pool"))
+		{
+			int threads = Integer.parseInt(properties.getProperty("QUERY_SERVER_THREADS", "0").trim());
+			if (threads <= 0)
+			{
+				threads = Runtime.getRuntime().availableProcessors();
+			}
+			this.pool = Executors.newFixedThreadPool(threads, new ThreadFactory()
+			{
+				private int count;
+
+				public synchronized Thread newThread(final Runnable task)
+				{
+					Thread thread = new Thread(task, "query-server-" + (++count));
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			this.limiter = null;
+			this.executor = threads + " pooled workers";
+		}
+		else
+		{
+			throw new IllegalArgumentException("Unknown QUERY_SERVER_EXECUTOR: " + mode);
+		}
+		System.out.println("Query server: " + executor + ".");
+	}
+
+	/**
+	 * Accepts connections on the loopback interface until a client sends shutdown
+	 */
+
+	public void listen(final int port) throws IOException
+	{
+		server = new ServerSocket(port, 50, InetAddress.getByName(null));
+		System.out.println("Query server listening on " + server.getLocalSocketAddress() + ".");
+		while (running)
+		{
+			final Socket socket;
+			try
+			{
+				socket = server.accept();
+			}
+			catch (SocketException e)
+			{
+				// Closed by shutdown
+				break;
+			}
+			Thread reader = new Thread("query-server-connection-" + socket.getPort())
+			{
+				public void run()
+				{
+					try
+					{
+						serve(socket.getInputStream(), socket.getOutputStream());
+					}
+					catch (IOException e)
+					{
+						System.out.println("Connection from " + socket.getRemoteSocketAddress() + " failed: " + e);
+					}
+					finally
+					{
+						try
+						{
+							socket.close();
+						}
+						catch (IOException e)
+						{
+							// Already gone
+						}
+					}
+				}
+			};
+			reader.setDaemon(true);
+			reader.start();
+		}
+	}
+
+	/**
+	 * Reads requests from one connection until it ends, sends quit or shutdown,
+	 * and answers them once they are done
+	 */
+
+	public void serve(final InputStream in, final OutputStream out) throws IOException
+	{
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+		Connection connection = new Connection(new BufferedWriter(new OutputStreamWriter(out, "UTF-8")));
+		try
+		{
+			String line;
+			while (running && (line = reader.readLine()) != null)
+			{
+				line = line.trim();
+				if (line.length() == 0)
+				{
+					continue;
+				}
+				if (line.equals("quit"))
+				{
+					break;
+				}
+				if (line.equals("shutdown"))
+				{
+					shutdown();
+					break;
+				}
+				if (line.equals("stats"))
+				{
+					connection.stats();
+					continue;
+				}
+				submit(connection, line);
+			}
+			connection.awaitIdle();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		finally
+		{
+			connection.flush();
+		}
+	}
+
+	/**
+	 * Stops accepting connections and requests
+	 */
+
+	public void shutdown()
+	{
+		running = false;
+		ServerSocket listening = server;
+		if (listening != null)
+		{
+			try
+			{
+				listening.close();
+			}
+			catch (IOException e)
+			{
+				// Already closed
+			}
+		}
+	}
+
+	/**
+	 * Lets the queries that were accepted finish, then stops the workers
+	 */
+
+	public void close() throws InterruptedException
+	{
+		shutdown();
+		pool.shutdown();
+		pool.awaitTermination(1, TimeUnit.MINUTES);
+	}
+
+	public LatencyRecorder getLatency()
+	{
+		return latency;
+	}
+
+	/**
+	 * Queries answered per second from the first request to the last answer, with the executor
+	 */
+
+	public synchronized String throughput()
+	{
+		long queries = 0;
+		for (String operation : latency.operations())
+		{
+			queries += latency.histogram(operation).getTotalCount();
+		}
+		double seconds = lastAnswer == 0 ? 0 : (lastAnswer - firstRequest) / 1e9;
+		return executor + ": " + queries + " queries, " + String.format("%.1f", seconds > 0 ? queries / seconds : 0) + " ops/s over " + String.format("%.1f", seconds) + " s";
+	}
+
+	private void submit(final Connection connection, final String line)
+	{
+		final long received = System.nanoTime();
+		synchronized (this)
+		{
+			if (firstRequest == 0)
+			{
+				firstRequest = received;
+			}
+		}
+		final String[] fields = line.split("\t", -1);
+		final String tag = fields[0];
+		if (fields.length < 4 || fields.length > 6)
+		{
+			connection.send(tag, "error", "Expected tag, query, person, topic[, weight[, breadth]] separated by tabs.");
+			return;
+		}
+		connection.started();
+		try
+		{
+			pool.execute(new Runnable()
+			{
+				public void run()
+				{
+					try
+					{
+						execute(connection, tag, fields, received);
+					}
+					finally
+					{
+						connection.finished();
+					}
+				}
+			});
+		}
+		catch (RejectedExecutionException e)
+		{
+			connection.finished();
+			connection.send(tag, "error", "Server is shutting down.");
+		}
+	}
+
+	private void execute(final Connection connection, final String tag, final String[] fields, final long received)
+	{
+		NeoQuery.setOutput(new NeoQuery.Output()
+		{
+			public void println(final Object line)
+			{
+				connection.send(tag, "out", String.valueOf(line));
+			}
+		});
+		if (json)
+		{
+			NeoQuery.setJsonFile(jsonFile(tag));
+		}
+		try
+		{
+			int query = Integer.parseInt(fields[1].trim());
+			int queryWeight = fields.length > 4 ? Integer.parseInt(fields[4].trim()) : weight;
+			int queryBreadth = fields.length > 5 ? Integer.parseInt(fields[5].trim()) : breadth;
+			if (limiter != null)
+			{
+				limiter.acquire();
+			}
+			long start = System.nanoTime();
+			boolean known;
+			try
+			{
+				Transaction tx = neo.beginTx();
+				try
+				{
+					known = NeoQuery.executeQuery(query, neo, fields[2], fields[3], queryWeight, queryBreadth, json);
+					tx.success();
+				}
+				finally
+				{
+					tx.finish();
+				}
+			}
+			finally
+			{
+				if (limiter != null)
+				{
+					limiter.release();
+				}
+			}
+			if (!known)
+			{
+				connection.send(tag, "error", "Unknown query " + query + ".");
+				return;
+			}
+			long end = System.nanoTime();
+			latency.recordValue("query" + query, end - received);
+			synchronized (this)
+			{
+				lastAnswer = Math.max(lastAnswer, end);
+			}
+			connection.send(tag, "done", query + "\t" + LatencyRecorder.format(end - start) + "\t" + LatencyRecorder.format(end - received));
+		}
+		catch (Exception e)
+		{
+			connection.send(tag, "error", e.toString());
+		}
+		finally
+		{
+			NeoQuery.setOutput(null);
+			NeoQuery.setJsonFile(null);
+		}
+	}
+
+	/**
+	 * JSON file of one request, JSON_PATH with the tag before its extension, e.g.
+	 * neo4J.a17.json; requests in flight at once need distinct tags
+	 */
+
+	private File jsonFile(final String tag)
+	{
+		String name = jsonPath.getName();
+		String suffix = tag.replaceAll("[^A-Za-z0-9_-]", "_");
+		int dot = name.lastIndexOf('.');
+		return new File(jsonPath.getParentFile(), dot < 0 ? name + "." + suffix : name.substring(0, dot) + "." + suffix + name.substring(dot));
+	}
+
+	/**
+	 * Writes the answers of one client, a line at a time, and counts its queries
+	 * in flight
+	 */
+
+	private final class Connection
+	{
+		private final Writer out;
+		private int pending;
+		private boolean failed;
+
+		Connection(final Writer out)
+		{
+			this.out = out;
+		}
+
+		synchronized void send(final String tag, final String kind, final String text)
+		{
+			if (failed)
+			{
+				return;
+			}
+			try
+			{
+				out.write(tag + "\t" + kind + "\t" + text.replace('\n', ' ') + "\n");
+				// Flush once the last query in flight has answered
+				if (pending == 0 || !kind.equals("out"))
+				{
+					out.flush();
+				}
+			}
+			catch (IOException e)
+			{
+				// The client went away; its queries still run to completion
+				failed = true;
+			}
+		}
+
+		synchronized void stats()
+		{
+			send("stats", "out", throughput());
+			for (String operation : latency.operations())
+			{
+				send("stats", "out", latency.summary(operation));
+			}
+			send("stats", "done", String.valueOf(pending));
+		}
+
+		synchronized void started()
+		{
+			pending++;
+		}
+
+		synchronized void finished()
+		{
+			pending--;
+			notifyAll();
+		}
+
+		synchronized void awaitIdle() throws InterruptedException
+		{
+			while (pending > 0)
+			{
+				wait();
+			}
+		}
+
+		synchronized void flush()
+		{
+			try
+			{
+				out.flush();
+			}
+			catch (IOException e)
+			{
+				failed = true;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,116 @@
+package bench;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * Virtual threads for the query server and workload driver. The modules are
+ * built for Java 6, so Thread.ofVirtual() and the thread per task executor are
+ * looked up by reflection and are only there when running on JDK 21 or later.
+ */
+
+final class QueryThreads
+{
+
+	private QueryThreads()
+	{
+	}
+
+	/**
+	 * Whether this JVM has virtual threads
+	 */
+
+	static boolean isVirtualAvailable()
+	{
+		try
+		{
+			Thread.class.getMethod("ofVirtual");
+			return true;
+		}
+		catch (NoSuchMethodException e)
+		{
+			return false;
+		}
+	}
+
+	/**
+	 * Creates unstarted virtual threads named prefix0, prefix1, ...
+	 * @throws UnsupportedOperationException before JDK 21
+	 */
+
+	static ThreadFactory virtualFactory(final String prefix)
+	{
+		try
+		{
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			// The builder classes are internal, so call through the public interfaces
+			Class<?> ofVirtual = Class.forName("java.lang.Thread$Builder$OfVirtual");
+			builder = ofVirtual.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+			return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+		}
+		catch (NoSuchMethodException e)
+		{
+			throw unsupported(e);
+		}
+		catch (ClassNotFoundException e)
+		{
+			throw unsupported(e);
+		}
+		catch (IllegalAccessException e)
+		{
+			throw unsupported(e);
+		}
+		catch (InvocationTargetException e)
+		{
+			throw unsupported(e.getCause());
+		}
+	}
+
+	/**
+	 * Executor that starts a new virtual thread for every task
+	 * @throws UnsupportedOperationException before JDK 21
+	 */
+
+	static ExecutorService newVirtualThreadPerTaskExecutor(final String prefix)
+	{
+		ThreadFactory factory = virtualFactory(prefix);
+		try
+		{
+			Method method = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+			return (ExecutorService) method.invoke(null, factory);
+		}
+		catch (NoSuchMethodException e)
+		{
+			throw unsupported(e);
+		}
+		catch (IllegalAccessException e)
+		{
+			throw unsupported(e);
+		}
+		catch (InvocationTargetException e)
+		{
+			throw unsupported(e.getCause());
+		}
+	}
+
+	/**
+	 * Permits for a concurrency limit, 0 for four per processor
+	 */
+
+	static int permits(final int configured)
+	{
+		return configured > 0 ? configured : 4 * Runtime.getRuntime().availableProcessors();
+	}
+
+	private static UnsupportedOperationException unsupported(final Throwable cause)
+	{
+		UnsupportedOperationException e = new UnsupportedOperationException("Virtual threads need JDK 21 or later, running " + System.getProperty("java.version") + ".");
+		e.initCause(cause);
+		return e;
+	}
+
+}
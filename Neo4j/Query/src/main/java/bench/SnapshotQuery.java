@@ -0,0 +1,813 @@
+package bench;
+
+import java.util.List;
+import java.util.Arrays;
+import java.util.ArrayList;
+
+import bench.utils.CsrAdjacency;
+import bench.utils.NameDictionary;
+import bench.utils.LatencyRecorder;
+
+/**
+ * Versions of the NeoQuery traversal queries that run against a GraphSnapshot.
+ * People, topics and groups are the dense numbers of the snapshot, and results
+ * are arrays of person numbers, so a hop costs a few primitive reads instead of a
+ * Relationship and a Node. Timings are recorded in NeoQuery.LATENCY under the
+ * NeoQuery method name with a (snapshot) suffix.
+ */
+
+public class SnapshotQuery
+{
+
+	private SnapshotQuery()
+	{
+	}
+
+	/**
+	 * Whether executeQuery() has a snapshot version of a query
+	 */
+
+	public static boolean supports(final int query)
+	{
+		return query == 6 || query == 9 || query == 10 || query == 11 || query == 13 || (query >= 17 && query <= 22);
+	}
+
+	/**
+	 * Runs and prints one query like NeoQuery.executeQuery(), without the JSON variants
+	 * @return false if the query has no snapshot version
+	 */
+
+	public static boolean executeQuery(final int query, final GraphSnapshot snapshot, final String name, final String topic, final int breadth)
+	{
+		int person = snapshot.personIndex(NameDictionary.resolve(NeoQuery.getPersonMap(), name));
+		int topicIndex = query >= 17 ? snapshot.topicIndex(NameDictionary.resolve(NeoQuery.getTopicMap(), topic)) : -1;
+		if (person < 0 || (topicIndex < 0 && query >= 17))
+		{
+			throw new IllegalArgumentException("Person " + name + " or topic " + topic + " is not in the snapshot.");
+		}
+
+		if (query == 6)
+		{
+			NeoQuery.log("Query 6 (snapshot): Found all people the person " + name + " may know (2nd level connections).");
+			printPeople(snapshot, findPeopleThatMayKnowAPerson(snapshot, person));
+		}
+		else if (query == 9)
+		{
+			NeoQuery.log("Query 9 (snapshot): Found all groups of person " + name);
+			for (int group : findGroups(snapshot, person))
+			{
+				NeoQuery.log("Node[" + snapshot.groupId(group) + "]");
+			}
+		}
+		else if (query == 10)
+		{
+			NeoQuery.log("Query 10 (snapshot): Found all people the person " + name + " may know (n level connections).");
+			printPeople(snapshot, findPeopleThatMayKnowAPerson(snapshot, person, 2));
+		}
+		else if (query == 11)
+		{
+			NeoQuery.log("Query 11 (snapshot): Found all people the person " + name + " knows and who they know (2nd level connections).");
+			for (int[] friends : findPeopleThatKnowAPersonAndFriends(snapshot, person, Integer.MAX_VALUE))
+			{
+				printPeople(snapshot, friends);
+			}
+		}
+		else if (query == 13)
+		{
+			NeoQuery.log("Query 13 (snapshot): Found all people the person " + name + " knows and who they know (2nd level connections) with 1st and 2nd level breadth of " + breadth + ".");
+			for (int[] friends : findPeopleThatKnowAPersonAndFriends(snapshot, person, breadth))
+			{
+				printPeople(snapshot, friends);
+			}
+		}
+		else if (query == 17)
+		{
+			NeoQuery.log("Query 17 (snapshot): Calculate betweeness centrality using Breadth First Search for " + name + " and topic " + topic + ".");
+			findBetweenessCentralityBFS(snapshot, person, topicIndex);
+		}
+		else if (query == 18)
+		{
+			NeoQuery.log("Query 18 (snapshot): Finding all shortest paths using Dijkstra for " + name + " and topic " + topic + ".");
+			for (int[] path : findDijkstraShortestPath(snapshot, person, topicIndex))
+			{
+				printPeople(snapshot, path);
+			}
+		}
+		else if (query == 19)
+		{
+			NeoQuery.log("Query 19 (snapshot): Calculate shortest paths using Floyd-Warshall for " + name + " and topic " + topic + ".");
+			List<String> path = findFloydWarshallShortestPath(snapshot, person, topicIndex);
+			if (path != null)
+			{
+				for (String node : path)
+				{
+					NeoQuery.log(node);
+				}
+			}
+		}
+		else if (query == 20 || query == 21)
+		{
+			NeoQuery.log("Query " + query + " (snapshot): Calculate Eigenvector centrality using the power method for " + name + " and topic " + topic + ".");
+			findEigenvectorCentrality(snapshot, person, topicIndex, query == 20 ? 0.01 : 0.001);
+		}
+		else if (query == 22)
+		{
+			NeoQuery.log("Query 22 (snapshot): Calculate shortest paths using Breadth First for " + name + " and topic " + topic + ".");
+			for (int[] path : findBreadthFirstShortestPath(snapshot, person, topicIndex))
+			{
+				printPeople(snapshot, path);
+			}
+		}
+		else
+		{
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Query 4: people the person knows, in either direction, over a topic. A friend
+	 * appears once per relationship, as in NeoQuery.
+	 */
+
+	public static int[] findPeopleThatKnowAPersonByATopic(final GraphSnapshot snapshot, final int person, final int topic)
+	{
+		IntList people = new IntList();
+		CsrAdjacency[] knows = {snapshot.knowsOut(), snapshot.knowsIn()};
+		for (CsrAdjacency adjacency : knows)
+		{
+			for (int edge = adjacency.begin(person); edge < adjacency.end(person); edge++)
+			{
+				if (adjacency.topic(edge) == topic)
+				{
+					people.add(adjacency.target(edge));
+				}
+			}
+		}
+		return people.toArray();
+	}
+
+	/**
+	 * Query 6: people two KNOWS hops away in either direction, the person included
+	 * when a friend knows them back, as in NeoQuery
+	 */
+
+	public static int[] findPeopleThatMayKnowAPerson(final GraphSnapshot snapshot, final int person)
+	{
+		long start = System.nanoTime();
+
+		GraphSnapshot.Scratch scratch = snapshot.scratch();
+		int mark = scratch.next();
+		IntList people = new IntList();
+		CsrAdjacency[] knows = {snapshot.knowsOut(), snapshot.knowsIn()};
+		for (CsrAdjacency first : knows)
+		{
+			for (int edge = first.begin(person); edge < first.end(person); edge++)
+			{
+				int friend = first.target(edge);
+				for (CsrAdjacency second : knows)
+				{
+					for (int next = second.begin(friend); next < second.end(friend); next++)
+					{
+						int stranger = second.target(next);
+						if (scratch.stamp[stranger] != mark)
+						{
+							scratch.stamp[stranger] = mark;
+							people.add(stranger);
+						}
+					}
+				}
+			}
+		}
+
+		long elapsed = NeoQuery.LATENCY.record("findPeopleThatMayKnowAPerson(snapshot)", start);
+		NeoQuery.log("Queried " + snapshot.personName(person) + " to see the people that are known in " + LatencyRecorder.format(elapsed) + " milliseconds.");
+		NeoQuery.log("Found: " + people.size() + " people.");
+		return people.toArray();
+	}
+
+	/**
+	 * Query 10: people within level KNOWS hops in either direction, breadth first
+	 */
+
+	public static int[] findPeopleThatMayKnowAPerson(final GraphSnapshot snapshot, final int person, final int level)
+	{
+		long start = System.nanoTime();
+
+		GraphSnapshot.Scratch scratch = snapshot.scratch();
+		int mark = scratch.next();
+		int[] queue = scratch.queue;
+		int head = 0, tail = 0;
+		queue[tail++] = person;
+		scratch.stamp[person] = mark;
+		scratch.distance[person] = 0;
+		CsrAdjacency[] knows = {snapshot.knowsOut(), snapshot.knowsIn()};
+		while (head < tail)
+		{
+			int node = queue[head++];
+			int depth = scratch.distance[node];
+			if (depth == level)
+			{
+				continue;
+			}
+			for (CsrAdjacency adjacency : knows)
+			{
+				for (int edge = adjacency.begin(node); edge < adjacency.end(node); edge++)
+				{
+					int friend = adjacency.target(edge);
+					if (scratch.stamp[friend] != mark)
+					{
+						scratch.stamp[friend] = mark;
+						scratch.distance[friend] = depth + 1;
+						queue[tail++] = friend;
+					}
+				}
+			}
+		}
+		int[] people = Arrays.copyOfRange(queue, 1, tail);
+
+		long elapsed = NeoQuery.LATENCY.record("findPeopleThatMayKnowAPerson(level)(snapshot)", start);
+		NeoQuery.log("Queried all people " + snapshot.personName(person) + " knows to depth " + level + " in " + LatencyRecorder.format(elapsed) + " in milliseconds.");
+		NeoQuery.log("Found: " + people.length + " people.");
+		return people;
+	}
+
+	/**
+	 * Query 25: how many people each of many people reaches within level KNOWS hops
+	 * in either direction, and at which depth, by one multi-source breadth first
+	 * search per 64 * words of them
+	 */
+
+	public static MultiSourceBfs.Result findReachMultiSource(final GraphSnapshot snapshot, final int[] people, final int level, final int words)
+	{
+		long start = System.nanoTime();
+
+		MultiSourceBfs.Result result = MultiSourceBfs.search(snapshot, people, level, words);
+
+		long elapsed = NeoQuery.LATENCY.record("findPeopleThatMayKnowAPerson(level)(multi-source)(snapshot)", start);
+		long reach = 0;
+		for (int i = 0; i < result.size(); i++)
+		{
+			reach += result.reach(i);
+		}
+		NeoQuery.log("Queried the reach of " + people.length + " people to depth " + level + " in " + LatencyRecorder.format(elapsed) + " milliseconds, "
+			+ String.format("%.1f", people.length / (elapsed / 1e9)) + " people per second, " + result.edgesExamined() + " relationships examined.");
+		NeoQuery.log("Found: " + reach + " people in all.");
+		return result;
+	}
+
+	/**
+	 * Runs query 10 once per person and the multi-source search over all of them,
+	 * after an untimed run of each, and logs both timings and whether every person
+	 * reaches as many people either way
+	 * @return the multi-source result
+	 */
+
+	public static MultiSourceBfs.Result compareReachMultiSource(final GraphSnapshot snapshot, final int[] people, final int level, final int words)
+	{
+		MultiSourceBfs.Result result = null;
+		int[] reach = new int[people.length];
+		long singleNanos = 0, multiNanos = 0;
+		NeoQuery.Output output = NeoQuery.getOutput();
+		// Keep the per person timing lines of query 10 off the output
+		NeoQuery.setOutput(new NeoQuery.Output()
+		{
+			public void println(final Object line)
+			{
+			}
+		});
+		try
+		{
+			for (int round = 0; round < 2; round++)
+			{
+				long start = System.nanoTime();
+				for (int i = 0; i < people.length; i++)
+				{
+					reach[i] = findPeopleThatMayKnowAPerson(snapshot, people[i], level).length;
+				}
+				singleNanos = System.nanoTime() - start;
+				start = System.nanoTime();
+				result = MultiSourceBfs.search(snapshot, people, level, words);
+				multiNanos = System.nanoTime() - start;
+			}
+		}
+		finally
+		{
+			NeoQuery.setOutput(output);
+		}
+		boolean same = true;
+		for (int i = 0; i < people.length; i++)
+		{
+			same &= reach[i] == result.reach(i);
+		}
+		NeoQuery.log("Query 25 for " + people.length + " people to depth " + level + ": one search each " + LatencyRecorder.format(singleNanos) + " ms, multi-source "
+			+ LatencyRecorder.format(multiNanos) + " ms with " + 64 * words + " sources per search, speedup " + String.format("%.2f", (double) singleNanos / Math.max(multiNanos, 1))
+			+ (same ? ", same reach." : ", REACH DIFFERS."));
+		return result;
+	}
+
+	/**
+	 * Query 23: people within level KNOWS hops in either direction, by a breadth
+	 * first search that turns bottom-up while the frontier is large
+	 */
+
+	public static int[] findPeopleThatMayKnowAPersonDirectionOptimizing(final GraphSnapshot snapshot, final int person, final int level, final int alpha, final int beta)
+	{
+		long start = System.nanoTime();
+
+		DirectionOptimizingBfs.Result result = DirectionOptimizingBfs.search(snapshot, person, level, alpha, beta);
+
+		long elapsed = NeoQuery.LATENCY.record("findPeopleThatMayKnowAPersonDirectionOptimizing(snapshot)", start);
+		NeoQuery.log("Queried all people " + snapshot.personName(person) + " knows to depth " + level + " in " + LatencyRecorder.format(elapsed) + " in milliseconds.");
+		NeoQuery.log("Levels: " + result.describe() + ".");
+		NeoQuery.log("Found: " + result.people().length + " people.");
+		return result.people();
+	}
+
+	/**
+	 * Queries 11 and 13: for each of the first breadth relationships of the person,
+	 * the friend and the people the friend knows over its first breadth
+	 * relationships. Friends reached twice are listed once.
+	 */
+
+	public static List<int[]> findPeopleThatKnowAPersonAndFriends(final GraphSnapshot snapshot, final int person, final int breadth)
+	{
+		long start = System.nanoTime();
+
+		CsrAdjacency[] knows = {snapshot.knowsOut(), snapshot.knowsIn()};
+		IntList friends = new IntList();
+		for (CsrAdjacency adjacency : knows)
+		{
+			for (int edge = adjacency.begin(person); edge < adjacency.end(person) && friends.size() < breadth; edge++)
+			{
+				friends.add(adjacency.target(edge));
+			}
+		}
+
+		GraphSnapshot.Scratch scratch = snapshot.scratch();
+		List<int[]> lists = new ArrayList<int[]>();
+		for (int friend : distinct(friends.toArray()))
+		{
+			int mark = scratch.next();
+			IntList people = new IntList();
+			people.add(friend);
+			scratch.stamp[friend] = mark;
+			int seen = 0;
+			for (CsrAdjacency adjacency : knows)
+			{
+				for (int edge = adjacency.begin(friend); edge < adjacency.end(friend) && seen < breadth; edge++, seen++)
+				{
+					int stranger = adjacency.target(edge);
+					if (scratch.stamp[stranger] != mark)
+					{
+						scratch.stamp[stranger] = mark;
+						people.add(stranger);
+					}
+				}
+			}
+			lists.add(people.toArray());
+		}
+
+		String operation = breadth == Integer.MAX_VALUE ? "findPeopleThatKnowAPersonAndFriends(snapshot)" : "findPeopleThatKnowAPersonAndFriends(breadth)(snapshot)";
+		long elapsed = NeoQuery.LATENCY.record(operation, start);
+		NeoQuery.log("Queried " + snapshot.personName(person) + " to see the people that are known in " + LatencyRecorder.format(elapsed) + " milliseconds.");
+		NeoQuery.log("Found: " + lists.size() + " friends.");
+		return lists;
+	}
+
+	/**
+	 * Query 9: the groups of a person
+	 */
+
+	public static int[] findGroups(final GraphSnapshot snapshot, final int person)
+	{
+		long start = System.nanoTime();
+
+		CsrAdjacency memberOf = snapshot.memberOf();
+		int[] groups = new int[memberOf.degree(person)];
+		for (int i = 0; i < groups.length; i++)
+		{
+			groups[i] = memberOf.target(memberOf.begin(person) + i);
+		}
+
+		long elapsed = NeoQuery.LATENCY.record("findGroups(snapshot)", start);
+		NeoQuery.log("Queried " + snapshot.personName(person) + " to see groups in " + LatencyRecorder.format(elapsed) + " milliseconds.");
+		return groups;
+	}
+
+	/**
+	 * Query 17: betweenness centrality of the person over the KNOWS graph, with
+	 * Brandes' accumulation from every source in the person's topic friends and the
+	 * person. Shortest paths are unweighted and follow KNOWS in either direction,
+	 * so dependencies are halved like graphalgo's BetweennessCentrality does for
+	 * Direction.BOTH. Values differ from NeoQuery's because the graphalgo breadth
+	 * first search also records neighbours at the same depth as predecessors,
+	 * which inflates its path counts.
+	 */
+
+	public static double findBetweenessCentralityBFS(final GraphSnapshot snapshot, final int person, final int topic)
+	{
+		long start = System.nanoTime();
+
+		int[] sources = findPeopleThatKnowAPersonByATopic(snapshot, person, topic);
+		sources = Arrays.copyOf(sources, sources.length + 1);
+		sources[sources.length - 1] = person;
+		sources = distinct(sources);
+
+		GraphSnapshot.Scratch scratch = snapshot.scratch();
+		double centrality = 0;
+		for (int source : sources)
+		{
+			BrandesBetweenness.dependencies(snapshot, scratch, source);
+			if (source != person && scratch.visited(person))
+			{
+				centrality += scratch.delta[person] / 2;
+			}
+		}
+
+		long elapsed = NeoQuery.LATENCY.record("findBetweenessCentralityBFS(snapshot)", start);
+		NeoQuery.log("Queried " + snapshot.personName(person) + " related to topic " + snapshot.topicName(topic) + " in " + LatencyRecorder.format(elapsed) + " milliseconds.");
+		NeoQuery.log("BFS Centrality: " + centrality);
+		return centrality;
+	}
+
+	/**
+	 * Query 18: weighted shortest paths over outgoing KNOWS from the person to each
+	 * of the person's topic friends. Dijkstra stops once every friend is settled.
+	 * @return one path of person numbers per reachable friend
+	 */
+
+	public static List<int[]> findDijkstraShortestPath(final GraphSnapshot snapshot, final int person, final int topic)
+	{
+		long start = System.nanoTime();
+
+		int[] targets = distinct(findPeopleThatKnowAPersonByATopic(snapshot, person, topic));
+		GraphSnapshot.Scratch scratch = snapshot.scratch();
+		int mark = scratch.next();
+		CsrAdjacency knows = snapshot.knowsOut();
+		scratch.stamp[person] = mark;
+		scratch.distance[person] = 0;
+		scratch.parent[person] = -1;
+		long[] heap = scratch.heap;
+		int size = 0;
+		heap[size++] = entry(0, person);
+		int remaining = targets.length;
+		while (size > 0 && remaining > 0)
+		{
+			long top = heap[0];
+			heap[0] = heap[--size];
+			siftDown(heap, size, 0);
+			int node = (int) top;
+			int distance = (int) (top >>> 32);
+			if (distance > scratch.distance[node])
+			{
+				continue;
+			}
+			if (Arrays.binarySearch(targets, node) >= 0)
+			{
+				remaining--;
+			}
+			for (int edge = knows.begin(node); edge < knows.end(node); edge++)
+			{
+				int next = knows.target(edge);
+				int candidate = distance + knows.weight(edge);
+				if (scratch.stamp[next] != mark || candidate < scratch.distance[next])
+				{
+					scratch.stamp[next] = mark;
+					scratch.distance[next] = candidate;
+					scratch.parent[next] = node;
+					if (size == heap.length)
+					{
+						heap = scratch.heap = Arrays.copyOf(heap, size * 2);
+					}
+					heap[size] = entry(candidate, next);
+					siftUp(heap, size++);
+				}
+			}
+		}
+		List<int[]> paths = paths(scratch, mark, targets);
+
+		long elapsed = NeoQuery.LATENCY.record("findDijkstraShortestPath(snapshot)", start);
+		NeoQuery.log("Queried " + snapshot.personName(person) + " related to topic " + snapshot.topicName(topic) + " in " + LatencyRecorder.format(elapsed) + " milliseconds.");
+		return paths;
+	}
+
+	/**
+	 * Query 22: unweighted shortest paths over outgoing KNOWS from the person to
+	 * each of the person's topic friends, limited to depth 1 as in NeoQuery
+	 * @return one path of person numbers per friend reached
+	 */
+
+	public static List<int[]> findBreadthFirstShortestPath(final GraphSnapshot snapshot, final int person, final int topic)
+	{
+		long start = System.nanoTime();
+
+		int[] targets = distinct(findPeopleThatKnowAPersonByATopic(snapshot, person, topic));
+		GraphSnapshot.Scratch scratch = snapshot.scratch();
+		int mark = scratch.next();
+		CsrAdjacency knows = snapshot.knowsOut();
+		int depthLimit = 1;
+		int[] queue = scratch.queue;
+		int head = 0, tail = 0;
+		queue[tail++] = person;
+		scratch.stamp[person] = mark;
+		scratch.distance[person] = 0;
+		scratch.parent[person] = -1;
+		while (head < tail)
+		{
+			int node = queue[head++];
+			if (scratch.distance[node] == depthLimit)
+			{
+				continue;
+			}
+			for (int edge = knows.begin(node); edge < knows.end(node); edge++)
+			{
+				int next = knows.target(edge);
+				if (scratch.stamp[next] != mark)
+				{
+					scratch.stamp[next] = mark;
+					scratch.distance[next] = scratch.distance[node] + 1;
+					scratch.parent[next] = node;
+					queue[tail++] = next;
+				}
+			}
+		}
+		List<int[]> paths = paths(scratch, mark, targets);
+
+		long elapsed = NeoQuery.LATENCY.record("findBreadthFirstShortestPath(snapshot)", start);
+		NeoQuery.log("Queried " + snapshot.personName(person) + " related to topic " + snapshot.topicName(topic) + " in " + LatencyRecorder.format(elapsed) + " milliseconds.");
+		return paths;
+	}
+
+	/**
+	 * Query 19: Floyd-Warshall over the topic and the people associated to it,
+	 * joined by their weighted ASSOCIATED_TO relationships
+	 * @return the names along the shortest path from the person to the first other
+	 * person on the topic, or null if the person is not on the topic
+	 */
+
+	public static List<String> findFloydWarshallShortestPath(final GraphSnapshot snapshot, final int person, final int topic)
+	{
+		long start = System.nanoTime();
+
+		// Local numbering: the topic's people in order, then the topic itself
+		CsrAdjacency members = snapshot.topicMembers();
+		int begin = members.begin(topic);
+		int n = members.degree(topic) + 1;
+		int hub = n - 1;
+		int[] dist = new int[n * n];
+		int[] next = new int[n * n];
+		Arrays.fill(dist, Integer.MAX_VALUE);
+		Arrays.fill(next, -1);
+		int self = -1;
+		for (int i = 0; i < n; i++)
+		{
+			dist[i * n + i] = 0;
+			next[i * n + i] = i;
+		}
+		for (int i = 0; i < hub; i++)
+		{
+			int weight = members.weight(begin + i);
+			if (weight < dist[i * n + hub])
+			{
+				dist[i * n + hub] = dist[hub * n + i] = weight;
+				next[i * n + hub] = hub;
+				next[hub * n + i] = i;
+			}
+			if (self < 0 && members.target(begin + i) == person)
+			{
+				self = i;
+			}
+		}
+		for (int k = 0; k < n; k++)
+		{
+			for (int i = 0; i < n; i++)
+			{
+				int ik = dist[i * n + k];
+				if (ik == Integer.MAX_VALUE)
+				{
+					continue;
+				}
+				for (int j = 0; j < n; j++)
+				{
+					int kj = dist[k * n + j];
+					if (kj != Integer.MAX_VALUE && ik + kj < dist[i * n + j])
+					{
+						dist[i * n + j] = ik + kj;
+						next[i * n + j] = next[i * n + k];
+					}
+				}
+			}
+		}
+
+		List<String> path = null;
+		int friend = self == 0 ? 1 : 0;
+		if (self >= 0 && friend < hub)
+		{
+			path = new ArrayList<String>();
+			for (int node = self; node != friend; node = next[node * n + friend])
+			{
+				path.add(node == hub ? snapshot.topicName(topic) : snapshot.personName(members.target(begin + node)));
+			}
+			path.add(snapshot.personName(members.target(begin + friend)));
+		}
+
+		long elapsed = NeoQuery.LATENCY.record("findFloydWarshallShortestPath(snapshot)", start);
+		NeoQuery.log("Queried " + snapshot.personName(person) + " related to topic " + snapshot.topicName(topic) + " in " + LatencyRecorder.format(elapsed) + " milliseconds.");
+		if (self < 0)
+		{
+			NeoQuery.log(snapshot.personName(person) + " is not associated to topic " + snapshot.topicName(topic) + ".");
+		}
+		return path;
+	}
+
+	/**
+	 * Queries 20 and 21: eigenvector centrality of the person in the weighted star
+	 * of the topic and its people, by power iteration on the adjacency plus the
+	 * identity, which converges on the bipartite star where plain power iteration
+	 * oscillates
+	 * @return the person's normalized score, 0 if the person is not on the topic
+	 */
+
+	public static double findEigenvectorCentrality(final GraphSnapshot snapshot, final int person, final int topic, final double precision)
+	{
+		long start = System.nanoTime();
+
+		CsrAdjacency members = snapshot.topicMembers();
+		int begin = members.begin(topic);
+		int n = members.degree(topic);
+		double[] people = new double[n];
+		double[] next = new double[n];
+		Arrays.fill(people, 1);
+		double hub = 1;
+		for (int iteration = 0; iteration < 50; iteration++)
+		{
+			double nextHub = hub;
+			for (int i = 0; i < n; i++)
+			{
+				int weight = members.weight(begin + i);
+				next[i] = people[i] + weight * hub;
+				nextHub += weight * people[i];
+			}
+			double norm = nextHub * nextHub;
+			for (int i = 0; i < n; i++)
+			{
+				norm += next[i] * next[i];
+			}
+			norm = Math.sqrt(norm);
+			double change = Math.abs(nextHub / norm - hub);
+			for (int i = 0; i < n; i++)
+			{
+				next[i] /= norm;
+				change = Math.max(change, Math.abs(next[i] - people[i]));
+			}
+			hub = nextHub / norm;
+			double[] swap = people;
+			people = next;
+			next = swap;
+			if (change < precision)
+			{
+				break;
+			}
+		}
+		double centrality = 0;
+		for (int i = 0; i < n; i++)
+		{
+			if (members.target(begin + i) == person)
+			{
+				centrality = people[i];
+				break;
+			}
+		}
+
+		long elapsed = NeoQuery.LATENCY.record("findEigenvectorCentrality(snapshot)", start);
+		NeoQuery.log("Queried " + snapshot.personName(person) + " related to topic " + snapshot.topicName(topic) + " in " + LatencyRecorder.format(elapsed) + " milliseconds.");
+		NeoQuery.log("Eigenvector Centrality: " + centrality);
+		return centrality;
+	}
+
+	/**
+	 * Prints the names of a list of person numbers
+	 */
+
+	static void printPeople(final GraphSnapshot snapshot, final int[] people)
+	{
+		for (int person : people)
+		{
+			NeoQuery.log(snapshot.personName(person));
+		}
+	}
+
+	// Walks parent links back from each visited target
+	private static List<int[]> paths(final GraphSnapshot.Scratch scratch, final int mark, final int[] targets)
+	{
+		List<int[]> paths = new ArrayList<int[]>();
+		for (int target : targets)
+		{
+			if (scratch.stamp[target] != mark)
+			{
+				continue;
+			}
+			IntList path = new IntList();
+			for (int node = target; node != -1; node = scratch.parent[node])
+			{
+				path.add(node);
+			}
+			int[] ordered = path.toArray();
+			for (int i = 0, j = ordered.length - 1; i < j; i++, j--)
+			{
+				int swap = ordered[i];
+				ordered[i] = ordered[j];
+				ordered[j] = swap;
+			}
+			paths.add(ordered);
+		}
+		return paths;
+	}
+
+	private static int[] distinct(final int[] values)
+	{
+		int[] sorted = values.clone();
+		Arrays.sort(sorted);
+		int size = 0;
+		for (int i = 0; i < sorted.length; i++)
+		{
+			if (size == 0 || sorted[size - 1] != sorted[i])
+			{
+				sorted[size++] = sorted[i];
+			}
+		}
+		return Arrays.copyOf(sorted, size);
+	}
+
+	// Heap entries order by distance, then node
+	private static long entry(final int distance, final int node)
+	{
+		return ((long) distance << 32) | node;
+	}
+
+	private static void siftUp(final long[] heap, int i)
+	{
+		long value = heap[i];
+		while (i > 0 && heap[(i - 1) >>> 1] > value)
+		{
+			heap[i] = heap[(i - 1) >>> 1];
+			i = (i - 1) >>> 1;
+		}
+		heap[i] = value;
+	}
+
+	private static void siftDown(final long[] heap, final int size, int i)
+	{
+		if (size == 0)
+		{
+			return;
+		}
+		long value = heap[i];
+		int child;
+		while ((child = 2 * i + 1) < size)
+		{
+			if (child + 1 < size && heap[child + 1] < heap[child])
+			{
+				child++;
+			}
+			if (heap[child] >= value)
+			{
+				break;
+			}
+			heap[i] = heap[child];
+			i = child;
+		}
+		heap[i] = value;
+	}
+
+	/**
+	 * Growable list of ints
+	 */
+
+	static final class IntList
+	{
+		private int[] values = new int[16];
+		private int size;
+
+		void add(final int value)
+		{
+			if (size == values.length)
+			{
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = value;
+		}
+
+		int size()
+		{
+			return size;
+		}
+
+		int[] toArray()
+		{
+			return Arrays.copyOf(values, size);
+		}
+	}
+
+}
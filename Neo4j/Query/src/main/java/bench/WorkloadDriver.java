@@ -0,0 +1,590 @@
+package bench;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.HashMap;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import java.io.FileReader;
+import java.io.IOException;
+
+import org.HdrHistogram.Histogram;
+
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.GraphDatabaseService;
+
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+
+import bench.utils.AliasTable;
+import bench.utils.QueryCache;
+import bench.utils.NameLookup;
+import bench.utils.NameDictionary;
+import bench.utils.LatencyRecorder;
+import bench.utils.DegreeDistribution;
+
+/**
+ * Closed-loop workload driver. WORKLOAD_THREADS threads share one graph and run
+ * NeoQuery queries back to back: each pick takes a query from the WORKLOAD_MIX
+ * weights and a person and topic from the WORKLOAD_PERSON_ACCESS and
+ * WORKLOAD_TOPIC_ACCESS distributions, then runs the query in its own
+ * transaction. After WORKLOAD_WARMUP_SECONDS the driver prints throughput and
+ * latency percentiles per query every WORKLOAD_REPORT_SECONDS, and a summary
+ * once WORKLOAD_DURATION_SECONDS have been measured.
+ *
+ * With WORKLOAD_MODE = open the driver runs open-loop instead: queries are
+ * scheduled at a constant arrival rate whether or not earlier ones completed, and
+ * latency is measured from each query's intended start, so time spent queued
+ * behind a stalled query counts (no coordinated omission). The rate steps up from
+ * WORKLOAD_OPEN_RATE by WORKLOAD_OPEN_RATE_STEP until the WORKLOAD_SLO_PERCENTILE
+ * latency exceeds WORKLOAD_SLO_MILLIS, and the highest rate that met it is
+ * reported as the maximum sustainable throughput.
+ *
+ * WORKLOAD_EXECUTOR = virtual runs the clients on virtual threads (JDK 21 or
+ * later), so WORKLOAD_THREADS can be far above the number of processors, with
+ * at most WORKLOAD_CONCURRENCY queries in the store at once. A comma separated
+ * list such as platform,virtual runs the workload once per executor and
+ * compares their throughput and latency.
+ */
+
+public class WorkloadDriver
+{
+
+	private static final int LAST_QUERY = 22;
+
+	/**
+	 * Intended start passed by closed-loop clients, which start as soon as they can
+	 */
+
+	private static final long NOW = Long.MIN_VALUE;
+
+	private final GraphDatabaseService neo;
+	private final int[] queries;
+	private final AliasTable mix;
+	private final NameLookup people;
+	private final NameLookup topics;
+	private final DegreeDistribution personAccess;
+	private final DegreeDistribution topicAccess;
+	private final boolean personTopics;
+	private final int weight;
+	private final int breadth;
+	private final boolean json;
+	private final String executor;
+	// Virtual thread factory and its store limiter, both null on platform threads
+	private final ThreadFactory virtualThreads;
+	private final Semaphore limiter;
+	private String result;
+
+	private final LatencyRecorder latency = new LatencyRecorder();
+	private final ConcurrentMap<String, AtomicLong> errors = new ConcurrentHashMap<String, AtomicLong>();
+	private final ConcurrentMap<String, String> firstErrors = new ConcurrentHashMap<String, String>();
+	private final Map<String, Long> reportedErrors = new HashMap<String, Long>();
+	private final AtomicLong missed = new AtomicLong();
+	private volatile boolean measuring;
+	private volatile boolean running;
+
+	/**
+	 * Runs the workload described by configuration.properties against GRAPHDB_PATH
+	 */
+
+	public static void main(String[] args) throws IOException, InterruptedException
+	{
+		Properties properties = new Properties();
+		properties.load(new FileReader("configuration.properties"));
+
+		GraphDatabaseService neo = new EmbeddedGraphDatabase(properties.getProperty("GRAPHDB_PATH"));
+		NeoQuery.registerShutdownHookForNeo(neo);
+		NeoQuery.setProperties(properties);
+		NeoQuery.loadDictionaries(neo);
+		NeoQuery.setQuiet(true);
+
+		String[] executors = properties.getProperty("WORKLOAD_EXECUTOR", "platform").trim().split(",");
+		for (String executor : executors)
+		{
+			if (executor.trim().equals("virtual") && !QueryThreads.isVirtualAvailable())
+			{
+				throw new UnsupportedOperationException("WORKLOAD_EXECUTOR = virtual needs JDK 21 or later, running " + System.getProperty("java.version") + ".");
+			}
+		}
+		String[] results = new String[executors.length];
+		for (int i = 0; i < executors.length; i++)
+		{
+			WorkloadDriver driver = new WorkloadDriver(properties, neo, executors[i].trim());
+			driver.run(properties);
+			results[i] = driver.getResult();
+		}
+		if (executors.length > 1)
+		{
+			System.out.println("Executor comparison:");
+			for (String result : results)
+			{
+				System.out.println("  " + result);
+			}
+		}
+
+		neo.shutdown();
+	}
+
+	/**
+	 * Reads the workload from properties, on the first WORKLOAD_EXECUTOR.
+	 * NeoQuery.loadDictionaries() must have run.
+	 */
+
+	public WorkloadDriver(final Properties properties, final GraphDatabaseService neo)
+	{
+		this(properties, neo, properties.getProperty("WORKLOAD_EXECUTOR", "platform").trim().split(",")[0].trim());
+	}
+
+	/**
+	 * Reads the workload from properties, running its clients on platform or
+	 * virtual threads. NeoQuery.loadDictionaries() must have run.
+	 */
+
+	public WorkloadDriver(final Properties properties, final GraphDatabaseService neo, final String executor)
+	{
+		this.neo = neo;
+		this.people = NeoQuery.getPersonMap();
+		this.topics = NeoQuery.getTopicMap();
+		if (people == null || topics == null)
+		{
+			throw new IllegalStateException("Load the NeoQuery dictionaries before building a workload.");
+		}
+
+		// Query mix as query:weight pairs
+		String[] entries = properties.getProperty("WORKLOAD_MIX", "5:1").trim().split(",");
+		this.queries = new int[entries.length];
+		double[] weights = new double[entries.length];
+		for (int i = 0; i < entries.length; i++)
+		{
+			String[] pair = entries[i].trim().split(":");
+			try
+			{
+				queries[i] = Integer.parseInt(pair[0].trim());
+				weights[i] = pair.length > 1 ? Double.parseDouble(pair[1].trim()) : 1;
+			}
+			catch (NumberFormatException e)
+			{
+				throw new IllegalArgumentException("Bad WORKLOAD_MIX entry: " + entries[i], e);
+			}
+			if (pair.length > 2 || queries[i] < 1 || queries[i] > LAST_QUERY)
+			{
+				throw new IllegalArgumentException("Bad WORKLOAD_MIX entry: " + entries[i]);
+			}
+		}
+		this.mix = new AliasTable(weights);
+
+		this.personAccess = DegreeDistribution.fromProperties(properties, "WORKLOAD_PERSON_ACCESS", people.size(), people.size());
+		this.topicAccess = DegreeDistribution.fromProperties(properties, "WORKLOAD_TOPIC_ACCESS", topics.size(), topics.size());
+		this.personTopics = Boolean.parseBoolean(properties.getProperty("WORKLOAD_PERSON_TOPICS", "true").trim());
+		this.weight = Integer.decode(properties.getProperty("WEIGHT").trim());
+		this.breadth = Integer.decode(properties.getProperty("BREADTH").trim());
+		this.json = Boolean.parseBoolean(properties.getProperty("WORKLOAD_JSON", "false").trim());
+		if (executor.equals("virtual"))
+		{
+			int permits = QueryThreads.permits(Integer.parseInt(properties.getProperty("WORKLOAD_CONCURRENCY", "0").trim()));
+			this.virtualThreads = QueryThreads.virtualFactory("workload-");
+			this.limiter = new Semaphore(permits, true);
+			this.executor = "virtual threads, " + permits + " in the store";
+		}
+		else if (executor.equals("platform"))
+		{
+			this.virtualThreads = null;
+			this.limiter = null;
+			this.executor = "platform threads";
+		}
+		else
+		{
+			throw new IllegalArgumentException("Unknown WORKLOAD_EXECUTOR: " + executor);
+		}
+	}
+
+	/**
+	 * Throughput and latency of the last run, labelled with its executor
+	 */
+
+	public String getResult()
+	{
+		return result;
+	}
+
+	/**
+	 * Runs the workload in the WORKLOAD_MODE, closed or open, then writes the
+	 * latency exports
+	 */
+
+	public void run(final Properties properties) throws IOException, InterruptedException
+	{
+		int threads = Integer.parseInt(properties.getProperty("WORKLOAD_THREADS", "4").trim());
+		long warmup = Long.parseLong(properties.getProperty("WORKLOAD_WARMUP_SECONDS", "10").trim());
+		long seed = Long.parseLong(properties.getProperty("WORKLOAD_SEED", "42").trim());
+		String mode = properties.getProperty("WORKLOAD_MODE", "closed").trim();
+
+		System.out.println("Workload: " + mode + " loop, " + threads + " " + executor + ", mix " + properties.getProperty("WORKLOAD_MIX", "5:1").trim());
+		System.out.println("Person access: " + personAccess.describe());
+		System.out.println("Topic access: " + topicAccess.describe() + (personTopics ? ", topics drawn from the person's own" : ""));
+
+		if (mode.equals("closed"))
+		{
+			runClosed(properties, threads, warmup, seed);
+		}
+		else if (mode.equals("open"))
+		{
+			runOpen(properties, threads, warmup, seed);
+		}
+		else
+		{
+			throw new IllegalArgumentException("Unknown WORKLOAD_MODE: " + mode);
+		}
+		for (String operation : firstErrors.keySet())
+		{
+			System.out.println("First error of " + operation + ": " + firstErrors.get(operation));
+		}
+		QueryCache cache = NeoQuery.getQueryCache();
+		if (cache != null)
+		{
+			System.out.println("Query cache: " + cache.describe());
+		}
+		latency.export(properties);
+	}
+
+	/**
+	 * Closed loop: every thread starts its next query when the previous one returns
+	 */
+
+	private void runClosed(final Properties properties, final int threads, final long warmup, final long seed) throws InterruptedException
+	{
+		long duration = Long.parseLong(properties.getProperty("WORKLOAD_DURATION_SECONDS", "60").trim());
+		long interval = Long.parseLong(properties.getProperty("WORKLOAD_REPORT_SECONDS", "5").trim());
+
+		running = true;
+		Thread[] workers = new Thread[threads];
+		for (int i = 0; i < threads; i++)
+		{
+			workers[i] = newThread(new Worker(new Random(seed + i)), "workload-" + i);
+			workers[i].start();
+		}
+
+		System.out.println("Warming up for " + warmup + " seconds.");
+		Thread.sleep(TimeUnit.SECONDS.toMillis(warmup));
+		measuring = true;
+		long begin = System.nanoTime();
+		long last = begin;
+		long end = begin + TimeUnit.SECONDS.toNanos(duration);
+		while (last < end)
+		{
+			Thread.sleep(TimeUnit.NANOSECONDS.toMillis(Math.min(TimeUnit.SECONDS.toNanos(interval), end - last)));
+			long now = System.nanoTime();
+			report("[" + TimeUnit.NANOSECONDS.toSeconds(now - begin) + "s]", now - last, true);
+			last = now;
+		}
+		measuring = false;
+		running = false;
+		for (Thread worker : workers)
+		{
+			worker.join();
+		}
+
+		Histogram all = report("Total", last - begin, false);
+		result = executor + ": " + String.format("%.1f", all.getTotalCount() / ((last - begin) / 1e9)) + " ops/s, " + LatencyRecorder.summarize(all);
+	}
+
+	/**
+	 * Open loop: steps the arrival rate up until the latency objective is missed
+	 */
+
+	private void runOpen(final Properties properties, final int threads, final long warmup, final long seed) throws InterruptedException
+	{
+		double rate = Double.parseDouble(properties.getProperty("WORKLOAD_OPEN_RATE", "500").trim());
+		double step = Double.parseDouble(properties.getProperty("WORKLOAD_OPEN_RATE_STEP", "500").trim());
+		double maxRate = Double.parseDouble(properties.getProperty("WORKLOAD_OPEN_MAX_RATE", "50000").trim());
+		long seconds = Long.parseLong(properties.getProperty("WORKLOAD_OPEN_STEP_SECONDS", "10").trim());
+		long maxLag = TimeUnit.MILLISECONDS.toNanos((long) (1000 * Double.parseDouble(properties.getProperty("WORKLOAD_OPEN_MAX_LAG_SECONDS", "5").trim())));
+		double percentile = Double.parseDouble(properties.getProperty("WORKLOAD_SLO_PERCENTILE", "99").trim());
+		long objective = TimeUnit.MICROSECONDS.toNanos((long) (1000 * Double.parseDouble(properties.getProperty("WORKLOAD_SLO_MILLIS", "50").trim())));
+		if (rate <= 0 || step <= 0)
+		{
+			throw new IllegalArgumentException("WORKLOAD_OPEN_RATE and WORKLOAD_OPEN_RATE_STEP must be positive.");
+		}
+		System.out.println("Objective: p" + percentile + " <= " + LatencyRecorder.format(objective) + " ms, " + seconds + " seconds per rate step.");
+
+		System.out.println("Warming up at " + rate + " ops/s for " + warmup + " seconds.");
+		schedule(rate, warmup, threads, seed, maxLag);
+		measuring = true;
+
+		double sustainedRate = 0, sustainedThroughput = 0;
+		for (int round = 1; rate <= maxRate; round++, rate += step)
+		{
+			missed.set(0);
+			long elapsed = schedule(rate, seconds, threads, seed + round * (long) threads, maxLag);
+			Histogram all = report("[" + String.format("%.0f", rate) + " ops/s]", elapsed, true);
+			double achieved = all.getTotalCount() / (elapsed / 1e9);
+			long latencyAtPercentile = all.getValueAtPercentile(percentile);
+			boolean met = all.getTotalCount() > 0 && missed.get() == 0 && latencyAtPercentile <= objective;
+			System.out.println("Rate " + String.format("%.0f", rate) + " ops/s: achieved " + String.format("%.1f", achieved) + " ops/s, p" + percentile + " = "
+				+ LatencyRecorder.format(latencyAtPercentile) + " ms, " + missed.get() + " skipped, objective " + (met ? "met" : "missed"));
+			if (!met)
+			{
+				break;
+			}
+			sustainedRate = rate;
+			sustainedThroughput = achieved;
+		}
+		measuring = false;
+
+		if (sustainedRate == 0)
+		{
+			System.out.println("No rate met the objective; lower WORKLOAD_OPEN_RATE.");
+			result = executor + ": no rate met the objective";
+		}
+		else
+		{
+			System.out.println("Max sustainable throughput: " + String.format("%.1f", sustainedThroughput) + " ops/s (target " + String.format("%.0f", sustainedRate) + " ops/s)");
+			result = executor + ": max sustainable throughput " + String.format("%.1f", sustainedThroughput) + " ops/s";
+		}
+	}
+
+	/**
+	 * Schedules rate * seconds queries at even intervals from now and runs them on
+	 * the threads, each taking the next slot when it is free. A slot whose start is
+	 * already maxLag late is skipped and counted, so an overloaded step ends.
+	 * @return nanoseconds from the first intended start until the last query returned
+	 */
+
+	private long schedule(final double rate, final long seconds, final int threads, final long seed, final long maxLag) throws InterruptedException
+	{
+		final long slots = Math.max(1, Math.round(rate * seconds));
+		final double period = 1e9 / rate;
+		final AtomicLong next = new AtomicLong();
+		final long begin = System.nanoTime();
+		Thread[] workers = new Thread[threads];
+		for (int i = 0; i < threads; i++)
+		{
+			final Random random = new Random(seed + i);
+			workers[i] = newThread(new Runnable()
+			{
+				public void run()
+				{
+					long slot;
+					while ((slot = next.getAndIncrement()) < slots)
+					{
+						long intended = begin + (long) (slot * period);
+						if (System.nanoTime() - intended > maxLag)
+						{
+							missed.incrementAndGet();
+							continue;
+						}
+						runQuery(random, intended);
+					}
+				}
+			}, "workload-" + i);
+			workers[i].start();
+		}
+		for (Thread worker : workers)
+		{
+			worker.join();
+		}
+		return System.nanoTime() - begin;
+	}
+
+	/**
+	 * An unstarted client thread, virtual when the executor is
+	 */
+
+	private Thread newThread(final Runnable client, final String name)
+	{
+		if (virtualThreads == null)
+		{
+			return new Thread(client, name);
+		}
+		Thread thread = virtualThreads.newThread(client);
+		thread.setName(name);
+		return thread;
+	}
+
+	/**
+	 * Prints one line per query and one for the whole mix, either for the interval
+	 * since the previous report or cumulatively
+	 * @return the latencies of the whole mix
+	 */
+
+	private Histogram report(final String label, final long nanos, final boolean interval)
+	{
+		double seconds = nanos / 1e9;
+		Histogram all = null;
+		for (String operation : operations())
+		{
+			Histogram histogram = interval ? latency.intervalHistogram(operation) : latency.histogram(operation);
+			AtomicLong failed = errors.get(operation);
+			long errorCount = failed == null ? 0 : failed.get();
+			if (interval)
+			{
+				Long reported = reportedErrors.put(operation, errorCount);
+				errorCount -= reported == null ? 0 : reported;
+			}
+			if (all == null)
+			{
+				all = histogram.copy();
+			}
+			else
+			{
+				all.add(histogram);
+			}
+			System.out.println(label + " " + operation + ": " + String.format("%.1f", histogram.getTotalCount() / seconds) + " ops/s, "
+				+ errorCount + " errors, " + LatencyRecorder.summarize(histogram));
+		}
+		System.out.println(label + " all: " + String.format("%.1f", all.getTotalCount() / seconds) + " ops/s over " + String.format("%.1f", seconds) + " s, "
+			+ LatencyRecorder.summarize(all));
+		return all;
+	}
+
+	private String[] operations()
+	{
+		String[] operations = new String[queries.length];
+		for (int i = 0; i < queries.length; i++)
+		{
+			operations[i] = "query" + queries[i];
+		}
+		return operations;
+	}
+
+	private void error(final String operation, final Exception e)
+	{
+		AtomicLong count = errors.get(operation);
+		if (count == null)
+		{
+			AtomicLong created = new AtomicLong();
+			count = errors.putIfAbsent(operation, created);
+			if (count == null)
+			{
+				count = created;
+			}
+		}
+		count.incrementAndGet();
+		firstErrors.putIfAbsent(operation, e.toString());
+	}
+
+	/**
+	 * Picks a topic of the person uniformly, or falls back to the topic access
+	 * distribution when the person has none
+	 */
+
+	private String topicFor(final String name, final Random random)
+	{
+		if (personTopics)
+		{
+			Node person = neo.getNodeById(NameDictionary.resolve(people, name));
+			String chosen = null;
+			int seen = 0;
+			for (Relationship associatedTo : person.getRelationships(NeoRelationshipTypes.ASSOCIATED_TO, Direction.OUTGOING))
+			{
+				if (random.nextInt(++seen) == 0)
+				{
+					chosen = (String) associatedTo.getEndNode().getProperty("topic");
+				}
+			}
+			if (chosen != null)
+			{
+				return chosen;
+			}
+		}
+		return topics.keyAt(topicAccess.sample(random.nextLong()));
+	}
+
+	/**
+	 * Draws a query and its parameters and runs it in its own transaction. The
+	 * parameters are drawn first, then the query waits for its intended start, a
+	 * System.nanoTime() reading, from which its latency is recorded. Closed-loop
+	 * clients pass NOW to start at once.
+	 */
+
+	private void runQuery(final Random random, final long intended)
+	{
+		int query = queries[mix.sample(random.nextLong())];
+		String operation = "query" + query;
+		String name = people.keyAt(personAccess.sample(random.nextLong()));
+		try
+		{
+			String topic = topicFor(name, random);
+			long start = intended;
+			if (intended == NOW)
+			{
+				start = System.nanoTime();
+			}
+			else
+			{
+				long wait;
+				while ((wait = intended - System.nanoTime()) > 0)
+				{
+					LockSupport.parkNanos(wait);
+				}
+			}
+			if (limiter != null)
+			{
+				limiter.acquire();
+			}
+			try
+			{
+				Transaction tx = neo.beginTx();
+				try
+				{
+					NeoQuery.executeQuery(query, neo, name, topic, weight, breadth, json);
+					tx.success();
+				}
+				finally
+				{
+					tx.finish();
+				}
+			}
+			finally
+			{
+				if (limiter != null)
+				{
+					limiter.release();
+				}
+			}
+			if (measuring)
+			{
+				latency.record(operation, start);
+			}
+		}
+		catch (Exception e)
+		{
+			if (measuring)
+			{
+				error(operation, e);
+			}
+		}
+	}
+
+	/**
+	 * One closed-loop client: the next query starts when the previous one returns
+	 */
+
+	private class Worker implements Runnable
+	{
+		private final Random random;
+
+		Worker(final Random random)
+		{
+			this.random = random;
+		}
+
+		public void run()
+		{
+			while (running)
+			{
+				runQuery(random, NOW);
+			}
+		}
+	}
+
+}
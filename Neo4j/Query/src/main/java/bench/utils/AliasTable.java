@@ -0,0 +1,103 @@
+package bench.utils;
+
+/**
+ * Walker's alias method, built with Vose's algorithm. After an O(n) setup, each
+ * draw from an arbitrary discrete distribution over 0..n-1 costs one table column
+ * and one coin flip, both taken from a single 64 bit random value. Tables are
+ * read-only once built and can be shared between threads.
+ */
+
+public class AliasTable
+{
+
+	private final double[] probability;
+	private final int[] alias;
+
+	/**
+	 * @param weights non-negative relative weights, at least one of them positive
+	 */
+
+	public AliasTable(final double[] weights)
+	{
+		int n = weights.length;
+		double total = 0;
+		for (int i = 0; i < n; i++)
+		{
+			if (weights[i] < 0 || Double.isNaN(weights[i]))
+			{
+				throw new IllegalArgumentException("Negative weight at " + i);
+			}
+			total += weights[i];
+		}
+		if (n == 0 || total <= 0)
+		{
+			throw new IllegalArgumentException("Alias table needs a positive total weight.");
+		}
+
+		this.probability = new double[n];
+		this.alias = new int[n];
+		double[] scaled = new double[n];
+		int[] small = new int[n];
+		int[] large = new int[n];
+		int smallCount = 0, largeCount = 0;
+		for (int i = 0; i < n; i++)
+		{
+			scaled[i] = weights[i] * n / total;
+			if (scaled[i] < 1.0)
+			{
+				small[smallCount++] = i;
+			}
+			else
+			{
+				large[largeCount++] = i;
+			}
+		}
+		while (smallCount > 0 && largeCount > 0)
+		{
+			int less = small[--smallCount];
+			int more = large[--largeCount];
+			probability[less] = scaled[less];
+			alias[less] = more;
+			scaled[more] = (scaled[more] + scaled[less]) - 1.0;
+			if (scaled[more] < 1.0)
+			{
+				small[smallCount++] = more;
+			}
+			else
+			{
+				large[largeCount++] = more;
+			}
+		}
+		// Whatever is left is 1.0 up to rounding
+		while (largeCount > 0)
+		{
+			int i = large[--largeCount];
+			probability[i] = 1.0;
+			alias[i] = i;
+		}
+		while (smallCount > 0)
+		{
+			int i = small[--smallCount];
+			probability[i] = 1.0;
+			alias[i] = i;
+		}
+	}
+
+	/**
+	 * Draws an index. The high 32 bits pick the column, the low 32 bits flip the coin.
+	 * @param bits a uniformly random 64 bit value
+	 */
+
+	public int sample(final long bits)
+	{
+		int column = (int) (((bits >>> 32) * probability.length) >>> 32);
+		double coin = (bits & 0xFFFFFFFFL) * 0x1.0p-32;
+		return coin < probability[column] ? column : alias[column];
+	}
+
+	public int size()
+	{
+		return probability.length;
+	}
+
+}
@@ -0,0 +1,173 @@
+package bench.utils;
+
+import java.util.Arrays;
+
+/**
+ * Set of node ids that many threads can add to at once. Ids are hashed to one of
+ * a power of two number of stripes, each an open addressing table of longs behind
+ * its own lock, so threads expanding different parts of a traversal rarely wait
+ * for each other and no id is boxed.
+ */
+
+public class ConcurrentNodeSet
+{
+
+	private static final long FREE = -1;
+
+	private final Stripe[] stripes;
+	private final int mask;
+
+	/**
+	 * @param concurrency number of threads expected to add at once; the set has
+	 * four stripes per thread
+	 */
+
+	public ConcurrentNodeSet(final int concurrency)
+	{
+		int count = Integer.highestOneBit(Math.max(1, concurrency) * 4 - 1) << 1;
+		stripes = new Stripe[count];
+		for (int i = 0; i < count; i++)
+		{
+			stripes[i] = new Stripe();
+		}
+		mask = count - 1;
+	}
+
+	/**
+	 * Adds a node id
+	 * @return true if the id was not in the set
+	 */
+
+	public boolean add(final long id)
+	{
+		if (id < 0)
+		{
+			throw new IllegalArgumentException("Negative node id " + id);
+		}
+		long hash = mix(id);
+		Stripe stripe = stripes[(int) (hash >>> 40) & mask];
+		synchronized (stripe)
+		{
+			return stripe.add(id, (int) hash);
+		}
+	}
+
+	public boolean contains(final long id)
+	{
+		if (id < 0)
+		{
+			return false;
+		}
+		long hash = mix(id);
+		Stripe stripe = stripes[(int) (hash >>> 40) & mask];
+		synchronized (stripe)
+		{
+			return stripe.contains(id, (int) hash);
+		}
+	}
+
+	public int size()
+	{
+		int size = 0;
+		for (Stripe stripe : stripes)
+		{
+			synchronized (stripe)
+			{
+				size += stripe.size;
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * The ids in no particular order; ids added meanwhile may be missed
+	 */
+
+	public long[] toArray()
+	{
+		long[] ids = new long[16];
+		int count = 0;
+		for (Stripe stripe : stripes)
+		{
+			synchronized (stripe)
+			{
+				if (count + stripe.size > ids.length)
+				{
+					ids = Arrays.copyOf(ids, Math.max(ids.length * 2, count + stripe.size));
+				}
+				for (long id : stripe.table)
+				{
+					if (id != FREE)
+					{
+						ids[count++] = id;
+					}
+				}
+			}
+		}
+		return Arrays.copyOf(ids, count);
+	}
+
+	private static long mix(final long id)
+	{
+		long h = id * 0x9E3779B97F4A7C15L;
+		return h ^ (h >>> 29);
+	}
+
+	/**
+	 * Linear probing table, at most half full; callers hold its lock
+	 */
+
+	private static final class Stripe
+	{
+		private long[] table = free(16);
+		private int size;
+
+		boolean add(final long id, final int hash)
+		{
+			int slot = find(table, id, hash);
+			if (table[slot] == id)
+			{
+				return false;
+			}
+			table[slot] = id;
+			if (++size * 2 > table.length)
+			{
+				long[] old = table;
+				table = free(old.length * 2);
+				for (long key : old)
+				{
+					if (key != FREE)
+					{
+						table[find(table, key, (int) mix(key))] = key;
+					}
+				}
+			}
+			return true;
+		}
+
+		boolean contains(final long id, final int hash)
+		{
+			return table[find(table, id, hash)] == id;
+		}
+
+		// Slot holding id, or the free slot where it belongs
+		private static int find(final long[] table, final long id, final int hash)
+		{
+			int mask = table.length - 1;
+			int slot = hash & mask;
+			while (table[slot] != FREE && table[slot] != id)
+			{
+				slot = (slot + 1) & mask;
+			}
+			return slot;
+		}
+
+		private static long[] free(final int length)
+		{
+			long[] table = new long[length];
+			Arrays.fill(table, FREE);
+			return table;
+		}
+	}
+
+}
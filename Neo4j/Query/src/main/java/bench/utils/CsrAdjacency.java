@@ -0,0 +1,235 @@
+package bench.utils;
+
+import java.util.Arrays;
+
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.ByteBuffer;
+
+/**
+ * Compressed sparse row adjacency of one relationship type over densely numbered
+ * nodes. The edges of node n are the slots begin(n) to end(n) - 1 of the target,
+ * weight and topic columns, so a traversal reads primitive columns instead of
+ * creating a Relationship and a Node per hop. Weights are kept as unsigned bytes
+ * and topics as dense topic numbers, NO_TOPIC where an edge has none. Like
+ * NameDictionary the columns can be allocated off-heap, and they are read-only
+ * once built, so any number of threads may traverse them.
+ *
+ *   for (int edge = csr.begin(node); edge < csr.end(node); edge++)
+ *   {
+ *       int neighbour = csr.target(edge);
+ *   }
+ */
+
+public class CsrAdjacency
+{
+
+	public static final int NO_TOPIC = -1;
+
+	private final int nodes;
+	private final int edges;
+	private final IntBuffer offsets;
+	private final IntBuffer targets;
+	private final ByteBuffer weights;
+	private final IntBuffer topics;
+
+	private CsrAdjacency(final int nodes, final int edges, final IntBuffer offsets, final IntBuffer targets, final ByteBuffer weights, final IntBuffer topics)
+	{
+		this.nodes = nodes;
+		this.edges = edges;
+		this.offsets = offsets;
+		this.targets = targets;
+		this.weights = weights;
+		this.topics = topics;
+	}
+
+	public int nodes()
+	{
+		return nodes;
+	}
+
+	public int edges()
+	{
+		return edges;
+	}
+
+	public int begin(final int node)
+	{
+		return offsets.get(node);
+	}
+
+	public int end(final int node)
+	{
+		return offsets.get(node + 1);
+	}
+
+	public int degree(final int node)
+	{
+		return offsets.get(node + 1) - offsets.get(node);
+	}
+
+	public int target(final int edge)
+	{
+		return targets.get(edge);
+	}
+
+	/**
+	 * Weight of an edge, 0 when the adjacency was built without weights
+	 */
+
+	public int weight(final int edge)
+	{
+		return weights == null ? 0 : weights.get(edge) & 0xFF;
+	}
+
+	/**
+	 * Topic number of an edge, NO_TOPIC when the adjacency was built without topics
+	 */
+
+	public int topic(final int edge)
+	{
+		return topics == null ? NO_TOPIC : topics.get(edge);
+	}
+
+	public boolean hasWeights()
+	{
+		return weights != null;
+	}
+
+	public boolean hasTopics()
+	{
+		return topics != null;
+	}
+
+	/**
+	 * Bytes held by the columns, on or off the heap
+	 */
+
+	public long memoryFootprint()
+	{
+		return 4L * offsets.capacity()
+			+ 4L * targets.capacity()
+			+ (weights == null ? 0 : weights.capacity())
+			+ (topics == null ? 0 : 4L * topics.capacity());
+	}
+
+	/**
+	 * Collects edges in any order into growable primitive columns, then sorts them
+	 * by source with a counting sort. Edges of one source keep their insertion order.
+	 */
+
+	public static class Builder
+	{
+		private final int nodes;
+		private final boolean withWeights;
+		private final boolean withTopics;
+		private int[] sources = new int[1024];
+		private int[] targets = new int[1024];
+		private byte[] weights;
+		private int[] topics;
+		private int size;
+
+		public Builder(final int nodes, final boolean withWeights, final boolean withTopics)
+		{
+			this.nodes = nodes;
+			this.withWeights = withWeights;
+			this.withTopics = withTopics;
+			this.weights = withWeights ? new byte[1024] : null;
+			this.topics = withTopics ? new int[1024] : null;
+		}
+
+		/**
+		 * Adds an edge. Weights are clamped to 0..255.
+		 */
+
+		public void add(final int source, final int target, final int weight, final int topic)
+		{
+			if (source < 0 || source >= nodes)
+			{
+				throw new IndexOutOfBoundsException("Source " + source + " of " + nodes);
+			}
+			if (size == sources.length)
+			{
+				int capacity = size * 2;
+				sources = Arrays.copyOf(sources, capacity);
+				targets = Arrays.copyOf(targets, capacity);
+				if (withWeights)
+				{
+					weights = Arrays.copyOf(weights, capacity);
+				}
+				if (withTopics)
+				{
+					topics = Arrays.copyOf(topics, capacity);
+				}
+			}
+			sources[size] = source;
+			targets[size] = target;
+			if (withWeights)
+			{
+				weights[size] = (byte) Math.min(Math.max(weight, 0), 255);
+			}
+			if (withTopics)
+			{
+				topics[size] = topic;
+			}
+			size++;
+		}
+
+		public CsrAdjacency build(final boolean offHeap)
+		{
+			IntBuffer offsets = allocateInts(nodes + 1, offHeap);
+			IntBuffer sortedTargets = allocateInts(size, offHeap);
+			ByteBuffer sortedWeights = withWeights ? allocate(size, offHeap) : null;
+			IntBuffer sortedTopics = withTopics ? allocateInts(size, offHeap) : null;
+
+			// Degrees, then prefix sums, then scatter each edge to its source's next slot
+			int[] next = new int[nodes + 1];
+			for (int i = 0; i < size; i++)
+			{
+				next[sources[i] + 1]++;
+			}
+			for (int node = 0; node < nodes; node++)
+			{
+				next[node + 1] += next[node];
+			}
+			for (int node = 0; node <= nodes; node++)
+			{
+				offsets.put(node, next[node]);
+			}
+			for (int i = 0; i < size; i++)
+			{
+				int slot = next[sources[i]]++;
+				sortedTargets.put(slot, targets[i]);
+				if (withWeights)
+				{
+					sortedWeights.put(slot, weights[i]);
+				}
+				if (withTopics)
+				{
+					sortedTopics.put(slot, topics[i]);
+				}
+			}
+			return new CsrAdjacency(nodes, size, offsets, sortedTargets, sortedWeights, sortedTopics);
+		}
+	}
+
+	private static ByteBuffer allocate(final int bytes, final boolean offHeap)
+	{
+		ByteBuffer buffer = offHeap ? ByteBuffer.allocateDirect(bytes) : ByteBuffer.allocate(bytes);
+		return buffer.order(ByteOrder.nativeOrder());
+	}
+
+	private static IntBuffer allocateInts(final int count, final boolean offHeap)
+	{
+		if (!offHeap)
+		{
+			return IntBuffer.allocate(count);
+		}
+		if ((long) count * 4 > Integer.MAX_VALUE)
+		{
+			throw new IllegalStateException("Adjacency column exceeds 2GB off-heap.");
+		}
+		return allocate(count * 4, true).asIntBuffer();
+	}
+
+}
@@ -0,0 +1,295 @@
+package bench.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.io.BufferedOutputStream;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.channels.FileChannel;
+
+/**
+ * Name to node id dictionary read straight from a memory mapped file written by
+ * the ingest, so opening it costs the same whatever the size of the graph and
+ * pages are read as lookups touch them. Lookups binary search a column of entry
+ * numbers sorted by the names' UTF-8 bytes, compared unsigned, which is code
+ * point order. Entries keep the order they had in the dictionary that was
+ * written. Any number of threads may look up names at once.
+ *
+ * File layout, big endian: magic, entry count, name bytes and a zero int, then
+ * the node id of each entry, the start offset of each entry's name plus a final
+ * end offset, the entry numbers in name order, and the UTF-8 names.
+ */
+
+public class MappedNameDictionary implements NameLookup
+{
+
+	private static final int MAGIC = 0x4e414d45; // "NAME"
+	private static final int HEADER_BYTES = 16;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final ByteBuffer buffer;
+	private final int size;
+	private final int offsetsStart;
+	private final int orderStart;
+	private final int namesStart;
+
+	private MappedNameDictionary(final ByteBuffer buffer, final int size)
+	{
+		this.buffer = buffer;
+		this.size = size;
+		this.offsetsStart = HEADER_BYTES + 8 * size;
+		this.orderStart = offsetsStart + 4 * (size + 1);
+		this.namesStart = orderStart + 4 * size;
+	}
+
+	/**
+	 * Maps a dictionary file written by write()
+	 */
+
+	public static MappedNameDictionary open(final File file) throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try
+		{
+			FileChannel channel = raf.getChannel();
+			if (channel.size() < HEADER_BYTES || channel.size() > Integer.MAX_VALUE)
+			{
+				throw new IOException(file + " is not a name dictionary of at most 2GB.");
+			}
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.getInt(0) != MAGIC)
+			{
+				throw new IOException(file + " is not a name dictionary.");
+			}
+			int size = buffer.getInt(4);
+			if (fileBytes(size, buffer.getInt(8)) != channel.size())
+			{
+				throw new IOException(file + " is truncated.");
+			}
+			return new MappedNameDictionary(buffer, size);
+		}
+		finally
+		{
+			// Mappings stay valid after the file is closed
+			raf.close();
+		}
+	}
+
+	/**
+	 * Writes a dictionary in entry order, through a temporary file so a crash
+	 * leaves the previous file in place
+	 */
+
+	public static void write(final NameLookup dictionary, final File file) throws IOException
+	{
+		int size = dictionary.size();
+		byte[][] names = new byte[size][];
+		int[] order = new int[size];
+		long nameBytes = 0;
+		for (int entry = 0; entry < size; entry++)
+		{
+			names[entry] = dictionary.keyAt(entry).getBytes(UTF8);
+			order[entry] = entry;
+			nameBytes += names[entry].length;
+		}
+		if (fileBytes(size, nameBytes) > Integer.MAX_VALUE)
+		{
+			throw new IOException("Name dictionary of " + size + " names exceeds 2GB.");
+		}
+		sort(names, order, 0, size - 1);
+
+		File temporary = new File(file.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary), 1 << 16));
+		try
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(size);
+			out.writeInt((int) nameBytes);
+			out.writeInt(0);
+			for (int entry = 0; entry < size; entry++)
+			{
+				out.writeLong(dictionary.valueAt(entry));
+			}
+			int offset = 0;
+			for (int entry = 0; entry < size; entry++)
+			{
+				out.writeInt(offset);
+				offset += names[entry].length;
+			}
+			out.writeInt(offset);
+			for (int i = 0; i < size; i++)
+			{
+				out.writeInt(order[i]);
+			}
+			for (int entry = 0; entry < size; entry++)
+			{
+				out.write(names[entry]);
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+		if ((file.exists() && !file.delete()) || !temporary.renameTo(file))
+		{
+			throw new IOException("Cannot replace " + file);
+		}
+	}
+
+	private static long fileBytes(final long size, final long nameBytes)
+	{
+		return HEADER_BYTES + 16 * size + 4 + nameBytes;
+	}
+
+	public long get(final String name)
+	{
+		byte[] bytes = name.getBytes(UTF8);
+		int low = 0, high = size - 1;
+		while (low <= high)
+		{
+			int middle = (low + high) >>> 1;
+			int entry = buffer.getInt(orderStart + 4 * middle);
+			int compare = compare(entry, bytes);
+			if (compare < 0)
+			{
+				low = middle + 1;
+			}
+			else if (compare > 0)
+			{
+				high = middle - 1;
+			}
+			else
+			{
+				return buffer.getLong(HEADER_BYTES + 8 * entry);
+			}
+		}
+		return NameDictionary.NO_ID;
+	}
+
+	public boolean containsKey(final String name)
+	{
+		return get(name) != NameDictionary.NO_ID;
+	}
+
+	public long valueAt(final int entry)
+	{
+		if (entry < 0 || entry >= size)
+		{
+			throw new IndexOutOfBoundsException("Entry " + entry + " of " + size);
+		}
+		return buffer.getLong(HEADER_BYTES + 8 * entry);
+	}
+
+	public String keyAt(final int entry)
+	{
+		if (entry < 0 || entry >= size)
+		{
+			throw new IndexOutOfBoundsException("Entry " + entry + " of " + size);
+		}
+		int start = buffer.getInt(offsetsStart + 4 * entry);
+		byte[] bytes = new byte[buffer.getInt(offsetsStart + 4 * entry + 4) - start];
+		for (int i = 0; i < bytes.length; i++)
+		{
+			bytes[i] = buffer.get(namesStart + start + i);
+		}
+		return new String(bytes, UTF8);
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	public long memoryFootprint()
+	{
+		return buffer.capacity();
+	}
+
+	public String describe()
+	{
+		return size + " names in " + memoryFootprint() + " bytes (mapped)";
+	}
+
+	// Compares an entry's name with a name, unsigned byte by byte
+	private int compare(final int entry, final byte[] name)
+	{
+		int start = namesStart + buffer.getInt(offsetsStart + 4 * entry);
+		int length = namesStart + buffer.getInt(offsetsStart + 4 * entry + 4) - start;
+		int common = Math.min(length, name.length);
+		for (int i = 0; i < common; i++)
+		{
+			int difference = (buffer.get(start + i) & 0xFF) - (name[i] & 0xFF);
+			if (difference != 0)
+			{
+				return difference;
+			}
+		}
+		return length - name.length;
+	}
+
+	private static int compare(final byte[] name, final byte[] other)
+	{
+		int common = Math.min(name.length, other.length);
+		for (int i = 0; i < common; i++)
+		{
+			int difference = (name[i] & 0xFF) - (other[i] & 0xFF);
+			if (difference != 0)
+			{
+				return difference;
+			}
+		}
+		return name.length - other.length;
+	}
+
+	// Quicksort of entry numbers by name
+	private static void sort(final byte[][] names, final int[] order, int low, int high)
+	{
+		while (high - low > 16)
+		{
+			byte[] pivot = names[order[(low + high) >>> 1]];
+			int i = low, j = high;
+			while (i <= j)
+			{
+				while (compare(names[order[i]], pivot) < 0)
+				{
+					i++;
+				}
+				while (compare(names[order[j]], pivot) > 0)
+				{
+					j--;
+				}
+				if (i <= j)
+				{
+					int entry = order[i];
+					order[i++] = order[j];
+					order[j--] = entry;
+				}
+			}
+			// Recurse into the smaller side, loop on the larger
+			if (j - low < high - i)
+			{
+				sort(names, order, low, j);
+				low = i;
+			}
+			else
+			{
+				sort(names, order, i, high);
+				high = j;
+			}
+		}
+		for (int i = low + 1; i <= high; i++)
+		{
+			for (int j = i; j > low && compare(names[order[j]], names[order[j - 1]]) < 0; j--)
+			{
+				int entry = order[j];
+				order[j] = order[j - 1];
+				order[j - 1] = entry;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,43 @@
+package bench.utils;
+
+/**
+ * Read side of a name to node id dictionary, held in memory by NameDictionary
+ * or mapped from a file by MappedNameDictionary. Entries are numbered from 0 to
+ * size() - 1 in the order they were added.
+ */
+
+public interface NameLookup
+{
+
+	/**
+	 * Resolves a name to its node id
+	 * @return the node id, or NameDictionary.NO_ID if the name is unknown
+	 */
+
+	long get(String name);
+
+	boolean containsKey(String name);
+
+	/**
+	 * Node id of the entry at the given index
+	 */
+
+	long valueAt(int entry);
+
+	/**
+	 * Name of the entry at the given index
+	 */
+
+	String keyAt(int entry);
+
+	int size();
+
+	/**
+	 * Bytes held by the dictionary, on or off the heap or mapped
+	 */
+
+	long memoryFootprint();
+
+	String describe();
+
+}
@@ -0,0 +1,344 @@
+package bench.utils;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Compressed set of node ids in the style of a roaring bitmap. An id is split into
+ * its high 48 bits, which select a container, and its low 16 bits, which are kept
+ * in that container: as a sorted array while it holds at most 4096 ids and as a
+ * 65536 bit bitmap above that. Sparse sets cost two bytes per id and dense ranges
+ * one bit, and a breadth first search can keep its visited set and frontiers as
+ * ids instead of hashing Node objects. Not thread safe.
+ *
+ *   NodeBitmap.Cursor cursor = bitmap.cursor();
+ *   while (cursor.hasNext())
+ *   {
+ *       long id = cursor.next();
+ *   }
+ */
+
+public class NodeBitmap
+{
+
+	private static final int ARRAY_LIMIT = 4096;
+	private static final int BITMAP_WORDS = 1024;
+
+	private long[] keys = new long[4];
+	private Container[] containers = new Container[4];
+	private int size;
+	private long cardinality;
+
+	// Index of the container last used, ids of one traversal tend to cluster
+	private int last = -1;
+
+	/**
+	 * Adds a node id
+	 * @return true if the id was not in the set
+	 */
+
+	public boolean add(final long id)
+	{
+		if (id < 0)
+		{
+			throw new IllegalArgumentException("Negative node id " + id);
+		}
+		int index = find(id >>> 16);
+		if (index < 0)
+		{
+			index = insert(-index - 1, id >>> 16);
+		}
+		if (containers[index].add((char) id))
+		{
+			cardinality++;
+			return true;
+		}
+		return false;
+	}
+
+	public boolean contains(final long id)
+	{
+		if (id < 0)
+		{
+			return false;
+		}
+		int index = find(id >>> 16);
+		return index >= 0 && containers[index].contains((char) id);
+	}
+
+	/**
+	 * Removes a node id
+	 * @return true if the id was in the set
+	 */
+
+	public boolean remove(final long id)
+	{
+		if (id < 0)
+		{
+			return false;
+		}
+		int index = find(id >>> 16);
+		if (index >= 0 && containers[index].remove((char) id))
+		{
+			cardinality--;
+			return true;
+		}
+		return false;
+	}
+
+	public long cardinality()
+	{
+		return cardinality;
+	}
+
+	public boolean isEmpty()
+	{
+		return cardinality == 0;
+	}
+
+	/**
+	 * Empties the set, keeping the container directory for reuse
+	 */
+
+	public void clear()
+	{
+		Arrays.fill(containers, 0, size, null);
+		size = 0;
+		cardinality = 0;
+		last = -1;
+	}
+
+	/**
+	 * The ids in ascending order
+	 */
+
+	public long[] toArray()
+	{
+		if (cardinality > Integer.MAX_VALUE)
+		{
+			throw new IllegalStateException("Bitmap of " + cardinality + " ids does not fit an array.");
+		}
+		long[] ids = new long[(int) cardinality];
+		int i = 0;
+		Cursor cursor = cursor();
+		while (cursor.hasNext())
+		{
+			ids[i++] = cursor.next();
+		}
+		return ids;
+	}
+
+	/**
+	 * Walks the ids in ascending order. The set must not change while walking.
+	 */
+
+	public Cursor cursor()
+	{
+		return new Cursor();
+	}
+
+	/**
+	 * Approximate bytes held by the directory and the containers
+	 */
+
+	public long memoryFootprint()
+	{
+		long bytes = 12L * keys.length;
+		for (int i = 0; i < size; i++)
+		{
+			bytes += containers[i].bits != null ? 8L * BITMAP_WORDS : 2L * containers[i].array.length;
+		}
+		return bytes;
+	}
+
+	/**
+	 * Index of the container of a high key, or -(insertion point) - 1
+	 */
+
+	private int find(final long key)
+	{
+		if (last >= 0 && keys[last] == key)
+		{
+			return last;
+		}
+		int index = Arrays.binarySearch(keys, 0, size, key);
+		if (index >= 0)
+		{
+			last = index;
+		}
+		return index;
+	}
+
+	private int insert(final int index, final long key)
+	{
+		if (size == keys.length)
+		{
+			keys = Arrays.copyOf(keys, size * 2);
+			containers = Arrays.copyOf(containers, size * 2);
+		}
+		System.arraycopy(keys, index, keys, index + 1, size - index);
+		System.arraycopy(containers, index, containers, index + 1, size - index);
+		keys[index] = key;
+		containers[index] = new Container();
+		size++;
+		last = index;
+		return index;
+	}
+
+	/**
+	 * Low 16 bits of the ids sharing one high key
+	 */
+
+	private static final class Container
+	{
+		private char[] array = new char[4];
+		private long[] bits;
+		private int cardinality;
+
+		boolean add(final char low)
+		{
+			if (bits != null)
+			{
+				long mask = 1L << low;
+				if ((bits[low >>> 6] & mask) != 0)
+				{
+					return false;
+				}
+				bits[low >>> 6] |= mask;
+				cardinality++;
+				return true;
+			}
+			int slot = Arrays.binarySearch(array, 0, cardinality, low);
+			if (slot >= 0)
+			{
+				return false;
+			}
+			if (cardinality == ARRAY_LIMIT)
+			{
+				toBitmap();
+				return add(low);
+			}
+			slot = -slot - 1;
+			if (cardinality == array.length)
+			{
+				array = Arrays.copyOf(array, Math.min(cardinality * 2, ARRAY_LIMIT));
+			}
+			System.arraycopy(array, slot, array, slot + 1, cardinality - slot);
+			array[slot] = low;
+			cardinality++;
+			return true;
+		}
+
+		boolean contains(final char low)
+		{
+			if (bits != null)
+			{
+				return (bits[low >>> 6] & (1L << low)) != 0;
+			}
+			return Arrays.binarySearch(array, 0, cardinality, low) >= 0;
+		}
+
+		boolean remove(final char low)
+		{
+			if (bits != null)
+			{
+				long mask = 1L << low;
+				if ((bits[low >>> 6] & mask) == 0)
+				{
+					return false;
+				}
+				bits[low >>> 6] &= ~mask;
+				cardinality--;
+				return true;
+			}
+			int slot = Arrays.binarySearch(array, 0, cardinality, low);
+			if (slot < 0)
+			{
+				return false;
+			}
+			System.arraycopy(array, slot + 1, array, slot, cardinality - slot - 1);
+			cardinality--;
+			return true;
+		}
+
+		private void toBitmap()
+		{
+			bits = new long[BITMAP_WORDS];
+			for (int i = 0; i < cardinality; i++)
+			{
+				bits[array[i] >>> 6] |= 1L << array[i];
+			}
+			array = null;
+		}
+	}
+
+	public final class Cursor
+	{
+		private int index = -1;
+		private int position;
+		private long word;
+		private long next = -1;
+
+		private Cursor()
+		{
+			advance();
+		}
+
+		public boolean hasNext()
+		{
+			return next >= 0;
+		}
+
+		public long next()
+		{
+			if (next < 0)
+			{
+				throw new NoSuchElementException();
+			}
+			long id = next;
+			advance();
+			return id;
+		}
+
+		private void advance()
+		{
+			while (true)
+			{
+				if (index >= 0)
+				{
+					Container container = containers[index];
+					if (container.bits == null)
+					{
+						if (position < container.cardinality)
+						{
+							next = keys[index] << 16 | container.array[position++];
+							return;
+						}
+					}
+					else
+					{
+						while (word == 0 && position < BITMAP_WORDS)
+						{
+							word = container.bits[position++];
+						}
+						if (word != 0)
+						{
+							int bit = Long.numberOfTrailingZeros(word);
+							word &= word - 1;
+							next = keys[index] << 16 | (position - 1) << 6 | bit;
+							return;
+						}
+					}
+				}
+				if (++index >= size)
+				{
+					next = -1;
+					return;
+				}
+				position = 0;
+				word = 0;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,115 @@
+package bench.utils;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.BufferedWriter;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Streams a JSON array of person records to a file as a query produces them,
+ * instead of collecting PersonDAO objects and serializing them into one string.
+ * The output is what Gson writes for a List<PersonDAO>: name (left out when
+ * null), size and imports. Only the open record's position is held, so memory
+ * does not grow with the result. The first record is flushed as soon as it is
+ * complete and the time of that flush is kept as the query's time to first byte.
+ */
+
+public class PersonJsonWriter
+{
+
+	private final BufferedWriter out;
+	private final JsonWriter json;
+	private long firstByteNanos;
+	private int records;
+	private boolean inPerson;
+
+	public PersonJsonWriter(final File file) throws IOException
+	{
+		out = new BufferedWriter(new FileWriter(file), 1 << 16);
+		json = new JsonWriter(out);
+		// Gson escapes HTML characters by default
+		json.setHtmlSafe(true);
+		json.beginArray();
+	}
+
+	/**
+	 * Starts a record; its imports follow
+	 */
+
+	public void beginPerson(final String name, final int size) throws IOException
+	{
+		json.beginObject();
+		if (name != null)
+		{
+			json.name("name").value(name);
+		}
+		json.name("size").value(size);
+		json.name("imports").beginArray();
+		inPerson = true;
+	}
+
+	public void beginPerson(final String name) throws IOException
+	{
+		beginPerson(name, 0);
+	}
+
+	public void addImport(final String name) throws IOException
+	{
+		json.value(name);
+	}
+
+	public void endPerson() throws IOException
+	{
+		json.endArray();
+		json.endObject();
+		inPerson = false;
+		if (++records == 1)
+		{
+			json.flush();
+			firstByteNanos = System.nanoTime();
+		}
+	}
+
+	/**
+	 * Writes a record without imports
+	 */
+
+	public void person(final String name) throws IOException
+	{
+		beginPerson(name, 0);
+		endPerson();
+	}
+
+	public int records()
+	{
+		return records;
+	}
+
+	/**
+	 * System.nanoTime() when the first record reached the file, 0 before then
+	 */
+
+	public long firstByteNanos()
+	{
+		return firstByteNanos;
+	}
+
+	/**
+	 * Ends the array and closes the file; a query that failed within a record
+	 * leaves the file truncated there
+	 */
+
+	public void close() throws IOException
+	{
+		if (inPerson)
+		{
+			out.close();
+			return;
+		}
+		json.endArray();
+		json.close();
+	}
+
+}
@@ -0,0 +1,273 @@
+package bench.utils;
+
+import java.util.Map;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Results of read queries by (query, person, topic, weight, breadth), so hot
+ * people and topics are not recomputed on every request. The cache holds at most
+ * capacity results and drops the least recently used beyond that; results older
+ * than the time to live are loaded again. Writers invalidate the people and topics
+ * they change. A result is loaded outside the cache lock, so two threads missing
+ * on the same key may both load it.
+ */
+
+public class QueryCache
+{
+
+	/**
+	 * Computes a result on a miss
+	 */
+
+	public interface Loader<V>
+	{
+		V load();
+	}
+
+	private final int capacity;
+	private final long ttlNanos;
+	private final LatencyRecorder latency;
+	private final LinkedHashMap<Key,Result> entries;
+	private long hits;
+	private long misses;
+	private long evictions;
+	private long expirations;
+	private long invalidations;
+	private long loadNanos;
+	// Bumped by every invalidation, so a result loaded across one is not cached
+	private long generation;
+
+	/**
+	 * @param capacity most results held
+	 * @param ttlMillis how long a result is served, 0 for as long as it is not evicted
+	 * @param latency receives a queryCacheLoad(query n) histogram of load times, or null
+	 */
+
+	public QueryCache(final int capacity, final long ttlMillis, final LatencyRecorder latency)
+	{
+		this.capacity = capacity;
+		this.ttlNanos = ttlMillis * 1000000L;
+		this.latency = latency;
+		// Access order, so the eldest entry is the least recently used
+		entries = new LinkedHashMap<Key,Result>(Math.min(capacity, 1 << 16) * 4 / 3 + 1, 0.75f, true)
+		{
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<Key,Result> eldest)
+			{
+				if (size() > QueryCache.this.capacity)
+				{
+					evictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Key of a result; pass null or 0 for the parameters a query does not use
+	 */
+
+	public static Key key(final int query, final String person, final String topic, final int weight, final int breadth)
+	{
+		return new Key(query, person, topic, weight, breadth);
+	}
+
+	/**
+	 * The cached result for key, loading and caching it if there is none or it expired
+	 */
+
+	@SuppressWarnings("unchecked")
+	public <V> V get(final Key key, final Loader<V> loader)
+	{
+		long loading;
+		synchronized (this)
+		{
+			Result entry = entries.get(key);
+			if (entry != null)
+			{
+				if (ttlNanos <= 0 || System.nanoTime() - entry.loaded < ttlNanos)
+				{
+					hits++;
+					return (V) entry.value;
+				}
+				entries.remove(key);
+				expirations++;
+			}
+			misses++;
+			loading = generation;
+		}
+		long start = System.nanoTime();
+		V value = loader.load();
+		long loaded = System.nanoTime();
+		if (latency != null)
+		{
+			latency.recordValue("queryCacheLoad(query " + key.query + ")", loaded - start);
+		}
+		synchronized (this)
+		{
+			loadNanos += loaded - start;
+			if (loading == generation)
+			{
+				entries.put(key, new Result(value, loaded));
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * Drops every result for a person
+	 */
+
+	public void invalidatePerson(final String person)
+	{
+		invalidate(person, null);
+	}
+
+	/**
+	 * Drops every result for a topic
+	 */
+
+	public void invalidateTopic(final String topic)
+	{
+		invalidate(null, topic);
+	}
+
+	/**
+	 * Drops every result for the person or for the topic; either may be null
+	 */
+
+	public synchronized void invalidate(final String person, final String topic)
+	{
+		generation++;
+		Iterator<Key> keys = entries.keySet().iterator();
+		while (keys.hasNext())
+		{
+			Key key = keys.next();
+			if ((person != null && person.equals(key.person)) || (topic != null && topic.equals(key.topic)))
+			{
+				keys.remove();
+				invalidations++;
+			}
+		}
+	}
+
+	public synchronized void clear()
+	{
+		generation++;
+		invalidations += entries.size();
+		entries.clear();
+	}
+
+	public synchronized int size()
+	{
+		return entries.size();
+	}
+
+	public synchronized long hits()
+	{
+		return hits;
+	}
+
+	public synchronized long misses()
+	{
+		return misses;
+	}
+
+	public synchronized double hitRatio()
+	{
+		return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+	}
+
+	public synchronized long evictions()
+	{
+		return evictions;
+	}
+
+	public synchronized long expirations()
+	{
+		return expirations;
+	}
+
+	public synchronized long invalidations()
+	{
+		return invalidations;
+	}
+
+	/**
+	 * Time spent loading results on misses, in nanoseconds
+	 */
+
+	public synchronized long loadNanos()
+	{
+		return loadNanos;
+	}
+
+	public synchronized String describe()
+	{
+		return entries.size() + " of " + capacity + " results, " + hits + " hits, " + misses + " misses, hit ratio "
+			+ String.format("%.3f", hitRatio()) + ", " + evictions + " evicted, " + expirations + " expired, "
+			+ invalidations + " invalidated, " + LatencyRecorder.format(loadNanos) + " milliseconds loading";
+	}
+
+	public static final class Key
+	{
+		private final int query;
+		private final String person;
+		private final String topic;
+		private final int weight;
+		private final int breadth;
+
+		private Key(final int query, final String person, final String topic, final int weight, final int breadth)
+		{
+			this.query = query;
+			this.person = person;
+			this.topic = topic;
+			this.weight = weight;
+			this.breadth = breadth;
+		}
+
+		@Override
+		public boolean equals(final Object other)
+		{
+			if (!(other instanceof Key))
+			{
+				return false;
+			}
+			Key key = (Key) other;
+			return query == key.query && weight == key.weight && breadth == key.breadth
+				&& (person == null ? key.person == null : person.equals(key.person))
+				&& (topic == null ? key.topic == null : topic.equals(key.topic));
+		}
+
+		@Override
+		public int hashCode()
+		{
+			int hash = query;
+			hash = hash * 31 + (person == null ? 0 : person.hashCode());
+			hash = hash * 31 + (topic == null ? 0 : topic.hashCode());
+			hash = hash * 31 + weight;
+			return hash * 31 + breadth;
+		}
+
+		@Override
+		public String toString()
+		{
+			return "query " + query + " (" + person + ", " + topic + ", " + weight + ", " + breadth + ")";
+		}
+	}
+
+	private static final class Result
+	{
+		private final Object value;
+		private final long loaded;
+
+		private Result(final Object value, final long loaded)
+		{
+			this.value = value;
+			this.loaded = loaded;
+		}
+	}
+
+}
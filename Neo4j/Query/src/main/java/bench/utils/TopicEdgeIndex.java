@@ -0,0 +1,383 @@
+package bench.utils;
+
+import java.util.Arrays;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+
+import java.nio.LongBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+
+/**
+ * Index of KNOWS relationships by (person, topic, direction), built by the loader
+ * and read by the topic filtered queries. Each key holds the ids of its
+ * relationships, so finding a person's relationships on one topic reads only the
+ * matches rather than the topic property of every KNOWS relationship, and counting
+ * them is a binary search. A relationship is indexed under its start person as
+ * OUTGOING and under its end person as INCOMING.
+ *
+ * File layout, big endian: magic, key, relationship and topic counts, then the
+ * sorted keys, the start offset of each key's ids plus a final end offset, the
+ * relationship ids, and the topic names in topic number order. Keys pack the
+ * person node id into 39 bits above the 23 bit topic number and the direction
+ * bit, so they sort by person, topic and direction. The key, offset and id
+ * columns are mapped rather than read. The index is only valid for the graph it
+ * was built with: KNOWS relationships created, deleted or given another topic
+ * afterwards are not seen.
+ */
+
+public class TopicEdgeIndex
+{
+
+	public static final int OUTGOING = 0;
+	public static final int INCOMING = 1;
+
+	private static final int MAGIC = 0x544f5049; // "TOPI"
+	private static final int HEADER_BYTES = 24;
+	private static final int TOPIC_BITS = 23;
+	private static final long MAX_PERSON = (1L << 39) - 1;
+
+	private final NameDictionary topics;
+	private final LongBuffer keys;
+	private final LongBuffer offsets;
+	private final LongBuffer relationships;
+	private final int keyCount;
+
+	private TopicEdgeIndex(final NameDictionary topics, final LongBuffer keys, final LongBuffer offsets, final LongBuffer relationships, final int keyCount)
+	{
+		this.topics = topics;
+		this.keys = keys;
+		this.offsets = offsets;
+		this.relationships = relationships;
+		this.keyCount = keyCount;
+	}
+
+	/**
+	 * Maps an index file written by Builder.write()
+	 */
+
+	public static TopicEdgeIndex load(final File file) throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try
+		{
+			FileChannel channel = raf.getChannel();
+			DataInputStream header = new DataInputStream(Channels.newInputStream(channel.position(0)));
+			if (header.readInt() != MAGIC)
+			{
+				throw new IOException(file + " is not a topic index.");
+			}
+			int keyCount = header.readInt();
+			long relationshipCount = header.readLong();
+			int topicCount = header.readInt();
+			long position = HEADER_BYTES;
+			LongBuffer keys = map(channel, position, keyCount);
+			position += 8L * keyCount;
+			LongBuffer offsets = map(channel, position, keyCount + 1L);
+			position += 8L * (keyCount + 1);
+			LongBuffer relationships = map(channel, position, relationshipCount);
+			position += 8L * relationshipCount;
+
+			DataInputStream names = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel.position(position))));
+			NameDictionary topics = new NameDictionary(Math.max(16, topicCount), false);
+			for (int topic = 0; topic < topicCount; topic++)
+			{
+				topics.put(names.readUTF(), topic);
+			}
+			return new TopicEdgeIndex(topics, keys, offsets, relationships, keyCount);
+		}
+		finally
+		{
+			// Mappings stay valid after the file is closed
+			raf.close();
+		}
+	}
+
+	private static LongBuffer map(final FileChannel channel, final long position, final long longs) throws IOException
+	{
+		if (longs * 8 > Integer.MAX_VALUE)
+		{
+			throw new IOException("Topic index column of " + longs + " entries exceeds 2GB.");
+		}
+		return channel.map(FileChannel.MapMode.READ_ONLY, position, longs * 8).asLongBuffer();
+	}
+
+	/**
+	 * Number of a person's KNOWS relationships on a topic in one direction
+	 */
+
+	public int count(final long person, final String topic, final int direction)
+	{
+		int key = find(person, topic, direction);
+		return key < 0 ? 0 : (int) (offsets.get(key + 1) - offsets.get(key));
+	}
+
+	/**
+	 * Ids of a person's KNOWS relationships on a topic in one direction, ascending
+	 */
+
+	public long[] relationships(final long person, final String topic, final int direction)
+	{
+		int key = find(person, topic, direction);
+		if (key < 0)
+		{
+			return new long[0];
+		}
+		int begin = (int) offsets.get(key);
+		long[] ids = new long[(int) (offsets.get(key + 1) - begin)];
+		for (int i = 0; i < ids.length; i++)
+		{
+			ids[i] = relationships.get(begin + i);
+		}
+		return ids;
+	}
+
+	public int keys()
+	{
+		return keyCount;
+	}
+
+	/**
+	 * First relationship id under the key at an index, for checking the index
+	 * against the graph
+	 */
+
+	public long relationshipAt(final int key)
+	{
+		return relationships.get((int) offsets.get(key));
+	}
+
+	public long personAt(final int key)
+	{
+		return keys.get(key) >>> (TOPIC_BITS + 1);
+	}
+
+	public String topicAt(final int key)
+	{
+		return topics.keyAt((int) (keys.get(key) >>> 1 & ((1 << TOPIC_BITS) - 1)));
+	}
+
+	public int directionAt(final int key)
+	{
+		return (int) (keys.get(key) & 1);
+	}
+
+	public long size()
+	{
+		return relationships.capacity();
+	}
+
+	public String describe()
+	{
+		return keyCount + " person topic keys, " + size() + " relationship entries, " + topics.size() + " topics";
+	}
+
+	// Index of the key, or -1
+	private int find(final long person, final String topic, final int direction)
+	{
+		long number = topics.get(topic);
+		if (number == NameDictionary.NO_ID || person < 0 || person > MAX_PERSON)
+		{
+			return -1;
+		}
+		long key = key(person, (int) number, direction);
+		int low = 0, high = keyCount - 1;
+		while (low <= high)
+		{
+			int middle = (low + high) >>> 1;
+			long value = keys.get(middle);
+			if (value < key)
+			{
+				low = middle + 1;
+			}
+			else if (value > key)
+			{
+				high = middle - 1;
+			}
+			else
+			{
+				return middle;
+			}
+		}
+		return -1;
+	}
+
+	private static long key(final long person, final int topic, final int direction)
+	{
+		return person << (TOPIC_BITS + 1) | (long) topic << 1 | direction;
+	}
+
+	/**
+	 * Collects KNOWS relationships as the loader creates them. Single threaded,
+	 * like the batch inserter it follows.
+	 */
+
+	public static class Builder
+	{
+		private final NameDictionary topics = new NameDictionary(1024, false);
+		private long[] keys = new long[1024];
+		private long[] ids = new long[1024];
+		private int size;
+
+		/**
+		 * Indexes a KNOWS relationship from one person to another on a topic
+		 */
+
+		public void add(final long relationship, final long from, final long to, final String topic)
+		{
+			if (from > MAX_PERSON || to > MAX_PERSON)
+			{
+				throw new IllegalArgumentException("Person node id beyond 2^39 in relationship " + relationship);
+			}
+			long number = topics.get(topic);
+			if (number == NameDictionary.NO_ID)
+			{
+				number = topics.size();
+				if (number >= 1 << TOPIC_BITS)
+				{
+					throw new IllegalStateException("More than " + (1 << TOPIC_BITS) + " KNOWS topics to index.");
+				}
+				topics.put(topic, number);
+			}
+			if (size + 2 > keys.length)
+			{
+				keys = Arrays.copyOf(keys, keys.length * 2);
+				ids = Arrays.copyOf(ids, ids.length * 2);
+			}
+			keys[size] = key(from, (int) number, OUTGOING);
+			ids[size++] = relationship;
+			keys[size] = key(to, (int) number, INCOMING);
+			ids[size++] = relationship;
+		}
+
+		public long size()
+		{
+			return size;
+		}
+
+		/**
+		 * Sorts the entries by key and relationship id and writes the index file
+		 */
+
+		public void write(final File file) throws IOException
+		{
+			sort(keys, ids, 0, size - 1);
+			int keyCount = 0;
+			for (int i = 0; i < size; i++)
+			{
+				if (i == 0 || keys[i] != keys[i - 1])
+				{
+					keyCount++;
+				}
+			}
+
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+			try
+			{
+				out.writeInt(MAGIC);
+				out.writeInt(keyCount);
+				out.writeLong(size);
+				out.writeInt(topics.size());
+				out.writeInt(0);
+				for (int i = 0; i < size; i++)
+				{
+					if (i == 0 || keys[i] != keys[i - 1])
+					{
+						out.writeLong(keys[i]);
+					}
+				}
+				for (int i = 0; i < size; i++)
+				{
+					if (i == 0 || keys[i] != keys[i - 1])
+					{
+						out.writeLong(i);
+					}
+				}
+				out.writeLong(size);
+				for (int i = 0; i < size; i++)
+				{
+					out.writeLong(ids[i]);
+				}
+				for (int topic = 0; topic < topics.size(); topic++)
+				{
+					out.writeUTF(topics.keyAt(topic));
+				}
+			}
+			finally
+			{
+				out.close();
+			}
+		}
+
+		// Quicksort of keys, then ids, moving both columns together
+		private static void sort(final long[] keys, final long[] ids, int low, int high)
+		{
+			while (high - low > 16)
+			{
+				int middle = (low + high) >>> 1;
+				long pivotKey = keys[middle], pivotId = ids[middle];
+				int i = low, j = high;
+				while (i <= j)
+				{
+					while (compare(keys[i], ids[i], pivotKey, pivotId) < 0)
+					{
+						i++;
+					}
+					while (compare(keys[j], ids[j], pivotKey, pivotId) > 0)
+					{
+						j--;
+					}
+					if (i <= j)
+					{
+						swap(keys, ids, i++, j--);
+					}
+				}
+				// Recurse into the smaller side, loop on the larger
+				if (j - low < high - i)
+				{
+					sort(keys, ids, low, j);
+					low = i;
+				}
+				else
+				{
+					sort(keys, ids, i, high);
+					high = j;
+				}
+			}
+			for (int i = low + 1; i <= high; i++)
+			{
+				for (int j = i; j > low && compare(keys[j], ids[j], keys[j - 1], ids[j - 1]) < 0; j--)
+				{
+					swap(keys, ids, j, j - 1);
+				}
+			}
+		}
+
+		private static int compare(final long key, final long id, final long otherKey, final long otherId)
+		{
+			if (key != otherKey)
+			{
+				return key < otherKey ? -1 : 1;
+			}
+			return id < otherId ? -1 : (id == otherId ? 0 : 1);
+		}
+
+		private static void swap(final long[] keys, final long[] ids, final int i, final int j)
+		{
+			long key = keys[i];
+			keys[i] = keys[j];
+			keys[j] = key;
+			long id = ids[i];
+			ids[i] = ids[j];
+			ids[j] = id;
+		}
+	}
+
+}